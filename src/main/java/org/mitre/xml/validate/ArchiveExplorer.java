@@ -0,0 +1,247 @@
+/*
+ *  ArchiveExplorer.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.JDOMException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Iterates over the XML documents inside a gzip, tar, tar.gz or zip archive reading
+ * the entries directly from the decompressing stream so nothing is extracted to disk.
+ *
+ * Entries whose extension is one of the target extensions are returned as resources
+ * named <code>archive!/entry</code>. KMZ entries are opened as nested zip streams
+ * where the first KML entry is returned as <code>archive!/entry.kmz</code> and, if
+ * KMZ mode is enabled, the other KML entries as <code>archive!/entry.kmz/name.kml</code>.
+ *
+ * Limits on entry size, compression ratio, entry count and total size are enforced
+ * while the archive is read if {@link ArchiveLimits} are given.
+ *
+ * Since the archive is read sequentially, each resource can be read only once and
+ * must be validated before the next resource is requested.
+ *
+ * @author Jason Mathews
+ */
+public class ArchiveExplorer implements Closeable {
+
+	private final File file;
+	private final PrintStream out;
+	private final String schemaNamespace;
+	private final Set<String> extensions;
+	private final boolean kmzMode;
+	private final String systemId;
+	private final ArchiveLimits limits;
+	private final ArchiveLimits.Tracker tracker;
+	private final ArchiveLimits.CountingInputStream raw; // compressed bytes of archive
+	private ArchiveLimits.CountingInputStream kmzRaw;    // compressed bytes of KMZ entry
+
+	private InputStream in;
+	private ZipInputStream zis;     // zip archive
+	private TarInputStream tis;     // tar archive
+	private String singleEntry;     // name of compressed file in plain gzip file
+
+	private ZipInputStream kmz;     // KMZ entry currently being read
+	private String kmzName;
+	private boolean kmzRoot;
+
+	/**
+	 * Create explorer
+	 * @param out             PrintStream
+	 * @param file            archive file
+	 * @param schemaNamespace schema namespace of resources
+	 * @param extensions      lower case file extensions of entries to validate
+	 * @param kmzMode         true to return all KML entries inside KMZ entries
+	 * @param limits          limits enforced while inflating entries, may be null
+	 * @throws IOException if archive cannot be opened
+	 */
+	public ArchiveExplorer(PrintStream out, File file, String schemaNamespace,
+						   Set<String> extensions, boolean kmzMode, ArchiveLimits limits) throws IOException {
+		this.out = out;
+		this.file = file;
+		this.schemaNamespace = schemaNamespace;
+		this.extensions = extensions;
+		this.kmzMode = kmzMode;
+		this.limits = limits;
+		tracker = limits == null ? null : limits.newTracker(file.toString());
+		systemId = file.getAbsoluteFile().toURI().toString();
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		raw = new ArchiveLimits.CountingInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+		in = raw;
+		try {
+			if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+				in = new GZIPInputStream(in, 65536);
+				if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+				else name = name.substring(0, name.length() - 4) + ".tar";
+				if (!name.endsWith(".tar")) {
+					// plain gzip file (e.g. doc.kml.gz) has one entry
+					singleEntry = file.getName().substring(0, name.length());
+					return;
+				}
+			}
+			if (name.endsWith(".tar")) {
+				// limit whole decompressed stream so skipped entries are also counted
+				if (tracker != null && in != raw) in = tracker.limitTotal(in);
+				tis = new TarInputStream(in);
+			}
+			else zis = tracker == null ? new ZipInputStream(in) : tracker.newZipInputStream(raw, "");
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Check if file is an archive that can be explored by this class
+	 * @param file File
+	 * @return true if file has a .gz, .tgz, .tar or .zip extension
+	 */
+	public static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		return name.endsWith(".gz") || name.endsWith(".tgz") || name.endsWith(".tar") || name.endsWith(".zip");
+	}
+
+	/**
+	 * Get next resource in archive. Any unread content of the previous resource is skipped.
+	 * @return resource or null if no more resources in archive
+	 * @throws IOException if an I/O error occurs or archive is corrupt
+	 */
+	public Resource next() throws IOException {
+		if (in == null) return null;
+		while (true) {
+			if (kmz != null) {
+				ZipEntry entry;
+				while ((entry = kmz.getNextEntry()) != null) {
+					if (tracker != null) tracker.addEntry();
+					if (entry.isDirectory() || !entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) continue;
+					if (kmzRoot) {
+						// first KML entry is the root KML of the KMZ file
+						kmzRoot = false;
+						return new ArchiveResource(kmzName, kmz);
+					}
+					if (!kmzMode) break;
+					return new ArchiveResource(kmzName + '/' + entry.getName(), kmz);
+				}
+				kmz = null;
+			}
+			String name = nextEntry();
+			if (name == null) return null;
+			final String nameLower = name.toLowerCase(Locale.ROOT);
+			int ind = nameLower.lastIndexOf('.');
+			if (ind == -1 || !extensions.contains(nameLower.substring(ind + 1))) continue;
+			// zip entries are limited by the zip stream itself
+			InputStream entryStream = zis != null ? zis : tis != null ? limit(tis, name, raw) : limit(in, name, raw);
+			if (nameLower.endsWith(".kmz")) {
+				kmzRaw = new ArchiveLimits.CountingInputStream(new NonClosingInputStream(entryStream));
+				kmz = tracker == null ? new ZipInputStream(kmzRaw) : tracker.newZipInputStream(kmzRaw, name + '/');
+				kmzName = file + "!/" + name;
+				kmzRoot = true;
+				continue;
+			}
+			return new ArchiveResource(file + "!/" + name, entryStream);
+		}
+	}
+
+	private InputStream limit(InputStream entryStream, String name, ArchiveLimits.CountingInputStream compressed) {
+		return tracker == null ? entryStream : tracker.limit(entryStream, name, compressed, -1);
+	}
+
+	// advance to next file entry in archive
+	private String nextEntry() throws IOException {
+		if (zis != null) {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				if (tracker != null) tracker.addEntry();
+				if (!entry.isDirectory()) return entry.getName();
+			}
+			return null;
+		}
+		String name;
+		if (tis != null) {
+			name = tis.getNextEntry();
+		} else {
+			name = singleEntry;
+			singleEntry = null;
+		}
+		if (name != null && tracker != null) tracker.addEntry();
+		return name;
+	}
+
+	public void close() {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+			in = null;
+		}
+	}
+
+	/**
+	 * Stream that leaves the archive stream open when the entry is closed
+	 */
+	static class NonClosingInputStream extends FilterInputStream {
+
+		NonClosingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public void close() {
+			// entries are closed by the archive
+		}
+	}
+
+	private class ArchiveResource extends Resource {
+
+		private InputStream content;
+
+		ArchiveResource(String name, InputStream content) {
+			super(ArchiveExplorer.this.out, name, schemaNamespace);
+			this.content = content;
+			setArchiveLimits(limits);
+		}
+
+		@Override
+		public String getSource() {
+			return targetFile;
+		}
+
+		@Override
+		public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
+			if (content == null) throw new IOException("archive entry can only be read once: " + targetFile);
+			final ValidationEvents.ArchiveEntryRead event = isParseRead() ? new ValidationEvents.ArchiveEntryRead() : null;
+			if (event != null) event.begin();
+			try (InputStream is = wrap(new NonClosingInputStream(content))) {
+				return reader.read(is, systemId);
+			} finally {
+				content = null;
+				if (event != null) event.end();
+				if (event != null && event.shouldCommit()) {
+					// sizes of entries read from a stream are not known in advance
+					event.source = targetFile;
+					event.bytes = -1;
+					event.compressedBytes = -1;
+					event.commit();
+				}
+			}
+		}
+	}
+}
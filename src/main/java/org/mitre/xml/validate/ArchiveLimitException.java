@@ -0,0 +1,41 @@
+/*
+ *  ArchiveLimitException.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.IOException;
+
+/**
+ * Signals that reading an archive was aborted because it exceeded one of the
+ * {@link ArchiveLimits}.
+ *
+ * @author Jason Mathews
+ */
+public class ArchiveLimitException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String ENTRY_SIZE = "entry size";
+	public static final String RATIO = "compression ratio";
+	public static final String ENTRIES = "entry count";
+	public static final String TOTAL_SIZE = "total size";
+
+	private final String category;
+
+	public ArchiveLimitException(String category, String message) {
+		super("archive limit exceeded: " + message);
+		this.category = category;
+	}
+
+	/**
+	 * @return limit that was exceeded: one of ENTRY_SIZE, RATIO, ENTRIES or TOTAL_SIZE
+	 */
+	public String getCategory() {
+		return category;
+	}
+
+}
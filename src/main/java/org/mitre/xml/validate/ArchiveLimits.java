@@ -0,0 +1,318 @@
+/*
+ *  ArchiveLimits.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Limits on the content inflated from KMZ, zip, gzip and tar archives used to
+ * protect a validation run against decompression bombs and oversized entries.
+ *
+ * Limits are enforced on the bytes actually produced while the entry is read, not
+ * on the sizes declared in the archive headers, so an offending entry is aborted as
+ * soon as a limit is crossed with an {@link ArchiveLimitException}.
+ *
+ * @author Jason Mathews
+ */
+public class ArchiveLimits {
+
+	/**
+	 * Compression ratio is only checked once an entry has inflated this many bytes
+	 * so small highly compressible entries are not rejected.
+	 */
+	static final long RATIO_THRESHOLD = 1024 * 1024;
+
+	private long maxEntrySize = 256L * 1024 * 1024;
+	private int maxRatio = 200;
+	private int maxEntries = 10000;
+	private long maxTotalSize = 1024L * 1024 * 1024;
+
+	/**
+	 * @param maxEntrySize max uncompressed size of an entry in bytes, 0 for no limit [default=256MB]
+	 */
+	public void setMaxEntrySize(long maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+	}
+
+	public long getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	/**
+	 * @param maxRatio max ratio of uncompressed to compressed size of an entry, 0 for no limit [default=200]
+	 */
+	public void setMaxRatio(int maxRatio) {
+		this.maxRatio = maxRatio;
+	}
+
+	public int getMaxRatio() {
+		return maxRatio;
+	}
+
+	/**
+	 * @param maxEntries max number of entries in an archive, 0 for no limit [default=10000]
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxTotalSize max total uncompressed bytes read from an archive, 0 for no limit [default=1GB]
+	 */
+	public void setMaxTotalSize(long maxTotalSize) {
+		this.maxTotalSize = maxTotalSize;
+	}
+
+	public long getMaxTotalSize() {
+		return maxTotalSize;
+	}
+
+	/**
+	 * Create tracker of the entries and bytes read from one archive
+	 * @param archive name of archive used in error messages
+	 * @return Tracker
+	 */
+	public Tracker newTracker(String archive) {
+		return new Tracker(archive);
+	}
+
+	/**
+	 * Entry count and total bytes read from a single archive
+	 */
+	public final class Tracker {
+
+		private final String archive;
+		private int entries;
+		private long total;
+		private boolean containerCounted; // total counted on the decompressed archive stream
+
+		Tracker(String archive) {
+			this.archive = archive;
+		}
+
+		/**
+		 * Count entry in archive
+		 * @throws ArchiveLimitException if archive has too many entries
+		 */
+		public void addEntry() throws ArchiveLimitException {
+			if (++entries > maxEntries && maxEntries > 0)
+				throw new ArchiveLimitException(ArchiveLimitException.ENTRIES,
+						"more than " + maxEntries + " entries in " + archive);
+		}
+
+		/**
+		 * Limit stream of inflated entry content
+		 * @param in             inflated content
+		 * @param name           entry name used in error messages
+		 * @param compressed     stream of compressed bytes the entry is inflated from, may be null
+		 * @param compressedSize compressed size of entry if compressed is null, -1 if not known
+		 * @return limited stream
+		 */
+		public InputStream limit(InputStream in, String name, CountingInputStream compressed, long compressedSize) {
+			return new LimitedInputStream(in, name, compressed, compressedSize, true);
+		}
+
+		/**
+		 * Limit stream of inflated entry content that may be read more than once.
+		 * The entry size and compression ratio are checked on every read but the
+		 * bytes are added to the total size of the archive only on the read that
+		 * counts (e.g. the parse) so reading an entry again does not count it twice.
+		 * @param countTotal true to add bytes read to the total size
+		 * @see #limit(InputStream, String, CountingInputStream, long)
+		 */
+		public InputStream limit(InputStream in, String name, CountingInputStream compressed, long compressedSize,
+								 boolean countTotal) {
+			return new LimitedInputStream(in, name, compressed, compressedSize, countTotal);
+		}
+
+		/**
+		 * Limit total size of decompressed archive stream (e.g. tar inside gzip) so
+		 * bytes skipped between entries are also counted. Entries read from the
+		 * stream are then limited only by entry size and compression ratio.
+		 * @param in decompressed archive stream
+		 * @return limited stream
+		 */
+		public InputStream limitTotal(InputStream in) {
+			containerCounted = true;
+			return new FilterInputStream(in) {
+				public int read() throws IOException {
+					int c = in.read();
+					if (c != -1) addTotal(1, "offset " + total);
+					return c;
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = in.read(b, off, len);
+					if (n > 0) addTotal(n, "offset " + total);
+					return n;
+				}
+
+				public long skip(long n) throws IOException {
+					long skipped = in.skip(n);
+					if (skipped > 0) addTotal(skipped, "offset " + total);
+					return skipped;
+				}
+			};
+		}
+
+		/**
+		 * Create zip stream that limits every entry it inflates, including the entries
+		 * skipped by {@link ZipInputStream#getNextEntry()} or closeEntry() without
+		 * being read, so bytes of entries that are not validated are also counted.
+		 * Entries read from the stream need no further limit.
+		 * @param compressed stream of compressed bytes of the zip archive
+		 * @param prefix     prefix of entry names in error messages (e.g. path of nested KMZ), may be empty
+		 * @return zip stream
+		 */
+		public ZipInputStream newZipInputStream(CountingInputStream compressed, String prefix) {
+			return new LimitedZipInputStream(compressed, prefix);
+		}
+
+		private void addTotal(long n, String name) throws ArchiveLimitException {
+			total += n;
+			if (maxTotalSize > 0 && total > maxTotalSize)
+				throw new ArchiveLimitException(ArchiveLimitException.TOTAL_SIZE,
+						"more than " + maxTotalSize + " bytes inflated from " + archive + " at " + name);
+		}
+
+		// size and compression ratio of one inflated entry
+		private class EntryCount {
+
+			private final String name;
+			private final CountingInputStream compressed;
+			private final long compressedStart;
+			private final long compressedSize;
+			private final boolean countTotal;
+			private long count;
+
+			EntryCount(String name, CountingInputStream compressed, long compressedSize, boolean countTotal) {
+				this.countTotal = countTotal;
+				this.name = name;
+				this.compressed = compressed;
+				this.compressedStart = compressed == null ? 0 : compressed.getCount();
+				this.compressedSize = compressedSize;
+			}
+
+			void add(long n) throws ArchiveLimitException {
+				count += n;
+				if (maxEntrySize > 0 && count > maxEntrySize)
+					throw new ArchiveLimitException(ArchiveLimitException.ENTRY_SIZE,
+							"entry " + name + " in " + archive + " inflates to more than " + maxEntrySize + " bytes");
+				if (countTotal && !containerCounted) addTotal(n, name);
+				if (maxRatio > 0 && count >= RATIO_THRESHOLD) {
+					long size = compressed != null ? compressed.getCount() - compressedStart : compressedSize;
+					if (size >= 0 && count > maxRatio * Math.max(1, size))
+						throw new ArchiveLimitException(ArchiveLimitException.RATIO,
+								"entry " + name + " in " + archive + " exceeds compression ratio " + maxRatio);
+				}
+			}
+		}
+
+		private class LimitedInputStream extends FilterInputStream {
+
+			private final EntryCount entry;
+
+			LimitedInputStream(InputStream in, String name, CountingInputStream compressed, long compressedSize,
+							   boolean countTotal) {
+				super(in);
+				entry = new EntryCount(name, compressed, compressedSize, countTotal);
+			}
+
+			public int read() throws IOException {
+				int c = in.read();
+				if (c != -1) entry.add(1);
+				return c;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, len);
+				if (n > 0) entry.add(n);
+				return n;
+			}
+
+			public long skip(long n) throws IOException {
+				long skipped = in.skip(n);
+				if (skipped > 0) entry.add(skipped);
+				return skipped;
+			}
+		}
+
+		// ZipInputStream reads, skips and closes entries through read(byte[], int, int)
+		private class LimitedZipInputStream extends ZipInputStream {
+
+			private final CountingInputStream compressed;
+			private final String prefix;
+			private EntryCount entry;
+
+			LimitedZipInputStream(CountingInputStream compressed, String prefix) {
+				super(compressed);
+				this.compressed = compressed;
+				this.prefix = prefix;
+			}
+
+			public ZipEntry getNextEntry() throws IOException {
+				// rest of the current entry is counted while it is skipped
+				ZipEntry next = super.getNextEntry();
+				entry = next == null ? null : new EntryCount(prefix + next.getName(), compressed, -1, true);
+				return next;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0 && entry != null) entry.add(n);
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Stream that counts the bytes read from it, used to count compressed bytes consumed
+	 */
+	public static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public int read() throws IOException {
+			int c = in.read();
+			if (c != -1) count++;
+			return c;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) count += n;
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			if (skipped > 0) count += skipped;
+			return skipped;
+		}
+
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
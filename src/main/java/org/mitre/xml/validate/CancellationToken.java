@@ -0,0 +1,354 @@
+/*
+ *  CancellationToken.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cooperative cancellation token with an optional wall-clock deadline.
+ * A token is created for each Resource being validated and is checked on
+ * every read of the streams it wraps so reading, parsing and schema validation
+ * of a pathological document stop once the deadline passes. It is also checked
+ * while the document is serialized for validation and while its namespace is changed.
+ *
+ * When the deadline expires the streams registered with the token are closed by a
+ * watchdog thread so a read blocked on a slow server or stalled file system is
+ * released and the validating thread can move on to the next document.
+ *
+ * Tokens may be chained to a parent (e.g. one token for the whole run) so
+ * cancelling the parent cancels all active children.
+ *
+ * @author Jason Mathews
+ */
+public class CancellationToken {
+
+	private static ScheduledExecutorService watchdog;
+
+	private final CancellationToken parent;
+	private final long timeout;
+	private final long deadline;
+	private final Set<Closeable> streams = new HashSet<>();
+	private final Set<CancellationToken> children = new HashSet<>();
+	private ScheduledFuture<?> timer;
+
+	private volatile boolean cancelled;
+	private volatile boolean expired;
+
+	/**
+	 * Create root token with no deadline.
+	 */
+	public CancellationToken() {
+		this(null, 0);
+	}
+
+	/**
+	 * Create token with given parent and timeout.
+	 * @param parent  parent token, may be null
+	 * @param timeout wall-clock timeout in milliseconds; zero or negative for no timeout
+	 */
+	public CancellationToken(CancellationToken parent, long timeout) {
+		this.parent = parent;
+		this.timeout = timeout > 0 ? timeout : 0;
+		if (parent != null) parent.addChild(this);
+		if (this.timeout != 0) {
+			deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			timer = getWatchdog().schedule(new Runnable() {
+				public void run() {
+					expire();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} else {
+			deadline = 0;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getWatchdog() {
+		if (watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "XmlValidate-watchdog");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return watchdog;
+	}
+
+	/**
+	 * @return timeout in milliseconds, 0 if no timeout is set
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || isTimedOut() || parent != null && parent.isCancelled();
+	}
+
+	public boolean isTimedOut() {
+		if (!expired && deadline != 0 && System.nanoTime() - deadline >= 0)
+			expired = true;
+		return expired;
+	}
+
+	/**
+	 * Check if token is cancelled or has expired.
+	 * @throws ResourceTimeoutException if deadline has passed
+	 * @throws InterruptedIOException if token or any of its parents is cancelled
+	 */
+	public void check() throws InterruptedIOException {
+		if (isTimedOut())
+			throw new ResourceTimeoutException(timeout);
+		if (cancelled || parent != null && parent.isCancelled())
+			throw new InterruptedIOException("validation cancelled");
+	}
+
+	/**
+	 * Cancel this token and any child tokens, closing all registered streams.
+	 */
+	public void cancel() {
+		cancelled = true;
+		CancellationToken[] list;
+		synchronized (this) {
+			list = children.toArray(new CancellationToken[children.size()]);
+		}
+		for (CancellationToken child : list) {
+			child.cancel();
+		}
+		closeStreams();
+	}
+
+	/**
+	 * Release resources held by this token. Called once validation of
+	 * associated resource completes.
+	 */
+	public void release() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		synchronized (this) {
+			streams.clear();
+		}
+		if (parent != null) parent.removeChild(this);
+	}
+
+	private void expire() {
+		expired = true;
+		closeStreams();
+	}
+
+	private void closeStreams() {
+		Closeable[] list;
+		synchronized (this) {
+			list = streams.toArray(new Closeable[streams.size()]);
+			streams.clear();
+		}
+		for (Closeable c : list) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private synchronized void addChild(CancellationToken child) {
+		children.add(child);
+	}
+
+	private synchronized void removeChild(CancellationToken child) {
+		children.remove(child);
+	}
+
+	private synchronized void register(Closeable c) {
+		streams.add(c);
+	}
+
+	private synchronized void unregister(Closeable c) {
+		streams.remove(c);
+	}
+
+	/**
+	 * Wrap input stream such that each read checks this token.
+	 * @param in InputStream
+	 * @return wrapped stream
+	 */
+	public InputStream wrap(InputStream in) {
+		return new CancellableInputStream(in);
+	}
+
+	/**
+	 * Wrap reader such that each read checks this token.
+	 * @param in Reader
+	 * @return wrapped reader
+	 */
+	public Reader wrap(Reader in) {
+		return new CancellableReader(in);
+	}
+
+	/**
+	 * Wrap writer such that each write checks this token.
+	 * @param out Writer
+	 * @return wrapped writer
+	 */
+	public Writer wrap(Writer out) {
+		return new CancellableWriter(out);
+	}
+
+	/**
+	 * Disconnect connection when this token is cancelled or expires so connecting
+	 * or reading the response headers from a slow server is released the same as
+	 * a read of a wrapped stream. Called before the connection is connected.
+	 * @param conn connection, only HTTP connections are disconnected
+	 * @throws ResourceTimeoutException if deadline has passed
+	 * @throws InterruptedIOException if token or any of its parents is cancelled
+	 */
+	public void disconnectOnCancel(URLConnection conn) throws InterruptedIOException {
+		if (conn instanceof HttpURLConnection) {
+			final HttpURLConnection http = (HttpURLConnection) conn;
+			register(new Closeable() {
+				public void close() {
+					http.disconnect();
+				}
+			});
+		}
+		// deadline may have passed before the connection was registered
+		check();
+	}
+
+	/**
+	 * If an I/O operation failed because the watchdog closed its stream or
+	 * connection then report the cancellation instead.
+	 * @param e exception of failed operation
+	 * @return exception to throw
+	 */
+	IOException translate(IOException e) {
+		if (isCancelled()) {
+			try {
+				check();
+			} catch (InterruptedIOException ie) {
+				return ie;
+			}
+		}
+		return e;
+	}
+
+	private class CancellableInputStream extends FilterInputStream {
+
+		CancellableInputStream(InputStream in) {
+			super(in);
+			register(in);
+		}
+
+		public int read() throws IOException {
+			check();
+			try {
+				return in.read();
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			check();
+			try {
+				return in.read(b, off, len);
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		public long skip(long n) throws IOException {
+			check();
+			try {
+				return in.skip(n);
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		public void close() throws IOException {
+			unregister(in);
+			in.close();
+		}
+	}
+
+	private class CancellableReader extends FilterReader {
+
+		CancellableReader(Reader in) {
+			super(in);
+			register(in);
+		}
+
+		public int read() throws IOException {
+			check();
+			try {
+				return in.read();
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			check();
+			try {
+				return in.read(cbuf, off, len);
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		public void close() throws IOException {
+			unregister(in);
+			in.close();
+		}
+	}
+
+	// writes to memory only so no stream is registered to be closed
+	private class CancellableWriter extends FilterWriter {
+
+		CancellableWriter(Writer out) {
+			super(out);
+		}
+
+		public void write(int c) throws IOException {
+			check();
+			out.write(c);
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			check();
+			out.write(cbuf, off, len);
+		}
+
+		public void write(String str, int off, int len) throws IOException {
+			check();
+			out.write(str, off, len);
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ *  CompactJDOMFactory.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.Attribute;
+import org.jdom2.AttributeType;
+import org.jdom2.CDATA;
+import org.jdom2.Content;
+import org.jdom2.DefaultJDOMFactory;
+import org.jdom2.DocType;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.Parent;
+import org.jdom2.Text;
+import org.jdom2.located.LocatedElement;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JDOM factory of the non-validating builder that builds a smaller tree of the
+ * same document. The tree of a large KML document takes several times the file
+ * size in heap, much of it in whitespace used to indent elements and in the same
+ * short values (e.g. <code>1</code>, <code>clampToGround</code>, <code>#style</code>)
+ * repeated for each element.
+ *
+ * <ul>
+ * <li>Whitespace-only text next to a child element (the indentation between
+ *     elements) is not added to the tree. Whitespace that is the only content of
+ *     an element or inside an element with xml:space="preserve" is kept, so the
+ *     serialized content and any validation of the tree are unchanged.
+ * <li>Element and attribute names, attribute values and text up to
+ *     {@link #MAX_SHARED_LENGTH} characters share one String per value.
+ *     Namespaces are already shared by JDOM.
+ * </ul>
+ *
+ * If located is set, elements are built as {@link LocatedElement} with the line
+ * and column at which they end in the source so errors found validating the tree
+ * (e.g. with target schemas) can be reported at their position.
+ *
+ * A factory is used by one builder and the builder by one thread at a time.
+ *
+ * @author Jason Mathews
+ */
+class CompactJDOMFactory extends DefaultJDOMFactory {
+
+	/** Longest name or value shared, longer values (e.g. coordinates) rarely repeat */
+	static final int MAX_SHARED_LENGTH = 32;
+
+	/** Max number of shared values kept, all are dropped when it is reached */
+	static final int MAX_SHARED = 8192;
+
+	private final Map<String, String> shared = new HashMap<>();
+
+	private boolean preserveSpace; // document has an xml:space attribute
+	private boolean located;
+
+	/**
+	 * @param located true to build elements with their line and column in the source
+	 */
+	void setLocated(boolean located) {
+		this.located = located;
+	}
+
+	@Override
+	public Document document(Element rootElement, DocType docType, String baseURI) {
+		preserveSpace = false;
+		return super.document(rootElement, docType, baseURI);
+	}
+
+	@Override
+	public Document document(Element rootElement, DocType docType) {
+		preserveSpace = false;
+		return super.document(rootElement, docType);
+	}
+
+	@Override
+	public Document document(Element rootElement) {
+		preserveSpace = false;
+		return super.document(rootElement);
+	}
+
+	@Override
+	public Element element(int line, int col, String name, Namespace namespace) {
+		if (located) return locate(new LocatedElement(share(name), namespace), line, col);
+		return super.element(line, col, share(name), namespace);
+	}
+
+	@Override
+	public Element element(int line, int col, String name) {
+		if (located) return locate(new LocatedElement(share(name)), line, col);
+		return super.element(line, col, share(name));
+	}
+
+	private static Element locate(LocatedElement element, int line, int col) {
+		element.setLine(line);
+		element.setColumn(col);
+		return element;
+	}
+
+	@Override
+	public Attribute attribute(String name, String value, AttributeType type, Namespace namespace) {
+		if (isSpace(name, namespace)) preserveSpace = true;
+		return super.attribute(share(name), share(value), type, namespace);
+	}
+
+	@Override
+	public Attribute attribute(String name, String value, Namespace namespace) {
+		if (isSpace(name, namespace)) preserveSpace = true;
+		return super.attribute(share(name), share(value), namespace);
+	}
+
+	// xml prefix is always bound to the XML namespace
+	private static boolean isSpace(String name, Namespace namespace) {
+		return "space".equals(name) && namespace != null && "xml".equals(namespace.getPrefix());
+	}
+
+	@Override
+	public Text text(int line, int col, String str) {
+		return super.text(line, col, share(str));
+	}
+
+	@Override
+	public void addContent(Parent parent, Content child) {
+		if (parent instanceof Element) {
+			final int size = parent.getContentSize();
+			if (child instanceof Element) {
+				// indentation before first or next child element
+				if (size != 0 && isBoundary(parent, parent.getContent(size - 1))) {
+					parent.removeContent(size - 1);
+				}
+			} else if (size != 0 && parent.getContent(size - 1) instanceof Element
+					&& isBoundary(parent, child)) {
+				// indentation after child element
+				return;
+			}
+		}
+		super.addContent(parent, child);
+	}
+
+	/**
+	 * @return true if content is whitespace-only text that can be dropped from parent
+	 */
+	private boolean isBoundary(Parent parent, Content content) {
+		if (!(content instanceof Text) || content instanceof CDATA) return false;
+		final String text = ((Text) content).getText();
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c != ' ' && c != '\n' && c != '\t' && c != '\r') return false;
+		}
+		return !preserveSpace || !isPreserved((Element) parent);
+	}
+
+	// xml:space applies to element and its descendants unless overridden
+	private static boolean isPreserved(Element element) {
+		for (; element != null; element = element.getParentElement()) {
+			final String space = element.getAttributeValue("space", Namespace.XML_NAMESPACE);
+			if (space != null) return "preserve".equals(space);
+		}
+		return false;
+	}
+
+	/**
+	 * @return same String instance for all equal short values
+	 */
+	String share(String value) {
+		if (value == null || value.length() > MAX_SHARED_LENGTH) return value;
+		final String s = shared.get(value);
+		if (s != null) return s;
+		if (shared.size() == MAX_SHARED) shared.clear();
+		shared.put(value, value);
+		return value;
+	}
+}
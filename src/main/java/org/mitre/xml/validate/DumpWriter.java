@@ -0,0 +1,149 @@
+/*
+ *  DumpWriter.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Writes reformatted documents to dump files in a target directory on a
+ * background thread so dumping does not hold up validation. At most a fixed
+ * number of dumps are queued; if the queue is full the caller writes the dump
+ * itself which limits the memory held by pending dumps.
+ *
+ * @author Jason Mathews
+ */
+class DumpWriter {
+
+	private static final int MAX_PENDING = 16;
+
+	/** Time in seconds an idle writer thread is kept before it ends */
+	private static final int KEEP_ALIVE = 5;
+
+	private final File dir;
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * Create writer
+	 * @param dir target directory, created if it does not exist
+	 */
+	DumpWriter(File dir) {
+		this.dir = dir;
+		executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "XmlValidate-dump");
+						t.setDaemon(true);
+						return t;
+					}
+				},
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		// writer that is dropped without shutdown does not leave a thread behind
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	File getDir() {
+		return dir;
+	}
+
+	/**
+	 * Queue dump of content
+	 * @param source  source name of document used to name dump file
+	 * @param content reformatted document
+	 * @param limit   max number of characters to write, 0 for no limit
+	 * @return dump file
+	 */
+	File dump(String source, final String content, int limit) {
+		final File file = new File(dir, getFileName(source));
+		final int len = limit > 0 ? Math.min(limit, content.length()) : content.length();
+		pending.incrementAndGet();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					write(file, content, len);
+				} finally {
+					synchronized (pending) {
+						pending.decrementAndGet();
+						pending.notifyAll();
+					}
+				}
+			}
+		});
+		return file;
+	}
+
+	/**
+	 * Wait until all queued dumps are written.
+	 */
+	void flush() {
+		synchronized (pending) {
+			while (pending.get() != 0) {
+				try {
+					pending.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait until all queued dumps are written then stop the writer thread.
+	 * No dumps may be queued after shutdown.
+	 */
+	void shutdown() {
+		flush();
+		executor.shutdown();
+	}
+
+	private static void write(File file, String content, int len) {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			System.err.println("WARN: failed to create dump directory " + parent);
+			return;
+		}
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			w.write(content, 0, len);
+			if (len < content.length()) w.write("...");
+		} catch (IOException e) {
+			System.err.println("WARN: failed to write dump " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Map source name (file path, URL or archive entry) to a flat file name.
+	 * A hash of the source name is appended since different names may map to
+	 * the same flat name (e.g. a/b.kml and a_b.kml).
+	 */
+	static String getFileName(String source) {
+		StringBuilder sb = new StringBuilder(source.length() + 4);
+		for (int i = 0; i < source.length(); i++) {
+			char c = source.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+		}
+		// skip leading separators of absolute paths
+		int start = 0;
+		while (start < sb.length() - 1 && sb.charAt(start) == '_') start++;
+		CRC32 crc = new CRC32();
+		crc.update(source.getBytes(StandardCharsets.UTF_8));
+		return String.format("%s-%08x.dump", sb.substring(start), crc.getValue());
+	}
+}
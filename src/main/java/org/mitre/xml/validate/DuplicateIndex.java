@@ -0,0 +1,270 @@
+/*
+ *  DuplicateIndex.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Index of validation results by content hash used to skip byte-identical
+ * copies of a document within a validation run.
+ *
+ * The content of each document is hashed (SHA-256 and CRC-32) as it is read for the
+ * full parse. Before a later document is parsed its size and, for zip entries, the
+ * CRC-32 from the zip directory are checked against the documents already seen. Only
+ * if these match is the content hashed and, if the hash matches, the recorded result
+ * of the first copy replayed instead of parsing and validating the document again.
+ *
+ * Results are keyed only by content so documents whose validation depends on their
+ * location (e.g. relative xsi:schemaLocation references) are treated as the same.
+ *
+ * An index may be shared by any number of XmlValidate instances on any number of threads.
+ *
+ * @author Jason Mathews
+ */
+public class DuplicateIndex {
+
+	/**
+	 * Reader that consumes the whole content of a resource and returns its digest
+	 */
+	static final Resource.InputReader<ContentDigest> HASHER = new Resource.InputReader<ContentDigest>() {
+		public ContentDigest read(InputStream in, String systemId) throws IOException {
+			ContentDigest digest = new ContentDigest();
+			InputStream is = digest.wrap(in);
+			byte[] buf = new byte[8192];
+			//noinspection StatementWithEmptyBody
+			while (is.read(buf) != -1) {
+				// digest content
+			}
+			return digest;
+		}
+	};
+
+	private final Set<Long> lengths = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	private final Set<String> crcKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentMap<String, Result> results = new ConcurrentHashMap<>();
+
+	private final AtomicInteger duplicates = new AtomicInteger();
+	private final AtomicLong bytesSkipped = new AtomicLong();
+
+	/**
+	 * Check if a document with given size and CRC-32 may have been seen before.
+	 * @param length content length in bytes
+	 * @param crc    CRC-32 of content or -1 if not known
+	 * @return true if content must be hashed to check for a duplicate
+	 */
+	public boolean mayContain(long length, long crc) {
+		return crc >= 0 ? crcKeys.contains(length + ":" + crc) : lengths.contains(length);
+	}
+
+	/**
+	 * Get recorded result of a document
+	 * @param hash hex SHA-256 hash of content
+	 * @return result or null if no document with the same content was recorded
+	 */
+	public Result get(String hash) {
+		return results.get(hash);
+	}
+
+	/**
+	 * Record result of the first copy of a document
+	 * @param digest digest of the whole content of the document
+	 * @param result validation result
+	 */
+	public void put(ContentDigest digest, Result result) {
+		if (results.putIfAbsent(digest.getHash(), result) == null) {
+			lengths.add(digest.getCount());
+			crcKeys.add(digest.getCount() + ":" + digest.getCrc());
+		}
+	}
+
+	/**
+	 * Count a duplicate whose result was reused
+	 * @param length content length in bytes
+	 */
+	public void addDuplicate(long length) {
+		duplicates.incrementAndGet();
+		bytesSkipped.addAndGet(length);
+	}
+
+	/**
+	 * @return number of documents whose result was reused
+	 */
+	public int getDuplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * @return number of bytes in duplicate documents that were not parsed or validated
+	 */
+	public long getBytesSkipped() {
+		return bytesSkipped.get();
+	}
+
+	/**
+	 * SHA-256 hash, CRC-32 and length of content computed while it is read.
+	 */
+	public static final class ContentDigest {
+
+		private final MessageDigest md;
+		private final CRC32 crc = new CRC32();
+		private long count;
+
+		ContentDigest() {
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform must support SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Wrap input stream such that all bytes read are added to the digest
+		 * @param in InputStream
+		 * @return wrapped stream
+		 */
+		InputStream wrap(InputStream in) {
+			return new FilterInputStream(in) {
+				public int read() throws IOException {
+					int c = in.read();
+					if (c != -1) {
+						md.update((byte) c);
+						crc.update(c);
+						count++;
+					}
+					return c;
+				}
+
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = in.read(b, off, len);
+					if (n > 0) {
+						md.update(b, off, n);
+						crc.update(b, off, n);
+						count += n;
+					}
+					return n;
+				}
+
+				public long skip(long n) throws IOException {
+					// skipped bytes must be added to the digest
+					byte[] buf = new byte[(int) Math.min(n, 8192)];
+					int len = n > 0 ? read(buf, 0, buf.length) : 0;
+					return len > 0 ? len : 0;
+				}
+
+				public boolean markSupported() {
+					return false;
+				}
+			};
+		}
+
+		/**
+		 * @return number of bytes read
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		public long getCrc() {
+			return crc.getValue();
+		}
+
+		/**
+		 * @return hex encoded SHA-256 hash of the content read so far
+		 */
+		public String getHash() {
+			byte[] hash;
+			try {
+				// clone digest so hash can be computed more than once
+				hash = ((MessageDigest) md.clone()).digest();
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+			return toHex(hash);
+		}
+	}
+
+	static String toHex(byte[] hash) {
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Validation result of the first copy of a document: summary keys and errors
+	 * in the order they were added and the error and warning counts.
+	 */
+	public static final class Result {
+
+		final String source;
+		final List<Event> events = new ArrayList<>();
+		int errors;
+		int warnings;
+		boolean valid;
+		boolean validated;
+
+		Result(String source) {
+			this.source = source;
+		}
+
+		void add(int type, String key) {
+			events.add(new Event(type, key));
+		}
+
+		/**
+		 * @return source of the first copy of the document
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		public int getErrors() {
+			return errors;
+		}
+
+		public int getWarnings() {
+			return warnings;
+		}
+	}
+
+	/**
+	 * Summary update recorded for the first copy of a document
+	 */
+	static final class Event {
+
+		/** summary key not associated with the resource */
+		static final int STATUS = 0;
+		/** summary key of the resource */
+		static final int STATUS_RESOURCE = 1;
+		/** error added to error map for the resource */
+		static final int ERROR = 2;
+
+		final int type;
+		final String key;
+
+		Event(int type, String key) {
+			this.type = type;
+			this.key = key;
+		}
+	}
+}
@@ -7,14 +7,15 @@
  */
 package org.mitre.xml.validate;
 
-import org.jdom2.Document;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.util.Locale;
 import java.util.zip.ZipException;
@@ -24,8 +25,8 @@ import java.util.Enumeration;
 import java.util.zip.ZipInputStream;
 
 /**
- * File resource that implements building a JDOM Document instance
- * from a file reference.
+ * File resource that implements reading the content of a file
+ * and building a JDOM Document instance from a file reference.
  * 
  * @author Jason Mathews
  * Date: Feb 13, 2009 7:17:23 PM
@@ -34,21 +35,42 @@ public class FileResource extends Resource {
     
     private final File file;
 	private boolean isKmzFile;
+	private boolean warned; // zip fallback warnings are reported on the first read only
+	private byte[] content; // content of file if already read into memory
+	private int contentLength;
 
 	public FileResource(PrintStream out, File file, String schemaNamespace) {
         super(out, file.toString(), schemaNamespace);
         this.file = file;
     }
 
-    public Document getDocument(SAXBuilder builder) throws JDOMException, IOException {
-        if (doc == null) doc = buildDocument(builder);
-        return doc;
-    }
-
     public String getSource() {
         return file.toString();
     }
 
+	/**
+	 * Set content of file already read into memory (e.g. by read-ahead) so the
+	 * file is not read again. Buffer must not be modified while resource is used.
+	 * @param content buffer with file content
+	 * @param length  number of bytes of content in buffer
+	 */
+	void setContent(byte[] content, int length) {
+		this.content = content;
+		this.contentLength = length;
+	}
+
+    @Override
+    public boolean isReopenable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        // content of KMZ file is the KML entry not the file itself
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".kmz")) return -1;
+        return content != null ? contentLength : file.length();
+    }
+
     public File getFile() {
         return file;
     }
@@ -57,11 +79,11 @@ public class FileResource extends Resource {
         return isKmzFile;
    }
 
-    private Document buildDocument(SAXBuilder builder) throws JDOMException, IOException {
+    public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
 		// if KMZ file has .kml extension then out of luck - it will fail to parse
 		// KMZ files must have .kmz extension - case doesn't matter
         if (!file.getName().toLowerCase(Locale.ROOT).endsWith(".kmz")) {
-            return builder.build(file);
+            return readFile(reader);
         }
         // otherwise try finding KML in compressed KMZ file
         // NOTE: only the first "root" KML file is fetched. Supporting KML files will not be validated here.
@@ -70,9 +92,11 @@ public class FileResource extends Resource {
 			ZipFile zf = new ZipFile(file)
 		) {
 			// attempt #1: try to find the root kml file
+			final ArchiveLimits.Tracker tracker = newTracker();
 			Enumeration<? extends ZipEntry> e = zf.entries();
 			while (e.hasMoreElements()) {
 				ZipEntry entry = e.nextElement();
+				if (tracker != null) tracker.addEntry();
 				//   Simply find first kml file in the archive
 				//
 				//   Note that KML documentation loosely defines that it takes first root-level KML file
@@ -83,8 +107,10 @@ public class FileResource extends Resource {
 				//   backtrack in stream to first KML if no root-level KML is found.
 				if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) {
 					isKmzFile = true;
-					return builder.build(zf.getInputStream(entry),
-							file.getAbsoluteFile().toURI().toString());
+					try (InputStream is = wrap(limit(tracker, zf.getInputStream(entry), entry.getName(),
+							null, entry.getCompressedSize()))) {
+						return reader.read(is, file.getAbsoluteFile().toURI().toString());
+					}
 				}
 			}
 
@@ -97,20 +123,28 @@ public class FileResource extends Resource {
 			// file had invalid timestamps in the zip entry header
 			ZipInputStream zis = null;
 			try {
-				zis = new ZipInputStream(new FileInputStream(file));
+				final ArchiveLimits.Tracker tracker = newTracker();
+				final ArchiveLimits.CountingInputStream raw = new ArchiveLimits.CountingInputStream(new FileInputStream(file));
+				zis = newZipInputStream(tracker, raw);
 				ZipEntry entry;
 				while ((entry = zis.getNextEntry()) != null) {
+					if (tracker != null) tracker.addEntry();
 					if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) {
-						printFile();
-						String msg = ze.toString();// e.g. java.util.zip.ZipException: error in opening zip file
-						out.println("WARN: ZipFile failed [retry using ZipInputStream]: " + msg);
-						stats.add("WARN: " + msg);
-						warnings++;
+						if (!warned) {
+							printFile();
+							String msg = ze.toString();// e.g. java.util.zip.ZipException: error in opening zip file
+							out.println("WARN: ZipFile failed [retry using ZipInputStream]: " + msg);
+							stats.add("WARN: " + msg);
+							warnings++;
+							warned = true;
+						}
 						isKmzFile = true;
-						return builder.build(zis,
+						return reader.read(wrap(zis),
 								file.getAbsoluteFile().toURI().toString());
 					}
 				}
+			} catch(InterruptedIOException | ArchiveLimitException ioe) {
+				throw ioe; // timed out, cancelled or limit exceeded
 			} catch(IOException ioe) {
 				// ignore ZipInputStream exceptions and throw original exception if next attempt also fails
 			}
@@ -135,15 +169,20 @@ public class FileResource extends Resource {
 				// KMZ/ZIP header start with bytes: PK\0x3\0x4
 				if (hdr != 0x504B) {
 					// try as KML (XML) file
-					Document doc = builder.build(file);
-					final String msg = "WARN: " + ze; // e.g. java.util.zip.ZipException: error in opening zip file
-					stats.add(msg);
-					printFile();
-					out.println(msg);
-					out.println("WARN: KMZ file is invalid/mislabeled. Retry as KML");
-					warnings++;
-					return doc;
+					T result = readFile(reader);
+					if (!warned) {
+						final String msg = "WARN: " + ze; // e.g. java.util.zip.ZipException: error in opening zip file
+						stats.add(msg);
+						printFile();
+						out.println(msg);
+						out.println("WARN: KMZ file is invalid/mislabeled. Retry as KML");
+						warnings++;
+						warned = true;
+					}
+					return result;
 				}
+			} catch(InterruptedIOException e) {
+				throw e; // timed out or cancelled
 			} catch(Exception e) {
 				// ignore retry exception and allow ZipException to be rethrown
 			}
@@ -152,4 +191,11 @@ public class FileResource extends Resource {
 		}
 	}
 
+	private <T> T readFile(InputReader<T> reader) throws JDOMException, IOException {
+		try (InputStream is = wrap(content != null ? new ByteArrayInputStream(content, 0, contentLength)
+				: new FileInputStream(file))) {
+			return reader.read(is, file.getAbsoluteFile().toURI().toString());
+		}
+	}
+
 }
@@ -0,0 +1,398 @@
+/*
+ *  HttpCache.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of HTTP responses used by {@link UrlResource}.
+ *
+ * The body of each response is stored along with its ETag and Last-Modified headers.
+ * Later requests for the same URL are sent as conditional requests and a 304 Not Modified
+ * response is served from the cache. The validation results of a cached body are stored
+ * with it so an unchanged URL costs one round-trip and no parse.
+ *
+ * The total size of cached bodies is limited by evicting least recently used entries.
+ * Only http and https URLs are cached.
+ *
+ * @author Jason Mathews
+ */
+public class HttpCache {
+
+	/**
+	 * Default max total size of cached bodies
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private static final String BODY_SUFFIX = ".body";
+	private static final String META_SUFFIX = ".meta";
+	private static final String RESULT_PREFIX = "result.";
+
+	private final File dir;
+	private final long maxBytes;
+
+	// key -> body size in least recently used order
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger notModified = new AtomicInteger();
+	private final AtomicInteger resultHits = new AtomicInteger();
+
+	/**
+	 * Create cache in directory with default size limit
+	 * @param dir cache directory, created if it does not exist
+	 * @throws IOException if directory cannot be created
+	 */
+	public HttpCache(File dir) throws IOException {
+		this(dir, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Create cache in directory
+	 * @param dir      cache directory, created if it does not exist
+	 * @param maxBytes max total size of cached bodies
+	 * @throws IOException if directory cannot be created
+	 */
+	public HttpCache(File dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("failed to create cache directory " + dir);
+		load();
+	}
+
+	// load index of cached entries ordered by last access time
+	private void load() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		List<File> bodies = new ArrayList<>();
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(BODY_SUFFIX)) {
+				if (new File(dir, name.substring(0, name.length() - BODY_SUFFIX.length()) + META_SUFFIX).isFile())
+					bodies.add(f);
+				else if (!f.delete()) System.err.println("WARN: failed to delete " + f);
+			}
+		}
+		File[] sorted = bodies.toArray(new File[bodies.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File f : sorted) {
+			String name = f.getName();
+			long size = f.length();
+			index.put(name.substring(0, name.length() - BODY_SUFFIX.length()), size);
+			totalBytes += size;
+		}
+	}
+
+	/**
+	 * @return number of requests sent
+	 */
+	public int getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of 304 Not Modified responses served from cache
+	 */
+	public int getNotModified() {
+		return notModified.get();
+	}
+
+	/**
+	 * @return number of validation results reused from cache
+	 */
+	public int getResultHits() {
+		return resultHits.get();
+	}
+
+	/**
+	 * @return total size of cached bodies
+	 */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+
+	/**
+	 * Fetch URL sending a conditional request if a response is cached.
+	 *
+	 * @param url   URL
+	 * @param token CancellationToken, may be null
+	 * @return cached response or null if URL is not an http or https URL
+	 * @throws IOException if request fails
+	 */
+	public Entry fetch(URL url, CancellationToken token) throws IOException {
+		String protocol = url.getProtocol();
+		if (!"http".equals(protocol) && !"https".equals(protocol)) return null;
+		final String key = hash(url.toExternalForm());
+		final File body = new File(dir, key + BODY_SUFFIX);
+		final File meta = new File(dir, key + META_SUFFIX);
+		Properties props = null;
+		synchronized (this) {
+			if (index.get(key) != null) props = loadMeta(meta);
+		}
+
+		requests.incrementAndGet();
+		URLConnection conn = url.openConnection();
+		if (token != null) {
+			int timeout = (int) Math.min(Integer.MAX_VALUE, token.getTimeout());
+			if (timeout > 0) {
+				conn.setConnectTimeout(timeout);
+				conn.setReadTimeout(timeout);
+			}
+			// response headers that trickle in are ended once the deadline passes
+			token.disconnectOnCancel(conn);
+		}
+		if (props != null) {
+			String etag = props.getProperty("etag");
+			if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+			String lastModified = props.getProperty("lastModified");
+			if (lastModified != null) conn.setRequestProperty("If-Modified-Since", lastModified);
+		}
+		try {
+			conn.connect();
+			if (props != null && conn instanceof HttpURLConnection
+					&& ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				((HttpURLConnection) conn).disconnect();
+				notModified.incrementAndGet();
+				synchronized (this) {
+					index.get(key); // mark as most recently used
+				}
+				if (!body.setLastModified(System.currentTimeMillis()) && !body.isFile()) {
+					throw new IOException("cached body removed: " + body);
+				}
+				return new Entry(key, body, props, true);
+			}
+
+			// download body to temp file then move into place
+			File temp = File.createTempFile(key, ".tmp", dir);
+			try {
+				try (InputStream in = token == null ? conn.getInputStream() : token.wrap(conn.getInputStream());
+					 OutputStream out = new FileOutputStream(temp)) {
+					byte[] buf = new byte[8192];
+					int len;
+					while ((len = in.read(buf)) != -1) {
+						out.write(buf, 0, len);
+					}
+				}
+				props = new Properties();
+				props.setProperty("url", url.toExternalForm());
+				setProperty(props, "etag", conn.getHeaderField("ETag"));
+				setProperty(props, "lastModified", conn.getHeaderField("Last-Modified"));
+				setProperty(props, "contentType", conn.getContentType());
+				synchronized (this) {
+					remove(key);
+					Files.move(temp.toPath(), body.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					saveMeta(meta, props);
+					long size = body.length();
+					index.put(key, size);
+					totalBytes += size;
+					evict(key);
+				}
+			} finally {
+				if (temp.exists() && !temp.delete()) System.err.println("WARN: failed to delete " + temp);
+			}
+			return new Entry(key, body, props, false);
+		} catch (IOException e) {
+			// connection is disconnected once the deadline passes
+			throw token == null ? e : token.translate(e);
+		}
+	}
+
+	// remove least recently used entries until cache is within size limit
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			if (e.getKey().equals(keep)) continue;
+			it.remove();
+			totalBytes -= e.getValue();
+			delete(e.getKey());
+		}
+	}
+
+	private void remove(String key) {
+		Long size = index.remove(key);
+		if (size != null) totalBytes -= size;
+		delete(key);
+	}
+
+	private void delete(String key) {
+		File body = new File(dir, key + BODY_SUFFIX);
+		File meta = new File(dir, key + META_SUFFIX);
+		if (meta.exists() && !meta.delete()) System.err.println("WARN: failed to delete " + meta);
+		if (body.exists() && !body.delete()) System.err.println("WARN: failed to delete " + body);
+	}
+
+	private static void setProperty(Properties props, String key, String value) {
+		if (value != null) props.setProperty(key, value);
+	}
+
+	private static Properties loadMeta(File meta) {
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(meta)) {
+			props.load(in);
+		} catch (IOException e) {
+			return null;
+		}
+		return props;
+	}
+
+	private static void saveMeta(File meta, Properties props) throws IOException {
+		File temp = new File(meta.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(temp)) {
+			props.store(out, null);
+		}
+		Files.move(temp.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Get hex encoded SHA-256 hash of a string
+	 * @param s String
+	 * @return hash
+	 */
+	static String hash(String s) {
+		try {
+			return DuplicateIndex.toHex(MessageDigest.getInstance("SHA-256").digest(s.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			// every Java platform must support SHA-256 and UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Cached response of a URL
+	 */
+	public final class Entry {
+
+		private final String key;
+		private final File body;
+		private final Properties props;
+		private final boolean notModified;
+
+		Entry(String key, File body, Properties props, boolean notModified) {
+			this.key = key;
+			this.body = body;
+			this.props = props;
+			this.notModified = notModified;
+		}
+
+		/**
+		 * @return true if response was 304 Not Modified and body is served from cache
+		 */
+		public boolean isNotModified() {
+			return notModified;
+		}
+
+		public String getContentType() {
+			return props.getProperty("contentType");
+		}
+
+		/**
+		 * @return stream of cached body
+		 * @throws IOException if an I/O error occurs
+		 */
+		public InputStream open() throws IOException {
+			return new FileInputStream(body);
+		}
+
+		/**
+		 * Get validation result stored with the cached body
+		 * @param config key of validation configuration
+		 * @return result or null if body was not validated with the given configuration
+		 */
+		DuplicateIndex.Result getResult(String config) {
+			final String prefix = RESULT_PREFIX + config + '.';
+			String counts = props.getProperty(prefix + "counts");
+			if (counts == null) return null;
+			String[] parts = counts.split(",");
+			if (parts.length != 4) return null;
+			DuplicateIndex.Result result = new DuplicateIndex.Result(props.getProperty(prefix + "source"));
+			try {
+				result.errors = Integer.parseInt(parts[0]);
+				result.warnings = Integer.parseInt(parts[1]);
+				result.valid = Boolean.parseBoolean(parts[2]);
+				result.validated = Boolean.parseBoolean(parts[3]);
+				for (int i = 0; ; i++) {
+					String event = props.getProperty(prefix + i);
+					if (event == null) break;
+					int ind = event.indexOf(':');
+					result.add(Integer.parseInt(event.substring(0, ind)), event.substring(ind + 1));
+				}
+			} catch (RuntimeException e) {
+				return null;
+			}
+			resultHits.incrementAndGet();
+			return result;
+		}
+
+		/**
+		 * Store validation result with the cached body
+		 * @param config key of validation configuration
+		 * @param result validation result
+		 */
+		void putResult(String config, DuplicateIndex.Result result) {
+			final String prefix = RESULT_PREFIX + config + '.';
+			Map<String, String> values = new HashMap<>();
+			values.put(prefix + "counts", result.errors + "," + result.warnings + ","
+					+ result.valid + "," + result.validated);
+			values.put(prefix + "source", result.getSource());
+			int i = 0;
+			for (DuplicateIndex.Event e : result.events) {
+				values.put(prefix + i++, e.type + ":" + e.key);
+			}
+			synchronized (HttpCache.this) {
+				// entry may have been evicted or replaced by another download
+				if (index.get(key) == null || !body.isFile()) return;
+				Properties current = loadMeta(new File(dir, key + META_SUFFIX));
+				if (current == null || !same(current, props, "etag") || !same(current, props, "lastModified")) return;
+				for (Iterator<Object> it = current.keySet().iterator(); it.hasNext(); ) {
+					if (it.next().toString().startsWith(prefix)) it.remove();
+				}
+				current.putAll(values);
+				try {
+					saveMeta(new File(dir, key + META_SUFFIX), current);
+				} catch (IOException e) {
+					System.err.println("WARN: failed to save cache entry " + key + ": " + e);
+				}
+			}
+		}
+	}
+
+	private static boolean same(Properties a, Properties b, String key) {
+		String value = a.getProperty(key);
+		return value == null ? b.getProperty(key) == null : value.equals(b.getProperty(key));
+	}
+}
@@ -7,9 +7,7 @@
  */
 package org.mitre.xml.validate;
 
-import org.jdom2.Document;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 
 import java.io.Closeable;
 import java.io.File;
@@ -33,24 +31,46 @@ public class KmzExplorer implements Closeable {
 	private final ErrorStatus status;
 	private ZipFile zf;
 	private final Enumeration<? extends ZipEntry> e;
+	private final ArchiveLimits limits;
+	private final ArchiveLimits.Tracker tracker;
 
 	public KmzExplorer(PrintStream out, File file, String schemaNamespace, ErrorStatus status) throws IOException {
+		this(out, file, schemaNamespace, status, null);
+	}
+
+	/**
+	 * Create explorer of KML entries in KMZ file
+	 * @param limits limits enforced while inflating entries, may be null
+	 * @throws ArchiveLimitException if KMZ file has too many entries
+	 * @throws IOException if KMZ file cannot be opened
+	 */
+	public KmzExplorer(PrintStream out, File file, String schemaNamespace, ErrorStatus status,
+					   ArchiveLimits limits) throws IOException {
 		this.out = out;
 		this.file = file;
 		this.schemaNamespace = schemaNamespace;
 		this.status = status;
+		this.limits = limits;
+		tracker = limits == null ? null : limits.newTracker(file.toString());
 		zf = new ZipFile(file);
 		e = zf.entries();
-		while (e.hasMoreElements()) {
-			ZipEntry entry = e.nextElement();
-			// skip first/root kml file
-			if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) break;
+		try {
+			while (e.hasMoreElements()) {
+				ZipEntry entry = e.nextElement();
+				if (tracker != null) tracker.addEntry();
+				// skip first/root kml file
+				if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) break;
+			}
+		} catch (ArchiveLimitException ex) {
+			close();
+			throw ex;
 		}
 	}
 
-	public Resource next() {
+	public Resource next() throws ArchiveLimitException {
 		while (e.hasMoreElements()) {
 			ZipEntry entry = e.nextElement();
+			if (tracker != null) tracker.addEntry();
 			final String name = entry.getName();
 			final String nameLower = name.toLowerCase(Locale.ROOT);
 			if (nameLower.endsWith(".kml")) {
@@ -82,6 +102,7 @@ public class KmzExplorer implements Closeable {
 			super(KmzExplorer.this.out,
 					file.toString() + '/' + entry.getName(), schemaNamespace);
 			this.entry = entry;
+			setArchiveLimits(limits);
 		}
 
 		@Override
@@ -90,23 +111,47 @@ public class KmzExplorer implements Closeable {
 		}
 
 		@Override
-		public Document getDocument(SAXBuilder builder) throws JDOMException, IOException {
-			if (doc == null) {
-				InputStream is = null;
-				try {
-					is = zf.getInputStream(entry);
-					doc = builder.build(is,
-							file.getAbsoluteFile().toURI().toString());
-				} finally {
-					if (is != null)
-						try {
-							is.close();
-						} catch (IOException ioe) {
-							// ignore
-						}
+		public boolean isReopenable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return entry.getSize();
+		}
+
+		@Override
+		public long getContentCrc() {
+			return entry.getCrc();
+		}
+
+		@Override
+		public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
+			// entry is also read to scan its root element or hash it, only the parse read is an event
+			final ValidationEvents.ArchiveEntryRead event = isParseRead() ? new ValidationEvents.ArchiveEntryRead() : null;
+			if (event != null) event.begin();
+			InputStream is = null;
+			try {
+				// entry is read again to scan its root element or hash it, count its size in the total once
+				is = wrap(limit(tracker, zf.getInputStream(entry), entry.getName(), null, entry.getCompressedSize(),
+						isParseRead()));
+				return reader.read(is,
+						file.getAbsoluteFile().toURI().toString());
+			} finally {
+				if (event != null) event.end();
+				if (event != null && event.shouldCommit()) {
+					event.source = targetFile;
+					event.bytes = entry.getSize();
+					event.compressedBytes = entry.getCompressedSize();
+					event.commit();
 				}
+				if (is != null)
+					try {
+						is.close();
+					} catch (IOException ioe) {
+						// ignore
+					}
 			}
-			return doc;
 		}
 	}
 }
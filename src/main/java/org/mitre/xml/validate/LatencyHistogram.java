@@ -0,0 +1,136 @@
+/*
+ *  LatencyHistogram.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the time to validate each document, recorded from any number of
+ * threads without locking, from which percentiles are read at the end of a run.
+ *
+ * Values are counted in log-linear buckets in the manner of an HDR histogram:
+ * values below 64 ns have a bucket each and each power of two above is split into
+ * 32 buckets, so a percentile is reported within about 3% of the recorded value
+ * over the full range of a long with a fixed 15 KB of counts.
+ *
+ * The first documents of a run are validated by code that has not yet been
+ * compiled by the JIT, so a number of warm-up documents may be left out of the
+ * histogram to report the latency once warm.
+ *
+ * @author Jason Mathews
+ */
+class LatencyHistogram {
+
+	/** Number of buckets in each power of two above the linear range */
+	static final int SUB_BUCKETS = 32;
+
+	private static final int SHIFT = 5; // log2 of SUB_BUCKETS
+
+	private final AtomicLongArray counts = new AtomicLongArray(getIndex(Long.MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private final long warmup;
+	private final AtomicLong skipped = new AtomicLong();
+
+	LatencyHistogram() {
+		this(0);
+	}
+
+	/**
+	 * @param warmup number of documents recorded first that are not counted
+	 */
+	LatencyHistogram(long warmup) {
+		this.warmup = warmup;
+	}
+
+	/**
+	 * Record time of one document
+	 * @param nanos elapsed nanoseconds
+	 */
+	void record(long nanos) {
+		if (warmup != 0 && skipped.get() < warmup && skipped.incrementAndGet() <= warmup) return;
+		if (nanos < 0) nanos = 0; // clock adjusted
+		counts.incrementAndGet(getIndex(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+			// lost race with another thread so retry
+		}
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return number of warm-up documents not counted
+	 */
+	long getSkipped() {
+		return Math.min(skipped.get(), warmup);
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return mean nanoseconds, 0 if nothing recorded
+	 */
+	double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Get value at or below which the given percent of recorded values fall
+	 * @param percent percentile in range 0-100 (e.g. 99.9)
+	 * @return upper bound of bucket of the percentile in nanoseconds (at most
+	 *      the max recorded value), 0 if nothing recorded
+	 */
+	long getPercentile(double percent) {
+		final long n = count.get();
+		if (n == 0) return 0;
+		final long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(getUpperBound(i), max.get());
+		}
+		return max.get(); // counts recorded while reading
+	}
+
+	/**
+	 * @return one line summary of percentiles in milliseconds
+	 */
+	String getSummary() {
+		return String.format("Latency: %d docs%s  p50: %.3f ms  p99: %.3f ms  p99.9: %.3f ms  max: %.3f ms  mean: %.3f ms",
+				getCount(), warmup == 0 ? "" : " (" + getSkipped() + " warm-up skipped)",
+				getPercentile(50) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6,
+				getMax() / 1e6, getMean() / 1e6);
+	}
+
+	static int getIndex(long value) {
+		if (value < 2 * SUB_BUCKETS) return (int) value;
+		// top SHIFT + 1 bits of the value select bucket within its power of two
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SHIFT;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return largest value counted in bucket
+	 */
+	static long getUpperBound(int index) {
+		if (index < 2 * SUB_BUCKETS) return index;
+		final int shift = index / SUB_BUCKETS - 1;
+		final long m = index - (long) shift * SUB_BUCKETS;
+		return ((m + 1) << shift) - 1;
+	}
+}
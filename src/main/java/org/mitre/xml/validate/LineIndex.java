@@ -0,0 +1,111 @@
+/*
+ *  LineIndex.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.util.Arrays;
+
+/**
+ * Index of the offsets at which each line starts in a text, built in one pass,
+ * so the text of any line can be located in constant time in any order.
+ * Lines are terminated by "\n", "\r" or "\r\n" as in {@link java.io.LineNumberReader}.
+ *
+ * @author Jason Mathews
+ */
+final class LineIndex {
+
+	/**
+	 * Max number of characters of a line taken after the error column
+	 */
+	static final int WINDOW = 80;
+
+	private final CharSequence text;
+	private int[] starts = new int[64];
+	private int lines;
+
+	LineIndex(CharSequence text) {
+		this.text = text;
+		final int len = text.length();
+		add(0);
+		for (int i = 0; i < len; i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				add(i + 1);
+			} else if (c == '\r') {
+				if (i + 1 < len && text.charAt(i + 1) == '\n') i++;
+				add(i + 1);
+			}
+		}
+		// text ending with line terminator has no further line
+		if (lines > 1 && starts[lines - 1] == len) lines--;
+	}
+
+	private void add(int offset) {
+		if (lines == starts.length) starts = Arrays.copyOf(starts, lines * 2);
+		starts[lines++] = offset;
+	}
+
+	/**
+	 * @return number of lines
+	 */
+	int getLineCount() {
+		return lines;
+	}
+
+	/**
+	 * @param line line number starting at 1
+	 * @return offset of first character of line
+	 */
+	int getLineStart(int line) {
+		return starts[line - 1];
+	}
+
+	/**
+	 * @param line line number starting at 1
+	 * @return offset after last character of line excluding the line terminator
+	 */
+	int getLineEnd(int line) {
+		int end = line < lines ? starts[line] : text.length();
+		int start = starts[line - 1];
+		if (end > start && text.charAt(end - 1) == '\n') end--;
+		if (end > start && text.charAt(end - 1) == '\r') end--;
+		return end;
+	}
+
+	/**
+	 * Get context of a line at the given column with *** marking the column.
+	 * Only a fixed-size window of the line around the column is copied so the
+	 * cost does not depend on the length of the line.
+	 *
+	 * @param line   line number starting at 1
+	 * @param column column number starting at 1
+	 * @return context trimmed and limited to 80 characters, or null if line is out of range or empty
+	 */
+	String getContext(int line, int column) {
+		if (line < 1 || line > lines) return null;
+		int start = getLineStart(line);
+		final int end = getLineEnd(line);
+		if (start == end) return null;
+		final int col = column - 1;
+		StringBuilder sb = new StringBuilder(WINDOW * 2);
+		if (col > 0 && col <= end - start) {
+			if (col > 80) {
+				sb.append("...").append(text, start + col - 50, start + col);
+			} else {
+				sb.append(text, start, start + col);
+			}
+			sb.append("***").append(text, start + col, Math.min(end, start + col + WINDOW));
+		} else {
+			while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+			sb.append(text, start, Math.min(end, start + WINDOW + 1));
+		}
+		String context = sb.toString().trim();
+		if (context.length() > 80)
+			context = context.substring(0, 78) + "...";
+		return context.isEmpty() ? null : context;
+	}
+}
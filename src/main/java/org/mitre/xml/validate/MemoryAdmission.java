@@ -0,0 +1,235 @@
+/*
+ *  MemoryAdmission.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Limits the estimated heap used by documents validated at the same time to a
+ * byte budget. A document holds its JDOM tree, its serialized XML content and the
+ * state of the validating parser at once, so a few large documents or KMZ entries
+ * validated together on several threads can exhaust the heap.
+ *
+ * The cost of a resource is estimated from its content length (the file size, the
+ * uncompressed size of a KMZ entry or the file size times the compression ratio of
+ * a KMZ file) times an expansion factor. The expansion factor is learned at runtime
+ * from the bytes allocated by the validating thread per character of content, if
+ * the JVM measures thread allocation, otherwise a default is used.
+ *
+ * Resources are admitted in arrival order while the total cost in flight stays
+ * within the budget. A resource whose cost alone exceeds the budget is run alone:
+ * it waits for all documents in flight to complete and no other document is admitted
+ * until it completes. The number of waits, time spent waiting and the peak cost in
+ * flight are reported in the summary.
+ *
+ * @author Jason Mathews
+ */
+class MemoryAdmission {
+
+	/** Default expansion of content bytes to heap bytes until one is learned */
+	static final double DEFAULT_EXPANSION = 8;
+
+	/** Bounds of the learned expansion factor */
+	static final double MIN_EXPANSION = 2, MAX_EXPANSION = 32;
+
+	/** Assumed compression ratio of the root KML entry of a KMZ file */
+	static final int KMZ_RATIO = 5;
+
+	/** Assumed content length of a resource whose length is not known (e.g. URL) */
+	static final long UNKNOWN_LENGTH = 1024 * 1024;
+
+	/** Minimum cost of a document */
+	static final long MIN_COST = 64 * 1024;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final long budget;
+
+	private final Object lock = new Object();
+	private long inFlight;      // cost of admitted documents
+	private int active;         // number of admitted documents
+	private boolean alone;      // oversized document is running alone
+	private final Queue<Object> queue = new ArrayDeque<>(); // waiting documents in arrival order
+
+	private double expansion = DEFAULT_EXPANSION;
+	private long admitted, waits, oversized, peak;
+	private long waitNanos, maxWaitNanos;
+
+	/**
+	 * Create admission control
+	 * @param budget max estimated bytes of documents validated at the same time
+	 */
+	MemoryAdmission(long budget) {
+		this.budget = Math.max(MIN_COST, budget);
+	}
+
+	long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Estimate content length of resource
+	 * @param res Resource
+	 * @return estimated length in bytes
+	 */
+	static long estimateLength(Resource res) {
+		long length = res.getContentLength();
+		if (length >= 0) return length;
+		if (res instanceof FileResource) {
+			File file = ((FileResource) res).getFile();
+			length = file.length();
+			// content of KMZ file is its compressed root KML entry
+			if (file.getName().toLowerCase(Locale.ROOT).endsWith(".kmz")) length *= KMZ_RATIO;
+			return length;
+		}
+		return UNKNOWN_LENGTH;
+	}
+
+	/**
+	 * Estimate heap used to validate content of given length
+	 * @param length content length in bytes
+	 * @return estimated cost in bytes
+	 */
+	long estimateCost(long length) {
+		final double factor;
+		synchronized (lock) {
+			factor = expansion;
+		}
+		return Math.max(MIN_COST, (long) Math.min(Long.MAX_VALUE / 2, length * factor));
+	}
+
+	/**
+	 * Wait until document of given cost may be validated. Caller must call
+	 * {@link #release(Ticket, long)} with the returned ticket when done.
+	 * @param cost estimated cost in bytes
+	 * @return Ticket
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Ticket admit(long cost) throws InterruptedException {
+		final boolean exclusive = cost > budget;
+		final Object turn = new Object();
+		synchronized (lock) {
+			queue.add(turn);
+			final long start = System.nanoTime();
+			boolean waited = false;
+			try {
+				while (queue.peek() != turn || alone
+						|| (exclusive ? active != 0 : inFlight + cost > budget)) {
+					waited = true;
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				// give up place in queue so later arrivals are not blocked
+				queue.remove(turn);
+				lock.notifyAll();
+				throw e;
+			}
+			queue.poll();
+			if (waited) {
+				final long elapsed = System.nanoTime() - start;
+				waits++;
+				waitNanos += elapsed;
+				if (elapsed > maxWaitNanos) maxWaitNanos = elapsed;
+			}
+			if (exclusive) {
+				alone = true;
+				oversized++;
+			}
+			active++;
+			inFlight += cost;
+			admitted++;
+			if (inFlight > peak) peak = inFlight;
+			lock.notifyAll(); // next in queue may also fit
+			return new Ticket(cost, exclusive);
+		}
+	}
+
+	/**
+	 * Release cost of validated document and learn expansion factor from it
+	 * @param ticket Ticket returned by {@link #admit(long)}
+	 * @param length length of content in characters or bytes, -1 if not known
+	 */
+	void release(Ticket ticket, long length) {
+		double observed = 0;
+		if (length > 0 && ticket.allocated >= 0) {
+			long allocated = allocatedBytes() - ticket.allocated;
+			if (allocated > 0) observed = (double) allocated / length;
+		}
+		synchronized (lock) {
+			active--;
+			inFlight -= ticket.cost;
+			if (ticket.exclusive) alone = false;
+			// ignore small documents whose cost is dominated by fixed overhead
+			if (observed > 0 && length * observed >= MIN_COST) {
+				observed = Math.max(MIN_EXPANSION, Math.min(MAX_EXPANSION, observed));
+				expansion += (observed - expansion) / 8;
+			}
+			lock.notifyAll();
+		}
+	}
+
+	// bytes allocated by the current thread or -1 if not supported
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Document admitted by {@link #admit(long)}
+	 */
+	static final class Ticket {
+		final long cost;
+		final boolean exclusive;
+		final long allocated; // bytes allocated by thread when admitted
+
+		Ticket(long cost, boolean exclusive) {
+			this.cost = cost;
+			this.exclusive = exclusive;
+			allocated = allocatedBytes();
+		}
+	}
+
+	long getWaits() {
+		synchronized (lock) {
+			return waits;
+		}
+	}
+
+	long getPeak() {
+		synchronized (lock) {
+			return peak;
+		}
+	}
+
+	long getOversized() {
+		synchronized (lock) {
+			return oversized;
+		}
+	}
+
+	/**
+	 * @return one line summary of budget use and admission waits
+	 */
+	String getSummary() {
+		synchronized (lock) {
+			return String.format("Memory budget: %d MB  Peak: %d MB  Admitted: %d  Waits: %d  Wait: %d ms  Max wait: %d ms"
+							+ "  Run alone: %d  Expansion: %.1f",
+					budget >> 20, peak >> 20, admitted, waits, waitNanos / 1000000, maxWaitNanos / 1000000,
+					oversized, expansion);
+		}
+	}
+}
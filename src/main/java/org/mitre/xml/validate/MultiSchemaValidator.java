@@ -0,0 +1,471 @@
+/*
+ *  MultiSchemaValidator.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.Content;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.located.Located;
+import org.jdom2.output.JDOMLocator;
+import org.jdom2.output.SAXOutputter;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Validates a parsed document against several target schemas in one pass.
+ *
+ * The document is streamed once as SAX events and the events are fanned out to a
+ * JAXP {@link ValidatorHandler} for each target. As with the -schema and -ns options,
+ * elements are moved to the target namespace on the way to each validator so the
+ * same document can be checked against e.g. both KML 2.1 and KML 2.2 schemas.
+ *
+ * Counts of files, valid files, errors and warnings along with the normalized error
+ * messages are kept for each target so a side-by-side summary can be printed.
+ *
+ * SAX events of a tree carry no position so each message is located by the element
+ * being streamed when it is reported: its path and, if the tree was built with
+ * located elements, the line and column at which its start tag ends.
+ *
+ * @author Jason Mathews
+ */
+public class MultiSchemaValidator {
+
+	private final List<Target> targets = new ArrayList<>();
+
+	/**
+	 * Add target schema
+	 * @param namespace target namespace, null for schema without target namespace
+	 * @param location  file path or URL of the schema
+	 * @throws SAXException if schema cannot be loaded
+	 */
+	public void addTarget(String namespace, String location) throws SAXException {
+		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		File file = new File(location);
+		String systemId = file.exists() ? file.getAbsoluteFile().toURI().toASCIIString() : location;
+		Schema schema = factory.newSchema(new StreamSource(systemId));
+		targets.add(new Target(targets.size() + 1, namespace, systemId, schema));
+	}
+
+	public List<Target> getTargets() {
+		return Collections.unmodifiableList(targets);
+	}
+
+	/**
+	 * Create validators for each target. Validators are not thread-safe so
+	 * each thread must use its own instance.
+	 * @return Validators
+	 */
+	Validators newValidators() {
+		return new Validators();
+	}
+
+	/**
+	 * Print valid percentage, errors and warnings of each target side by side
+	 * followed by the errors that occur with only one of the targets.
+	 * @param out PrintStream
+	 */
+	public void printSummary(PrintStream out) {
+		out.println("\nTargets:");
+		out.format("%3s %-50s %9s %5s %8s %8s%n", "", "namespace", "valid", "%", "errors", "warnings");
+		for (Target t : targets) {
+			synchronized (t) {
+				out.format("%3d %-50s %4d/%-4d %4.0f%% %8d %8d%n", t.index,
+						t.namespace == null ? "(no namespace)" : t.namespace,
+						t.valid, t.files, t.files == 0 ? 0.0 : 100.0 * t.valid / t.files,
+						t.errors, t.warnings);
+			}
+		}
+		for (Target t : targets) {
+			boolean header = false;
+			for (Map.Entry<String, Integer> entry : t.getErrorCounts().entrySet()) {
+				boolean unique = true;
+				for (Target other : targets) {
+					if (other != t && other.getErrorCounts().containsKey(entry.getKey())) {
+						unique = false;
+						break;
+					}
+				}
+				if (!unique) continue;
+				if (!header) {
+					out.format("%nErrors only in target %d: %s%n", t.index, t.location);
+					header = true;
+				}
+				out.format("%5d %s%n", entry.getValue(), entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Target schema and its counts
+	 */
+	public static final class Target {
+
+		final int index;
+		final String namespace;
+		final String location;
+		final Schema schema;
+
+		private int files, valid;
+		private long errors, warnings;
+		private final Map<String, Integer> errorCounts = new TreeMap<>();
+
+		Target(int index, String namespace, String location, Schema schema) {
+			this.index = index;
+			this.namespace = namespace;
+			this.location = location;
+			this.schema = schema;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+
+		public String getLocation() {
+			return location;
+		}
+
+		public synchronized int getFiles() {
+			return files;
+		}
+
+		public synchronized int getValid() {
+			return valid;
+		}
+
+		public synchronized long getErrors() {
+			return errors;
+		}
+
+		public synchronized long getWarnings() {
+			return warnings;
+		}
+
+		/**
+		 * @return copy of normalized error message to number of occurrences
+		 */
+		public synchronized Map<String, Integer> getErrorCounts() {
+			return new TreeMap<>(errorCounts);
+		}
+
+		synchronized void add(Issues issues) {
+			files++;
+			if (issues.errors == 0) valid++;
+			errors += issues.errors;
+			warnings += issues.warnings;
+			for (String key : issues.keys) {
+				Integer count = errorCounts.get(key);
+				errorCounts.put(key, count == null ? 1 : count + 1);
+			}
+		}
+	}
+
+	/**
+	 * Position in the source of the element at which a message is reported
+	 */
+	static final class Position {
+
+		final int line, column; // -1 if the element is not located
+		final String path;
+
+		Position(int line, int column, String path) {
+			this.line = line;
+			this.column = column;
+			this.path = path;
+		}
+
+		/**
+		 * @return e.g. Line: 12, column: 20, element: /kml/Document/Placemark
+		 */
+		public String toString() {
+			return line == -1 ? "element: " + path : "Line: " + line + ", column: " + column + ", element: " + path;
+		}
+	}
+
+	/**
+	 * Errors and warnings of one document against one target
+	 */
+	static final class Issues implements ErrorHandler {
+
+		final Target target;
+		final List<String> messages = new ArrayList<>();
+		final List<Position> positions = new ArrayList<>(); // position of each message, null if not known
+		final List<String> keys = new ArrayList<>();
+		int errors, warnings;
+		private Locator locator;
+
+		Issues(Target target) {
+			this.target = target;
+		}
+
+		public void warning(SAXParseException e) {
+			warnings++;
+			messages.add("WARN: " + e.getMessage());
+			positions.add(getPosition());
+		}
+
+		public void error(SAXParseException e) {
+			add("ERROR", e);
+		}
+
+		public void fatalError(SAXParseException e) {
+			add("FATAL", e);
+		}
+
+		void add(String level, Exception e) {
+			errors++;
+			String message = String.valueOf(e.getMessage());
+			messages.add(level + ": " + message);
+			positions.add(getPosition());
+			// e.g. ERROR: cvc-complex-type.2.4.a
+			int ind = message.indexOf(':');
+			keys.add(level + ": " + (ind > 0 ? message.substring(0, ind) : message));
+		}
+
+		// element of the node being streamed by SAXOutputter
+		private Position getPosition() {
+			if (!(locator instanceof JDOMLocator)) return null;
+			Object node = ((JDOMLocator) locator).getNode();
+			Element element = node instanceof Element ? (Element) node
+					: node instanceof Content ? ((Content) node).getParentElement() : null;
+			if (element == null) return null;
+			StringBuilder path = new StringBuilder();
+			for (Element e = element; e != null; e = e.getParentElement()) {
+				path.insert(0, e.getQualifiedName()).insert(0, '/');
+			}
+			if (element instanceof Located) {
+				Located located = (Located) element;
+				return new Position(located.getLine(), located.getColumn(), path.toString());
+			}
+			return new Position(-1, -1, path.toString());
+		}
+	}
+
+	/**
+	 * Validator handlers of all targets used by one thread
+	 */
+	final class Validators {
+
+		private final ValidatorHandler[] handlers = new ValidatorHandler[targets.size()];
+
+		Validators() {
+			for (int i = 0; i < handlers.length; i++) {
+				handlers[i] = targets.get(i).schema.newValidatorHandler();
+			}
+		}
+
+		/**
+		 * Validate document against all targets in one pass over the document
+		 * and add the results to the target counts.
+		 * @param doc Document
+		 * @return errors and warnings of each target in target order
+		 */
+		List<Issues> validate(Document doc) {
+			List<Issues> result = new ArrayList<>(handlers.length);
+			List<TargetHandler> fanOut = new ArrayList<>(handlers.length);
+			for (int i = 0; i < handlers.length; i++) {
+				Issues issues = new Issues(targets.get(i));
+				handlers[i].setErrorHandler(issues);
+				result.add(issues);
+				fanOut.add(new TargetHandler(handlers[i], targets.get(i).namespace, issues));
+			}
+			SAXOutputter outputter = new SAXOutputter(new FanOutHandler(fanOut));
+			try {
+				outputter.output(doc);
+			} catch (JDOMException e) {
+				// exceptions of a validator are isolated by its TargetHandler
+				for (Issues issues : result) {
+					if (issues.errors == 0) issues.add("FATAL", e);
+				}
+			}
+			for (Issues issues : result) {
+				issues.target.add(issues);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Forwards SAX events to the validator of one target moving elements to the
+	 * target namespace. A validator that throws an exception stops receiving events
+	 * so it does not affect the other targets.
+	 */
+	private static final class TargetHandler {
+
+		private final ValidatorHandler handler;
+		private final String namespace;
+		private final Issues issues;
+		private boolean failed;
+		private int depth;
+
+		TargetHandler(ValidatorHandler handler, String namespace, Issues issues) {
+			this.handler = handler;
+			this.namespace = namespace;
+			this.issues = issues;
+		}
+
+		void fail(SAXException e) {
+			failed = true;
+			if (!(e instanceof SAXParseException)) issues.add("FATAL", e);
+		}
+	}
+
+	private static final class FanOutHandler implements ContentHandler {
+
+		private final List<TargetHandler> targets;
+
+		FanOutHandler(List<TargetHandler> targets) {
+			this.targets = targets;
+		}
+
+		public void setDocumentLocator(Locator locator) {
+			for (TargetHandler t : targets) {
+				t.issues.locator = locator;
+				t.handler.setDocumentLocator(locator);
+			}
+		}
+
+		public void startDocument() {
+			for (TargetHandler t : targets) {
+				try {
+					t.handler.startDocument();
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void endDocument() {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					t.handler.endDocument();
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void startPrefixMapping(String prefix, String uri) {
+			for (TargetHandler t : targets) {
+				// default namespace is replaced by target namespace
+				if (t.failed || t.namespace != null && prefix.isEmpty()) continue;
+				try {
+					t.handler.startPrefixMapping(prefix, uri);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void endPrefixMapping(String prefix) {
+			for (TargetHandler t : targets) {
+				if (t.failed || t.namespace != null && prefix.isEmpty()) continue;
+				try {
+					t.handler.endPrefixMapping(prefix);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					if (t.namespace == null) {
+						t.handler.startElement(uri, localName, qName, atts);
+					} else {
+						if (t.depth++ == 0) t.handler.startPrefixMapping("", t.namespace);
+						// same as changing namespace of all elements in the document
+						t.handler.startElement(t.namespace, localName, localName, atts);
+					}
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void endElement(String uri, String localName, String qName) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					if (t.namespace == null) {
+						t.handler.endElement(uri, localName, qName);
+					} else {
+						t.handler.endElement(t.namespace, localName, localName);
+						if (--t.depth == 0) t.handler.endPrefixMapping("");
+					}
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void characters(char[] ch, int start, int length) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					t.handler.characters(ch, start, length);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void ignorableWhitespace(char[] ch, int start, int length) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					t.handler.ignorableWhitespace(ch, start, length);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void processingInstruction(String target, String data) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					t.handler.processingInstruction(target, data);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+
+		public void skippedEntity(String name) {
+			for (TargetHandler t : targets) {
+				if (t.failed) continue;
+				try {
+					t.handler.skippedEntity(name);
+				} catch (SAXException e) {
+					t.fail(e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ *  OutputBuffer.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Output stream that captures the output of a file validated on a worker thread
+ * in fixed-size chunks taken from a shared pool. Chunks are only taken when
+ * something is written so a valid file that prints nothing allocates nothing.
+ *
+ * The captured output is detached as {@link Content} when the file completes and
+ * returned to the pool after it has been written to the shared output stream.
+ *
+ * @author Jason Mathews
+ */
+class OutputBuffer extends OutputStream {
+
+	/** Size of a pooled chunk */
+	static final int CHUNK_SIZE = 8192;
+
+	/** Max number of free chunks kept in the pool */
+	static final int MAX_POOLED = 256;
+
+	private static final Deque<byte[]> POOL = new ArrayDeque<>();
+
+	private List<byte[]> chunks;
+	private byte[] current;
+	private int pos;
+	private long size;
+
+	@Override
+	public void write(int b) {
+		if (current == null || pos == CHUNK_SIZE) nextChunk();
+		current[pos++] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		while (len > 0) {
+			if (current == null || pos == CHUNK_SIZE) nextChunk();
+			int n = Math.min(len, CHUNK_SIZE - pos);
+			System.arraycopy(b, off, current, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+			size += n;
+		}
+	}
+
+	private void nextChunk() {
+		synchronized (POOL) {
+			current = POOL.poll();
+		}
+		if (current == null) current = new byte[CHUNK_SIZE];
+		if (chunks == null) chunks = new ArrayList<>();
+		chunks.add(current);
+		pos = 0;
+	}
+
+	/**
+	 * @return number of bytes written since output was last detached
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Detach captured output and reset this buffer
+	 * @return captured output or null if nothing was written
+	 */
+	Content detach() {
+		Content content = chunks == null ? null : new Content(chunks, size);
+		chunks = null;
+		current = null;
+		pos = 0;
+		size = 0;
+		return content;
+	}
+
+	/**
+	 * Output captured for one file
+	 */
+	static final class Content {
+
+		private List<byte[]> chunks;
+		private final long size;
+
+		Content(List<byte[]> chunks, long size) {
+			this.chunks = chunks;
+			this.size = size;
+		}
+
+		long size() {
+			return size;
+		}
+
+		/**
+		 * Write range of captured output
+		 * @param out  PrintStream
+		 * @param from offset of first byte
+		 * @param to   offset after last byte
+		 */
+		void writeTo(PrintStream out, long from, long to) {
+			while (from < to) {
+				int index = (int) (from / CHUNK_SIZE);
+				int off = (int) (from % CHUNK_SIZE);
+				int len = (int) Math.min(CHUNK_SIZE - off, to - from);
+				out.write(chunks.get(index), off, len);
+				from += len;
+			}
+		}
+
+		/**
+		 * Return chunks to the pool. Content must not be used afterwards.
+		 */
+		void release() {
+			if (chunks == null) return;
+			synchronized (POOL) {
+				for (byte[] chunk : chunks) {
+					if (POOL.size() >= MAX_POOLED) break;
+					POOL.push(chunk);
+				}
+			}
+			chunks = null;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ *  ParserPool.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.sax.XMLReaders;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fully configured parser pairs (non-validating builder and schema
+ * validating builder) that are checked out for each document, reset and returned.
+ *
+ * Each SAXBuilder reuses its underlying XMLReader so the parser configuration,
+ * features and symbol table are set up once per pooled instance rather than once
+ * per document. All validating parsers in the pool share one thread-safe Xerces
+ * grammar pool so each XML Schema is loaded and compiled once. Only schemas of
+ * namespaces with a configured location (schema map, -schemaLocation or -schema)
+ * are shared. A grammar the parser loads from a schemaLocation hint in the document
+ * for any other namespace is used for that document only, since another document
+ * may give a different location for the same namespace. Documents are
+ * validated with a validating XMLReader configured the same as the validating
+ * builder so no JDOM tree is built for a document that is only checked for errors.
+ * The non-validating builder builds trees with a {@link CompactJDOMFactory}
+ * whose elements have their source position only if asked for.
+ *
+ * A pool may be shared by any number of XmlValidate instances on any number of threads.
+ *
+ * @author Jason Mathews
+ */
+public class ParserPool {
+
+	/**
+	 * Xerces property for grammar pool shared by validating parsers
+	 */
+	static final String GRAMMAR_POOL = "http://apache.org/xml/properties/internal/grammar-pool";
+
+	private final BlockingQueue<Parsers> idle;
+	private final SharedGrammarPool grammarPool;
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong checkouts = new AtomicLong();
+
+	/**
+	 * Create pool that keeps up to one idle parser pair per available processor.
+	 */
+	public ParserPool() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create pool
+	 * @param maxIdle max number of idle parser pairs kept in pool
+	 */
+	public ParserPool(int maxIdle) {
+		idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+		grammarPool = new SharedGrammarPool();
+	}
+
+	/**
+	 * Share grammars of namespace with all parsers of the pool once loaded.
+	 * Called for each namespace with a configured schema location.
+	 * @param namespace target namespace, null or empty for no namespace
+	 */
+	void shareNamespace(String namespace) {
+		grammarPool.namespaces.add(namespace == null ? "" : namespace);
+	}
+
+	/**
+	 * Check out parser pair. A new pair is created if none are idle.
+	 * Caller must return the parsers with {@link #release(Parsers)}.
+	 * @return Parsers
+	 */
+	public Parsers checkout() {
+		checkouts.incrementAndGet();
+		active.incrementAndGet();
+		Parsers parsers = idle.poll();
+		if (parsers == null) {
+			parsers = new Parsers(grammarPool);
+			size.incrementAndGet();
+		}
+		return parsers;
+	}
+
+	/**
+	 * Reset parsers and return to pool. If the pool is full then the parsers are discarded.
+	 * @param parsers Parsers, ignored if null
+	 */
+	public void release(Parsers parsers) {
+		if (parsers == null) return;
+		active.decrementAndGet();
+		parsers.reset();
+		if (!idle.offer(parsers)) {
+			size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return number of parser pairs currently owned by the pool (idle or checked out)
+	 */
+	public int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * @return number of parser pairs currently checked out
+	 */
+	public int getActive() {
+		return active.get();
+	}
+
+	/**
+	 * @return total number of checkouts since pool was created
+	 */
+	public long getCheckouts() {
+		return checkouts.get();
+	}
+
+	/**
+	 * Grammar pool that caches only the XML Schema grammars of shared namespaces.
+	 * Grammars of other namespaces are kept in the grammar bucket of the parse
+	 * that loaded them.
+	 *
+	 * Parses on other threads may load the same schemas before either has cached
+	 * them, so the grammars of one parse are cached together and only if none
+	 * replaces a different copy already cached. Otherwise the pool could hold a
+	 * grammar that imports another copy of a cached schema.
+	 */
+	static final class SharedGrammarPool extends XMLGrammarPoolImpl {
+
+		final Set<String> namespaces = ConcurrentHashMap.newKeySet();
+
+		boolean isShared(XMLGrammarDescription desc) {
+			if (!XMLGrammarDescription.XML_SCHEMA.equals(desc.getGrammarType())) return false;
+			final String namespace = desc.getNamespace();
+			return namespaces.contains(namespace == null ? "" : namespace);
+		}
+
+		@Override
+		public synchronized void cacheGrammars(String grammarType, Grammar[] grammars) {
+			for (Grammar grammar : grammars) {
+				final XMLGrammarDescription desc = grammar.getGrammarDescription();
+				if (!isShared(desc)) continue;
+				final Grammar cached = getGrammar(desc);
+				if (cached != null && cached != grammar) return; // loaded by another parse
+			}
+			super.cacheGrammars(grammarType, grammars);
+		}
+
+		@Override
+		public void putGrammar(Grammar grammar) {
+			if (isShared(grammar.getGrammarDescription())) super.putGrammar(grammar);
+		}
+	}
+
+	/**
+	 * Shared grammar pool as seen by the parses of one parser pair. Once a parse
+	 * loads a shared grammar itself, no grammar is taken from the pool for the rest
+	 * of that parse since one cached meanwhile by another parse imports its own copies
+	 * of the schemas, which Xerces rejects with a "grammar(s) returned from the user's
+	 * grammar pool is in conflict with another grammar" warning.
+	 */
+	static final class ParseGrammarPool implements XMLGrammarPool {
+
+		private final SharedGrammarPool shared;
+		private boolean loaded; // shared grammar loaded by the current parse
+
+		ParseGrammarPool(SharedGrammarPool shared) {
+			this.shared = shared;
+		}
+
+		public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+			return shared.retrieveInitialGrammarSet(grammarType);
+		}
+
+		// called at the end of each validating parse
+		public void cacheGrammars(String grammarType, Grammar[] grammars) {
+			shared.cacheGrammars(grammarType, grammars);
+			loaded = false;
+		}
+
+		public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+			if (loaded) return null;
+			final Grammar grammar = shared.retrieveGrammar(desc);
+			if (grammar == null && shared.isShared(desc)) loaded = true;
+			return grammar;
+		}
+
+		public void lockPool() {
+			shared.lockPool();
+		}
+
+		public void unlockPool() {
+			shared.unlockPool();
+		}
+
+		public void clear() {
+			shared.clear();
+		}
+
+		void reset() {
+			loaded = false;
+		}
+	}
+
+	/**
+	 * Non-validating and schema validating builders used to validate a single document.
+	 */
+	public static final class Parsers {
+
+		private final SAXBuilder builder;
+		private final CompactJDOMFactory factory = new CompactJDOMFactory();
+		private final SAXBuilder validatingBuilder;
+		private final ParseGrammarPool grammarPool;
+		private XMLReader validatingReader;
+		private SemanticFilter semanticFilter;
+
+		Parsers(SharedGrammarPool grammarPool) {
+			this.grammarPool = new ParseGrammarPool(grammarPool);
+			builder = new SAXBuilder();
+			builder.setFeature(XmlValidate.VALIDATION_FEATURE, false);
+			builder.setFeature(XmlValidate.SCHEMA_FULL_CHECKING_FEATURE, false);
+			builder.setFeature(XmlValidate.SCHEMA_VALIDATION_FEATURE, false);
+			builder.setFeature(XmlValidate.LOAD_DTD_GRAMMAR, false);
+			builder.setFeature(XmlValidate.LOAD_EXTERNAL_DTD, false);
+			builder.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			builder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			// builder.setFeature("http://xml.org/sax/features/namespaces", true);
+			builder.setJDOMFactory(factory);
+
+			validatingBuilder = new SAXBuilder(XMLReaders.XSDVALIDATING);
+			validatingBuilder.setFeature(XmlValidate.VALIDATION_FEATURE, true);
+			validatingBuilder.setFeature(XmlValidate.SCHEMA_FULL_CHECKING_FEATURE, true);
+			validatingBuilder.setFeature(XmlValidate.SCHEMA_VALIDATION_FEATURE, true);
+			validatingBuilder.setFeature(XmlValidate.LOAD_DTD_GRAMMAR, false);
+			validatingBuilder.setFeature(XmlValidate.LOAD_EXTERNAL_DTD, false);
+			validatingBuilder.setProperty(GRAMMAR_POOL, grammarPool);
+			// validatingBuilder.setExpandEntities(false);
+			// validatingBuilder.setFeature("http://apache.org/xml/features/validation/unparsed-entity-checking", false);
+			// validatingBuilder.setFeature(CONTINUE_AFTER_FATAL_FEATURE, false);
+		}
+
+		/**
+		 * @return non-validating builder used to check documents are well-formed
+		 */
+		public SAXBuilder getBuilder() {
+			return getBuilder(false);
+		}
+
+		/**
+		 * @param located true to build elements with their line and column in the source
+		 * @return non-validating builder used to check documents are well-formed
+		 */
+		public SAXBuilder getBuilder(boolean located) {
+			factory.setLocated(located);
+			return builder;
+		}
+
+		/**
+		 * @return schema validating builder
+		 */
+		public SAXBuilder getValidatingBuilder() {
+			return validatingBuilder;
+		}
+
+		/**
+		 * Get schema validating reader that reports errors without building a
+		 * document. The reader has the same features and grammar pool as the
+		 * validating builder and is created the first time it is used.
+		 * @param semanticChecks true to check KML values in the same parse
+		 * @return reader or the filter that checks KML values over the reader
+		 * @throws JDOMException if the reader cannot be created or configured
+		 */
+		XMLReader getValidatingReader(boolean semanticChecks) throws JDOMException {
+			if (validatingReader == null) {
+				XMLReader reader = XMLReaders.XSDVALIDATING.createXMLReader();
+				try {
+					// features set by SAXBuilder on its reader then those set on the validating builder
+					reader.setFeature("http://xml.org/sax/features/namespaces", true);
+					reader.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+					reader.setFeature(XmlValidate.VALIDATION_FEATURE, true);
+					reader.setFeature(XmlValidate.SCHEMA_FULL_CHECKING_FEATURE, true);
+					reader.setFeature(XmlValidate.SCHEMA_VALIDATION_FEATURE, true);
+					reader.setFeature(XmlValidate.LOAD_DTD_GRAMMAR, false);
+					reader.setFeature(XmlValidate.LOAD_EXTERNAL_DTD, false);
+					reader.setProperty(GRAMMAR_POOL, grammarPool);
+				} catch (SAXException e) {
+					throw new JDOMException("Could not configure validating reader: " + e.getMessage(), e);
+				}
+				validatingReader = reader;
+			}
+			if (!semanticChecks) return validatingReader;
+			SemanticFilter filter = getSemanticFilter();
+			if (filter.getParent() != validatingReader) filter.setParent(validatingReader);
+			return filter;
+		}
+
+		/**
+		 * Get filter that checks KML values. The filter is created the first time
+		 * it is used so parsers that never check values have no filter in their
+		 * event path.
+		 * @return SemanticFilter
+		 */
+		SemanticFilter getSemanticFilter() {
+			if (semanticFilter == null) {
+				semanticFilter = new SemanticFilter();
+			}
+			return semanticFilter;
+		}
+
+		// clear per-document state before parsers are reused for another document
+		void reset() {
+			grammarPool.reset();
+			builder.setErrorHandler(null);
+			validatingBuilder.setErrorHandler(null);
+			if (validatingReader != null) validatingReader.setErrorHandler(null);
+			if (semanticFilter != null) {
+				semanticFilter.setErrorHandler(null);
+				semanticFilter.setResource(null);
+			}
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ *  Prefetcher.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads the content of upcoming files on a background thread while the current
+ * file is validated so disk or network file system reads overlap with parsing.
+ *
+ * Files are read in the order they will be validated into pooled buffers. At most
+ * <code>maxFiles</code> files are held ahead of the validators and the total size
+ * of the buffers is bounded by a byte budget. Files larger than the budget are
+ * not prefetched. For KMZ files and archives only the end of the file with the zip
+ * central directory is read ahead so it is in the OS cache when the file is opened.
+ *
+ * The time spent reading on the background thread, the time validators waited on
+ * a read in progress and the time spent validating are accumulated across runs.
+ *
+ * @author Jason Mathews
+ */
+class Prefetcher {
+
+	/** Default byte budget of prefetched content */
+	static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	/** Minimum size of a pooled buffer */
+	static final int MIN_BUFFER = 64 * 1024;
+
+	/** Bytes read from end of zip file: max comment size plus room for central directory */
+	static final int ZIP_TAIL = 128 * 1024;
+
+	private static final int PENDING = 0, READING = 1, READY = 2, SKIPPED = 3;
+
+	private final int maxFiles;
+	private final long budget;
+
+	private final Object lock = new Object();
+	private final List<byte[]> pool = new ArrayList<>();
+	private long pooled;   // capacity of buffers in pool
+	private long used;     // capacity of buffers held by prefetched or validating files
+	private int ready;     // number of prefetched files not yet taken
+
+	private Map<File, Entry> entries;
+	private Entry next;      // entry the background thread reads next
+	private int nextBuffer;  // buffer size needed to read next entry, 0 if not yet known
+	private Thread thread;
+
+	private long files, hits, bytesRead;
+	private long readNanos, waitNanos, validateNanos;
+
+	/**
+	 * Create prefetcher
+	 * @param maxFiles max number of files read ahead of the validators
+	 * @param budget   max bytes of prefetched content
+	 */
+	Prefetcher(int maxFiles, long budget) {
+		this.maxFiles = Math.max(1, maxFiles);
+		this.budget = budget;
+	}
+
+	/**
+	 * Content of a prefetched file
+	 */
+	static final class Buffer {
+		final byte[] data;
+		final int length;
+
+		Buffer(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	private static final class Entry {
+		int state = PENDING;
+		Buffer buffer;
+	}
+
+	/**
+	 * Start reading files in background thread
+	 * @param order files in the order they will be validated
+	 */
+	void start(final List<File> order) {
+		stop();
+		final Map<File, Entry> map = new HashMap<>();
+		for (File f : order) {
+			map.put(f, new Entry());
+		}
+		synchronized (lock) {
+			entries = map;
+			next = order.isEmpty() ? null : map.get(order.get(0));
+			nextBuffer = 0;
+		}
+		thread = new Thread("prefetch") {
+			public void run() {
+				try {
+					for (int i = 0; i < order.size(); i++) {
+						Entry following = i + 1 < order.size() ? map.get(order.get(i + 1)) : null;
+						if (isInterrupted() || !prefetch(order.get(i), map.get(order.get(i)), following)) break;
+					}
+				} finally {
+					synchronized (lock) {
+						next = null;
+						lock.notifyAll();
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop background thread and release buffers of files not validated
+	 */
+	void stop() {
+		if (thread == null) return;
+		thread.interrupt();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		synchronized (lock) {
+			for (Entry e : entries.values()) {
+				if (e.buffer != null) release(e.buffer);
+				e.buffer = null;
+			}
+			entries = null;
+			ready = 0;
+		}
+	}
+
+	// read file if it has not already been taken, return false if interrupted
+	private boolean prefetch(File f, Entry e, Entry following) {
+		final long size = f.length();
+		final String name = f.getName().toLowerCase(Locale.ROOT);
+		final boolean zip = name.endsWith(".kmz") || ArchiveExplorer.isArchive(f);
+		final int length = zip ? (int) Math.min(size, ZIP_TAIL) : (int) size;
+		byte[] data;
+		synchronized (lock) {
+			if (e.state == PENDING && (size == 0 || size > Integer.MAX_VALUE - 8 || bufferSize(length) > budget)) {
+				e.state = SKIPPED;
+			}
+			nextBuffer = bufferSize(length);
+			// wait for validators to catch up
+			while (e.state == PENDING && !canRead()) {
+				lock.notifyAll(); // validator waiting on this entry reads it instead
+				try {
+					lock.wait();
+				} catch (InterruptedException ie) {
+					return false;
+				}
+			}
+			if (e.state != PENDING) {
+				// validator got there first
+				next = following;
+				nextBuffer = 0;
+				lock.notifyAll();
+				return true;
+			}
+			data = acquire(length);
+			e.state = READING;
+		}
+		long start = System.nanoTime();
+		int n = 0;
+		try {
+			if (zip) {
+				try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+					raf.seek(size - length);
+					raf.readFully(data, 0, length);
+				}
+				n = length;
+			} else {
+				try (InputStream in = new FileInputStream(f)) {
+					int count;
+					while (n < length && (count = in.read(data, n, length - n)) != -1) {
+						n += count;
+					}
+				}
+				// file changed since its size was checked
+				if (n != size || f.length() != size) n = -1;
+			}
+		} catch (IOException ex) {
+			n = -1; // validator reads file and reports error
+		}
+		long elapsed = System.nanoTime() - start;
+		synchronized (lock) {
+			readNanos += elapsed;
+			files++;
+			if (n > 0) bytesRead += n;
+			if (n == -1 || zip) {
+				// central directory is only read to warm the OS cache
+				release(data);
+				e.state = SKIPPED;
+			} else {
+				e.buffer = new Buffer(data, n);
+				e.state = READY;
+				ready++;
+			}
+			next = following;
+			nextBuffer = 0;
+			lock.notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Take prefetched content of file. Must be called once for each file that is
+	 * validated so the prefetcher does not read files that are already validated.
+	 * @param f file to validate
+	 * @return buffer or null if file was not prefetched
+	 */
+	Buffer take(File f) {
+		long start = System.nanoTime();
+		synchronized (lock) {
+			Entry e = entries == null ? null : entries.get(f);
+			if (e == null) return null;
+			try {
+				// wait for read in progress or about to start
+				while (e.state == READING || e.state == PENDING && e == next && canRead()) {
+					lock.wait();
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			waitNanos += System.nanoTime() - start;
+			Buffer buffer = null;
+			if (e.state == READY) {
+				hits++;
+				ready--;
+				buffer = e.buffer;
+				e.buffer = null;
+			}
+			e.state = SKIPPED;
+			lock.notifyAll();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Return buffer of validated file to the pool
+	 * @param buffer Buffer
+	 */
+	void release(Buffer buffer) {
+		synchronized (lock) {
+			release(buffer.data);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Add time spent validating a file excluding time waiting on its content
+	 * @param nanos elapsed nanoseconds
+	 */
+	void addValidateTime(long nanos) {
+		synchronized (lock) {
+			validateNanos += nanos;
+		}
+	}
+
+	// true if background thread is not blocked by the read-ahead limits (lock held)
+	private boolean canRead() {
+		return ready < maxFiles && used + nextBuffer <= budget;
+	}
+
+	static int bufferSize(int length) {
+		int size = MIN_BUFFER;
+		while (size < length && size > 0) size <<= 1;
+		return size > 0 ? size : length;
+	}
+
+	// get smallest pooled buffer that fits or allocate new one (lock held)
+	private byte[] acquire(int length) {
+		byte[] best = null;
+		for (byte[] b : pool) {
+			if (b.length >= length && (best == null || b.length < best.length)) best = b;
+		}
+		if (best != null && best.length <= bufferSize(length)) {
+			pool.remove(best);
+			pooled -= best.length;
+		} else {
+			best = new byte[bufferSize(length)];
+		}
+		used += best.length;
+		trim();
+		return best;
+	}
+
+	// return buffer to pool and drop pooled buffers beyond the budget (lock held)
+	private void release(byte[] data) {
+		used -= data.length;
+		pool.add(data);
+		pooled += data.length;
+		trim();
+	}
+
+	private void trim() {
+		for (Iterator<byte[]> it = pool.iterator(); pooled + used > budget && it.hasNext(); ) {
+			byte[] b = it.next();
+			it.remove();
+			pooled -= b.length;
+		}
+	}
+
+	/**
+	 * Get summary of the read-ahead pipeline
+	 * @return one line summary of files read ahead, I/O time, I/O wait and validation time
+	 */
+	String getSummary() {
+		synchronized (lock) {
+			return String.format("Read-ahead files: %d  Hits: %d  Bytes: %d  I/O: %d ms  I/O wait: %d ms  Validation: %d ms",
+					files, hits, bytesRead, readNanos / 1000000, waitNanos / 1000000, validateNanos / 1000000);
+		}
+	}
+
+	long getHits() {
+		synchronized (lock) {
+			return hits;
+		}
+	}
+}
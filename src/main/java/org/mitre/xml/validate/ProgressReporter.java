@@ -0,0 +1,372 @@
+/*
+ *  ProgressReporter.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prints periodic snapshots of the progress of a long validation run: files and
+ * bytes per second, files done versus discovered, files with errors, the slowest
+ * file currently being validated and the estimated time remaining.
+ *
+ * Directories are counted by a walk on a background thread that runs alongside
+ * validation so the run is not delayed. Until the walk completes the number of
+ * discovered files is a lower bound and no ETA is given.
+ *
+ * Counters are {@link LongAdder}s and each validating thread records its current
+ * file in its own slot so updates do not contend with other validating threads.
+ * Snapshots may optionally be exported to a properties file that is replaced on
+ * each update.
+ *
+ * @author Jason Mathews
+ */
+public class ProgressReporter {
+
+	/** Default interval between snapshots in milliseconds */
+	public static final long DEFAULT_INTERVAL = 10000;
+
+	private final PrintStream out;
+	private final long interval;
+	private File exportFile;
+
+	private final LongAdder discovered = new LongAdder();
+	private final LongAdder discoveredBytes = new LongAdder();
+	private final LongAdder done = new LongAdder();
+	private final LongAdder doneBytes = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final AtomicInteger walks = new AtomicInteger(); // directory walks in progress
+
+	private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Slot> slot = new ThreadLocal<Slot>() {
+		protected Slot initialValue() {
+			Slot s = new Slot();
+			slots.add(s);
+			return s;
+		}
+	};
+
+	private volatile long startNanos = System.nanoTime();
+	private Thread thread;
+
+	/**
+	 * Create reporter
+	 * @param out      stream snapshots are printed to, null to only export snapshots
+	 * @param interval milliseconds between snapshots
+	 */
+	public ProgressReporter(PrintStream out, long interval) {
+		this.out = out;
+		this.interval = Math.max(100, interval);
+	}
+
+	/**
+	 * @param exportFile properties file replaced with each snapshot, null to disable
+	 */
+	public void setExportFile(File exportFile) {
+		this.exportFile = exportFile;
+	}
+
+	/**
+	 * File being validated by a thread
+	 */
+	private static final class InFlight {
+		final String name;
+		final long start;
+
+		InFlight(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+	}
+
+	private static final class Slot {
+		volatile InFlight current;
+	}
+
+	/**
+	 * Count target files in file or directory. Directories are walked on a
+	 * background thread.
+	 * @param target file or directory
+	 * @param filter accepts target files and directories to walk
+	 */
+	void discover(final File target, final FileFilter filter) {
+		if (!target.isDirectory()) {
+			discovered(target.length());
+			return;
+		}
+		walks.incrementAndGet();
+		Thread walker = new Thread("progress-count") {
+			public void run() {
+				try {
+					walk(target, filter);
+				} finally {
+					walks.decrementAndGet();
+				}
+			}
+		};
+		walker.setDaemon(true);
+		walker.start();
+	}
+
+	private void walk(File dir, FileFilter filter) {
+		File[] files = dir.listFiles(filter);
+		if (files == null) return;
+		for (File f : files) {
+			if (f.isDirectory()) walk(f, filter);
+			else discovered(f.length());
+		}
+	}
+
+	/**
+	 * Count target whose size is given
+	 * @param bytes size of target, 0 if not known
+	 */
+	void discovered(long bytes) {
+		discovered.increment();
+		discoveredBytes.add(bytes);
+	}
+
+	/**
+	 * Mark start of file validated by the current thread
+	 * @param name name of file
+	 */
+	void begin(String name) {
+		slot.get().current = new InFlight(name, System.nanoTime());
+	}
+
+	/**
+	 * Mark end of file validated by the current thread
+	 * @param bytes     size of file
+	 * @param hasErrors true if file has errors
+	 */
+	void end(long bytes, boolean hasErrors) {
+		slot.get().current = null;
+		done.increment();
+		doneBytes.add(bytes);
+		if (hasErrors) failed.increment();
+	}
+
+	/**
+	 * @return true if a directory walk is still counting files
+	 */
+	public boolean isCounting() {
+		return walks.get() != 0;
+	}
+
+	/**
+	 * Start printing snapshots at the fixed interval
+	 */
+	public synchronized void start() {
+		if (thread != null) return;
+		startNanos = System.nanoTime();
+		thread = new Thread("progress") {
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Thread.sleep(interval);
+						report(snapshot());
+					}
+				} catch (InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop periodic snapshots and report the final snapshot
+	 */
+	public synchronized void stop() {
+		if (thread == null) return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		report(snapshot());
+	}
+
+	private void report(Snapshot snapshot) {
+		if (out != null) out.println(snapshot);
+		if (exportFile != null) {
+			try {
+				export(snapshot);
+			} catch (IOException e) {
+				if (out != null) out.println("WARN: cannot export progress: " + e);
+			}
+		}
+	}
+
+	// write to temporary file then replace export file so readers never see a partial file
+	private void export(Snapshot snapshot) throws IOException {
+		File dir = exportFile.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("progress", ".tmp", dir);
+		try {
+			try (OutputStream os = new FileOutputStream(tmp)) {
+				snapshot.toProperties().store(os, "XmlValidate progress");
+			}
+			try {
+				Files.move(tmp.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Take snapshot of the current counters
+	 * @return Snapshot
+	 */
+	public Snapshot snapshot() {
+		long now = System.nanoTime();
+		String slowest = null;
+		long slowestStart = 0;
+		for (Slot s : slots) {
+			InFlight f = s.current;
+			if (f != null && (slowest == null || f.start < slowestStart)) {
+				slowest = f.name;
+				slowestStart = f.start;
+			}
+		}
+		// read completion of the walk before the counts so a complete count is not missed
+		boolean counted = walks.get() == 0;
+		return new Snapshot(now - startNanos, done.sum(), doneBytes.sum(), failed.sum(),
+				discovered.sum(), discoveredBytes.sum(), counted,
+				slowest, slowest == null ? 0 : now - slowestStart);
+	}
+
+	/**
+	 * Progress counters at one point in time
+	 */
+	public static final class Snapshot {
+
+		private final long elapsedNanos;
+		private final long done, doneBytes, failed;
+		private final long discovered, discoveredBytes;
+		private final boolean counted;
+		private final String slowest;
+		private final long slowestNanos;
+
+		Snapshot(long elapsedNanos, long done, long doneBytes, long failed, long discovered,
+				 long discoveredBytes, boolean counted, String slowest, long slowestNanos) {
+			this.elapsedNanos = elapsedNanos;
+			this.done = done;
+			this.doneBytes = doneBytes;
+			this.failed = failed;
+			// files may be validated before the walk counts them
+			this.discovered = Math.max(discovered, done);
+			this.discoveredBytes = Math.max(discoveredBytes, doneBytes);
+			this.counted = counted;
+			this.slowest = slowest;
+			this.slowestNanos = slowestNanos;
+		}
+
+		public long getDone() {
+			return done;
+		}
+
+		public long getDiscovered() {
+			return discovered;
+		}
+
+		/**
+		 * @return true if all targets have been counted
+		 */
+		public boolean isCounted() {
+			return counted;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		public double getFilesPerSecond() {
+			return elapsedNanos == 0 ? 0 : done * 1e9 / elapsedNanos;
+		}
+
+		public double getBytesPerSecond() {
+			return elapsedNanos == 0 ? 0 : doneBytes * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @return name of file in progress the longest or null if none
+		 */
+		public String getSlowest() {
+			return slowest;
+		}
+
+		/**
+		 * @return estimated seconds remaining or -1 if not known
+		 */
+		public long getEtaSeconds() {
+			if (!counted) return -1;
+			if (done == discovered) return 0;
+			// estimate by bytes if sizes are known otherwise by number of files
+			if (doneBytes > 0 && discoveredBytes > doneBytes)
+				return Math.round((discoveredBytes - doneBytes) / getBytesPerSecond());
+			if (done > 0)
+				return Math.round((discovered - done) / getFilesPerSecond());
+			return -1;
+		}
+
+		Properties toProperties() {
+			Properties p = new Properties();
+			p.setProperty("elapsed.seconds", Long.toString(elapsedNanos / 1000000000L));
+			p.setProperty("files.done", Long.toString(done));
+			p.setProperty("files.discovered", Long.toString(discovered));
+			p.setProperty("files.counted", Boolean.toString(counted));
+			p.setProperty("files.errors", Long.toString(failed));
+			p.setProperty("bytes.done", Long.toString(doneBytes));
+			p.setProperty("bytes.discovered", Long.toString(discoveredBytes));
+			p.setProperty("files.per.second", String.format("%.2f", getFilesPerSecond()));
+			p.setProperty("bytes.per.second", String.format("%.0f", getBytesPerSecond()));
+			p.setProperty("eta.seconds", Long.toString(getEtaSeconds()));
+			if (slowest != null) {
+				p.setProperty("slowest.file", slowest);
+				p.setProperty("slowest.seconds", String.format("%.1f", slowestNanos / 1e9));
+			}
+			return p;
+		}
+
+		private static String formatTime(long seconds) {
+			return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("Progress: %d/%d%s files", done, discovered, counted ? "" : "+"));
+			if (counted && discovered != 0) sb.append(String.format(" (%.1f%%)", 100.0 * done / discovered));
+			sb.append(String.format("  %.1f files/s  %.2f MB/s  errors: %d (%.1f%%)",
+					getFilesPerSecond(), getBytesPerSecond() / (1024 * 1024),
+					failed, done == 0 ? 0.0 : 100.0 * failed / done));
+			if (slowest != null) sb.append(String.format("  slowest: %s %.1f s", slowest, slowestNanos / 1e9));
+			long eta = getEtaSeconds();
+			sb.append("  ETA: ").append(eta == -1 ? "estimating" : formatTime(eta));
+			return sb.toString();
+		}
+	}
+}
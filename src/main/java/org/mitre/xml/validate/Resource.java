@@ -15,12 +15,20 @@ import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.zip.ZipInputStream;
 
 /**
  * Abstract Resource object used by XmlValidator
@@ -32,16 +40,21 @@ import java.util.Set;
  * Changes:
  *  03/23/09 Suppress printing error context for XML Schema errors as opposed
  *           to validation errors in the target XML source.
+ *  10/18/26 Look up error context with a line offset index so context is printed
+ *           for every error regardless of order and for errors on the same line.
  */
 public abstract class Resource implements ErrorHandler {
 
+    // output operations are thread-safe so one outputter serializes all documents
+    private static final XMLOutputter OUTPUTTER = new XMLOutputter(org.jdom2.output.Format.getPrettyFormat());
+
     protected Document doc;
 
     private String schemaNamespace;
 
 	protected final String targetFile;
 
-    private LineNumberReader lnr;
+    private LineIndex lineIndex; // built on first error that needs context
 
     private boolean schemaPrinted;
 
@@ -52,6 +65,8 @@ public abstract class Resource implements ErrorHandler {
 
     private String xmlContent;
 
+    private boolean parseRead; // content is being read by getDocument
+
     protected final PrintStream out;
 
     int warnings;
@@ -62,9 +77,21 @@ public abstract class Resource implements ErrorHandler {
 
     private int dumpLevel;
     private int dumpLimit;
+    private DumpWriter dumpWriter;
+    private ValidationScheduler.Item deferred; // file validated by worker whose header and dump are replayed in order
     protected final boolean debug;
     private String defaultNamespace;
 
+    private CancellationToken token;
+
+    private DuplicateIndex.ContentDigest digest;
+
+    private ArchiveLimits archiveLimits;
+
+    private String rootName, rootNamespace; // root element as parsed before namespace is mapped
+
+    private List<ValidationResult.Issue> issues; // recorded warnings and errors, null if not recorded
+
     public Resource(PrintStream out, String target, String schemaNamespace) {
         this.out = out;
         this.targetFile = target;
@@ -84,7 +111,10 @@ public abstract class Resource implements ErrorHandler {
 
     public void printFile() {
         if (!printed) {
-            if (targetFile != null) out.println("\nCheck: " + targetFile);
+            if (targetFile != null) {
+                if (deferred != null) deferred.addHeader(targetFile);
+                else out.println("\nCheck: " + targetFile);
+            }
             printed = true;
         }
         // dump XML for dump Level == 1 (on error condition)
@@ -94,22 +124,156 @@ public abstract class Resource implements ErrorHandler {
 
     public void dumpContent() {
         if (dumpLevel != 0 && xmlContent != null) {
-            String outContent = xmlContent;
-            if (dumpLimit > 0 && xmlContent.length() > dumpLimit)
-                outContent = xmlContent.substring(0, dumpLimit) + "...";  // dump partial output
-            out.println(outContent);
-            out.println();
+            if (deferred != null) deferred.addDump(targetFile, xmlContent);
+            else dump(out, targetFile, xmlContent, dumpLimit, dumpWriter);
             dumpLevel = 0; // don't dump again
         }
     }
 
-    public abstract Document getDocument(SAXBuilder builder) throws JDOMException, IOException;
+    /**
+     * Print dump of XML content or write it to a dump file
+     * @param out        PrintStream
+     * @param target     name of resource
+     * @param xmlContent reformatted XML content
+     * @param dumpLimit  max number of characters to dump, 0 for no limit
+     * @param dumpWriter writer of dump files, null to print dump
+     */
+    static void dump(PrintStream out, String target, String xmlContent, int dumpLimit, DumpWriter dumpWriter) {
+        if (dumpWriter != null) {
+            // write dump file in background
+            File file = dumpWriter.dump(target, xmlContent, dumpLimit);
+            out.println("dump: " + file);
+        } else {
+            // write only the first dumpLimit characters without copying rest of the content
+            int len = xmlContent.length();
+            if (dumpLimit > 0 && len > dumpLimit) {
+                out.append(xmlContent, 0, dumpLimit).print("...");  // dump partial output
+            } else {
+                out.print(xmlContent);
+            }
+            out.println();
+            out.println();
+        }
+    }
+
+    /**
+     * @return content that {@link #printFile()} would dump or null if none
+     */
+    String getPendingDump() {
+        return dumpLevel == 1 ? xmlContent : null;
+    }
+
+    /**
+     * Build JDOM Document from the content of this resource. The document
+     * is built once and the same instance returned on subsequent calls.
+     *
+     * @param builder SAXBuilder
+     * @return Document
+     * @throws JDOMException if document is not well-formed XML
+     * @throws IOException if an I/O error occurs
+     */
+    public Document getDocument(final SAXBuilder builder) throws JDOMException, IOException {
+        if (doc == null) {
+            final ValidationEvents.Parse event = new ValidationEvents.Parse();
+            event.begin();
+            parseRead = true;
+            try {
+                doc = read(new InputReader<Document>() {
+                    public Document read(InputStream in, String systemId) throws JDOMException, IOException {
+                        return builder.build(in, systemId);
+                    }
+                });
+                rootName = doc.getRootElement().getName();
+                rootNamespace = doc.getRootElement().getNamespaceURI();
+            } finally {
+                parseRead = false;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.source = getSource();
+                    event.bytes = getContentLength();
+                    event.namespace = rootNamespace;
+                    event.failed = doc == null;
+                    event.commit();
+                }
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Check if content is being read to be parsed into the document, as opposed to
+     * read again (e.g. to scan its root element or hash it) which a reopenable
+     * resource should not count in totals such as the total size of an archive.
+     *
+     * @return true while content is read by {@link #getDocument(SAXBuilder)}
+     */
+    protected boolean isParseRead() {
+        return parseRead;
+    }
+
+    /**
+     * Open content of this resource and pass it to given reader. For KMZ resources
+     * the content is the KML entry. The stream is closed after the reader returns
+     * so the reader is free to read only as much of the content as it needs.
+     *
+     * @param reader InputReader
+     * @return result of reader
+     * @throws JDOMException if reader fails to parse the content
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract <T> T read(InputReader<T> reader) throws JDOMException, IOException;
+
+    /**
+     * Check if the content of this resource can be read more than once at little cost
+     * (e.g. files but not URLs).
+     *
+     * @return true if {@link #read(InputReader)} may be called multiple times
+     */
+    public boolean isReopenable() {
+        return false;
+    }
+
+    /**
+     * Get length of the content of this resource if known without reading it.
+     *
+     * @return length in bytes or -1 if not known
+     */
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Get CRC-32 of the content of this resource if known without reading it
+     * (e.g. from the zip directory).
+     *
+     * @return CRC-32 or -1 if not known
+     */
+    public long getContentCrc() {
+        return -1;
+    }
+
+    /**
+     * Set digest to which all content read from this resource is added.
+     * @param digest ContentDigest, null to disable
+     */
+    void setDigest(DuplicateIndex.ContentDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Set writer of dump files. If not set the dump is printed to the output stream.
+     * @param dumpWriter DumpWriter, may be null
+     */
+    void setDumpWriter(DumpWriter dumpWriter) {
+        this.dumpWriter = dumpWriter;
+    }
 
 	public Set<String> getStats() {
 		return stats;
 	}
     
     private void handleException(String s, SAXParseException exception) {
+        if (issues != null) addIssue(s, exception);
         if (summary) {
 			/*
 			cvc-attribute.3: The value '6742738' of attribute 'id' on element 'Placemark' is not valid with respect to its type, 'ID'.
@@ -147,35 +311,12 @@ public abstract class Resource implements ErrorHandler {
         // if systemId not null then assume error is in XML Schema not XML source
         // so don't try to show error context in XML source.
         // TODO: can systemId be non-null and have error in XML source ??
-        if (lnr != null && lineNumber != -1 && sysId == null) {
-            try {
-                String line = null;
-                // line numbers show be in increasing order so should never have to backtrack
-                if (lnr.getLineNumber() > lineNumber) {
-                    lnr.reset();
-                    if (debug) System.err.println("DEBUG: reset line number: " + lnr.getLineNumber());
-                }
-                while (lnr.getLineNumber() < lineNumber && (line = lnr.readLine()) != null) {
-                    // skip lines until we reach target line number
-                }
-                if (line != null && line.length() != 0) {
-                    int col = exception.getColumnNumber() - 1;
-                    //out.println("col=" + col + " ll="+line.length());
-                    if (col > 0 && col <= line.length()) {
-                        if (col > 80)
-                            line = "..." + line.substring(col - 50, col) + "***" + line.substring(col);
-                        else
-                            line = line.substring(0, col) + "***" + line.substring(col);
-                    } // else out.format("linelen: %d col: %d%n", line.length(), col);
-                    line = line.trim();
-                    if (line.length() > 80)
-                        line = line.substring(0, 78) + "...";
-                    out.format("%d: %s%n", lineNumber, line);
-                }
-            } catch (IOException e) {
-                if (debug) e.printStackTrace();
-                // otherwise ignore
-            }
+        if (xmlContent != null && lineNumber != -1 && sysId == null) {
+            // errors may be reported in any order and several on the same line
+            // so lines are looked up by offset rather than read sequentially
+            if (lineIndex == null) lineIndex = new LineIndex(xmlContent);
+            String line = lineIndex.getContext(lineNumber, exception.getColumnNumber());
+            if (line != null) out.format("%d: %s%n", lineNumber, line);
         }
     }
 
@@ -194,23 +335,141 @@ public abstract class Resource implements ErrorHandler {
         errors++;
     }
 
+    /**
+     * Record warnings and errors as issues in addition to printing them
+     */
+    void recordIssues() {
+        if (issues == null) issues = new ArrayList<>();
+    }
+
+    /**
+     * @return recorded issues or null if issues are not recorded
+     */
+    List<ValidationResult.Issue> getIssues() {
+        return issues;
+    }
+
+    /**
+     * Record issue if issues are recorded
+     * @param severity Severity
+     * @param code     error code or category, may be null
+     * @param message  error message
+     * @param line     line number or -1 if not known
+     * @param column   column number or -1 if not known
+     */
+    void addIssue(ValidationResult.Severity severity, String code, String message, int line, int column) {
+        if (issues != null) issues.add(new ValidationResult.Issue(severity, code, message, line, column, null));
+    }
+
+    /**
+     * @param message error message
+     * @return error code (e.g. cvc-complex-type.2.4.a) or null if message has no code
+     */
+    static String getErrorCode(String message) {
+        // e.g. cvc-complex-type.2.4.a: Invalid content was found ...
+        int ind = message.indexOf(": ");
+        return ind > 0 && message.lastIndexOf(' ', ind) == -1 ? message.substring(0, ind) : null;
+    }
+
+    private void addIssue(String s, SAXParseException exception) {
+        String message = String.valueOf(exception.getMessage());
+        String code = getErrorCode(message);
+        int lineNumber = exception.getLineNumber();
+        String context = null;
+        // errors with a systemId are in the XML Schema not the XML source
+        if (xmlContent != null && lineNumber > 0 && exception.getSystemId() == null) {
+            if (lineIndex == null) lineIndex = new LineIndex(xmlContent);
+            context = lineIndex.getContext(lineNumber, exception.getColumnNumber());
+        }
+        ValidationResult.Severity severity = "WARN".equals(s) ? ValidationResult.Severity.WARNING
+                : "FATAL".equals(s) ? ValidationResult.Severity.FATAL : ValidationResult.Severity.ERROR;
+        issues.add(new ValidationResult.Issue(severity, code, message, lineNumber, exception.getColumnNumber(), context));
+    }
+
+    /**
+     * @return local name of root element or null if document has not been parsed
+     */
+    public String getRootName() {
+        return rootName;
+    }
+
+    /**
+     * @return namespace URI of root element as given in the document or null if
+     *      document has not been parsed
+     */
+    public String getRootNamespace() {
+        return rootNamespace;
+    }
+
     public String getXmlContent() {
         if (xmlContent == null) {
-            XMLOutputter xo = new XMLOutputter();
-            xo.setFormat(org.jdom2.output.Format.getPrettyFormat());
+            try {
+                serialize(null);
+            } catch (IOException e) {
+                // StringWriter does not throw IOException
+                throw new IllegalStateException(e);
+            }
+        }
+        return xmlContent;        
+    }
 
-            // TODO: non-UTF8 encoding is overriden with UTF-8 type
+    /**
+     * Serialize XML content if not already serialized. The cancellation token is
+     * checked after each block of output so a timeout also stops serializing a
+     * large document.
+     * @throws ResourceTimeoutException if deadline of token has passed
+     * @throws InterruptedIOException if token is cancelled
+     */
+    void serialize() throws IOException {
+        if (xmlContent == null) serialize(token);
+    }
 
-            xmlContent = xo.outputString(doc);
-            lnr = new LineNumberReader(new StringReader(xmlContent));
+    private void serialize(CancellationToken token) throws IOException {
+        final ValidationEvents.Serialize event = new ValidationEvents.Serialize();
+        event.begin();
+        // TODO: non-UTF8 encoding is overriden with UTF-8 type
+
+        final StringWriter sw = new StringWriter();
+        if (token == null) OUTPUTTER.output(doc, sw);
+        else {
+            // buffer output so token is checked once per block not for each write
+            Writer writer = new BufferedWriter(token.wrap(sw), 8192);
+            OUTPUTTER.output(doc, writer);
+            writer.flush();
         }
-        return xmlContent;        
+        xmlContent = sw.toString();
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = getSource();
+            event.length = xmlContent.length();
+            event.commit();
+        }
+    }
+
+    /**
+     * @return length in characters of the serialized XML content or -1 if not serialized
+     */
+    int getXmlContentLength() {
+        return xmlContent == null ? -1 : xmlContent.length();
+    }
+
+    /**
+     * Serialize XML content then release the parsed document so only the
+     * content is held in memory while it is validated.
+     */
+    void releaseDocument() throws IOException {
+        serialize();
+        doc = null;
     }
 
     public String getDefaultNamespace() {
 		return defaultNamespace;
     }
 
+    public String getSchemaNamespace() {
+        return schemaNamespace;
+    }
+
     public void setSchemaNamespace(String schemaNamespace) {
         this.schemaNamespace = schemaNamespace;
     }
@@ -227,17 +486,94 @@ public abstract class Resource implements ErrorHandler {
         this.summary = summary;
     }
 
+    public CancellationToken getCancellationToken() {
+        return token;
+    }
+
+    /**
+     * Set token checked while reading, parsing and validating this resource.
+     * @param token CancellationToken, null to disable checks
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Wrap input stream so reads honor the cancellation token if one is set
+     * and content is added to the digest if one is set.
+     * @param in InputStream
+     * @return wrapped stream or original stream if no token is set
+     */
+    protected InputStream wrap(InputStream in) {
+        if (digest != null) in = digest.wrap(in);
+        return token == null ? in : token.wrap(in);
+    }
+
+    /**
+     * Wrap reader so reads honor the cancellation token if one is set.
+     * @param in Reader
+     * @return wrapped reader or original reader if no token is set
+     */
+    protected Reader wrap(Reader in) {
+        return token == null ? in : token.wrap(in);
+    }
+
+    public ArchiveLimits getArchiveLimits() {
+        return archiveLimits;
+    }
+
+    /**
+     * Set limits enforced while inflating compressed content of this resource.
+     * @param archiveLimits ArchiveLimits, null for no limits
+     */
+    public void setArchiveLimits(ArchiveLimits archiveLimits) {
+        this.archiveLimits = archiveLimits;
+    }
+
+    /**
+     * Create tracker of entries and bytes read from archive of this resource
+     * @return tracker or null if no limits are set
+     */
+    protected ArchiveLimits.Tracker newTracker() {
+        return archiveLimits == null ? null : archiveLimits.newTracker(targetFile);
+    }
+
+    /**
+     * Limit inflated content of archive entry if a tracker is given
+     * @see ArchiveLimits.Tracker#limit(InputStream, String, ArchiveLimits.CountingInputStream, long)
+     */
+    protected static InputStream limit(ArchiveLimits.Tracker tracker, InputStream in, String name,
+                                       ArchiveLimits.CountingInputStream compressed, long compressedSize) {
+        return tracker == null ? in : tracker.limit(in, name, compressed, compressedSize);
+    }
+
+    /**
+     * Limit inflated content of archive entry if a tracker is given, adding its
+     * bytes to the total size of the archive only if countTotal is true
+     * @see ArchiveLimits.Tracker#limit(InputStream, String, ArchiveLimits.CountingInputStream, long, boolean)
+     */
+    protected static InputStream limit(ArchiveLimits.Tracker tracker, InputStream in, String name,
+                                       ArchiveLimits.CountingInputStream compressed, long compressedSize,
+                                       boolean countTotal) {
+        return tracker == null ? in : tracker.limit(in, name, compressed, compressedSize, countTotal);
+    }
+
+    /**
+     * Create zip stream whose entries are limited if a tracker is given, including
+     * the entries skipped without being read
+     * @see ArchiveLimits.Tracker#newZipInputStream(ArchiveLimits.CountingInputStream, String)
+     */
+    protected static ZipInputStream newZipInputStream(ArchiveLimits.Tracker tracker,
+                                                      ArchiveLimits.CountingInputStream compressed) {
+        return tracker == null ? new ZipInputStream(compressed) : tracker.newZipInputStream(compressed, "");
+    }
+
     public void setDefaultNamespace(String defaultNamespace) {
 		this.defaultNamespace = defaultNamespace;
     }
 
     public void close() {
-        if (lnr != null)
-            try {
-                lnr.close();
-            } catch (IOException e) {
-                // ignore
-            }
+        lineIndex = null;
     }
 
     /*
@@ -251,4 +587,29 @@ public abstract class Resource implements ErrorHandler {
 		return printed;
 	}
 
+    /**
+     * Defer printing the header and dump of this resource to when the output of
+     * the file validated by a worker is replayed.
+     * @param deferred file being validated, null to print directly
+     */
+    void setDeferred(ValidationScheduler.Item deferred) {
+        this.deferred = deferred;
+    }
+
+    /**
+     * Callback used to read the content of a resource.
+     */
+    public interface InputReader<T> {
+
+        /**
+         * Read content of resource
+         * @param in input stream of resource content
+         * @param systemId system id of resource used to resolve relative references
+         * @return result
+         * @throws JDOMException if content fails to parse
+         * @throws IOException if an I/O error occurs
+         */
+        T read(InputStream in, String systemId) throws JDOMException, IOException;
+    }
+
 }
@@ -0,0 +1,33 @@
+/*
+ *  ResourceTimeoutException.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Signals that reading, parsing or validating a resource exceeded
+ * the per-resource timeout.
+ *
+ * @author Jason Mathews
+ */
+public class ResourceTimeoutException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long timeout;
+
+	public ResourceTimeoutException(long timeout) {
+		super("validation timed out after " + timeout + " ms");
+		this.timeout = timeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+}
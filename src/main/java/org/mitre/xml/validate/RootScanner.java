@@ -0,0 +1,151 @@
+/*
+ *  RootScanner.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.JDOMException;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the prolog and the start tag of the root element of an XML document
+ * without parsing the rest of the document. Used to collect the root element
+ * name and namespace declarations of large numbers of documents at close to the
+ * speed the content can be read.
+ *
+ * DTDs are neither loaded nor processed.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Jason Mathews
+ */
+public class RootScanner implements Resource.InputReader<RootScanner.Root> {
+
+	private final XMLInputFactory factory;
+
+	public RootScanner() {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Scan root element of document
+	 * @param in       input stream positioned at start of document
+	 * @param systemId system id of document
+	 * @return root element
+	 * @throws JDOMException if the document is not well-formed up to the end of the root start tag
+	 * @throws IOException if an I/O error occurs
+	 */
+	public Root read(InputStream in, String systemId) throws JDOMException, IOException {
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(systemId, in);
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					return new Root(reader);
+				}
+			}
+			throw new JDOMException("Error on line " + reader.getLocation().getLineNumber()
+					+ " of document " + systemId + ": Premature end of file.");
+		} catch (XMLStreamException e) {
+			throw new JDOMException(getMessage(e, systemId), e);
+		} catch (RuntimeException e) {
+			// StAX implementations wrap I/O errors in runtime exceptions
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			if (reader != null)
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// ignore
+				}
+		}
+	}
+
+	// format message same as JDOMParseException messages: Error on line N of document systemId: message
+	private static String getMessage(XMLStreamException e, String systemId) {
+		String msg = e.getMessage();
+		if (msg == null) msg = e.toString();
+		int ind = msg.indexOf("Message: ");
+		if (ind != -1) msg = msg.substring(ind + 9);
+		Location loc = e.getLocation();
+		return loc == null ? msg : "Error on line " + loc.getLineNumber() + " of document " + systemId + ": " + msg;
+	}
+
+	/**
+	 * Name and namespace declarations of the root element
+	 */
+	public static final class Root {
+
+		private final String name;
+		private final String prefix;
+		private final String namespaceURI;
+		private final Map<String, String> additionalNamespaces;
+
+		Root(XMLStreamReader reader) {
+			name = reader.getLocalName();
+			String p = reader.getPrefix();
+			prefix = p == null ? "" : p;
+			String uri = reader.getNamespaceURI();
+			namespaceURI = uri == null ? "" : uri;
+			Map<String, String> map = null;
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				String nsPrefix = reader.getNamespacePrefix(i);
+				if (nsPrefix == null) nsPrefix = "";
+				// namespace of element itself is not an additional namespace
+				if (nsPrefix.equals(prefix)) continue;
+				if (map == null) map = new LinkedHashMap<>();
+				String nsURI = reader.getNamespaceURI(i);
+				map.put(nsPrefix, nsURI == null ? "" : nsURI);
+			}
+			additionalNamespaces = map == null ? Collections.<String, String>emptyMap()
+					: Collections.unmodifiableMap(map);
+		}
+
+		/**
+		 * @return local name of root element
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return namespace prefix of root element, empty string if none
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * @return namespace URI of root element, empty string if none
+		 */
+		public String getNamespaceURI() {
+			return namespaceURI;
+		}
+
+		/**
+		 * @return map of prefix to namespace URI of namespaces declared on
+		 * the root element other than the namespace of the root element itself
+		 */
+		public Map<String, String> getAdditionalNamespaces() {
+			return additionalNamespaces;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ *  SemanticFilter.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * SAX filter in the validating parser that checks KML values the schemas only
+ * declare as strings: the lon,lat[,alt] tuples of <code>coordinates</code> and the
+ * space separated values of <code>gx:coord</code> and <code>gx:angles</code>.
+ * Longitude, latitude and angles must be numbers within their range. Colors and
+ * other angles are typed in the KML schemas, as are GPX lat/lon attributes, so
+ * schema validation already checks them.
+ *
+ * Values are scanned directly from the parser's character buffers, and may span
+ * calls to characters(), so no String or Double is created per value and the check
+ * runs in the same parse as schema validation.
+ *
+ * Errors are reported to the resource with the line and column of the tuple in the
+ * validated content, the same as schema errors. Only the first invalid tuple of an
+ * element is reported, followed by the count of the others, so a systematic error in
+ * a LineString with a million points is not reported a million times.
+ *
+ * @author Jason Mathews
+ */
+final class SemanticFilter extends XMLFilterImpl {
+
+	private static final String NS_KML22 = "http://www.opengis.net/kml/2.2";
+	private static final String NS_GOOGLE_KML = "http://earth.google.com/kml/";
+	private static final String NS_GOOGLE_KML_EXT = "http://www.google.com/kml/ext/2.2";
+
+	// elements checked
+	private static final int NONE = 0, COORDINATES = 1, GX_COORD = 2, GX_ANGLES = 3;
+
+	private static final String[] LABELS = { null, "coordinates", "gx:coord", "gx:angles" };
+	private static final String[] EXPECTED = { null, "lon,lat[,alt]", "lon lat alt", "heading tilt roll" };
+	private static final String[][] NAMES = {
+			null,
+			{ "longitude", "latitude", "altitude" },
+			{ "longitude", "latitude", "altitude" },
+			{ "heading", "tilt", "roll" }
+	};
+	private static final double[][] MIN = {
+			null,
+			{ -180, -90, Double.NEGATIVE_INFINITY },
+			{ -180, -90, Double.NEGATIVE_INFINITY },
+			{ -360, 0, -180 }
+	};
+	private static final double[][] MAX = {
+			null,
+			{ 180, 90, Double.POSITIVE_INFINITY },
+			{ 180, 90, Double.POSITIVE_INFINITY },
+			{ 360, 180, 180 }
+	};
+
+	// scanner states
+	private static final int BETWEEN = 0, NUMBER = 1, AFTER_COMMA = 2;
+
+	// problems with a tuple
+	private static final int OK = 0, BAD_NUMBER = 1, OUT_OF_RANGE = 2, BAD_COUNT = 3;
+
+	private static final double[] POW10 = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private Resource res;
+	private Locator locator;
+
+	private int mode;
+	private int state;
+	private int line, column; // position of next character
+
+	// current tuple
+	private int tuple;
+	private int values;
+	private int tupleLine, tupleColumn;
+	private int problem;
+	private int problemIndex;
+	private double problemValue;
+	private int badTuples;
+
+	// current number, kept in locals while scanning and saved between calls to characters()
+	private long mantissa;
+	private int significant;
+	private int scale;
+	private int exponent;
+	private int flags;
+
+	// number flags
+	private static final int NEGATIVE = 1, DIGIT = 2, DOT = 4, EXP = 8, EXP_NEGATIVE = 16, EXP_DIGIT = 32,
+			SIGN_ALLOWED = 64, BAD = 128;
+
+	/**
+	 * Check values of the next document for given resource
+	 * @param res Resource errors are reported to, null to pass events through unchecked
+	 */
+	void setResource(Resource res) {
+		this.res = res;
+		mode = NONE;
+	}
+
+	public void setDocumentLocator(Locator locator) {
+		this.locator = locator;
+		super.setDocumentLocator(locator);
+	}
+
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if (res != null) {
+			mode = NONE;
+			if ("coordinates".equals(localName)) {
+				if (uri.equals(NS_KML22) || uri.startsWith(NS_GOOGLE_KML)) mode = COORDINATES;
+			} else if (uri.equals(NS_GOOGLE_KML_EXT)) {
+				if ("coord".equals(localName)) mode = GX_COORD;
+				else if ("angles".equals(localName)) mode = GX_ANGLES;
+			}
+			if (mode != NONE) {
+				state = BETWEEN;
+				tuple = 0;
+				badTuples = 0;
+				line = locator == null ? -1 : locator.getLineNumber();
+				column = locator == null ? -1 : locator.getColumnNumber();
+				// gx:coord and gx:angles hold a single tuple
+				if (mode != COORDINATES) startTuple(column);
+			}
+		}
+		super.startElement(uri, localName, qName, atts);
+	}
+
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if (mode != NONE) {
+			if (state == NUMBER) endNumber(mantissa, scale, exponent, flags);
+			if (mode != COORDINATES) {
+				endTuple();
+			} else if (state != BETWEEN) {
+				// trailing comma is an empty value
+				if (state == AFTER_COMMA) emptyValue();
+				endTuple();
+			}
+			if (badTuples > 1) {
+				report("semantic-tuple: " + (badTuples - 1) + " more invalid tuples in " + LABELS[mode] + ".",
+						locator == null ? -1 : locator.getLineNumber(), locator == null ? -1 : locator.getColumnNumber());
+			}
+			mode = NONE;
+		}
+		super.endElement(uri, localName, qName);
+	}
+
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (mode != NONE) scan(ch, start, start + length);
+		super.characters(ch, start, length);
+	}
+
+	private void scan(char[] ch, int start, int end) throws SAXException {
+		final boolean coordinates = mode == COORDINATES;
+		int state = this.state;
+		long mantissa = this.mantissa;
+		int significant = this.significant, scale = this.scale, exponent = this.exponent, flags = this.flags;
+		// column of ch[i] is lineColumn + i - lineStart
+		int lineStart = start, lineColumn = column;
+		for (int i = start; i < end; i++) {
+			final char c = ch[i];
+			final int d = c - '0';
+			if (state == NUMBER && d >= 0 && d <= 9 && (flags & EXP) == 0) {
+				// fast path for digits of the mantissa
+				flags = (flags | DIGIT) & ~SIGN_ALLOWED;
+				if (significant < 18) {
+					mantissa = mantissa * 10 + d;
+					if (mantissa != 0) significant++;
+					if ((flags & DOT) != 0) scale++;
+				} else if ((flags & DOT) == 0) {
+					// digits beyond precision of mantissa only scale integer part
+					scale--;
+				}
+			} else if (c == ' ' || c == '\n' || c == '\t' || c == '\r') {
+				if (state == NUMBER) {
+					endNumber(mantissa, scale, exponent, flags);
+					if (coordinates) endTuple();
+					state = BETWEEN;
+				}
+				// whitespace after a comma is tolerated
+				if (c == '\n') {
+					line++;
+					lineStart = i + 1;
+					lineColumn = 1;
+				}
+			} else if (c == ',' && coordinates) {
+				if (state == NUMBER) {
+					endNumber(mantissa, scale, exponent, flags);
+				} else {
+					if (state == BETWEEN) startTuple(lineColumn + i - lineStart);
+					emptyValue();
+				}
+				state = AFTER_COMMA;
+			} else {
+				if (state != NUMBER) {
+					if (state == BETWEEN && coordinates) startTuple(lineColumn + i - lineStart);
+					state = NUMBER;
+					mantissa = 0;
+					significant = scale = exponent = 0;
+					flags = SIGN_ALLOWED;
+				}
+				if (d >= 0 && d <= 9) {
+					// digit of exponent or first digit of mantissa
+					if ((flags & EXP) != 0) {
+						if (exponent < 10000) exponent = exponent * 10 + d;
+						flags = (flags | EXP_DIGIT) & ~SIGN_ALLOWED;
+					} else {
+						mantissa = d;
+						if (d != 0) significant = 1;
+						flags = (flags | DIGIT) & ~SIGN_ALLOWED;
+					}
+				} else if ((c == '-' || c == '+') && (flags & SIGN_ALLOWED) != 0) {
+					if (c == '-') flags |= (flags & EXP) != 0 ? EXP_NEGATIVE : NEGATIVE;
+					flags &= ~SIGN_ALLOWED;
+				} else if (c == '.' && (flags & (DOT | EXP)) == 0) {
+					flags = (flags | DOT) & ~SIGN_ALLOWED;
+				} else if ((c == 'e' || c == 'E') && (flags & (DIGIT | EXP)) == DIGIT) {
+					flags |= EXP | SIGN_ALLOWED;
+				} else {
+					flags |= BAD;
+				}
+			}
+		}
+		column = lineColumn + end - lineStart;
+		this.state = state;
+		this.mantissa = mantissa;
+		this.significant = significant;
+		this.scale = scale;
+		this.exponent = exponent;
+		this.flags = flags;
+	}
+
+	private void startTuple(int column) {
+		tuple++;
+		values = 0;
+		problem = OK;
+		tupleLine = line;
+		tupleColumn = column;
+	}
+
+	private void endTuple() throws SAXException {
+		final int max = NAMES[mode].length;
+		final int min = mode == COORDINATES ? 2 : max;
+		if (problem == OK && (values < min || values > max)) problem = BAD_COUNT;
+		if (problem != OK && ++badTuples == 1) {
+			final String where = mode == COORDINATES ? "tuple " + tuple + " of coordinates" : LABELS[mode];
+			final String message;
+			switch (problem) {
+				case BAD_COUNT:
+					message = "semantic-tuple: Invalid " + where + ": found " + values
+							+ " values but expected " + EXPECTED[mode] + ".";
+					break;
+				case BAD_NUMBER:
+					message = "semantic-number: Value " + (problemIndex + 1) + " of " + where + " is not a number.";
+					break;
+				default:
+					message = "semantic-range: Value '" + problemValue + "' of " + NAMES[mode][problemIndex]
+							+ " in " + where + " is not within range [" + format(MIN[mode][problemIndex])
+							+ ", " + format(MAX[mode][problemIndex]) + "].";
+			}
+			report(message, tupleLine, tupleColumn);
+		}
+	}
+
+	private static String format(double d) {
+		return d == (long) d ? Long.toString((long) d) : Double.toString(d);
+	}
+
+	private void report(String message, int line, int column) throws SAXException {
+		res.error(new SAXParseException(message, null, null, line, column));
+	}
+
+	private void emptyValue() {
+		if (problem == OK) {
+			problem = BAD_NUMBER;
+			problemIndex = values;
+		}
+		values++;
+	}
+
+	private void endNumber(long mantissa, int scale, int exponent, int flags) {
+		final int index = values++;
+		if (problem != OK) return;
+		if ((flags & (BAD | DIGIT)) != DIGIT || (flags & (EXP | EXP_DIGIT)) == EXP) {
+			problem = BAD_NUMBER;
+			problemIndex = index;
+			return;
+		}
+		if (index >= NAMES[mode].length) return; // reported as count at end of tuple
+		double value = mantissa;
+		final int e10 = ((flags & EXP_NEGATIVE) != 0 ? -exponent : exponent) - scale;
+		if (e10 > 0) value *= e10 < POW10.length ? POW10[e10] : Math.pow(10, e10);
+		else if (e10 < 0) value /= -e10 < POW10.length ? POW10[-e10] : Math.pow(10, -e10);
+		if ((flags & NEGATIVE) != 0) value = -value;
+		if (value < MIN[mode][index] || value > MAX[mode][index]) {
+			problem = OUT_OF_RANGE;
+			problemIndex = index;
+			problemValue = value;
+		}
+	}
+}
@@ -0,0 +1,617 @@
+/*
+ *  StreamValidator.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Validates a continuous sequence of small XML messages (e.g. Cursor-on-Target
+ * events) read from an input stream, a TCP connection or UDP datagrams.
+ *
+ * Messages are split from the input by one of three framings: one message per
+ * line, a 4-byte big-endian length before each message, or at the end of the
+ * root element of each document. Each message is validated as is in a single
+ * parse by a JAXP {@link Validator} of a compiled {@link Schema} that is reused
+ * for every message, so no JDOM tree is built and no content is serialized and
+ * parsed again as with files. Messages are not rewritten so the schema must
+ * either have no target namespace or the messages must use its namespace.
+ *
+ * A line is written per message with its number and either <code>valid</code>
+ * or its errors and warnings, and the result is passed to the listener if set.
+ * Validators are not thread-safe so each thread must use its own instance, which
+ * may share the same Schema.
+ *
+ * @author Jason Mathews
+ */
+public class StreamValidator {
+
+	public enum Framing {
+		/** one message per line */
+		LINE,
+		/** 4-byte big-endian length before each message */
+		LENGTH,
+		/** message ends with the end of its root element */
+		DOCUMENT
+	}
+
+	/** Default max size of a message in bytes */
+	public static final int DEFAULT_MAX_MESSAGE = 16 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Validator validator;
+	private final Framing framing;
+	private final Issues issues = new Issues();
+	private final MessageInputStream input = new MessageInputStream();
+	private int maxMessage = DEFAULT_MAX_MESSAGE;
+	private PrintStream out;
+	private ValidationListener listener;
+	private LatencyHistogram latency;
+
+	private long messages, validMessages, errors, warnings, bytes;
+	private long startTime;
+
+	/**
+	 * Create stream validator
+	 * @param schema compiled schema messages are validated against
+	 * @param framing how messages are split from the input
+	 */
+	public StreamValidator(Schema schema, Framing framing) {
+		this.framing = framing;
+		validator = schema.newValidator();
+		validator.setErrorHandler(issues);
+		// messages come from the network so never resolve external entities or DTDs
+		setFeature("http://xml.org/sax/features/external-general-entities", false);
+		setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		setFeature(XmlValidate.LOAD_EXTERNAL_DTD, false);
+	}
+
+	private void setFeature(String name, boolean value) {
+		try {
+			validator.setFeature(name, value);
+		} catch (SAXException e) {
+			// feature not supported by JAXP implementation
+		}
+	}
+
+	/**
+	 * Parse framing name
+	 * @param name line, length or document (case-insensitive)
+	 * @return Framing
+	 * @throws IllegalArgumentException if not a framing name
+	 */
+	public static Framing parseFraming(String name) {
+		return Framing.valueOf(name.toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * @param out stream that a result line of each message is written to, null for none
+	 */
+	public void setOutputStream(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * @param latency histogram that the time to validate each message is recorded in, null for none
+	 */
+	void setLatencyHistogram(LatencyHistogram latency) {
+		this.latency = latency;
+	}
+
+	public void setListener(ValidationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param maxMessage max size of a message in bytes. Larger messages are
+	 *                   reported as errors without being validated.
+	 */
+	public void setMaxMessage(int maxMessage) {
+		this.maxMessage = maxMessage;
+	}
+
+	public long getMessages() {
+		return messages;
+	}
+
+	public long getValidMessages() {
+		return validMessages;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getWarnings() {
+		return warnings;
+	}
+
+	/**
+	 * Validate messages read from stream until end of stream
+	 * @param in InputStream
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void validate(InputStream in) throws IOException {
+		Framer framer = new Framer();
+		byte[] buf = new byte[BUFFER_SIZE];
+		int len;
+		while ((len = in.read(buf)) != -1) {
+			framer.feed(buf, 0, len);
+			// results of a live feed are seen as each read is validated
+			if (out != null) out.flush();
+		}
+		framer.finish();
+		if (out != null) out.flush();
+	}
+
+	/**
+	 * Accept TCP connections on a loopback port and validate the messages of each
+	 * connection until it is closed, one connection at a time. Never returns
+	 * unless an I/O error occurs on the server socket.
+	 * @param port TCP port
+	 * @throws IOException if the port cannot be bound or accept fails
+	 */
+	public void listenTcp(int port) throws IOException {
+		listenTcp(null, port);
+	}
+
+	/**
+	 * Accept TCP connections on a port of an address and validate the messages
+	 * of each connection until it is closed, one connection at a time. Never
+	 * returns unless an I/O error occurs on the server socket.
+	 * @param host host name or address to bind, null for the loopback address
+	 * @param port TCP port
+	 * @throws IOException if the port cannot be bound or accept fails
+	 */
+	public void listenTcp(String host, int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(host))) {
+			while (true) {
+				try (Socket socket = server.accept()) {
+					validate(socket.getInputStream());
+				} catch (IOException e) {
+					// connection reset etc. does not stop the listener
+					if (out != null) out.println("WARN: connection failed: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receive UDP datagrams on a loopback port and validate the messages of each
+	 * datagram. Messages do not span datagrams. Never returns unless an I/O error occurs.
+	 * @param port UDP port
+	 * @throws IOException if the port cannot be bound or receive fails
+	 */
+	public void listenUdp(int port) throws IOException {
+		listenUdp(null, port);
+	}
+
+	/**
+	 * Receive UDP datagrams on a port of an address and validate the messages of
+	 * each datagram. Messages do not span datagrams. Never returns unless an I/O error occurs.
+	 * @param host host name or address to bind, null for the loopback address
+	 * @param port UDP port
+	 * @throws IOException if the port cannot be bound or receive fails
+	 */
+	public void listenUdp(String host, int port) throws IOException {
+		try (DatagramSocket socket = new DatagramSocket(port, InetAddress.getByName(host))) {
+			byte[] buf = new byte[65536];
+			DatagramPacket packet = new DatagramPacket(buf, buf.length);
+			Framer framer = new Framer();
+			while (true) {
+				packet.setLength(buf.length);
+				socket.receive(packet);
+				framer.feed(buf, 0, packet.getLength());
+				framer.finish();
+				if (out != null) out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Validate one message
+	 * @param buf buffer with message content
+	 * @param off offset of message in buffer
+	 * @param len length of message
+	 * @return true if message is valid
+	 */
+	public boolean validate(byte[] buf, int off, int len) {
+		if (startTime == 0) startTime = System.nanoTime();
+		final long number = ++messages;
+		bytes += len;
+		issues.reset(number);
+		input.set(buf, off, len);
+		final long start = latency != null ? System.nanoTime() : 0;
+		try {
+			validator.validate(new StreamSource(input));
+		} catch (SAXException e) {
+			// fatal errors are reported to the error handler before they are thrown
+			if (issues.fatal == 0) issues.add(ValidationResult.Severity.FATAL, e.getMessage(), -1, -1);
+		} catch (IOException | RuntimeException e) {
+			issues.add(ValidationResult.Severity.FATAL, e.toString(), -1, -1);
+		}
+		if (latency != null) latency.record(System.nanoTime() - start);
+		return end(number);
+	}
+
+	private void oversized(int len) {
+		final long number = ++messages;
+		bytes += len;
+		issues.reset(number);
+		issues.add(ValidationResult.Severity.FATAL, "message exceeds " + maxMessage + " bytes", -1, -1);
+		end(number);
+	}
+
+	private boolean end(long number) {
+		final boolean valid = issues.errors == 0;
+		if (valid) validMessages++;
+		errors += issues.errors;
+		warnings += issues.warnings;
+		if (valid && out != null) {
+			out.print(number);
+			out.println(": valid");
+		}
+		if (listener != null) {
+			listener.validated(new ValidationResult("message " + number, null, null, null, true,
+					issues.list == null ? Collections.<ValidationResult.Issue>emptyList() : issues.list,
+					Collections.<ValidationResult>emptyList()));
+		}
+		return valid;
+	}
+
+	/**
+	 * @return one line summary of messages validated and throughput
+	 */
+	public String getSummary() {
+		double seconds = startTime == 0 ? 0 : (System.nanoTime() - startTime) / 1e9;
+		String summary = String.format("%nMessages: %d  Valid: %d  Errors: %d  Warnings: %d  Bytes: %d  Rate: %.0f msgs/sec",
+				messages, validMessages, errors, warnings, bytes, seconds == 0 ? 0.0 : messages / seconds);
+		if (latency != null && latency.getCount() != 0) summary += System.lineSeparator() + latency.getSummary();
+		return summary;
+	}
+
+	/**
+	 * Errors of the current message. Each issue is written as it is reported so
+	 * a valid message allocates nothing beyond the parse itself.
+	 */
+	private final class Issues implements ErrorHandler {
+		long number;
+		int errors, warnings, fatal;
+		List<ValidationResult.Issue> list; // issues if there is a listener
+
+		void reset(long number) {
+			this.number = number;
+			errors = warnings = fatal = 0;
+			list = null;
+		}
+
+		public void warning(SAXParseException e) {
+			add(ValidationResult.Severity.WARNING, e.getMessage(), e.getLineNumber(), e.getColumnNumber());
+		}
+
+		public void error(SAXParseException e) {
+			add(ValidationResult.Severity.ERROR, e.getMessage(), e.getLineNumber(), e.getColumnNumber());
+		}
+
+		public void fatalError(SAXParseException e) {
+			add(ValidationResult.Severity.FATAL, e.getMessage(), e.getLineNumber(), e.getColumnNumber());
+		}
+
+		void add(ValidationResult.Severity severity, String message, int line, int column) {
+			if (severity == ValidationResult.Severity.WARNING) warnings++;
+			else errors++;
+			if (severity == ValidationResult.Severity.FATAL) fatal++;
+			if (message == null) message = "null";
+			ValidationResult.Issue issue = new ValidationResult.Issue(severity, Resource.getErrorCode(message),
+					message, line, column, null);
+			if (out != null) out.println(number + ": " + issue);
+			if (listener != null) {
+				if (list == null) list = new ArrayList<>();
+				list.add(issue);
+			}
+		}
+	}
+
+	/**
+	 * Input stream over a message in a buffer that is reused for every message
+	 */
+	private static final class MessageInputStream extends ByteArrayInputStream {
+		MessageInputStream() {
+			super(new byte[0]);
+		}
+
+		void set(byte[] buf, int off, int len) {
+			this.buf = buf;
+			pos = off;
+			count = off + len;
+			mark = off;
+		}
+
+		@Override
+		public void close() {
+			// reused for the next message
+		}
+	}
+
+	// framer states
+	private static final int BETWEEN = 0, TEXT = 1, LT = 2, TAG = 3, END_TAG = 4, PI = 5, BANG = 6,
+			COMMENT_START = 7, COMMENT = 8, CDATA = 9, DECL = 10;
+
+	/**
+	 * Splits messages from a sequence of buffers. A message wholly within one
+	 * buffer is validated in place and only a message that spans buffers is
+	 * copied.
+	 */
+	final class Framer {
+		private byte[] pending = new byte[BUFFER_SIZE];
+		private int pendingLen;
+		private boolean inMessage;
+		private boolean discard; // message is too large so is skipped
+
+		// length framing
+		private int headerBytes;
+		private int length;
+
+		// document framing
+		private int state = BETWEEN;
+		private int depth;
+		private byte quote, last;
+		private int run; // consecutive '-' in comment, ']' in CDATA or '?' in PI
+		private int brackets;
+
+		/**
+		 * Split and validate messages in buffer. A message not complete at the
+		 * end of the buffer is completed by the next buffer.
+		 */
+		void feed(byte[] buf, int off, int len) {
+			switch (framing) {
+				case LINE: feedLines(buf, off, off + len); break;
+				case LENGTH: feedLengths(buf, off, off + len); break;
+				default: feedDocuments(buf, off, off + len);
+			}
+		}
+
+		/**
+		 * End of input: validate incomplete message at end of input
+		 */
+		void finish() {
+			if (inMessage) {
+				if (framing == Framing.LENGTH) {
+					messageTruncated();
+				} else if (discard || !isBlank(pending, 0, pendingLen)) {
+					// e.g. last line with no newline
+					emit(null, 0, 0);
+				}
+			}
+			inMessage = discard = false;
+			pendingLen = headerBytes = depth = 0;
+			state = BETWEEN;
+		}
+
+		private void feedLines(byte[] buf, int start, int end) {
+			int from = start;
+			for (int i = start; i < end; i++) {
+				if (buf[i] != '\n') continue;
+				int to = i;
+				if (to > from && buf[to - 1] == '\r') to--;
+				if (inMessage || !isBlank(buf, from, to)) {
+					inMessage = true;
+					emit(buf, from, to);
+				}
+				from = i + 1;
+			}
+			if (from < end) {
+				inMessage = true;
+				append(buf, from, end);
+			}
+		}
+
+		private void feedLengths(byte[] buf, int start, int end) {
+			int i = start;
+			while (i < end) {
+				if (headerBytes < 4) {
+					length = (length << 8) | (buf[i++] & 0xff);
+					if (++headerBytes < 4) continue;
+					inMessage = true;
+					if (length < 0) {
+						// corrupt length: skip rest of input
+						length = Integer.MAX_VALUE;
+						discard = true;
+					} else if (length > maxMessage) discard = true;
+				}
+				int avail = Math.min(end - i, length - pendingLen);
+				if (pendingLen == 0 && avail == length && !discard) {
+					// whole message in buffer
+					validate(buf, i, length);
+					inMessage = false;
+				} else {
+					append(buf, i, i + avail);
+					if (pendingLen == length) emit(null, 0, 0);
+				}
+				i += avail;
+				if (!inMessage) {
+					headerBytes = length = 0;
+				}
+			}
+		}
+
+		private void feedDocuments(byte[] buf, int start, int end) {
+			int state = this.state;
+			int from = start;
+			for (int i = start; i < end; i++) {
+				final byte c = buf[i];
+				switch (state) {
+					case BETWEEN:
+						if (c == ' ' || c == '\n' || c == '\r' || c == '\t') continue;
+						from = i;
+						inMessage = true;
+						// first character of document
+						state = c == '<' ? LT : TEXT;
+						break;
+					case TEXT:
+						if (c == '<') state = LT;
+						break;
+					case LT:
+						if (c == '/') state = END_TAG;
+						else if (c == '?') {
+							state = PI;
+							run = 0;
+						} else if (c == '!') state = BANG;
+						else {
+							state = TAG;
+							quote = 0;
+							last = c;
+						}
+						break;
+					case TAG:
+						if (quote != 0) {
+							if (c == quote) {
+								quote = 0;
+								last = c;
+							}
+						} else if (c == '>') {
+							state = TEXT;
+							if (last != '/') depth++;
+							else if (depth == 0) {
+								// root element is empty
+								state = BETWEEN;
+								complete(buf, from, i + 1);
+							}
+						} else if (c == '"' || c == '\'') {
+							quote = last = c;
+						} else if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+							last = c;
+						}
+						break;
+					case END_TAG:
+						if (c == '>') {
+							state = TEXT;
+							if (--depth <= 0) {
+								depth = 0;
+								state = BETWEEN;
+								complete(buf, from, i + 1);
+							}
+						}
+						break;
+					case PI:
+						if (c == '>' && run != 0) state = TEXT;
+						else run = c == '?' ? 1 : 0;
+						break;
+					case BANG:
+						if (c == '-') state = COMMENT_START;
+						else if (c == '[') {
+							state = CDATA;
+							run = 0;
+						} else {
+							state = DECL;
+							brackets = 0;
+						}
+						break;
+					case COMMENT_START:
+						state = COMMENT;
+						run = 0;
+						break;
+					case COMMENT:
+						if (c == '-') run++;
+						else if (c == '>' && run >= 2) state = TEXT;
+						else run = 0;
+						break;
+					case CDATA:
+						if (c == ']') run++;
+						else if (c == '>' && run >= 2) state = TEXT;
+						else run = 0;
+						break;
+					default: // DECL
+						if (c == '[') brackets++;
+						else if (c == ']') brackets--;
+						else if (c == '>' && brackets <= 0) state = TEXT;
+				}
+			}
+			if (state != BETWEEN) append(buf, from, end);
+			this.state = state;
+		}
+
+		// document ends at end index
+		private void complete(byte[] buf, int from, int end) {
+			emit(buf, from, end);
+		}
+
+		/**
+		 * Validate message that ends with given bytes of the current buffer
+		 * @param buf current buffer, null if the message is all pending
+		 */
+		private void emit(byte[] buf, int from, int to) {
+			if (pendingLen == 0 && buf != null && !discard) {
+				if (to - from > maxMessage) oversized(to - from);
+				else validate(buf, from, to - from);
+			} else {
+				if (buf != null) append(buf, from, to);
+				if (discard) oversized(pendingLen);
+				else validate(pending, 0, pendingLen);
+			}
+			pendingLen = 0;
+			inMessage = discard = false;
+		}
+
+		private void messageTruncated() {
+			final long number = ++messages;
+			issues.reset(number);
+			issues.add(ValidationResult.Severity.FATAL, "message truncated at end of input: "
+					+ pendingLen + " of " + length + " bytes", -1, -1);
+			end(number);
+		}
+
+		// keep part of message that continues in the next buffer
+		private void append(byte[] buf, int from, int to) {
+			final int len = to - from;
+			if (discard) {
+				pendingLen += len; // count bytes only
+				return;
+			}
+			if (pendingLen + len > maxMessage) {
+				discard = true;
+				pendingLen += len;
+				return;
+			}
+			if (pendingLen + len > pending.length) {
+				byte[] grown = new byte[Math.min(maxMessage, Math.max(pending.length * 2, pendingLen + len))];
+				System.arraycopy(pending, 0, grown, 0, pendingLen);
+				pending = grown;
+			}
+			System.arraycopy(buf, from, pending, pendingLen, len);
+			pendingLen += len;
+		}
+	}
+
+	private static boolean isBlank(byte[] buf, int from, int to) {
+		for (int i = from; i < to; i++) {
+			final byte c = buf[i];
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n') return false;
+		}
+		return true;
+	}
+}
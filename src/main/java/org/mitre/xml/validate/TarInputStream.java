@@ -0,0 +1,226 @@
+/*
+ *  TarInputStream.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal reader of tar archives (POSIX ustar, GNU long names and pax path headers).
+ * Like ZipInputStream, {@link #getNextEntry()} positions the stream at the start of
+ * the next regular file and reads return the content of that entry only.
+ *
+ * @author Jason Mathews
+ */
+class TarInputStream extends FilterInputStream {
+
+	private static final int BLOCK_SIZE = 512;
+
+	private final byte[] header = new byte[BLOCK_SIZE];
+	private long remaining; // bytes left in current entry
+	private long padding;   // bytes of padding after current entry
+
+	TarInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Skip rest of current entry and advance to the next regular file.
+	 * @return name of entry or null if end of archive
+	 * @throws IOException if an I/O error occurs or the archive is not a valid tar archive
+	 */
+	String getNextEntry() throws IOException {
+		String longName = null;
+		while (true) {
+			skipFully(remaining + padding);
+			remaining = padding = 0;
+			if (!readBlock(header)) return null;
+			if (isZero(header)) return null; // end of archive marker
+			if (!checksumOk(header)) throw new IOException("invalid tar header");
+			final long size = parseSize(header, 124, 12);
+			final char type = (char) header[156];
+			remaining = size;
+			padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+			if (type == 'L') {
+				// GNU long name of next entry
+				longName = trimName(readContent(size));
+			} else if (type == 'x') {
+				// pax extended header of next entry
+				String path = parsePaxPath(readContent(size));
+				if (path != null) longName = path;
+			} else if (type == '0' || type == '\0' || type == '7') {
+				if (longName != null) return longName;
+				String name = parseString(header, 0, 100);
+				if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+					String prefix = parseString(header, 345, 155);
+					if (!prefix.isEmpty()) name = prefix + '/' + name;
+				}
+				return name;
+			} else {
+				// directory, link, global pax header, etc.
+				longName = null;
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) return -1;
+		int c = in.read();
+		if (c == -1) throw new EOFException("truncated tar entry");
+		remaining--;
+		return c;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining <= 0) return -1;
+		if (len == 0) return 0;
+		int n = in.read(b, off, (int) Math.min(len, remaining));
+		if (n == -1) throw new EOFException("truncated tar entry");
+		remaining -= n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long len = Math.min(n, remaining);
+		skipFully(len);
+		remaining -= len;
+		return len;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private byte[] readContent(long size) throws IOException {
+		if (size > 1024 * 1024) throw new IOException("tar header too large: " + size);
+		byte[] buf = new byte[(int) size];
+		int off = 0;
+		while (off < buf.length) {
+			int n = in.read(buf, off, buf.length - off);
+			if (n == -1) throw new EOFException("truncated tar entry");
+			off += n;
+		}
+		remaining = 0;
+		return buf;
+	}
+
+	private boolean readBlock(byte[] buf) throws IOException {
+		int off = 0;
+		while (off < buf.length) {
+			int n = in.read(buf, off, buf.length - off);
+			if (n == -1) {
+				if (off == 0) return false;
+				throw new EOFException("truncated tar header");
+			}
+			off += n;
+		}
+		return true;
+	}
+
+	private void skipFully(long n) throws IOException {
+		byte[] buf = null;
+		while (n > 0) {
+			long skipped = in.skip(n);
+			if (skipped <= 0) {
+				// some streams (e.g. GZIPInputStream at end of member) return 0 so read instead
+				if (buf == null) buf = new byte[BLOCK_SIZE];
+				int len = in.read(buf, 0, (int) Math.min(n, buf.length));
+				if (len == -1) throw new EOFException("truncated tar entry");
+				skipped = len;
+			}
+			n -= skipped;
+		}
+	}
+
+	private static boolean isZero(byte[] buf) {
+		for (byte b : buf) {
+			if (b != 0) return false;
+		}
+		return true;
+	}
+
+	private static boolean checksumOk(byte[] buf) {
+		long stored = parseOctal(buf, 148, 8);
+		long sum = 0;
+		for (int i = 0; i < buf.length; i++) {
+			// checksum field itself is taken as spaces
+			sum += i >= 148 && i < 156 ? ' ' : buf[i] & 0xff;
+		}
+		return sum == stored;
+	}
+
+	private static long parseSize(byte[] buf, int off, int len) throws IOException {
+		if ((buf[off] & 0x80) != 0) {
+			// GNU base-256 encoding for sizes of 8GB or more
+			long size = buf[off] & 0x7f;
+			for (int i = 1; i < len; i++) {
+				size = (size << 8) | (buf[off + i] & 0xff);
+			}
+			return size;
+		}
+		long size = parseOctal(buf, off, len);
+		if (size < 0) throw new IOException("invalid tar entry size");
+		return size;
+	}
+
+	private static long parseOctal(byte[] buf, int off, int len) {
+		long value = 0;
+		int end = off + len;
+		int i = off;
+		while (i < end && buf[i] == ' ') i++;
+		for (; i < end; i++) {
+			byte b = buf[i];
+			if (b == 0 || b == ' ') break;
+			if (b < '0' || b > '7') return -1;
+			value = (value << 3) + (b - '0');
+		}
+		return value;
+	}
+
+	private static String parseString(byte[] buf, int off, int len) {
+		int end = off;
+		while (end < off + len && buf[end] != 0) end++;
+		return new String(buf, off, end - off, StandardCharsets.UTF_8);
+	}
+
+	private static String trimName(byte[] buf) {
+		return parseString(buf, 0, buf.length);
+	}
+
+	// pax records have the form: "length key=value\n"
+	private static String parsePaxPath(byte[] buf) {
+		int pos = 0;
+		while (pos < buf.length) {
+			int space = pos;
+			while (space < buf.length && buf[space] != ' ') space++;
+			int len;
+			try {
+				len = Integer.parseInt(new String(buf, pos, space - pos, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (len <= 0 || pos + len > buf.length) return null;
+			String record = new String(buf, space + 1, pos + len - space - 2, StandardCharsets.UTF_8);
+			if (record.startsWith("path=")) return record.substring(5);
+			pos += len;
+		}
+		return null;
+	}
+}
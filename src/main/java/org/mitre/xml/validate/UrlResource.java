@@ -7,9 +7,7 @@
  */
 package org.mitre.xml.validate;
 
-import org.jdom2.Document;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 
 import java.net.URL;
 import java.net.URLConnection;
@@ -22,7 +20,7 @@ import java.util.zip.ZipInputStream;
 import java.util.zip.ZipEntry;
 
 /**
- * URL resource that implements building a JDOM Document
+ * URL resource that implements reading content and building a JDOM Document
  * from a URL.
  * 
  * @author Jason Mathews
@@ -31,15 +29,73 @@ import java.util.zip.ZipEntry;
 public class UrlResource extends Resource {
     
     private final URL url;
+    private HttpCache cache;
+    private HttpCache.Entry entry;
 
     public UrlResource(PrintStream out, URL url, String schemaNamespace) {
         super(out, url.toString(), schemaNamespace);
         this.url = url;
     }
 
-    public Document getDocument(SAXBuilder builder) throws JDOMException, IOException {
-        if (doc == null) doc = builder.build(getInputStream(url), url.toExternalForm());
-        return doc;
+    public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
+        final ValidationEvents.UrlOpen event = new ValidationEvents.UrlOpen();
+        event.begin();
+        HttpCache.Entry entry = fetch();
+        InputStream in;
+        String contentType;
+        long length = -1;
+        // raw content is wrapped so the token is also checked while a KMZ is scanned for its KML entry
+        if (entry != null) {
+            contentType = entry.getContentType();
+            in = getInputStream(url, contentType, new BufferedInputStream(wrap(entry.open())), newTracker());
+        } else {
+            final CancellationToken token = getCancellationToken();
+            URLConnection conn = openConnection(url, token);
+            try {
+                contentType = conn.getContentType();
+                length = conn.getContentLengthLong();
+                in = getInputStream(url, contentType, wrap(conn.getInputStream()), newTracker());
+            } catch (IOException e) {
+                throw token == null ? e : token.translate(e);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = url.toExternalForm();
+            event.bytes = length;
+            event.contentType = contentType;
+            event.cached = entry != null;
+            event.commit();
+        }
+        try (InputStream is = in) {
+            return reader.read(is, url.toExternalForm());
+        }
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set HTTP cache used to fetch the content of this resource
+     * @param cache HttpCache, null to always download the content
+     */
+    public void setCache(HttpCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Fetch content of this resource into the HTTP cache. The request is sent once
+     * and subsequent reads are served from the cache.
+     *
+     * @return cached response or null if no cache is set or URL cannot be cached
+     * @throws IOException if request fails
+     */
+    public HttpCache.Entry fetch() throws IOException {
+        if (entry == null && cache != null) {
+            entry = cache.fetch(url, getCancellationToken());
+        }
+        return entry;
     }
 
     public String getSource() {
@@ -57,20 +113,78 @@ public class UrlResource extends Resource {
      *         from being fully parsed.
      */
     public static InputStream getInputStream(URL url) throws IOException {
+        return getInputStream(url, null);
+    }
+
+    /**
+     * Get the input stream for a URL as with {@link #getInputStream(URL)} where
+     * the connect and read timeouts of the connection are bounded by the
+     * timeout of the given cancellation token.
+     *
+     * @param url The url to the XML resource
+     * @param token CancellationToken, may be null
+     * @return The InputStream used to validate and parse the xml resource
+     * @throws java.io.IOException when an I/O error prevents a document
+     *         from being fully parsed.
+     */
+    public static InputStream getInputStream(URL url, CancellationToken token) throws IOException {
+        URLConnection conn = openConnection(url, token);
+        if (token == null) return getInputStream(url, conn.getContentType(), conn.getInputStream(), null);
+        try {
+            return getInputStream(url, conn.getContentType(), token.wrap(conn.getInputStream()), null);
+        } catch (IOException e) {
+            throw token.translate(e);
+        }
+    }
+
+    private static URLConnection openConnection(URL url, CancellationToken token) throws IOException {
         // Open the connection
         URLConnection conn = url.openConnection();
+        if (token == null) {
+            conn.connect();
+            return conn;
+        }
+        int timeout = (int) Math.min(Integer.MAX_VALUE, token.getTimeout());
+        if (timeout > 0) {
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+        }
+        // read timeout does not end a response that trickles in so the
+        // connection is disconnected once the deadline passes
+        token.disconnectOnCancel(conn);
 
         // Connect to get the response headers
-        conn.connect();
+        try {
+            conn.connect();
+        } catch (IOException e) {
+            throw token.translate(e);
+        }
+        return conn;
+    }
 
-        if ("application/vnd.google-earth.kmz".equals(conn.getContentType()) ||
+    /**
+     * Get the input stream of the content of a URL given its raw content. If the URL
+     * is to a KMZ resource then the first KML entry inside the zip input stream
+     * is returned in an inputStream.
+     *
+     * @param url         The url to the XML resource
+     * @param contentType content type of the response, may be null
+     * @param in          raw content
+     * @param tracker     tracker of limits enforced while inflating KMZ content, may be null
+     * @return The InputStream used to validate and parse the xml resource
+     * @throws java.io.IOException if KMZ content has no KML entry
+     */
+    static InputStream getInputStream(URL url, String contentType, InputStream in,
+                                      ArchiveLimits.Tracker tracker) throws IOException {
+        if ("application/vnd.google-earth.kmz".equals(contentType) ||
                 url.getFile().toLowerCase(Locale.ROOT).endsWith(".kmz")) {
             // kmz file requires special handling
 			// NOTE: some files ending with .kmz are actually KML (XML) files
 			// examples:
 			//  http://www.strandbewertung.de/strandbewertung.kmz => Content-Type: application/vnd.google-earth.kmz
 			//  http://hemendikhortik.zxq.net/Eslovenia_en.kmz => Content-Type: text/plain
-            ZipInputStream zis = new ZipInputStream(conn.getInputStream());
+            ArchiveLimits.CountingInputStream raw = new ArchiveLimits.CountingInputStream(in);
+            ZipInputStream zis = newZipInputStream(tracker, raw);
             boolean returned = false;
             try{
                 ZipEntry entry;
@@ -83,6 +197,7 @@ public class UrlResource extends Resource {
                 //   of the first KML found but continue if first KML file is not in the root level then
                 //   backtrack in stream to first KML if no root-level KML is found.
                 while ((entry = zis.getNextEntry()) != null) {
+                    if (tracker != null) tracker.addEntry();
                     // find first KML file in archive
                     if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) {
                         returned = true;
@@ -98,7 +213,7 @@ public class UrlResource extends Resource {
         }
 
         // Else read the raw bytes.
-        return new BufferedInputStream(conn.getInputStream());
+        return in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
     }
 
 }
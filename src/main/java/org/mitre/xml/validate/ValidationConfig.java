@@ -0,0 +1,181 @@
+/*
+ *  ValidationConfig.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings used to build an {@link XmlValidator}. Same options as the command-line
+ * -map, -home, -schema, -ns, -kml and -kmz arguments along with a per-document
+ * timeout and archive limits for KMZ input.
+ *
+ * A config is only read when the validator is created so it may be changed and
+ * reused to create other validators afterwards.
+ *
+ * @author Jason Mathews
+ */
+public class ValidationConfig {
+
+	private File mapFile;
+	private final Map<String, String> schemaLocations = new LinkedHashMap<>();
+	private String homeDir;
+	private String schemaUri;
+	private String namespace;
+	private boolean kmlMode;
+	private boolean kmzMode;
+	private boolean semanticChecks;
+	private long memoryBudget;
+	private long timeout;
+	private ArchiveLimits archiveLimits = new ArchiveLimits();
+	private ParserPool parserPool;
+
+	public File getMapFile() {
+		return mapFile;
+	}
+
+	/**
+	 * Set namespace to schema location map file (e.g. ns.map)
+	 * @param mapFile map file
+	 */
+	public void setMapFile(File mapFile) {
+		this.mapFile = mapFile;
+	}
+
+	public Map<String, String> getSchemaLocations() {
+		return schemaLocations;
+	}
+
+	/**
+	 * Add namespace to schema location mapping in addition to those in the map file
+	 * @param namespace      namespace URI
+	 * @param schemaLocation file path or URL of schema
+	 */
+	public void addSchemaLocation(String namespace, String schemaLocation) {
+		schemaLocations.put(namespace, schemaLocation);
+	}
+
+	public String getHomeDir() {
+		return homeDir;
+	}
+
+	/**
+	 * Set directory that replaces ${XV_HOME} in schema locations of the map file
+	 * @param homeDir home directory
+	 */
+	public void setHomeDir(String homeDir) {
+		this.homeDir = homeDir;
+	}
+
+	public String getSchema() {
+		return schemaUri;
+	}
+
+	/**
+	 * Set schema used to validate all documents instead of the map
+	 * @param schemaUri URL of schema
+	 */
+	public void setSchema(String schemaUri) {
+		this.schemaUri = schemaUri;
+	}
+
+	public void setSchema(File schemaFile) {
+		schemaUri = schemaFile.getAbsoluteFile().toURI().toASCIIString();
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Set target namespace of the schema. Documents are moved to this namespace
+	 * before they are validated.
+	 * @param namespace namespace URI
+	 */
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public boolean isKmlMode() {
+		return kmlMode;
+	}
+
+	public void setKmlMode(boolean kmlMode) {
+		this.kmlMode = kmlMode;
+	}
+
+	public boolean isKmzMode() {
+		return kmzMode;
+	}
+
+	/**
+	 * @param kmzMode true to validate all KML entries in KMZ input not only the root KML
+	 */
+	public void setKmzMode(boolean kmzMode) {
+		this.kmzMode = kmzMode;
+	}
+
+	public boolean isSemanticChecks() {
+		return semanticChecks;
+	}
+
+	/**
+	 * @param semanticChecks true to check KML coordinates, gx:coord and gx:angles values
+	 * @see XmlValidate#setSemanticChecks(boolean)
+	 */
+	public void setSemanticChecks(boolean semanticChecks) {
+		this.semanticChecks = semanticChecks;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @param memoryBudget max estimated heap in bytes of documents validated at the
+	 *                     same time by all threads, 0 for no limit
+	 * @see XmlValidate#setMemoryBudget(long)
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout max milliseconds to validate one document, 0 for no limit
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public ArchiveLimits getArchiveLimits() {
+		return archiveLimits;
+	}
+
+	/**
+	 * @param archiveLimits limits enforced while inflating KMZ input, null for no limits
+	 */
+	public void setArchiveLimits(ArchiveLimits archiveLimits) {
+		this.archiveLimits = archiveLimits;
+	}
+
+	public ParserPool getParserPool() {
+		return parserPool;
+	}
+
+	/**
+	 * @param parserPool pool shared with other validators, null to create a new pool
+	 */
+	public void setParserPool(ParserPool parserPool) {
+		this.parserPool = parserPool;
+	}
+}
@@ -0,0 +1,635 @@
+/*
+ *  ValidationDaemon.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long running validation service on a loopback HTTP port so each validation
+ * request does not pay JVM startup, class loading, JIT warm-up and loading of the
+ * XML Schemas. Start with <code>XmlValidate -daemon[=port]</code> then validate
+ * with <code>XmlValidate -client[=port]</code> followed by the usual options and
+ * targets. The client prints the same output and returns the same exit status as
+ * running XmlValidate directly, and runs the validation itself if no daemon is
+ * listening.
+ *
+ * A request is a POST to <code>/validate</code> with one <code>arg</code> query
+ * parameter per command-line argument, the working directory of the client as
+ * <code>dir</code>, and optionally the content of an XML document in the body
+ * named by the <code>name</code> parameter. The response is the text output with
+ * the exit status in the <code>X-Exit-Status</code> header, e.g.
+ * <pre>
+ *   curl -H "X-Daemon-Token: $(cat ~/.xmlvalidate/daemon-8765.token)" --data-binary @doc.kml \
+ *        "http://127.0.0.1:8765/validate?arg=-map=ns.map&amp;name=doc.kml"
+ * </pre>
+ *
+ * Requests are validated concurrently on a fixed pool of threads. Requests with
+ * the same schema options (-map, -schema, -schemaLocation, -target, -home) share
+ * a {@link ParserPool} so each schema is loaded and compiled once. The map file
+ * and local schema files of each pool are checked for changes at most once a
+ * second, and a new pool is created when any changed so edited schemas are
+ * reloaded without restarting the daemon.
+ *
+ * Each request must send the secret of the daemon in the <code>X-Daemon-Token</code>
+ * header. The daemon writes a new random secret when it starts to a file readable
+ * only by its owner (<code>~/.xmlvalidate/daemon-<i>port</i>.token</code>) that the
+ * client reads, so only the user running the daemon can send requests. Requests
+ * with an <code>Origin</code> header (i.e. from a web page in a browser) are
+ * rejected. Requests may only give options that select what and how to validate:
+ * options that write files (-dumpDir, -cache, -history, -progressFile), read
+ * stdin or sockets (-stream), or start threads (-threads, -readAhead, -progress)
+ * are rejected.
+ *
+ * Relative paths in requests from a client in another directory are resolved
+ * against the directory of the client, and are printed in the output as resolved.
+ * Messages XmlValidate writes directly to System.err (e.g. missing schema files)
+ * go to the console of the daemon.
+ *
+ * @author Jason Mathews
+ */
+public class ValidationDaemon {
+
+	public static final int DEFAULT_PORT = 8765;
+
+	static final String PATH = "/validate";
+
+	static final String EXIT_STATUS = "X-Exit-Status";
+
+	static final String TOKEN_HEADER = "X-Daemon-Token";
+
+	/** Min time in milliseconds between checks for changed schema files */
+	static final long CHECK_INTERVAL = 1000;
+
+	private static final String[] FILE_OPTIONS = {
+			"-map=", "-schema=", "-home=", "-dumpdir=", "-history=", "-cache=", "-progressfile="
+	};
+
+	private static final String[] SCHEMA_OPTIONS = {
+			"-map=", "-schema=", "-schemalocation=", "-target=", "-home="
+	};
+
+	// options allowed in requests given as lower-case prefix if ending with '=' else exact
+	private static final String[] REQUEST_OPTIONS = {
+			"-map=", "-schema=", "-schemalocation=", "-target=", "-home=", "-ns=", "-x=",
+			"-kml", "-kmz", "-z", "-k", "-s", "-v", "-v=", "-d", "-dump", "-dump=", "-maxdump=", "-debug",
+			"-archive", "-census", "-dedup", "-semantic", "-latency", "-ordered", "-timeout=", "-memorybudget=",
+			"-maxentrysize=", "-maxratio=", "-maxentries=", "-maxarchivesize=", "-h"
+	};
+
+	private final int port;
+	private final int threads;
+	private final File tokenDir;
+	private byte[] token;
+	private File tokenFile;
+	private final File workingDir = new File(".").getAbsoluteFile().getParentFile();
+	private final Map<String, Grammars> grammars = new HashMap<>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong reloads = new AtomicLong();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Create daemon
+	 * @param port loopback port, 0 for any free port
+	 * @param threads number of requests validated at the same time
+	 */
+	public ValidationDaemon(int port, int threads) {
+		this(port, threads, getTokenDir());
+	}
+
+	/**
+	 * Create daemon
+	 * @param port loopback port, 0 for any free port
+	 * @param threads number of requests validated at the same time
+	 * @param tokenDir directory the secret of the daemon is written to
+	 */
+	ValidationDaemon(int port, int threads, File tokenDir) {
+		this.port = port;
+		this.threads = Math.max(1, threads);
+		this.tokenDir = tokenDir;
+	}
+
+	/**
+	 * Start listening for requests on the loopback address and write the
+	 * secret requests must send to the token file of the port
+	 * @throws IOException if port cannot be bound or token file cannot be written
+	 */
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		try {
+			writeToken();
+		} catch (IOException e) {
+			server.stop(0);
+			server = null;
+			throw e;
+		}
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext(PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleRequest(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Stop listening and wait up to a second for requests in progress
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(1);
+			executor.shutdown();
+			server = null;
+			tokenFile.delete();
+		}
+	}
+
+	/**
+	 * @return directory of token files of daemons of the user
+	 */
+	static File getTokenDir() {
+		return new File(System.getProperty("user.home"), ".xmlvalidate");
+	}
+
+	/**
+	 * @return file with the secret of the daemon on the given port
+	 */
+	static File getTokenFile(File dir, int port) {
+		return new File(dir, "daemon-" + port + ".token");
+	}
+
+	// write new random secret to a file only the owner can read
+	private void writeToken() throws IOException {
+		byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+		token = sb.toString().getBytes(StandardCharsets.US_ASCII);
+		if (!tokenDir.isDirectory() && !tokenDir.mkdirs())
+			throw new IOException("cannot create directory " + tokenDir);
+		File file = getTokenFile(tokenDir, server.getAddress().getPort());
+		Files.deleteIfExists(file.toPath()); // stale file of a daemon that did not stop
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(
+					PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(file.toPath());
+			file.setReadable(false, false);
+			file.setReadable(true, true);
+		}
+		Files.write(file.toPath(), token);
+		tokenFile = file;
+	}
+
+	/**
+	 * @return secret requests must send in the token header
+	 */
+	String getToken() {
+		return token == null ? null : new String(token, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return port the daemon listens on
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of times schemas were reloaded because files changed
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+			return;
+		}
+		String secret = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+		if (exchange.getRequestHeaders().containsKey("Origin") || secret == null
+				|| !MessageDigest.isEqual(token, secret.getBytes(StandardCharsets.US_ASCII))) {
+			// browser request or a client without access to the token file
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_FORBIDDEN, -1);
+			return;
+		}
+		List<String> args = new ArrayList<>();
+		String name = null;
+		File dir = null;
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				int ind = param.indexOf('=');
+				if (ind < 1) continue;
+				String key = param.substring(0, ind);
+				String value = URLDecoder.decode(param.substring(ind + 1), StandardCharsets.UTF_8);
+				if (key.equals("arg")) args.add(value);
+				else if (key.equals("name")) name = value;
+				else if (key.equals("dir")) dir = new File(value);
+			}
+		}
+		byte[] content;
+		try (InputStream is = exchange.getRequestBody()) {
+			content = is.readAllBytes();
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bos, true, "UTF-8");
+		int status;
+		Map<String, byte[]> inline = null;
+		if (content.length != 0) {
+			if (name == null) name = "stdin";
+			inline = new HashMap<>();
+			inline.put(name, content);
+			args.add(name);
+		}
+		String option = getDisallowedOption(args);
+		if (option != null) {
+			out.println("ERROR: option not allowed in daemon request: " + option);
+			status = 1;
+		} else if (name != null && name.toLowerCase(Locale.ROOT).endsWith(".kmz")) {
+			out.println("ERROR: inline content must be an XML document: pass KMZ files by path");
+			status = 1;
+		} else {
+			try {
+				status = validate(args, dir, inline, out);
+			} catch (RuntimeException e) {
+				// e.g. bad number in option
+				out.println("ERROR: " + e);
+				status = 1;
+			}
+		}
+		out.flush();
+
+		byte[] body = bos.toByteArray();
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.getResponseHeaders().set(EXIT_STATUS, Integer.toString(status));
+		exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length == 0 ? -1 : body.length);
+		if (body.length != 0) {
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		}
+	}
+
+	/**
+	 * Get first option in request that is not allowed, e.g. options that write
+	 * files, read stdin or sockets, or start threads in the daemon
+	 * @param args command-line arguments
+	 * @return option or null if all are allowed
+	 */
+	static String getDisallowedOption(List<String> args) {
+		for (String arg : args) {
+			if (!arg.startsWith("-")) continue;
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			boolean allowed = false;
+			for (String option : REQUEST_OPTIONS) {
+				if (option.endsWith("=") ? argLwr.startsWith(option) : argLwr.equals(option)) {
+					allowed = true;
+					break;
+				}
+			}
+			if (!allowed) return arg;
+		}
+		return null;
+	}
+
+	/**
+	 * Validate request with parsers of its schema options
+	 * @param args command-line arguments
+	 * @param dir working directory of client, null if same as the daemon
+	 * @param inline content of targets given inline, null if none
+	 * @param out stream for output
+	 * @return exit status
+	 */
+	int validate(List<String> args, File dir, Map<String, byte[]> inline, PrintStream out) {
+		requests.incrementAndGet();
+		List<String> resolved = resolve(args, dir, inline);
+		return XmlValidate.run(resolved.toArray(new String[0]), out, out, getParserPool(resolved), inline);
+	}
+
+	// resolve relative file arguments against directory of client
+	private List<String> resolve(List<String> args, File dir, Map<String, byte[]> inline) {
+		if (dir == null || dir.getAbsoluteFile().equals(workingDir)) return args;
+		List<String> resolved = new ArrayList<>(args.size() + 1);
+		boolean home = false;
+		for (String arg : args) {
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			if (!arg.startsWith("-")) {
+				resolved.add(inline != null && inline.containsKey(arg) ? arg : resolve(arg, dir));
+				continue;
+			}
+			if (argLwr.startsWith("-home=")) home = true;
+			String prefix = null;
+			for (String option : FILE_OPTIONS) {
+				if (argLwr.startsWith(option)) {
+					prefix = arg.substring(0, option.length());
+					break;
+				}
+			}
+			if (prefix == null && (argLwr.startsWith("-target=") || argLwr.startsWith("-schemalocation="))) {
+				// location follows last '=' of [ns=]location
+				prefix = arg.substring(0, arg.lastIndexOf('=') + 1);
+			}
+			resolved.add(prefix == null ? arg : prefix + resolve(arg.substring(prefix.length()), dir));
+		}
+		// ${XV_HOME} in map file is relative to the client
+		if (!home) resolved.add(0, "-home=" + dir.getPath());
+		return resolved;
+	}
+
+	private static String resolve(String path, File dir) {
+		if (path.startsWith("http:") || path.startsWith("https:") || new File(path).isAbsolute()) return path;
+		return new File(dir, path).getPath();
+	}
+
+	/**
+	 * Get parser pool shared by requests with the same schema options. A new pool
+	 * is created if the map or schema files of the pool changed.
+	 * @param args command-line arguments
+	 * @return ParserPool
+	 */
+	ParserPool getParserPool(List<String> args) {
+		StringBuilder key = new StringBuilder();
+		for (String arg : args) {
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			for (String option : SCHEMA_OPTIONS) {
+				if (argLwr.startsWith(option)) {
+					key.append(arg).append('\n');
+					break;
+				}
+			}
+		}
+		synchronized (grammars) {
+			Grammars entry = grammars.get(key.toString());
+			if (entry != null) {
+				long now = System.currentTimeMillis();
+				if (now - entry.checked >= CHECK_INTERVAL) {
+					entry.checked = now;
+					if (entry.isModified()) {
+						entry = null;
+						reloads.incrementAndGet();
+					}
+				}
+			}
+			if (entry == null) {
+				entry = new Grammars(getSchemaFiles(args));
+				grammars.put(key.toString(), entry);
+			}
+			return entry.pool;
+		}
+	}
+
+	/**
+	 * Get local map and schema files given by the schema options. Schemas in the
+	 * same directory as a schema are included since they may be imported by it.
+	 * @param args command-line arguments
+	 * @return files
+	 */
+	static Set<File> getSchemaFiles(List<String> args) {
+		Set<File> files = new LinkedHashSet<>();
+		String home = ".";
+		for (String arg : args) {
+			if (arg.toLowerCase(Locale.ROOT).startsWith("-home=")) home = arg.substring(6);
+		}
+		for (String arg : args) {
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			if (argLwr.startsWith("-map=")) {
+				File map = new File(arg.substring(5));
+				files.add(map.toPath().toAbsolutePath().normalize().toFile());
+				addMapSchemas(map, home, files);
+			} else if (argLwr.startsWith("-schema=")) {
+				addSchema(arg.substring(8), files);
+			} else if (argLwr.startsWith("-schemalocation=") || argLwr.startsWith("-target=")) {
+				addSchema(arg.substring(arg.lastIndexOf('=') + 1), files);
+			}
+		}
+		Set<File> dirs = new LinkedHashSet<>();
+		for (File f : files) {
+			if (f.getName().toLowerCase(Locale.ROOT).endsWith(".xsd")) dirs.add(f.getParentFile());
+		}
+		for (File dir : dirs) {
+			File[] schemas = dir.listFiles();
+			if (schemas == null) continue;
+			for (File f : schemas) {
+				if (f.getName().toLowerCase(Locale.ROOT).endsWith(".xsd")) files.add(f);
+			}
+		}
+		return files;
+	}
+
+	private static void addMapSchemas(File map, String home, Set<File> files) {
+		try (BufferedReader in = new BufferedReader(new FileReader(map))) {
+			String s;
+			while ((s = in.readLine()) != null) {
+				if (s.length() == 0 || s.startsWith("#")) continue;
+				int ind = s.indexOf('=');
+				if (ind < 1) continue;
+				String schemaLocation = s.substring(ind + 1).trim();
+				if (schemaLocation.startsWith("${XV_HOME}")) schemaLocation = home + schemaLocation.substring(10);
+				addSchema(schemaLocation, files);
+			}
+		} catch (IOException e) {
+			// reported when the request loads the map
+		}
+	}
+
+	private static void addSchema(String location, Set<File> files) {
+		if (location.startsWith("http:") || location.startsWith("https:")) return;
+		File f = new File(location);
+		if (f.isFile()) files.add(f.toPath().toAbsolutePath().normalize().toFile());
+	}
+
+	/**
+	 * Parser pool of a set of schema options and the modification times of
+	 * their files when the pool was created.
+	 */
+	private static final class Grammars {
+		final ParserPool pool = new ParserPool();
+		final Map<File, Long> stamps = new HashMap<>();
+		long checked = System.currentTimeMillis();
+
+		Grammars(Collection<File> files) {
+			for (File f : files) stamps.put(f, stamp(f));
+		}
+
+		boolean isModified() {
+			for (Map.Entry<File, Long> entry : stamps.entrySet()) {
+				if (stamp(entry.getKey()) != entry.getValue()) return true;
+			}
+			return false;
+		}
+
+		private static long stamp(File f) {
+			return f.lastModified() * 31 + f.length();
+		}
+	}
+
+	/**
+	 * Send arguments to daemon and print its output. If no daemon is listening
+	 * then the arguments are validated in this JVM.
+	 * @param args <code>-client[=port]</code> followed by command-line arguments
+	 *             and optionally <code>-stdin=name</code> to validate content read
+	 *             from standard input as document with given name
+	 * @return exit status
+	 */
+	static int client(String[] args) {
+		int port = DEFAULT_PORT;
+		int ind = args[0].indexOf('=');
+		if (ind > 0) port = Integer.parseInt(args[0].substring(ind + 1));
+		List<String> list = new ArrayList<>(args.length);
+		String name = null;
+		byte[] content = null;
+		try {
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].toLowerCase(Locale.ROOT).startsWith("-stdin=")) {
+					name = args[i].substring(7);
+					content = System.in.readAllBytes();
+				} else list.add(args[i]);
+			}
+			File tokenFile = getTokenFile(getTokenDir(), port);
+			if (!tokenFile.isFile()) {
+				System.err.println("INFO: no validation daemon on port " + port + ": validating locally");
+			} else if (getDisallowedOption(list) != null) {
+				// e.g. -threads or -dumpDir
+				System.err.println("INFO: option " + getDisallowedOption(list)
+						+ " not allowed in daemon request: validating locally");
+			} else {
+				String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.US_ASCII).trim();
+				return send(port, token, list, name, content, System.out);
+			}
+		} catch (ConnectException e) {
+			System.err.println("INFO: no validation daemon on port " + port + ": validating locally");
+		} catch (IOException e) {
+			System.err.println("WARN: validation daemon request failed: " + e.getMessage() + ": validating locally");
+		}
+		Map<String, byte[]> inline = null;
+		if (content != null) {
+			inline = new HashMap<>();
+			inline.put(name, content);
+			list.add(name);
+		}
+		return XmlValidate.run(list.toArray(new String[0]), System.out, System.err, null, inline);
+	}
+
+	/**
+	 * Send request to daemon
+	 * @param port port of daemon
+	 * @param token secret of daemon
+	 * @param args command-line arguments
+	 * @param name name of inline document, null if none
+	 * @param content content of inline document, null if none
+	 * @param out stream output of daemon is copied to
+	 * @return exit status
+	 * @throws IOException if the request fails
+	 */
+	static int send(int port, String token, List<String> args, String name, byte[] content, OutputStream out)
+			throws IOException {
+		StringBuilder query = new StringBuilder(PATH).append("?dir=")
+				.append(URLEncoder.encode(new File(".").getAbsoluteFile().getParent(), StandardCharsets.UTF_8));
+		for (String arg : args) {
+			query.append("&arg=").append(URLEncoder.encode(arg, StandardCharsets.UTF_8));
+		}
+		if (name != null) query.append("&name=").append(URLEncoder.encode(name, StandardCharsets.UTF_8));
+		URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, query.toString());
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		try {
+			conn.setRequestMethod("POST");
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", "application/octet-stream");
+			conn.setRequestProperty(TOKEN_HEADER, token);
+			try (OutputStream os = conn.getOutputStream()) {
+				if (content != null) os.write(content);
+			}
+			if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP " + conn.getResponseCode() + " " + conn.getResponseMessage());
+			}
+			String status = conn.getHeaderField(EXIT_STATUS);
+			try (InputStream is = conn.getInputStream()) {
+				is.transferTo(out);
+			}
+			out.flush();
+			return status == null ? 1 : Integer.parseInt(status);
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * Run daemon until the JVM is stopped.
+	 * @param args <code>-daemon[=port]</code> and optionally <code>-threads=n</code>
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (String arg : args) {
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			if (argLwr.startsWith("-daemon=")) port = Integer.parseInt(arg.substring(8));
+			else if (argLwr.startsWith("-threads=")) threads = Integer.parseInt(arg.substring(9));
+		}
+		final ValidationDaemon daemon = new ValidationDaemon(port, threads);
+		try {
+			daemon.start();
+		} catch (IOException e) {
+			System.err.println("ERROR: cannot listen on port " + port + ": " + e.getMessage());
+			System.exit(1);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				daemon.stop();
+			}
+		});
+		System.err.println("XmlValidate daemon listening on " + InetAddress.getLoopbackAddress().getHostAddress()
+				+ ":" + daemon.getPort());
+	}
+}
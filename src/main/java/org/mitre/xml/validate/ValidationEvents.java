@@ -0,0 +1,145 @@
+/*
+ *  ValidationEvents.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the stages of validating a resource so that a
+ * recording shows which files and which stages took the time.
+ *
+ * Each stage creates its event, calls <code>begin()</code> before the stage and
+ * <code>end()</code> after it, and only fills in the fields and commits if
+ * <code>shouldCommit()</code> returns true. When no recording is running these
+ * calls do nothing, but an event object is still allocated for each stage unless
+ * the JIT removes the allocation, which is likely but not guaranteed. The cost is
+ * small next to parsing a document. An archive entry read is an event only when
+ * the entry is read to be parsed, not when it is read again to scan its root
+ * element or hash it.
+ *
+ * Byte sizes are -1 if not known.
+ *
+ * @author Jason Mathews
+ */
+final class ValidationEvents {
+
+	private ValidationEvents() {
+		// events only
+	}
+
+	@Name("org.mitre.xml.validate.Parse")
+	@Label("Parse Document")
+	@Description("Read and parse content of a resource into a document")
+	@Category("XmlValidate")
+	static final class Parse extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Size")
+		@DataAmount(DataAmount.BYTES)
+		long bytes;
+
+		@Label("Namespace")
+		@Description("Namespace of root element as given in the document")
+		String namespace;
+
+		@Label("Failed")
+		boolean failed;
+	}
+
+	@Name("org.mitre.xml.validate.UrlOpen")
+	@Label("Open URL")
+	@Description("Connect to URL or HTTP cache and open content stream")
+	@Category("XmlValidate")
+	static final class UrlOpen extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Size")
+		@DataAmount(DataAmount.BYTES)
+		long bytes;
+
+		@Label("Content Type")
+		String contentType;
+
+		@Label("Cached")
+		boolean cached;
+	}
+
+	@Name("org.mitre.xml.validate.ArchiveEntryRead")
+	@Label("Read Archive Entry")
+	@Description("Inflate and parse entry of KMZ file or archive")
+	@Category("XmlValidate")
+	static final class ArchiveEntryRead extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Size")
+		@DataAmount(DataAmount.BYTES)
+		long bytes;
+
+		@Label("Compressed Size")
+		@DataAmount(DataAmount.BYTES)
+		long compressedBytes;
+	}
+
+	@Name("org.mitre.xml.validate.Rewrite")
+	@Label("Rewrite Document")
+	@Description("Remove DOCTYPE, map namespace and set schema locations of parsed document")
+	@Category("XmlValidate")
+	static final class Rewrite extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Namespace")
+		@Description("Namespace the document is validated against")
+		String namespace;
+
+		@Label("Mapped")
+		@Description("Schema found for the document")
+		boolean mapped;
+	}
+
+	@Name("org.mitre.xml.validate.Serialize")
+	@Label("Serialize Document")
+	@Description("Pretty print rewritten document as XML content that is validated")
+	@Category("XmlValidate")
+	static final class Serialize extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Characters")
+		long length;
+	}
+
+	@Name("org.mitre.xml.validate.SchemaValidation")
+	@Label("Schema Validation")
+	@Description("Validate XML content against schema")
+	@Category("XmlValidate")
+	static final class SchemaValidation extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Characters")
+		long length;
+
+		@Label("Namespace")
+		String namespace;
+
+		@Label("Errors")
+		int errors;
+
+		@Label("Warnings")
+		int warnings;
+	}
+}
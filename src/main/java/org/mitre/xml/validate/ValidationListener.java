@@ -0,0 +1,27 @@
+/*
+ *  ValidationListener.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+/**
+ * Receives the result of each resource validated by {@link XmlValidate}.
+ *
+ * The listener is called on the thread that validated the resource so with
+ * multiple threads it must be thread-safe. Blocking in the listener holds up the
+ * thread so directory walking and parsing wait until the listener returns.
+ *
+ * @author Jason Mathews
+ */
+public interface ValidationListener {
+
+	/**
+	 * Called when a resource has been validated or has failed
+	 * @param result ValidationResult
+	 */
+	void validated(ValidationResult result);
+
+}
@@ -0,0 +1,157 @@
+/*
+ *  ValidationPublisher.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the result of each validated resource (file, URL, KMZ or archive entry)
+ * as a {@link ValidationResult} to a {@link Flow.Subscriber} with demand-driven
+ * backpressure.
+ *
+ * Targets are validated on a background thread (or by the worker threads of the
+ * validator if it is set up with more than one thread). A thread that completes a
+ * resource while the subscriber has no outstanding demand waits until more results
+ * are requested so a slow subscriber holds up directory walking and parsing rather
+ * than results piling up in memory. Cancelling the subscription cancels the run.
+ *
+ * A publisher runs its targets once and accepts a single subscriber. The validator
+ * must not be used for anything else while the run is in progress.
+ *
+ * @author Jason Mathews
+ */
+public class ValidationPublisher implements Flow.Publisher<ValidationResult> {
+
+	private final XmlValidate validator;
+	private final List<String> targets;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	/**
+	 * Create publisher
+	 * @param validator configured validator
+	 * @param targets   files, directories or URLs to validate
+	 */
+	public ValidationPublisher(XmlValidate validator, List<String> targets) {
+		this.validator = validator;
+		this.targets = new ArrayList<>(targets);
+	}
+
+	public void subscribe(Flow.Subscriber<? super ValidationResult> subscriber) {
+		Objects.requireNonNull(subscriber);
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+					// no results
+				}
+
+				public void cancel() {
+					// nothing to cancel
+				}
+			});
+			subscriber.onError(new IllegalStateException("publisher allows only one subscriber"));
+			return;
+		}
+		ResultSubscription subscription = new ResultSubscription(subscriber);
+		validator.setValidationListener(subscription);
+		subscriber.onSubscribe(subscription);
+		Thread thread = new Thread(subscription, "validation-publisher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private final class ResultSubscription implements Flow.Subscription, ValidationListener, Runnable {
+
+		private final Flow.Subscriber<? super ValidationResult> subscriber;
+		private final Object emitLock = new Object(); // onNext is signalled serially
+		private long demand;
+		private boolean cancelled;
+		private Throwable failure; // signalled with onError when the run ends
+
+		ResultSubscription(Flow.Subscriber<? super ValidationResult> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			synchronized (this) {
+				if (cancelled) return;
+				if (n <= 0) {
+					failure = new IllegalArgumentException("non-positive request: " + n);
+					cancelled = true;
+				} else {
+					demand += n;
+					if (demand < 0) demand = Long.MAX_VALUE; // effectively unbounded
+				}
+				notifyAll();
+			}
+			if (n <= 0) validator.cancel();
+		}
+
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				notifyAll();
+			}
+			validator.cancel();
+		}
+
+		public void validated(ValidationResult result) {
+			synchronized (emitLock) {
+				synchronized (this) {
+					// wait for demand, holding up the thread that validated the resource
+					while (demand == 0 && !cancelled) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							cancelled = true;
+						}
+					}
+					if (cancelled) return;
+					demand--;
+				}
+				try {
+					subscriber.onNext(result);
+				} catch (Throwable t) {
+					// subscriber failed so the subscription is cancelled
+					synchronized (this) {
+						if (failure == null) failure = t;
+						cancelled = true;
+					}
+					validator.cancel();
+				}
+			}
+		}
+
+		public void run() {
+			Throwable error = null;
+			try {
+				for (String target : targets) {
+					if (validator.isCancelled()) break;
+					validator.validate(target);
+				}
+			} catch (Throwable t) {
+				error = t;
+			}
+			validator.setValidationListener(null);
+			final Throwable failure;
+			final boolean cancelled;
+			synchronized (this) {
+				failure = this.failure;
+				cancelled = this.cancelled;
+				this.cancelled = true;
+			}
+			if (failure != null) subscriber.onError(failure);
+			else if (error != null && !cancelled) subscriber.onError(error);
+			else if (!cancelled) subscriber.onComplete();
+		}
+	}
+}
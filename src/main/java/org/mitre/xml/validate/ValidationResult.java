@@ -0,0 +1,204 @@
+/*
+ *  ValidationResult.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of validating one document with an {@link XmlValidator} or
+ * of one resource passed to a {@link ValidationListener}.
+ *
+ * Line and column numbers of validation errors refer to the document after it was
+ * normalized for validation (namespace mapped, DOCTYPE removed and pretty printed)
+ * as with the command-line output, so each issue also holds the text of that line.
+ * Parse errors refer to the input as given.
+ *
+ * For KMZ input the result is that of the root KML entry and, in KMZ mode, the
+ * results of the other KML entries are returned by {@link #getEntries()}.
+ *
+ * @author Jason Mathews
+ */
+public final class ValidationResult {
+
+	public enum Severity {
+		WARNING, ERROR, FATAL
+	}
+
+	/**
+	 * Warning or error reported for a document
+	 */
+	public static final class Issue {
+
+		private final Severity severity;
+		private final String code;
+		private final String message;
+		private final int line;
+		private final int column;
+		private final String context;
+
+		Issue(Severity severity, String code, String message, int line, int column, String context) {
+			this.severity = severity;
+			this.code = code;
+			this.message = message;
+			this.line = line;
+			this.column = column;
+			this.context = context;
+		}
+
+		public Severity getSeverity() {
+			return severity;
+		}
+
+		/**
+		 * @return error code (e.g. cvc-complex-type.2.4.a) or null if message has no code
+		 */
+		public String getCode() {
+			return code;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return line number or -1 if not known
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return column number or -1 if not known
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		/**
+		 * @return text of line with the error or null if not available
+		 */
+		public String getContext() {
+			return context;
+		}
+
+		public String toString() {
+			return severity + ": " + message + (line == -1 ? "" : " [line " + line + ", column " + column + "]");
+		}
+	}
+
+	private final String systemId;
+	private final String rootName;
+	private final String namespace;
+	private final String schemaNamespace;
+	private final boolean validated;
+	private final int errors;
+	private final int warnings;
+	private final List<Issue> issues;
+	private final List<ValidationResult> entries;
+
+	ValidationResult(String systemId, String rootName, String namespace, String schemaNamespace,
+					 boolean validated, List<Issue> issues, List<ValidationResult> entries) {
+		this(systemId, rootName, namespace, schemaNamespace, validated,
+				count(issues, false), count(issues, true), issues, entries);
+	}
+
+	/**
+	 * Create result whose error and warning counts may exceed the issues given,
+	 * e.g. result reused from an earlier copy of the document
+	 */
+	ValidationResult(String systemId, String rootName, String namespace, String schemaNamespace,
+					 boolean validated, int errors, int warnings, List<Issue> issues, List<ValidationResult> entries) {
+		this.systemId = systemId;
+		this.rootName = rootName;
+		this.namespace = namespace;
+		this.schemaNamespace = schemaNamespace;
+		this.validated = validated;
+		this.errors = errors;
+		this.warnings = warnings;
+		this.issues = Collections.unmodifiableList(issues);
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	private static int count(List<Issue> issues, boolean warnings) {
+		int count = 0;
+		for (Issue issue : issues) {
+			if ((issue.severity == Severity.WARNING) == warnings) count++;
+		}
+		return count;
+	}
+
+	public String getSystemId() {
+		return systemId;
+	}
+
+	/**
+	 * @return local name of the root element or null if document could not be parsed
+	 */
+	public String getRootName() {
+		return rootName;
+	}
+
+	/**
+	 * @return namespace URI of the root element as given in the document,
+	 * 		empty string for no namespace or null if document could not be parsed
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * @return namespace the document was validated against or null if none
+	 */
+	public String getSchemaNamespace() {
+		return schemaNamespace;
+	}
+
+	/**
+	 * @return true if document was validated against a schema, false if it could not be
+	 * 		parsed or no schema is mapped to its namespace
+	 */
+	public boolean isValidated() {
+		return validated;
+	}
+
+	/**
+	 * @return true if document and all entries were validated with no errors
+	 */
+	public boolean isValid() {
+		if (!validated || errors != 0) return false;
+		for (ValidationResult entry : entries) {
+			if (!entry.isValid()) return false;
+		}
+		return true;
+	}
+
+	public int getErrors() {
+		return errors;
+	}
+
+	public int getWarnings() {
+		return warnings;
+	}
+
+	public List<Issue> getIssues() {
+		return issues;
+	}
+
+	/**
+	 * @return results of the other KML entries of KMZ input in KMZ mode, otherwise empty
+	 */
+	public List<ValidationResult> getEntries() {
+		return entries;
+	}
+
+	public String toString() {
+		return systemId + (isValid() ? ": valid" : validated ? ": invalid" : ": not validated")
+				+ " errors=" + errors + " warnings=" + warnings;
+	}
+}
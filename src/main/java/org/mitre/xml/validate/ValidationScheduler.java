@@ -0,0 +1,433 @@
+/*
+ *  ValidationScheduler.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Schedules validation of a set of files across multiple worker threads.
+ *
+ * Files are ordered by estimated cost (longest first) so a handful of large files
+ * don't leave the run waiting on one giant file at the end. The cost of a file is
+ * estimated from its size, the uncompressed size of the KML entries listed in the
+ * central directory of KMZ files, or the time it took in a previous run if a history
+ * file is used. Small files are grouped into batches to reduce per-task overhead.
+ *
+ * Each worker thread uses its own XmlValidate instance. Output of each file is
+ * captured in pooled buffers and summary updates, file headers and dumps are
+ * recorded at their position in the output. The output of a file is written in
+ * one piece when the file completes, or in ordered mode by the calling thread in
+ * discovery order so the output and final report are exactly the same as a
+ * sequential run regardless of how the files were scheduled. If read-ahead is
+ * enabled, files are read ahead in the order the batches are dispatched.
+ *
+ * @author Jason Mathews
+ */
+class ValidationScheduler {
+
+	/**
+	 * Files with estimated cost below this many bytes are grouped into batches
+	 */
+	static final long SMALL_FILE = 64 * 1024;
+
+	/**
+	 * Max number of small files in a batch
+	 */
+	static final int MAX_BATCH_FILES = 64;
+
+	/**
+	 * Max estimated cost of a batch of small files
+	 */
+	static final long MAX_BATCH_COST = 1024 * 1024;
+
+	private final XmlValidate master;
+	private final int threads;
+	private final File historyFile;
+	private final boolean ordered;
+
+	private final Object lock = new Object();
+	private final List<XmlValidate> workers = new ArrayList<>();
+
+	/**
+	 * Create scheduler
+	 * @param master      validator that collects output and summary
+	 * @param threads     number of worker threads
+	 * @param historyFile file with elapsed time of files from previous runs, may be null
+	 * @param ordered     true to write output in discovery order, false to write output
+	 *                    of each file when it completes
+	 */
+	ValidationScheduler(XmlValidate master, int threads, File historyFile, boolean ordered) {
+		this.master = master;
+		this.threads = threads;
+		this.historyFile = historyFile;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Validate list of files.
+	 * @param files files in discovery order
+	 */
+	void run(List<File> files) {
+		final Map<String, long[]> history = loadHistory(historyFile);
+		final List<Item> items = new ArrayList<>(files.size());
+		for (File f : files) {
+			items.add(new Item(items.size(), f));
+		}
+		final List<Batch> batches = schedule(items, history);
+
+		// read ahead in dispatch order
+		final List<File> order = new ArrayList<>(items.size());
+		for (Batch batch : batches) {
+			for (Item item : batch.items) {
+				order.add(item.file);
+			}
+		}
+		final boolean prefetch = master.startPrefetch(order);
+
+		final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+			@Override
+			protected Worker initialValue() {
+				Worker w = new Worker(master.createWorker());
+				synchronized (workers) {
+					workers.add(w.validator);
+				}
+				return w;
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (final Batch batch : batches) {
+				executor.execute(new Runnable() {
+					public void run() {
+						Worker w = worker.get();
+						for (Item item : batch.items) {
+							process(w, item);
+						}
+					}
+				});
+			}
+			executor.shutdown();
+
+			// in ordered mode flush output and replay summary updates in discovery order
+			for (Item item : items) {
+				synchronized (lock) {
+					while (!item.done) {
+						lock.wait();
+					}
+				}
+				if (ordered) master.flush(item);
+			}
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			master.cancel();
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		} finally {
+			if (prefetch) master.stopPrefetch();
+		}
+
+		for (XmlValidate w : workers) {
+			master.merge(w);
+		}
+		saveHistory(historyFile, history, items);
+	}
+
+	private void process(Worker w, Item item) {
+		long start = System.nanoTime();
+		try {
+			item.buffer = w.buffer;
+			w.validator.setDeferred(item);
+			w.validator.validateFile(item.file);
+		} catch (RuntimeException | Error e) {
+			w.validator.addFailure(item.file, e);
+		} finally {
+			w.validator.setDeferred(null);
+			item.elapsed = System.nanoTime() - start;
+			w.out.flush();
+			item.buffer = null;
+			item.output = w.buffer.detach();
+			if (!ordered) {
+				// write output of file in one piece
+				synchronized (master) {
+					master.flush(item);
+				}
+			}
+			synchronized (lock) {
+				item.done = true;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Order items by estimated cost, longest first, and group small items into batches.
+	 * @param items   items in discovery order
+	 * @param history file path to [size, elapsed millis] from previous runs
+	 * @return batches in dispatch order
+	 */
+	static List<Batch> schedule(List<Item> items, Map<String, long[]> history) {
+		// average bytes processed per ms in previous runs used to convert elapsed time to bytes
+		long totalSize = 0, totalTime = 0;
+		for (long[] h : history.values()) {
+			totalSize += h[0];
+			totalTime += h[1];
+		}
+		final double rate = totalTime > 0 ? (double) totalSize / totalTime : 0;
+		for (Item item : items) {
+			item.cost = estimateCost(item.file, history, rate);
+		}
+
+		List<Item> sorted = new ArrayList<>(items);
+		Collections.sort(sorted, new Comparator<Item>() {
+			public int compare(Item a, Item b) {
+				if (a.cost != b.cost) return a.cost > b.cost ? -1 : 1;
+				return a.index - b.index;
+			}
+		});
+
+		List<Batch> batches = new ArrayList<>();
+		Batch small = null;
+		for (Item item : sorted) {
+			if (item.cost >= SMALL_FILE) {
+				Batch batch = new Batch();
+				batch.add(item);
+				batches.add(batch);
+				continue;
+			}
+			if (small == null || small.items.size() == MAX_BATCH_FILES
+					|| small.cost + item.cost > MAX_BATCH_COST) {
+				small = new Batch();
+				batches.add(small);
+			}
+			small.add(item);
+		}
+		// dispatch longest batch first
+		Collections.sort(batches, new Comparator<Batch>() {
+			public int compare(Batch a, Batch b) {
+				if (a.cost != b.cost) return a.cost > b.cost ? -1 : 1;
+				return a.items.get(0).index - b.items.get(0).index;
+			}
+		});
+		return batches;
+	}
+
+	/**
+	 * Estimate cost of file in bytes
+	 */
+	static long estimateCost(File file, Map<String, long[]> history, double rate) {
+		final long size = file.length();
+		long[] h = history.get(file.getPath());
+		if (h != null && h[0] == size && rate > 0) {
+			// file unchanged since previous run: use its actual elapsed time
+			return Math.max(1, Math.round(h[1] * rate));
+		}
+		if (file.getName().toLowerCase(Locale.ROOT).endsWith(".kmz")) {
+			// use uncompressed size of KML entries from the zip central directory
+			try (ZipFile zf = new ZipFile(file)) {
+				long total = 0;
+				Enumeration<? extends ZipEntry> e = zf.entries();
+				while (e.hasMoreElements()) {
+					ZipEntry entry = e.nextElement();
+					if (entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) {
+						long entrySize = entry.getSize();
+						total += entrySize > 0 ? entrySize : entry.getCompressedSize();
+					}
+				}
+				if (total > 0) return total;
+			} catch (IOException e) {
+				// use file size
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Load history file. Each line has the form: size TAB elapsed-ms TAB path
+	 * @param file history file, may be null
+	 * @return map of path to [size, elapsed ms]
+	 */
+	static Map<String, long[]> loadHistory(File file) {
+		Map<String, long[]> history = new HashMap<>();
+		if (file == null || !file.isFile()) return history;
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String s;
+			while ((s = in.readLine()) != null) {
+				String[] parts = s.split("\t", 3);
+				if (parts.length != 3) continue;
+				try {
+					history.put(parts[2], new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])});
+				} catch (NumberFormatException e) {
+					// skip bad line
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("WARN: failed to read history " + file + ": " + e);
+		}
+		return history;
+	}
+
+	static void saveHistory(File file, Map<String, long[]> history, List<Item> items) {
+		if (file == null) return;
+		Map<String, long[]> updated = new TreeMap<>(history);
+		for (Item item : items) {
+			if (item.done) {
+				updated.put(item.file.getPath(), new long[]{item.file.length(),
+						TimeUnit.NANOSECONDS.toMillis(item.elapsed)});
+			}
+		}
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			for (Map.Entry<String, long[]> entry : updated.entrySet()) {
+				long[] h = entry.getValue();
+				out.printf("%d\t%d\t%s%n", h[0], h[1], entry.getKey());
+			}
+		} catch (IOException e) {
+			System.err.println("WARN: failed to write history " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Validator of a worker thread and the buffer that captures its output
+	 */
+	private static final class Worker {
+
+		final XmlValidate validator;
+		final OutputBuffer buffer = new OutputBuffer();
+		final PrintStream out = new PrintStream(buffer);
+
+		Worker(XmlValidate validator) {
+			this.validator = validator;
+			validator.setOutputStream(out);
+		}
+	}
+
+	/**
+	 * Single file to validate along with its buffered output and recorded summary updates
+	 */
+	static final class Item {
+
+		final int index;
+		final File file;
+		long cost;
+		long elapsed;
+		OutputBuffer buffer; // output of worker while file is validated
+		OutputBuffer.Content output;
+		volatile boolean done;
+		List<Event> events; // created on first event
+
+		Item(int index, File file) {
+			this.index = index;
+			this.file = file;
+		}
+
+		private void add(Event e) {
+			if (events == null) events = new ArrayList<>();
+			events.add(e);
+		}
+
+		private long position() {
+			return buffer == null ? 0 : buffer.size();
+		}
+
+		void addStatus(Resource res, String key) {
+			if (res == null) {
+				add(new Event(key, null, Event.STATUS, position(), null, null));
+			} else {
+				add(new Event(key, res.targetFile, res.isPrinted() ? Event.STATUS_PRINTED : Event.STATUS_RESOURCE,
+						position(), res.targetFile, res.getPendingDump()));
+			}
+		}
+
+		void addError(String source, String err) {
+			add(new Event(err, source, Event.ERROR, position(), null, null));
+		}
+
+		/**
+		 * Add error of resource whose header is not printed. Error is printed if
+		 * header is printed by the time it is replayed otherwise added to error map.
+		 */
+		void addError(Resource res, String err) {
+			add(new Event(err, res.getSource(), Event.ERROR_RESOURCE, position(), res.targetFile, null));
+		}
+
+		void addHeader(String target) {
+			add(new Event(null, null, Event.HEADER, position(), target, null));
+		}
+
+		void addDump(String target, String content) {
+			add(new Event(null, null, Event.DUMP, position(), target, content));
+		}
+	}
+
+	/**
+	 * Summary update, file header or dump recorded by a worker at a position in its output
+	 */
+	static final class Event {
+
+		/** status key not associated with a resource */
+		static final int STATUS = 0;
+		/** status key of resource whose header is not yet printed */
+		static final int STATUS_RESOURCE = 1;
+		/** status key of resource whose header is printed */
+		static final int STATUS_PRINTED = 2;
+		/** error added to error map */
+		static final int ERROR = 3;
+		/** error of resource printed or added to error map */
+		static final int ERROR_RESOURCE = 4;
+		/** "Check:" header of resource printed once */
+		static final int HEADER = 5;
+		/** dump of resource printed once */
+		static final int DUMP = 6;
+
+		final String key;
+		final String source;
+		final int type;
+		final long position;
+		final String target;  // name of resource whose header and dump are printed once
+		final String content; // content dumped on first error if dump level is 1
+
+		Event(String key, String source, int type, long position, String target, String content) {
+			this.key = key;
+			this.source = source;
+			this.type = type;
+			this.position = position;
+			this.target = target;
+			this.content = content;
+		}
+	}
+
+	static final class Batch {
+
+		final List<Item> items = new ArrayList<>();
+		long cost;
+
+		void add(Item item) {
+			items.add(item);
+			cost += item.cost;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ *  WellFormedChecker.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.JDOMException;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Checks an XML document is well-formed with a non-validating SAX parse that
+ * builds no tree. Used to report the well-formedness errors of documents that
+ * are not validated (e.g. no schema is mapped to their namespace) without
+ * building their JDOM tree.
+ *
+ * External entities and DTDs are not loaded, the same as the non-validating
+ * builder, so a document fails the check exactly when the builder fails to parse it.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Jason Mathews
+ */
+class WellFormedChecker implements Resource.InputReader<Boolean> {
+
+	private XMLReader reader;
+
+	/**
+	 * Parse document
+	 * @param in       input stream positioned at start of document
+	 * @param systemId system id of document
+	 * @return true
+	 * @throws JDOMException if the document is not well-formed
+	 * @throws IOException if an I/O error occurs
+	 */
+	public Boolean read(InputStream in, String systemId) throws JDOMException, IOException {
+		final InputSource source = new InputSource(in);
+		source.setSystemId(systemId);
+		try {
+			getReader().parse(source);
+		} catch (SAXException e) {
+			throw new JDOMException(e.getMessage(), e);
+		}
+		return Boolean.TRUE;
+	}
+
+	private XMLReader getReader() throws JDOMException {
+		if (reader == null) {
+			try {
+				SAXParserFactory factory = SAXParserFactory.newInstance();
+				factory.setNamespaceAware(true);
+				factory.setValidating(false);
+				XMLReader r = factory.newSAXParser().getXMLReader();
+				r.setFeature("http://xml.org/sax/features/external-general-entities", false);
+				r.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+				r.setFeature(XmlValidate.LOAD_EXTERNAL_DTD, false);
+				r.setErrorHandler(new ErrorHandler() {
+					public void warning(SAXParseException exception) {
+						// not a well-formedness error
+					}
+
+					public void error(SAXParseException exception) {
+						// not a well-formedness error
+					}
+
+					public void fatalError(SAXParseException exception) throws SAXException {
+						throw exception;
+					}
+				});
+				reader = r;
+			} catch (ParserConfigurationException | SAXException e) {
+				throw new JDOMException("Could not create parser: " + e.getMessage(), e);
+			}
+		}
+		return reader;
+	}
+}
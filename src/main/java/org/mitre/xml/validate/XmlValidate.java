@@ -7,16 +7,24 @@
  */
 package org.mitre.xml.validate;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,11 +34,21 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.jdom2.*;
 import org.jdom2.input.JDOMParseException;
 import org.jdom2.input.SAXBuilder;
-import org.jdom2.input.sax.XMLReaders;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
 
 /**
  * XmlValidate validates XML documents in several methods depending on the task
@@ -107,6 +125,32 @@ import org.jdom2.input.sax.XMLReaders;
  * 			Added check for KML content in files with .kmz extension. Retry such files as text.
  * 11/14/13 Migrate JDOM 1.1 to JDOM 2.0.5
  * 05/23/14 Add -schemaLocation argument to add individual namespace-to-schema mappings
+ * 10/18/26 Add -timeout argument and cooperative cancellation of a validation run
+ *          Add -threads option to validate directories in parallel using size-aware scheduling
+ *          Check out parsers from a shared ParserPool for each document
+ *          Add -census mode to collect root element and namespace statistics only
+ *          Reject documents with unregistered namespace in -map mode before full parse
+ *          Add -dedup option to reuse results of byte-identical documents
+ *          Add -archive option to validate entries of gz, tar, tar.gz and zip files
+ *          Add -dumpDir option to write dumps to files on a background thread
+ *          Add -cache option for HTTP cache of URL content and validation results
+ *          Enforce size, ratio and entry count limits while inflating archives
+ *          Add -readAhead option to read upcoming files while the current file is validated
+ *          Write output of each file in one piece in parallel runs. Add -ordered option
+ *          to reproduce the output of a sequential run exactly
+ *          Add -target option to validate each document against several schemas in one pass
+ *          Add XmlValidator API to validate in-memory documents from many threads
+ *          Add ValidationPublisher to stream results of each resource with backpressure
+ *          Add -progress option to print throughput, files done vs. discovered and ETA
+ *          Emit Java Flight Recorder events for parse, rewrite, serialize and validation stages
+ *          Copy namespace list in checkNamespace only for elements that declare a mapped namespace
+ *          Add -semantic option to check KML coordinate tuples and gx:coord/gx:angles values
+ *          Add -memoryBudget option to admit documents while their estimated heap fits a budget
+ *          Add -daemon and -client options to validate through a long running loopback service
+ *          Add -stream and -framing options to validate messages from stdin, TCP or UDP
+ *          Validate with a pooled SAX reader without building a second tree, read small files
+ *          once into a per-thread buffer and add -latency option to print latency percentiles
+ *          Build smaller trees without indentation whitespace and with shared names and short values
  *
  * @see http://www.w3.org/TR/xmlschema-0/
  *
@@ -148,8 +192,7 @@ public class XmlValidate implements ErrorStatus {
 
 	private final java.util.Map<String, Set<String>> errorMap = new HashMap<>();
 
-    private final SAXBuilder builder;
-    private final SAXBuilder validatingBuilder;
+    private final ParserPool parserPool;
     private String schemaUri;
     private String schemaNamespace;
 
@@ -158,6 +201,17 @@ public class XmlValidate implements ErrorStatus {
     private boolean debug;
     private int dumpLevel;
     private int dumpLimit;
+    private DumpWriter dumpWriter;
+    private long timeout;
+
+    private final CancellationToken runToken;
+
+    private int threads = 1;
+    private boolean ordered;
+    private File history;
+
+    // set on worker instances so summary updates are replayed by the master in discovery order
+    private ValidationScheduler.Item deferred;
 
     private int warnings;
     private int errors;
@@ -167,13 +221,52 @@ public class XmlValidate implements ErrorStatus {
     private String homeDir = ".";
 
     private PrintStream out = System.out;
+    private PrintStream err = System.err; // warnings and notices not part of the validation output
     private int validFiles;
 
     private final Map<String, Integer> stats = new TreeMap<>();
 	private boolean kmlMode, kmzMode;
+	private boolean semanticChecks;
+	private boolean census;
+	private boolean archiveMode;
+	private DuplicateIndex duplicates;
+	private HttpCache httpCache;
+	private ArchiveLimits archiveLimits = new ArchiveLimits();
+	private Prefetcher prefetcher;
+	private MemoryAdmission admission;
+	private LatencyHistogram latency;
+	private MultiSchemaValidator multiSchema;
+	private MultiSchemaValidator.Validators targetValidators; // validators of this thread
+	private DuplicateIndex.Result recording; // result of document being validated if duplicates are tracked
+	private ValidationListener listener;
+	private ProgressReporter progress;
 
 	private static final Set<String> KML_ELEMENTS = new HashSet<>(5);
 
+	/** Largest file read whole into the buffer of the validating thread */
+	static final int SMALL_DOCUMENT = 16 * 1024;
+
+	private static final ThreadLocal<byte[]> SMALL_BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SMALL_DOCUMENT];
+		}
+	};
+
+	private static final ThreadLocal<WellFormedChecker> WELL_FORMED = new ThreadLocal<WellFormedChecker>() {
+		@Override
+		protected WellFormedChecker initialValue() {
+			return new WellFormedChecker();
+		}
+	};
+
+	private static final ThreadLocal<RootScanner> ROOT_SCANNER = new ThreadLocal<RootScanner>() {
+		@Override
+		protected RootScanner initialValue() {
+			return new RootScanner();
+		}
+	};
+
 	static {
 		// possible non-kml root elements in KML document with no namespace
 		KML_ELEMENTS.add("Placemark");
@@ -184,50 +277,32 @@ public class XmlValidate implements ErrorStatus {
 	}
 
 	public XmlValidate() {
+		this(new ParserPool());
+	}
+
+	/**
+	 * Create validator that checks out parsers from given pool. The pool may be
+	 * shared by multiple validators on different threads so each avoids the cost
+	 * of configuring parsers and loading schemas.
+	 * @param parserPool ParserPool
+	 */
+	public XmlValidate(ParserPool parserPool) {
+		this(new CancellationToken(), parserPool);
+	}
+
+	private XmlValidate(CancellationToken runToken, ParserPool parserPool) {
+		this.runToken = runToken;
+		this.parserPool = parserPool;
         extensionSet.add("xml"); // default target: XML documents only
-        builder = new SAXBuilder();
-        //parser = new DOMParser();
-        //try {
-        builder.setFeature(VALIDATION_FEATURE, false);
-        builder.setFeature(SCHEMA_FULL_CHECKING_FEATURE, false);
-        builder.setFeature(SCHEMA_VALIDATION_FEATURE, false);
-        builder.setFeature(LOAD_DTD_GRAMMAR, false);
-        builder.setFeature(LOAD_EXTERNAL_DTD, false);
-		builder.setFeature("http://xml.org/sax/features/external-general-entities", false);
-		builder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-		// builder.setFeature("http://xml.org/sax/features/namespaces", true);
-
-        /*
-        SAXParserFactory spf = SAXParserFactory.newInstance();
-        spf.setValidating(true);
-        spf.setNamespaceAware(true);
-        try {
-            validatingBuilder = spf.newSAXParser();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-        } catch (SAXException e) {
-            e.printStackTrace();
-        }
-        */
-
-        validatingBuilder = new SAXBuilder(XMLReaders.XSDVALIDATING);
-
-        //validatingBuilder.setValidation(true);
-        //validatingBuilder.setEntityResolver(this);
-
-        //validatingParser = new DOMParser();
-        validatingBuilder.setFeature(VALIDATION_FEATURE, true);
-        validatingBuilder.setFeature(SCHEMA_FULL_CHECKING_FEATURE, true);
-        validatingBuilder.setFeature(SCHEMA_VALIDATION_FEATURE, true);
-        validatingBuilder.setFeature(LOAD_DTD_GRAMMAR, false);
-        validatingBuilder.setFeature(LOAD_EXTERNAL_DTD, false);
-        // validatingBuilder.setExpandEntities(false);
-        // validatingBuilder.setFeature("http://apache.org/xml/features/validation/unparsed-entity-checking", false);
-        // validatingBuilder.setFeature("http://xml.org/sax/features/external-general-entities", false);
-        // validatingBuilder.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-        // validatingBuilder.setFeature(CONTINUE_AFTER_FATAL_FEATURE, false);
     }
 
+	/**
+	 * @return pool of parsers used by this validator
+	 */
+	public ParserPool getParserPool() {
+		return parserPool;
+	}
+
 	public Set<String> getExtensionSet() {
 		return extensionSet;
 	}
@@ -240,10 +315,32 @@ public class XmlValidate implements ErrorStatus {
 		this.kmzMode = kmzMode;
 	}
 
+	/**
+	 * Enable or disable checks of KML values the schemas declare as strings: the
+	 * lon,lat[,alt] tuples of coordinates and the values of gx:coord and gx:angles.
+	 * Values are checked in the same parse as schema validation and invalid values
+	 * are reported and counted as errors. Not applied with targets.
+	 * @param semanticChecks true to enable
+	 */
+	public void setSemanticChecks(boolean semanticChecks) {
+		this.semanticChecks = semanticChecks;
+	}
+
 	public void setSummary(boolean summary) {
 		this.summary = summary;
 	}
 
+	/**
+	 * Enable census mode that only reads each document up to the end of the start tag
+	 * of its root element and reports the root element and namespace statistics.
+	 * Documents are not validated. Census mode implies summary mode.
+	 * @param census true to enable census mode
+	 */
+	public void setCensus(boolean census) {
+		this.census = census;
+		if (census) summary = true;
+	}
+
 	/**
 	 * Set dump level to print reformatted XML documents.
 	 * 			0 -> no output [default],
@@ -255,30 +352,354 @@ public class XmlValidate implements ErrorStatus {
 		this.dumpLevel = dumpLevel;
 	}
 
+	/**
+	 * Set max length of each document printed in dump
+	 * @param dumpLimit max number of characters, 0 for no limit [default]
+	 */
+	public void setDumpLimit(int dumpLimit) {
+		this.dumpLimit = dumpLimit;
+	}
+
+	/**
+	 * Set directory to write dump of each document as a separate file rather than
+	 * printing it in the output. Dump files are written on a background thread.
+	 * @param dir dump directory, null to print dumps in the output [default]
+	 */
+	public void setDumpDir(File dir) {
+		if (dumpWriter != null) dumpWriter.shutdown();
+		dumpWriter = dir == null ? null : new DumpWriter(dir);
+	}
+
+	/**
+	 * Set wall-clock timeout for reading, parsing and validating each resource.
+	 * A resource that exceeds the timeout is aborted and recorded as a timeout
+	 * error then validation continues with the next resource.
+	 * @param timeout timeout in milliseconds, 0 to disable [default]
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Set number of threads used to validate files in a directory. If more than one thread
+	 * then all target files are collected first and scheduled longest first.
+	 * @param threads number of worker threads [default=1]
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Add target schema. If any targets are added then each document is parsed once and
+	 * validated against all targets in one pass instead of the -schema, -ns or -map schemas.
+	 * Elements are moved to the target namespace as with the -ns option.
+	 * @param namespace target namespace, null for a schema without target namespace
+	 * @param location  file path or URL of the schema
+	 * @throws SAXException if schema cannot be loaded
+	 */
+	public void addTarget(String namespace, String location) throws SAXException {
+		if (multiSchema == null) multiSchema = new MultiSchemaValidator();
+		multiSchema.addTarget(namespace, location);
+	}
+
+	/**
+	 * @return validator of target schemas or null if no targets were added
+	 */
+	public MultiSchemaValidator getMultiSchemaValidator() {
+		return multiSchema;
+	}
+
+	/**
+	 * Set order of output in a parallel run. Output of each file is always written in
+	 * one piece. If ordered then output is written in discovery order and is exactly the
+	 * same as a sequential run otherwise output of each file is written when it completes.
+	 * In summary mode output is always written in discovery order since the errors
+	 * printed for a file and the error map depend on the files validated before it.
+	 * @param ordered true to write output in discovery order [default=false]
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Set history file used to record elapsed time of each file. The history from
+	 * a previous run is used to improve the scheduling order of a parallel run.
+	 * @param history history file
+	 */
+	public void setHistory(File history) {
+		this.history = history;
+	}
+
+	/**
+	 * Set read-ahead of files in a directory. If enabled, the content of the next files
+	 * is read on a background thread into pooled buffers while the current file is validated.
+	 * @param files  max number of files read ahead, 0 to disable [default]
+	 * @param budget max bytes of content read ahead
+	 */
+	public void setReadAhead(int files, long budget) {
+		prefetcher = files > 0 ? new Prefetcher(files, budget) : null;
+	}
+
+	/**
+	 * Set memory budget of documents validated at the same time. Each document is
+	 * admitted only while the total of the estimated heap of documents in flight stays
+	 * within the budget, and a document larger than the budget runs alone with its
+	 * tree released before schema validation.
+	 * @param budget max estimated bytes of documents in flight, 0 to disable [default]
+	 */
+	public void setMemoryBudget(long budget) {
+		admission = budget > 0 ? new MemoryAdmission(budget) : null;
+	}
+
+	MemoryAdmission getMemoryAdmission() {
+		return admission;
+	}
+
+	/**
+	 * Enable or disable recording the time to validate each document in a latency
+	 * histogram whose percentiles are printed with the summary.
+	 * @param enabled true to record latency
+	 */
+	public void setLatency(boolean enabled) {
+		setLatency(enabled, 0);
+	}
+
+	/**
+	 * Enable or disable recording latency leaving the first documents out of the
+	 * histogram so the percentiles are of documents validated once the JVM is warm.
+	 * @param enabled true to record latency
+	 * @param warmup  number of documents validated first that are not recorded
+	 */
+	public void setLatency(boolean enabled, int warmup) {
+		latency = enabled ? new LatencyHistogram(warmup) : null;
+	}
+
+	/**
+	 * @return latency histogram of documents validated, null if not enabled
+	 */
+	LatencyHistogram getLatencyHistogram() {
+		return latency;
+	}
+
+	/**
+	 * Cancel the validation run. The resource currently being validated is aborted
+	 * and no further resources are validated by this instance.
+	 * Safe to call from any thread.
+	 */
+	public void cancel() {
+		runToken.cancel();
+	}
+
+	public boolean isCancelled() {
+		return runToken.isCancelled();
+	}
+
+	/**
+	 * Enable or disable archive mode. If enabled, gzip, tar, tar.gz and zip files
+	 * are treated as containers and the entries with target file extensions are
+	 * validated directly from the decompressing stream.
+	 * @param archiveMode true to enable
+	 */
+	public void setArchiveMode(boolean archiveMode) {
+		this.archiveMode = archiveMode;
+	}
+
+	/**
+	 * Enable or disable content-hash deduplication. If enabled, the result of
+	 * validating a document is reused for byte-identical copies of it in the same run.
+	 * Unless summary mode is enabled, copies of a document with errors or warnings
+	 * are validated again so each copy prints its own messages.
+	 * @param dedup true to enable
+	 */
+	public void setDedup(boolean dedup) {
+		duplicates = dedup ? new DuplicateIndex() : null;
+	}
+
+	/**
+	 * Set HTTP cache used to fetch URL resources. Responses and validation results are
+	 * stored in the cache so an unchanged URL is not downloaded or parsed again.
+	 * @param httpCache HttpCache, null to disable caching [default]
+	 */
+	public void setHttpCache(HttpCache httpCache) {
+		this.httpCache = httpCache;
+	}
+
+	/**
+	 * Get limits enforced while inflating KMZ files and archives. Limits can be changed
+	 * before validation starts.
+	 * @return ArchiveLimits
+	 */
+	public ArchiveLimits getArchiveLimits() {
+		return archiveLimits;
+	}
+
+	/**
+	 * Set listener that receives the result of each validated resource including
+	 * KMZ and archive entries. The listener is called on the thread that validated
+	 * the resource and may block to slow down the run.
+	 * @param listener ValidationListener, null to disable
+	 */
+	public void setValidationListener(ValidationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Set reporter that counts targets and validated files to print the progress of the run
+	 * @param progress ProgressReporter, null to disable
+	 */
+	public void setProgressReporter(ProgressReporter progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * @return index of validated documents or null if deduplication is not enabled
+	 */
+	public DuplicateIndex getDuplicateIndex() {
+		return duplicates;
+	}
+
 	@Override
 	public void addWarning(String s) {
 		if(s != null) out.println(s);
-		warnings++;
+		addCounts(0, 1);
 	}
 
 	@Override
 	public void addError(String s) {
 		if(s != null) out.println(s);
-		errors++;
+		addCounts(1, 0);
 	}
 
-	public int getWarnings() {
+	public synchronized int getWarnings() {
 		return warnings;
 	}
 
-	public int getErrors() {
+	public synchronized int getErrors() {
 		return errors;
 	}
 
-	public int getFileCount() {
+	public synchronized int getFileCount() {
 		return fileCount;
 	}
 
+	private synchronized void addCounts(int errors, int warnings) {
+		this.errors += errors;
+		this.warnings += warnings;
+	}
+
+	/**
+	 * Create worker used to validate files on another thread with the same
+	 * configuration as this instance.
+	 */
+	XmlValidate createWorker() {
+		return copy(new CancellationToken(runToken, 0));
+	}
+
+	/**
+	 * Create validator with the same configuration and parser pool as this instance.
+	 * @param runToken token cancelled to stop the copy
+	 */
+	XmlValidate copy(CancellationToken runToken) {
+		XmlValidate worker = new XmlValidate(runToken, parserPool);
+		worker.schemaMap = schemaMap;
+		worker.extensionSet.clear();
+		worker.extensionSet.addAll(extensionSet);
+		worker.schemaUri = schemaUri;
+		worker.schemaNamespace = schemaNamespace;
+		worker.verbose = verbose;
+		worker.err = err;
+		worker.summary = summary;
+		worker.debug = debug;
+		worker.dumpLevel = dumpLevel;
+		worker.dumpLimit = dumpLimit;
+		worker.dumpWriter = dumpWriter;
+		worker.timeout = timeout;
+		worker.homeDir = homeDir;
+		worker.kmlMode = kmlMode;
+		worker.kmzMode = kmzMode;
+		worker.semanticChecks = semanticChecks;
+		worker.census = census;
+		worker.archiveMode = archiveMode;
+		worker.duplicates = duplicates;
+		worker.httpCache = httpCache;
+		worker.archiveLimits = archiveLimits;
+		worker.prefetcher = prefetcher;
+		worker.admission = admission;
+		worker.latency = latency;
+		worker.multiSchema = multiSchema;
+		worker.listener = listener;
+		worker.progress = progress;
+		return worker;
+	}
+
+	void setDeferred(ValidationScheduler.Item item) {
+		deferred = item;
+	}
+
+	/**
+	 * Write buffered output of a file validated by a worker and replay its summary
+	 * updates, headers and dumps at the position they were recorded in the output.
+	 */
+	void flush(ValidationScheduler.Item item) {
+		final OutputBuffer.Content output = item.output;
+		long position = 0;
+		if (item.events != null) {
+			// resources whose header or dump has been printed
+			final Set<String> printed = new HashSet<>();
+			final Set<String> dumped = new HashSet<>();
+			for (ValidationScheduler.Event e : item.events) {
+				if (output != null && e.position > position) {
+					output.writeTo(out, position, e.position);
+					position = e.position;
+				}
+				switch (e.type) {
+					case ValidationScheduler.Event.HEADER:
+						if (printed.add(e.target)) out.println("\nCheck: " + e.target);
+						continue;
+					case ValidationScheduler.Event.DUMP:
+						if (dumped.add(e.target)) Resource.dump(out, e.target, e.content, dumpLimit, dumpWriter);
+						continue;
+					case ValidationScheduler.Event.ERROR_RESOURCE:
+						if (printed.contains(e.target)) out.println("-  " + e.key);
+						else addStatusError(e.source, e.key);
+						continue;
+					case ValidationScheduler.Event.ERROR:
+						addStatusError(e.source, e.key);
+						continue;
+				}
+				Integer count = stats.get(e.key);
+				if (count == null) {
+					count = Integer.valueOf(1); // first occurrence of this key
+					if (e.type != ValidationScheduler.Event.STATUS && e.key.startsWith("ERROR:")) {
+						// same as printFile() of resource
+						if (printed.add(e.target)) out.println("\nCheck: " + e.target);
+						if (e.content != null && dumped.add(e.target))
+							Resource.dump(out, e.target, e.content, dumpLimit, dumpWriter);
+						out.println(e.key);
+					}
+				}
+				else count = count + 1; // increment counter
+				stats.put(e.key, count);
+			}
+		}
+		if (output != null) {
+			output.writeTo(out, position, output.size());
+			output.release();
+			item.output = null;
+		}
+	}
+
+	/**
+	 * Add counts of a worker to the totals
+	 */
+	synchronized void merge(XmlValidate worker) {
+		errors += worker.errors;
+		warnings += worker.warnings;
+		fileCount += worker.fileCount;
+		validFiles += worker.validFiles;
+		worker.runToken.release();
+	}
+
     private void addStatus(String error, Exception e) {
 		String message = e.getMessage();
 		if (e instanceof JDOMParseException) {
@@ -288,7 +709,14 @@ public class XmlValidate implements ErrorStatus {
 		addStatus(error + ": " + e.getClass().getName() + ": " + message);
     }
 
-	private void addStatus(Resource res, String key) {
+	private synchronized void addStatus(Resource res, String key) {
+		if (recording != null) {
+			recording.add(res == null ? DuplicateIndex.Event.STATUS : DuplicateIndex.Event.STATUS_RESOURCE, key);
+		}
+		if (deferred != null) {
+			deferred.addStatus(res, key);
+			return;
+		}
 		Integer count = stats.get(key);
         if (count == null) {
 			count = Integer.valueOf(1); // first occurrence of this key
@@ -306,87 +734,385 @@ public class XmlValidate implements ErrorStatus {
 		addStatus(null, key);
     }
 
+    /**
+     * Validate file, directory or URL. Targets that are not an existing file
+     * are validated as URLs.
+     * @param target file path or URL
+     */
+    public void validate(String target) {
+        if (target.startsWith("http:"))
+            try {
+                // validate as URL
+                validateUrl(new URL(target));
+            } catch (MalformedURLException e) {
+                err.println("WARN: bad URL " + target + ": " + e.getMessage());
+                publishFailure(target, null, "bad URL: " + e.getMessage());
+            }
+        else {
+            // validate target as local file if it exists
+            File file = new File(target);
+            if (file.exists()) {
+                if (progress != null) progress.discover(file, new FileFilter() {
+                    public boolean accept(File f) {
+                        return f.isDirectory() ? !f.getName().equals(".svn") : isTargetFile(f);
+                    }
+                });
+                validate(file);
+            } else
+                try {
+                    // otherwise validate target as URL
+                    validateUrl(new URL(target));
+                } catch (MalformedURLException e) {
+                    err.println("WARN: file/URL not found " + target + ": " + e.getMessage());
+                    publishFailure(target, null, "file/URL not found: " + e.getMessage());
+                }
+                //System.err.println("WARN: file " + target + " does not exist");
+        }
+    }
+
+    /**
+     * Validate XML document content given inline rather than read from a file
+     * or URL (e.g. sent to the validation daemon).
+     * @param name name of document used as its source in output
+     * @param content document content
+     */
+    public void validate(String name, byte[] content) {
+        final FileResource resource = new FileResource(out, new File(name), schemaNamespace);
+        resource.setContent(content, content.length);
+        validate(resource);
+    }
+
+    private void validateUrl(URL url) {
+        if (progress == null) {
+            validate(new UrlResource(out, url, schemaNamespace));
+            return;
+        }
+        progress.discovered(0);
+        progress.begin(url.toString());
+        final int errors = getErrors();
+        try {
+            validate(new UrlResource(out, url, schemaNamespace));
+        } finally {
+            progress.end(0, getErrors() > errors);
+        }
+    }
+
     public void validate(File file) {
         if (file.isDirectory()) {
+            if (threads > 1) {
+                // collect all target files then validate them in parallel
+                List<File> files = new ArrayList<>();
+                collectFiles(file, files);
+                if (!files.isEmpty()) {
+                    // record time when validation process starts
+                    if (fileCount == 0) startTime = System.currentTimeMillis();
+                    // summary and error map updates are replayed in discovery order so report is deterministic
+                    new ValidationScheduler(this, threads, history, ordered || summary).run(files);
+                }
+                return;
+            }
+            if (prefetcher != null) {
+                // collect files so the next files can be read ahead in order
+                List<File> files = new ArrayList<>();
+                collectFiles(file, files);
+                prefetcher.start(files);
+                try {
+                    for (File f : files) {
+                        if (runToken.isCancelled()) return;
+                        validateFile(f);
+                    }
+                } finally {
+                    prefetcher.stop();
+                }
+                return;
+            }
             if (verbose) out.println("dir: " + file);
             for (File f : file.listFiles()) {
+                if (runToken.isCancelled()) return;
                 if (f.isDirectory()) {
                     if (!f.getName().equals(".svn")) // don't recurse .svn directories
                         validate(f);
-                } else {
-                    String name = f.getName().toLowerCase(Locale.ROOT);
-                    int ind = name.lastIndexOf('.');
-                    if (ind != -1 && extensionSet.contains(name.substring(ind + 1))) {
-                        if (f.length() == 0) {
-							if (summary) {
-								addStatus("ERROR: zero length file");
-								addStatusError(f.toString(), "zero length file");
-							} else {
-								if (verbose) out.println("\nSkip: " + f);
-								if (debug) System.out.println("skip zero length file: " + f);
-							}
-                            continue;
-                        }
-                        // if (f.getName().endsWith(".xml") || f.getName().endsWith(".kml"))
-						final FileResource resource = new FileResource(out, f, schemaNamespace);
-						validate(resource);
-						if (kmzMode && resource.isKmzFile()) {
-							checkKmzResource(f);
-						}
-                    }
+                } else if (isTargetFile(f)) {
+                    validateFile(f);
                 }
             }
             return;
         }
 
+        validateFile(file);
+    }
+
+	/**
+	 * Recursively collect files in directory with target file extensions
+	 * in the same order they would be visited by {@link #validate(File)}.
+	 * @param dir  directory
+	 * @param files list to add files
+	 */
+	void collectFiles(File dir, List<File> files) {
+		if (verbose) out.println("dir: " + dir);
+		for (File f : dir.listFiles()) {
+			if (f.isDirectory()) {
+				if (!f.getName().equals(".svn")) // don't recurse .svn directories
+					collectFiles(f, files);
+			} else if (isTargetFile(f)) {
+				files.add(f);
+			}
+		}
+	}
+
+	private boolean isTargetFile(File f) {
+		if (archiveMode && ArchiveExplorer.isArchive(f)) return true;
+		String name = f.getName().toLowerCase(Locale.ROOT);
+		int ind = name.lastIndexOf('.');
+		return ind != -1 && extensionSet.contains(name.substring(ind + 1));
+	}
+
+	/**
+	 * Start read-ahead of files if enabled
+	 * @param files files in the order they will be validated
+	 * @return true if read-ahead was started and must be stopped with {@link #stopPrefetch()}
+	 */
+	boolean startPrefetch(List<File> files) {
+		if (prefetcher == null) return false;
+		prefetcher.start(files);
+		return true;
+	}
+
+	void stopPrefetch() {
+		if (prefetcher != null) prefetcher.stop();
+	}
+
+	/**
+	 * Validate single file and if KMZ mode is enabled all KML entries in KMZ file.
+	 * @param file  File to validate, must not be a directory
+	 */
+	void validateFile(File file) {
+		if (progress == null) {
+			prefetchFile(file);
+			return;
+		}
+		progress.begin(file.toString());
+		final int errors = getErrors();
+		try {
+			prefetchFile(file);
+		} finally {
+			progress.end(file.length(), getErrors() > errors);
+		}
+	}
+
+	private void prefetchFile(File file) {
+		if (prefetcher == null) {
+			validateFile(file, null);
+			return;
+		}
+		final Prefetcher.Buffer buffer = prefetcher.take(file);
+		final long start = System.nanoTime();
+		try {
+			validateFile(file, buffer);
+		} finally {
+			prefetcher.addValidateTime(System.nanoTime() - start);
+			if (buffer != null) prefetcher.release(buffer);
+		}
+	}
+
+	private void validateFile(File file, Prefetcher.Buffer buffer) {
+		final long length = file.length();
 		// skip over zero-length files
-		if (file.length() == 0) {
+		if (length == 0) {
 			if (summary) {
 				addStatus("ERROR: zero length file");
 				addStatusError(file.toString(), "zero length file");
 			} else {
 				if (verbose) out.println("\nSkip: " + file);
-				if (debug) System.out.println("skip zero length file");
+				if (debug) System.out.println("skip zero length file: " + file);
 			}
+			publishFailure(file.toString(), null, "zero length file");
+			return;
+		}
+
+		if (archiveMode && ArchiveExplorer.isArchive(file)) {
+			checkArchive(file);
 			return;
 		}
 
 		final FileResource resource = new FileResource(out, file, schemaNamespace);
+		if (buffer != null) resource.setContent(buffer.data, buffer.length);
+		else if (length <= SMALL_DOCUMENT && !file.getName().toLowerCase(Locale.ROOT).endsWith(".kmz")) {
+			// kmz file is opened as zip file rather than read as content
+			readSmallFile(resource, file);
+		}
 		validate(resource);
 		if (kmzMode && resource.isKmzFile()) {
 			checkKmzResource(file);
 		}
     }
 
+	/**
+	 * Read small file whole into the buffer of this thread so the root element check
+	 * and the parse read it from memory rather than opening the file for each.
+	 * The resource reads the file as usual if it cannot be read here or has
+	 * grown larger than the buffer.
+	 */
+	private static void readSmallFile(FileResource resource, File file) {
+		final byte[] data = SMALL_BUFFER.get();
+		int n = 0;
+		try (InputStream is = new FileInputStream(file)) {
+			int count;
+			while (n < data.length && (count = is.read(data, n, data.length - n)) != -1) {
+				n += count;
+			}
+			if (n == data.length && is.read() != -1) return;
+		} catch (IOException e) {
+			return; // error is reported when resource reads the file
+		}
+		resource.setContent(data, n);
+	}
+
 	private void checkKmzResource(File file) {
 		try(
-			KmzExplorer visitor = new KmzExplorer(out, file, schemaNamespace, this);
+			KmzExplorer visitor = new KmzExplorer(out, file, schemaNamespace, this, archiveLimits);
 		) {
 			Resource res;
-			while ((res = visitor.next()) != null) {
+			while (!runToken.isCancelled() && (res = visitor.next()) != null) {
 				validate(res);
 			}
+		} catch (ArchiveLimitException e) {
+			archiveLimitExceeded(file.toString(), e);
 		} catch (IOException e) {
 			out.println("\tparse failed: " + e);
+			publishFailure(file.toString(), null, "parse failed: " + e);
 		}
 	}
 
+	private void checkArchive(File file) {
+		try(
+			ArchiveExplorer visitor = new ArchiveExplorer(out, file, schemaNamespace, extensionSet, kmzMode, archiveLimits);
+		) {
+			Resource res;
+			while (!runToken.isCancelled() && (res = visitor.next()) != null) {
+				validate(res);
+			}
+		} catch (ArchiveLimitException e) {
+			archiveLimitExceeded(file.toString(), e);
+		} catch (IOException e) {
+			if (summary) {
+				addStatus("ERROR", e);
+				addStatusError(file.toString(), "archive failed: " + e);
+			} else {
+				out.println("\nCheck: " + file);
+				out.println("\tarchive failed: " + e);
+			}
+			addCounts(1, 0);
+			publishFailure(file.toString(), null, "archive failed: " + e);
+		}
+	}
+
+	// archive aborted while advancing to next entry
+	private void archiveLimitExceeded(String file, ArchiveLimitException e) {
+		if (summary) {
+			addStatus("ERROR: archive limit: " + e.getCategory());
+			addStatusError(file, e.getMessage());
+		} else {
+			out.println("\nCheck: " + file);
+			out.println("\t" + e.getMessage());
+		}
+		addCounts(1, 0);
+		publishFailure(file, "archive limit: " + e.getCategory(), e.getMessage());
+	}
+
 	public boolean validate(Resource res) {
+        if (runToken.isCancelled()) return false;
+        res.setDeferred(deferred);
+        if (listener != null) res.recordIssues();
         if (verbose) res.printFile();
-        // record time when validation process starts
-        if (fileCount++ == 0) startTime = System.currentTimeMillis();
+        synchronized (this) {
+            // record time when validation process starts
+            if (fileCount++ == 0) startTime = System.currentTimeMillis();
+        }
 
         if (summary) res.setSummary(true);
-
+        if (res.getArchiveLimits() == null) res.setArchiveLimits(archiveLimits);
+
+        final long start = latency != null ? System.nanoTime() : 0;
+        final CancellationToken token = new CancellationToken(runToken, timeout);
+        res.setCancellationToken(token);
+        ParserPool.Parsers parsers = null;
+        DuplicateIndex.ContentDigest digest = null;
+        HttpCache.Entry cached = null;
+        DuplicateIndex.Result replayed = null;
+        MemoryAdmission.Ticket ticket = null;
+        boolean validated = false;
+        long length = -1;
+        int[] counts = null;
         try {
-            Document doc = getDocument(res);
+            if (census) {
+                census(res);
+                return true;
+            }
+            if (duplicates != null && res.isReopenable() && (length = res.getContentLength()) >= 0) {
+                if (duplicates.mayContain(length, res.getContentCrc())) {
+                    // same size (and CRC-32 if known) as a document already validated
+                    digest = res.read(DuplicateIndex.HASHER);
+                    DuplicateIndex.Result result = duplicates.get(digest.getHash());
+                    // only the summary of a result is recorded so without -S a copy
+                    // with errors or warnings is validated again to print its messages
+                    if (result != null && (summary || result.errors == 0 && result.warnings == 0)) {
+                        duplicates.addDuplicate(length);
+                        replayed = result;
+                        return replay(res, result);
+                    }
+                }
+                counts = startRecording(res);
+            }
+            if (httpCache != null && res instanceof UrlResource) {
+                UrlResource urlRes = (UrlResource) res;
+                if (urlRes.getCache() == null) urlRes.setCache(httpCache);
+                // conditional request: result of unchanged content is reused without parsing it
+                cached = urlRes.fetch();
+                if (cached != null) {
+                    DuplicateIndex.Result result = cached.getResult(getConfigKey());
+                    if (result != null) {
+                        replayed = result;
+                        return replay(res, result);
+                    }
+                    if (counts == null) counts = startRecording(res);
+                }
+            }
+            if (schemaMap != null && res.isReopenable() && rejectUnmapped(res)) {
+                return false;
+            }
+            if (admission != null) {
+                try {
+                    ticket = admission.admit(admission.estimateCost(MemoryAdmission.estimateLength(res)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            parsers = parserPool.checkout();
+            if (recording != null && digest == null) {
+                // hash content as it is parsed
+                digest = new DuplicateIndex.ContentDigest();
+                res.setDigest(digest);
+            }
+            // errors found validating the tree against target schemas are reported at element positions
+            Document doc = getDocument(res, parsers.getBuilder(multiSchema != null));
+            res.setDigest(null);
             if (doc != null) {
-                schemaValidation(res);
+                if (multiSchema != null) targetValidation(res, doc);
+                else {
+                    doc = null; // drop local reference so resource can release the tree
+                    schemaValidation(res, parsers, ticket);
+                }
+                if (recording != null) recording.validated = true;
+                validated = true;
 				return true;
 			}
         } catch (OutOfMemoryError e) {
+            recording = null;
             res.printFile();
             out.println("\tparse failed: " + e);
+            res.addIssue(ValidationResult.Severity.FATAL, null, "parse failed: " + e, -1, -1);
             System.gc();
         } catch (JDOMParseException e) {
             // if we get here then document is not well-formed and getDocument failed
@@ -405,7 +1131,30 @@ public class XmlValidate implements ErrorStatus {
                         e.getMessage(), e.getLineNumber(), e.getColumnNumber());
 				if (debug) e.printStackTrace();
 			}
-			errors++;
+			res.addIssue(ValidationResult.Severity.FATAL, null, e.getMessage(), e.getLineNumber(), e.getColumnNumber());
+			addCounts(1, 0);
+        } catch (ResourceTimeoutException e) {
+            recording = null; // result depends on load so it cannot be reused
+            if (summary) {
+                addStatus("ERROR: timeout");
+                addStatusError(res, e.getMessage());
+            } else {
+                res.printFile();
+                out.println("\t" + e.getMessage());
+            }
+            res.addIssue(ValidationResult.Severity.FATAL, "timeout", e.getMessage(), -1, -1);
+            addCounts(1, 0);
+        } catch (ArchiveLimitException e) {
+            // entry aborted as soon as limit was crossed
+            if (summary) {
+                addStatus("ERROR: archive limit: " + e.getCategory());
+                addStatusError(res, e.getMessage());
+            } else {
+                res.printFile();
+                out.println("\t" + e.getMessage());
+            }
+            res.addIssue(ValidationResult.Severity.FATAL, "archive limit: " + e.getCategory(), e.getMessage(), -1, -1);
+            addCounts(1, 0);
         } catch (JDOMException e) {
             if (summary) {
                 addStatus("ERROR", e);
@@ -416,8 +1165,10 @@ public class XmlValidate implements ErrorStatus {
                 out.println("\tparse failed: " + e);
                 if (debug) e.printStackTrace();
             }
-            errors++;
+            res.addIssue(ValidationResult.Severity.FATAL, null, "parse failed: " + e.getMessage(), -1, -1);
+            addCounts(1, 0);
         } catch (IOException e) {
+            recording = null;
             if (summary) {
                 addStatus("ERROR", e);
 				addStatusError(res, "parse failed: " + e);
@@ -426,28 +1177,181 @@ public class XmlValidate implements ErrorStatus {
 				out.println("\tparse failed: " + e);
 				if (debug) e.printStackTrace();
 			}
-			errors++;
+			res.addIssue(ValidationResult.Severity.FATAL, null, "parse failed: " + e, -1, -1);
+			addCounts(1, 0);
         } finally {
+            parserPool.release(parsers);
+            if (ticket != null) admission.release(ticket, res.getXmlContentLength());
+            token.release();
             for (String msg : res.getStats()) {
                 addStatus(res, msg);
             }
+            if (recording != null) {
+                synchronized (this) {
+                    recording.errors = errors - counts[0];
+                    recording.warnings = warnings - counts[1];
+                    recording.valid = validFiles != counts[2];
+                }
+                if (length >= 0) record(res, recording, digest, length);
+                if (cached != null) cached.putResult(getConfigKey(), recording);
+                recording = null;
+            }
+            res.setDigest(null);
+            if (listener != null) publish(res, validated, replayed);
+            if (latency != null) latency.record(System.nanoTime() - start);
         }
 
         return false;
     }
 
+	/**
+	 * Pass result of a validated resource to the listener.
+	 * @param replayed result reused from an earlier copy of the document, null if validated
+	 */
+	private void publish(Resource res, boolean validated, DuplicateIndex.Result replayed) {
+		List<ValidationResult.Issue> issues = res.getIssues();
+		ValidationResult result;
+		if (replayed != null) {
+			// only the errors recorded in summary mode are known
+			for (DuplicateIndex.Event e : replayed.events) {
+				if (e.type == DuplicateIndex.Event.ERROR)
+					issues.add(new ValidationResult.Issue(ValidationResult.Severity.ERROR, null, e.key, -1, -1, null));
+			}
+			result = new ValidationResult(res.getSource(), null, null, res.getSchemaNamespace(), replayed.validated,
+					replayed.errors, replayed.warnings, issues, Collections.<ValidationResult>emptyList());
+		} else {
+			result = new ValidationResult(res.getSource(), res.getRootName(), res.getRootNamespace(),
+					res.getSchemaNamespace(), validated, issues, Collections.<ValidationResult>emptyList());
+		}
+		listener.validated(result);
+	}
+
+	/**
+	 * Report unexpected failure of validating a file on a worker thread as an
+	 * error of that file.
+	 * @param file file being validated
+	 * @param e    exception or error that escaped validation of the file
+	 */
+	void addFailure(File file, Throwable e) {
+		if (summary) {
+			addStatus("ERROR: " + e.getClass().getName() + ": " + e.getMessage());
+			addStatusError(file.toString(), "parse failed: " + e);
+		} else {
+			out.println("\nCheck: " + file);
+			out.println("\tparse failed: " + e);
+		}
+		addCounts(1, 0);
+	}
+
+	/**
+	 * Pass failure of a file or archive that is not validated as a resource to the listener.
+	 */
+	private void publishFailure(String source, String code, String message) {
+		if (listener == null) return;
+		listener.validated(new ValidationResult(source, null, null, null, false,
+				Collections.singletonList(new ValidationResult.Issue(ValidationResult.Severity.FATAL,
+						code, message, -1, -1, null)),
+				Collections.<ValidationResult>emptyList()));
+	}
+
+	/**
+	 * Start recording summary updates of a resource so its result can be reused.
+	 * @return error, warning and valid file counts before the resource is validated
+	 */
+	private synchronized int[] startRecording(Resource res) {
+		recording = new DuplicateIndex.Result(res.getSource());
+		return new int[]{errors, warnings, validFiles};
+	}
+
+	/**
+	 * Get key of the settings that affect the result of validating a document
+	 * used to store results in the HTTP cache.
+	 */
+	private String getConfigKey() {
+		StringBuilder sb = new StringBuilder();
+		if (schemaMap != null) sb.append(new TreeMap<>(schemaMap));
+		sb.append('|').append(schemaUri).append('|').append(schemaNamespace)
+				.append('|').append(kmlMode).append('|').append(summary).append('|').append(semanticChecks);
+		if (multiSchema != null) {
+			for (MultiSchemaValidator.Target t : multiSchema.getTargets()) {
+				sb.append('|').append(t.getNamespace()).append('=').append(t.getLocation());
+			}
+		}
+		return HttpCache.hash(sb.toString());
+	}
+
+	/**
+	 * Add result of first copy of a document to the duplicate index.
+	 */
+	private void record(Resource res, DuplicateIndex.Result result, DuplicateIndex.ContentDigest digest,
+						long length) {
+		if (digest == null || digest.getCount() != length) {
+			// parser stopped before end of content
+			try {
+				digest = res.read(DuplicateIndex.HASHER);
+			} catch (JDOMException | IOException e) {
+				return;
+			}
+			if (digest.getCount() != length) return;
+		}
+		duplicates.put(digest, result);
+	}
+
+	/**
+	 * Reuse result of the first copy of a document for a byte-identical copy.
+	 * The file is counted and its errors are attributed to its own source.
+	 * @return true if the first copy was validated against a schema
+	 */
+	private boolean replay(Resource res, DuplicateIndex.Result result) {
+		for (DuplicateIndex.Event e : result.events) {
+			if (e.type == DuplicateIndex.Event.ERROR)
+				addStatusError(res, e.key);
+			else
+				addStatus(e.type == DuplicateIndex.Event.STATUS ? null : res, e.key);
+		}
+		addCounts(result.errors, result.warnings);
+		if (result.valid) {
+			synchronized (this) {
+				validFiles++;
+			}
+			if (verbose) out.println("\t *OK*");
+		}
+		if (!summary && (result.errors != 0 || result.warnings != 0)) {
+			res.printFile();
+			if (res.getSource().equals(result.getSource()))
+				out.format("\tunchanged since last validated: errors: %d warnings: %d%n",
+						result.errors, result.warnings);
+			else
+				out.format("\tsame content as %s: errors: %d warnings: %d%n",
+						result.getSource(), result.errors, result.warnings);
+		}
+		return result.validated;
+	}
+
 	private void addStatusError(Resource res, String err) {
+		if (recording != null) {
+			recording.add(DuplicateIndex.Event.ERROR, err);
+		}
 		if (res.isPrinted()) {
 			// output for file already dumped with an error/warning so just dump the new error and continue
 			// otherwise append error to error map and dump at end
 			out.println("-  " + err);
 			return;
 		}
+		if (deferred != null) {
+			// header may be printed by an earlier error in the sequential order
+			deferred.addError(res, err);
+			return;
+		}
 		addStatusError(res.getSource(), err);
 	}
 
-	private void addStatusError(String source, String err) {
+	private synchronized void addStatusError(String source, String err) {
 		//String source = res.getSource();
+		if (deferred != null) {
+			deferred.addError(source, err);
+			return;
+		}
 		Set<String> sources = errorMap.get(err);
 		if (sources == null) {
 			sources = new HashSet<>();
@@ -471,8 +1375,31 @@ public class XmlValidate implements ErrorStatus {
 		return msg;
 	}
 
-	private Document getDocument(Resource res) throws JDOMException, IOException {
+	Document getDocument(Resource res, SAXBuilder builder) throws JDOMException, IOException {
         Document doc = res.getDocument(builder);
+        final ValidationEvents.Rewrite event = new ValidationEvents.Rewrite();
+        event.begin();
+        try {
+            doc = rewrite(res, doc);
+            return doc;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.source = res.getSource();
+                event.namespace = res.getSchemaNamespace();
+                event.mapped = doc != null;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Remove DOCTYPE and map namespace of parsed document and set schema locations
+     * @return document or null if no schema is mapped to its namespace
+     * @throws InterruptedIOException if the resource times out or is cancelled
+     *      while its namespace is changed
+     */
+    private Document rewrite(Resource res, Document doc) throws InterruptedIOException {
         Iterator<Content> it = doc.getDescendants();
         //boolean modified = false;
         while (it.hasNext()) {
@@ -492,80 +1419,30 @@ public class XmlValidate implements ErrorStatus {
         //    root.setAttribute("schemaLocation", schemaUri, xsiNamespace);
 
 		if (summary) {
-			final String name = root.getName();
-			addStatus("root element=" + name);
-			if (kmlMode && (name == null || !name.equals("kml") && !KML_ELEMENTS.contains(name))) {
-				res.printFile();
-				out.println("non-kml root element: " + name);
-				addStatus("non-kml root element");
-			}
-			if (rootNS == null) {
-				// can rootNS be null? or if no default namespace do we get the static default namespace object ??
-				// is there a distinction btwn no root namespace and no default namespace ??
-				res.printFile();
-				out.println("xmlns=no root namespace");
-				addStatus("xmlns=no root namespace");
-				res.setDefaultNamespace("no root namespace");
-			} else {
-				final String uri = rootNS.getURI();
-				if (uri.isEmpty()) {
-					res.printFile();
-					out.println("no default namespace");
-					addStatus("xmlns=no default namespace");
-				} else {
-					addStatus("xmlns=" + uri);
-					res.setDefaultNamespace(uri);
-					if (kmlMode && !uri.contains("/kml")) {
-						res.printFile();
-						out.println("non-kml root namespace: " + uri); // debug for kml testing
-					}
-				}
-			}
+			addRootStatus(res, root.getName(), rootNS == null ? null : rootNS.getURI());
+		}
+
+		if (multiSchema != null) {
+			// elements are moved to namespace of each target while validating
+			return doc;
 		}
 
 		// first check if we use schema mapping to find associated Schema location for the namespace
         if (schemaMap != null) {
 			// rootNS should never be null. Even if no default namespace should have
 			// empty rootNS with empty string as its namespace prefix and associated URI.
-            if (rootNS == null) {
-				if (!summary) {
-					res.printFile();
-					out.println("INFO: no root namespace");
-				}
+            final String rootURI = rootNS == null ? null : rootNS.getURI();
+            final String schemaNamespace = mapNamespace(res, root.getName(), rootURI);
+            if (schemaNamespace == null) {
                 return null;
             }
-            schemaNamespace = rootNS.getURI();
-            if (schemaNamespace == null || schemaNamespace.isEmpty()) {
-				if (!summary) {
-					res.printFile();
-					out.println("INFO: no root namespace");
-				}
-                // if "kml" root element and no default namespace then use KML 2.0 namespace
-				// and associated schema otherwise cannot validate XML document.
-				final String rootName = root.getName();
-				if ("kml".equals(rootName) || kmlMode && KML_ELEMENTS.contains(rootName)) {
-                    schemaNamespace = "http://earth.google.com/kml/2.0";
-                    Namespace ns = Namespace.getNamespace(schemaNamespace);
-                    changeNamespace(root, ns);
-                } else {
-                    return null;
-                }
-            } else if (schemaNamespace.equals("http://earth.google.com/kml/2.2")) {
-                // http://earth.google.com/kml/2.2 was a beta pre-OGC namespace: map to real namespace
-                // and update the DOM to reflect new namespace
-                schemaNamespace = "http://www.opengis.net/kml/2.2";
+            if (!schemaNamespace.equals(rootURI)) {
+                // no namespace mapped to KML 2.0 or http://earth.google.com/kml/2.2 beta namespace
+                // mapped to OGC namespace so update the DOM to reflect new namespace
                 Namespace ns = Namespace.getNamespace(schemaNamespace);
-                changeNamespace(root, ns);
+                changeNamespace(root, ns, res.getCancellationToken());
             }
             String schemaLoc = schemaMap.get(schemaNamespace);
-            if (schemaLoc == null) {
-				// note: if xmlns="http://www.w3.org/2001/XMLSchema" 
-				// then there isn't a XSD that defines what a XSD is
-                res.printFile();
-                out.println("INFO: namespace not registered: " + schemaNamespace);
-				if (summary) addStatus("INFO: namespace not registered");
-                return null;
-            }
             /* schemaLocation attribute value consists of one or more pairs of URI references,
              * separated by white space. The first member of each pair is a namespace name,
              * and the second member of the pair is a hint describing where to find an
@@ -631,13 +1508,13 @@ public class XmlValidate implements ErrorStatus {
             // System.err.println("rootNS=" + rootNS);
             if (ns.equals(rootNS)) {
                 if (verbose)
-                    System.err.println("same target namespace: " + ns.getURI());
+                    err.println("same target namespace: " + ns.getURI());
             } else {
                 if (verbose)
-                    System.err.println("change namespace: "
+                    err.println("change namespace: "
                             + (rootNS == null ? "<null>" : rootNS.getURI())
                             + " -> " + ns.getURI());
-                changeNamespace(root, ns);
+                changeNamespace(root, ns, res.getCancellationToken());
             }
             root.setAttribute("schemaLocation", schemaNamespace + " "
                     + schemaUri, xsiNamespace);
@@ -646,7 +1523,7 @@ public class XmlValidate implements ErrorStatus {
             // xsi:noNamespaceSchemaLocation="C:/cot/xsd/Event.xsd">
             if (schemaLocation != null) {
                 schemaLocation.detach();
-                System.err.println("\tdetach schemaLocation: "
+                err.println("\tdetach schemaLocation: "
                         + schemaLocation.getValue());
             }
 			if (schemaUri != null) {
@@ -658,24 +1535,182 @@ public class XmlValidate implements ErrorStatus {
         return doc;
     }
 
-    private void schemaValidation(Resource res) throws IOException, JDOMException {
+	/**
+	 * Get namespace used to validate document with given root element in -map mode.
+	 * Pure function of its arguments with no output.
+	 *
+	 * @param rootName root element name
+	 * @param uri      root element namespace URI, null if no root namespace
+	 * @return namespace or null if document cannot be validated
+	 */
+	private String resolveNamespace(String rootName, String uri) {
+		if (uri == null) return null;
+		if (uri.isEmpty()) {
+			// if "kml" root element and no default namespace then use KML 2.0 namespace
+			// and associated schema otherwise cannot validate XML document.
+			if ("kml".equals(rootName) || kmlMode && KML_ELEMENTS.contains(rootName)) {
+				return "http://earth.google.com/kml/2.0";
+			}
+			return null;
+		}
+		if (uri.equals("http://earth.google.com/kml/2.2")) {
+			// http://earth.google.com/kml/2.2 was a beta pre-OGC namespace: map to real namespace
+			return "http://www.opengis.net/kml/2.2";
+		}
+		return uri;
+	}
+
+	/**
+	 * Map root namespace to the namespace used to validate document in -map mode
+	 * and print info messages if the document cannot be validated.
+	 *
+	 * @param res      Resource
+	 * @param rootName root element name
+	 * @param uri      root element namespace URI, null if no root namespace
+	 * @return namespace registered in schema map or null if document cannot be validated
+	 */
+	private String mapNamespace(Resource res, String rootName, String uri) {
+		if (uri == null || uri.isEmpty()) {
+			if (!summary) {
+				res.printFile();
+				out.println("INFO: no root namespace");
+			}
+		}
+		final String schemaNamespace = resolveNamespace(rootName, uri);
+		if (schemaNamespace == null) {
+			return null;
+		}
+		if (schemaMap.get(schemaNamespace) == null) {
+			// note: if xmlns="http://www.w3.org/2001/XMLSchema"
+			// then there isn't a XSD that defines what a XSD is
+			res.printFile();
+			out.println("INFO: namespace not registered: " + schemaNamespace);
+			if (summary) addStatus("INFO: namespace not registered");
+			return null;
+		}
+		return schemaNamespace;
+	}
+
+	/**
+	 * Check in -map mode if document can be validated from its root start tag
+	 * before it is fully parsed. Well-formed documents whose namespace is not
+	 * registered are rejected with the same output and summary status as after a
+	 * full parse. A document that is not well-formed is not rejected so the full
+	 * parse reports and counts the error.
+	 *
+	 * @param res Resource
+	 * @return true if document is rejected
+	 */
+	private boolean rejectUnmapped(Resource res) throws IOException {
+		RootScanner.Root root;
+		try {
+			root = res.read(ROOT_SCANNER.get());
+		} catch (JDOMException e) {
+			// not well-formed: full parse reports the error
+			return false;
+		}
+		final String name = root.getName();
+		final String uri = root.getNamespaceURI();
+		final String schemaNamespace = resolveNamespace(name, uri);
+		if (schemaNamespace != null && schemaMap.get(schemaNamespace) != null) {
+			return false;
+		}
+		try {
+			// parse without building a tree
+			res.read(WELL_FORMED.get());
+		} catch (JDOMException e) {
+			return false;
+		}
+		if (summary) addRootStatus(res, name, uri);
+		mapNamespace(res, name, uri);
+		return true;
+	}
+
+	/**
+	 * Add summary status for root element name and its namespace.
+	 * @param res  Resource
+	 * @param name root element name
+	 * @param uri  root element namespace URI, null if no root namespace
+	 */
+	private void addRootStatus(Resource res, String name, String uri) {
+		addStatus("root element=" + name);
+		if (kmlMode && (name == null || !name.equals("kml") && !KML_ELEMENTS.contains(name))) {
+			res.printFile();
+			out.println("non-kml root element: " + name);
+			addStatus("non-kml root element");
+		}
+		if (uri == null) {
+			// can rootNS be null? or if no default namespace do we get the static default namespace object ??
+			// is there a distinction btwn no root namespace and no default namespace ??
+			res.printFile();
+			out.println("xmlns=no root namespace");
+			addStatus("xmlns=no root namespace");
+			res.setDefaultNamespace("no root namespace");
+		} else if (uri.isEmpty()) {
+			res.printFile();
+			out.println("no default namespace");
+			addStatus("xmlns=no default namespace");
+		} else {
+			addStatus("xmlns=" + uri);
+			res.setDefaultNamespace(uri);
+			if (kmlMode && !uri.contains("/kml")) {
+				res.printFile();
+				out.println("non-kml root namespace: " + uri); // debug for kml testing
+			}
+		}
+	}
+
+	/**
+	 * Census of root element and namespaces reading only up to the end of the root start tag.
+	 */
+	private void census(Resource res) throws JDOMException, IOException {
+		RootScanner.Root root = res.read(ROOT_SCANNER.get());
+		addRootStatus(res, root.getName(), root.getNamespaceURI());
+		for (String uri : root.getAdditionalNamespaces().values()) {
+			if (!uri.isEmpty()) addStatus("additional xmlns=" + uri);
+		}
+	}
+
+    /**
+     * Validate document with the validating reader of checked out parsers and
+     * check KML values in the same parse if enabled
+     * @param ticket memory admission of document, null if not admitted
+     */
+    void schemaValidation(Resource res, ParserPool.Parsers parsers, MemoryAdmission.Ticket ticket)
+            throws IOException, JDOMException {
+        if (ticket != null && ticket.exclusive) {
+            // document runs alone over the memory budget so release the tree
+            // once serialized to hold only its content while it is validated
+            res.releaseDocument();
+        }
+        if (semanticChecks) parsers.getSemanticFilter().setResource(res);
+        schemaValidation(res, parsers.getValidatingReader(semanticChecks));
+    }
+
+    private void schemaValidation(Resource res, XMLReader validatingReader) throws IOException, JDOMException {
+        res.serialize();
         String xmlContent = res.getXmlContent();
 
         res.setDumpLevel(dumpLevel);
         res.setDumpLimit(dumpLimit);
+        res.setDumpWriter(dumpWriter);
         if (dumpLevel == 2) {
             // dump KML for all inputs
             res.printFile();
             res.dumpContent();
         }
 
+        final ValidationEvents.SchemaValidation event = new ValidationEvents.SchemaValidation();
+        event.begin();
         try {
             //schemaPrinted = false;
-            validatingBuilder.setErrorHandler(res);
-            // validatingBuilder.setEntityResolver(res);
-            validatingBuilder.build(new StringReader(xmlContent));
+            validatingReader.setErrorHandler(res);
+            // errors are only reported so parse without building a tree
+            parse(validatingReader, new InputSource(res.wrap(new StringReader(xmlContent))));
             if (res.errors == 0) {
-                validFiles++; // no errors
+                synchronized (this) {
+                    validFiles++; // no errors
+                }
                 if (verbose) out.println("\t *OK*");
 
                 if (summary) {
@@ -685,24 +1720,110 @@ public class XmlValidate implements ErrorStatus {
                 }
             }
         } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.source = res.getSource();
+                event.length = xmlContent.length();
+                event.namespace = res.getSchemaNamespace();
+                event.errors = res.errors;
+                event.warnings = res.warnings;
+                event.commit();
+            }
             res.close();
-            errors += res.errors;
-            warnings += res.warnings;
+            addCounts(res.errors, res.warnings);
+        }
+    }
+
+    /**
+     * Parse input with reader and report a fatal error the same way
+     * SAXBuilder.build does.
+     */
+    private static void parse(XMLReader reader, InputSource input) throws IOException, JDOMException {
+        try {
+            reader.parse(input);
+        } catch (SAXParseException e) {
+            String systemId = e.getSystemId();
+            throw new JDOMParseException("Error on line " + e.getLineNumber()
+                    + (systemId == null ? "" : " of document " + systemId) + ": " + e.getMessage(), e);
+        } catch (SAXException e) {
+            throw new JDOMParseException("Error in building: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Validate document against all target schemas in one pass. The document is
+     * valid if it has no errors with any of the targets.
+     */
+    private void targetValidation(Resource res, Document doc) {
+        res.setDumpLevel(dumpLevel);
+        res.setDumpLimit(dumpLimit);
+        res.setDumpWriter(dumpWriter);
+        if (dumpLevel != 0) res.getXmlContent(); // content to dump
+        if (dumpLevel == 2) {
+            res.printFile();
+            res.dumpContent();
+        }
+        if (targetValidators == null) targetValidators = multiSchema.newValidators();
+        int errors = 0, warnings = 0;
+        for (MultiSchemaValidator.Issues issues : targetValidators.validate(doc)) {
+            errors += issues.errors;
+            warnings += issues.warnings;
+            final String label = " [" + issues.target.index + "]";
+            if (res.getIssues() != null) {
+                for (int i = 0; i < issues.messages.size(); i++) {
+                    String message = issues.messages.get(i);
+                    MultiSchemaValidator.Position pos = issues.positions.get(i);
+                    res.addIssue(message.startsWith("WARN") ? ValidationResult.Severity.WARNING
+                            : message.startsWith("FATAL") ? ValidationResult.Severity.FATAL
+                            : ValidationResult.Severity.ERROR, null, message + label,
+                            pos == null ? -1 : pos.line, pos == null ? -1 : pos.column);
+                }
+            }
+            if (summary) {
+                for (String key : issues.keys) {
+                    res.getStats().add(key + label);
+                }
+            } else {
+                for (int i = 0; i < issues.messages.size(); i++) {
+                    res.printFile();
+                    out.println(issues.messages.get(i) + label);
+                    MultiSchemaValidator.Position pos = issues.positions.get(i);
+                    if (pos != null) out.println(pos);
+                }
+            }
+        }
+        if (errors == 0) {
+            synchronized (this) {
+                validFiles++; // no errors with any target
+            }
+            if (verbose) out.println("\t *OK*");
+            if (summary) {
+                String defaultNamespace = res.getDefaultNamespace();
+                if (defaultNamespace == null) defaultNamespace = "no default namespace";
+                addStatus(VALID_XMLNS_PREFIX + defaultNamespace);
+            }
+        }
+        res.close();
+        addCounts(errors, warnings);
+    }
+
     // recursively change namespace in all elements
     // TODO: this should only change the default/root element namespace not
     // blindly changing all namespaces in all elements
-    private static void changeNamespace(Element parent, Namespace ns) {
-        for (Element child : parent.getChildren()) {
-			changeNamespace(child, ns);
+    private static void changeNamespace(Element parent, Namespace ns, CancellationToken token)
+            throws InterruptedIOException {
+        final List<Element> children = parent.getChildren();
+        // check once per element with children rather than for every element
+        if (token != null && !children.isEmpty()) token.check();
+        for (Element child : children) {
+			changeNamespace(child, ns, token);
         }
         parent.setNamespace(ns);
     }
 
     private void checkNamespace(Element parent, List<String> namespaces) {
-        List<String> localNamespaces = new LinkedList<>(namespaces);
+        // copy list only if this element adds a namespace since most elements add none
+        List<String> localNamespaces = namespaces;
         StringBuilder schemaLocBuf = new StringBuilder();
         Namespace ns = parent.getNamespace();
         if (ns != null) {
@@ -711,6 +1832,7 @@ public class XmlValidate implements ErrorStatus {
                 String schemaLoc = schemaMap.get(nsURI);
                 if (schemaLoc != null) {
                     schemaLocBuf.append(nsURI).append(' ').append(schemaLoc);
+                    localNamespaces = new ArrayList<>(namespaces);
                     localNamespaces.add(nsURI);
                     if (verbose) out.format("assign Namespace %s -> %s%n", nsURI, schemaLoc);
                 }
@@ -724,6 +1846,7 @@ public class XmlValidate implements ErrorStatus {
             if (schemaLoc != null) {
                 if (schemaLocBuf.length() != 0) schemaLocBuf.append(' ');
                 schemaLocBuf.append(nsURI).append(' ').append(schemaLoc);
+                if (localNamespaces == namespaces) localNamespaces = new ArrayList<>(namespaces);
                 localNamespaces.add(nsURI);
                 if (verbose) out.format("assign Namespace %s -> %s%n", nsURI, schemaLoc);
             }
@@ -739,6 +1862,7 @@ public class XmlValidate implements ErrorStatus {
 	public void addSchemaLocation(String ns, String schemaLocation) {
 		if (schemaMap == null) schemaMap = new HashMap<>();
 		schemaMap.put(ns, schemaLocation);
+		parserPool.shareNamespace(ns);
 	}
 
     /**
@@ -761,41 +1885,50 @@ public class XmlValidate implements ErrorStatus {
                 if (schemaLocation.startsWith("${XV_HOME}") && homeDir != null) {
 					String old = schemaLocation;
                     schemaLocation = homeDir + schemaLocation.substring(10);
-					if (debug) System.err.printf("XXX: add %s > %s%n", old, schemaLocation);
+					if (debug) err.printf("XXX: add %s > %s%n", old, schemaLocation);
 				}
                 if (!schemaLocation.startsWith("http:")) {
                     File loc = new File(schemaLocation); // .replace("\\","/")
                     if (loc.exists())
                         schemaLocation = loc.getAbsoluteFile().toURI().toString();
                     // otherwise is it a URL or bad file name ??
-                    else System.err.println("INFO: " + schemaLocation + " does not exist locally");
+                    else err.println("INFO: " + schemaLocation + " does not exist locally");
                 }
 				if (debug) out.printf("Set %s -> %s%n", ns, schemaLocation);
                 schemaMap.put(ns, schemaLocation);
+                parserPool.shareNamespace(ns);
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
         if (verbose)
-            System.err.println(schemaMap);
+            err.println(schemaMap);
     }
 
     public void setSchema(String schemaUri) {
         this.schemaUri = schemaUri;
+        // schema is used for documents with no namespace unless -ns is set
+        if (schemaUri != null) parserPool.shareNamespace(null);
     }
 
     public void setSchema(File schemaFile) {
-        schemaUri = schemaFile.getAbsoluteFile().toURI().toASCIIString();
+        setSchema(schemaFile.getAbsoluteFile().toURI().toASCIIString());
     }
 
     public void setNamespace(String schemaNamespace) {
         this.schemaNamespace = schemaNamespace;
+        if (schemaNamespace != null) parserPool.shareNamespace(schemaNamespace);
     }
 
     public void setVerbose(boolean verbose) {
         this.verbose = verbose;
     }
 
+    /**
+     * Set home directory that replaces ${XV_HOME} in schema locations of the map file
+     * @param homeDir home directory
+     * @throws IllegalArgumentException if homeDir is not a directory
+     */
     public void setHomeDir(String homeDir) {
         File dir = null;
         if (homeDir != null) {
@@ -804,13 +1937,12 @@ public class XmlValidate implements ErrorStatus {
         if (dir != null && dir.isDirectory()) {
             try {
                 this.homeDir = dir.getCanonicalPath();
-				if (debug) System.err.println("XXX: set home dir=" + homeDir);
+				if (debug) err.println("XXX: set home dir=" + homeDir);
 			} catch (IOException e) {
                 this.homeDir = dir.getAbsolutePath();
             }
         } else {
-            System.err.println("Invalid home directory: " + homeDir);
-            usage();
+            throw new IllegalArgumentException("Invalid home directory: " + homeDir);
         }
     }
 
@@ -818,13 +1950,23 @@ public class XmlValidate implements ErrorStatus {
         this.out = out;
     }
 
+    /**
+     * Set stream for warnings and notices that are not part of the validation
+     * output such as a target not found or a schemaLocation that was removed.
+     * @param err PrintStream [default=System.err]
+     */
+    public void setErrorStream(PrintStream err) {
+        this.err = err;
+    }
+
     public void setDebug(boolean debug) {
         this.debug = debug;
         System.setProperty("debug", Boolean.toString(debug)); // set debugging mode
     }
 
-    public void dumpStatus() {
+    public synchronized void dumpStatus() {
 		long elapsed = System.currentTimeMillis() - startTime;
+		if (dumpWriter != null) dumpWriter.flush();
 
 		if (summary && !errorMap.isEmpty()) {
 			for (Iterator<String> it  = errorMap.keySet().iterator(); it.hasNext(); ) {
@@ -849,10 +1991,30 @@ public class XmlValidate implements ErrorStatus {
 
 		out.format("%nErrors: %d  Warnings: %d  Files: %d  Time: %d ms%n",
 				errors, warnings, fileCount, elapsed);
-		if (fileCount > 0) {
+		if (fileCount > 0 && !census) {
 			out.format("Valid files %d/%d (%.0f%%)%n", validFiles,
 					fileCount, 100.0 * validFiles / fileCount);
 		}
+		if (multiSchema != null && !census) {
+			multiSchema.printSummary(out);
+		}
+		if (httpCache != null && httpCache.getRequests() != 0) {
+			out.format("HTTP requests: %d  Not modified: %d  Results reused: %d%n",
+					httpCache.getRequests(), httpCache.getNotModified(), httpCache.getResultHits());
+		}
+		if (duplicates != null && duplicates.getDuplicates() != 0) {
+			out.format("Duplicate files: %d  Bytes skipped: %d%n",
+					duplicates.getDuplicates(), duplicates.getBytesSkipped());
+		}
+		if (prefetcher != null) {
+			out.println(prefetcher.getSummary());
+		}
+		if (admission != null) {
+			out.println(admission.getSummary());
+		}
+		if (latency != null && latency.getCount() != 0) {
+			out.println(latency.getSummary());
+		}
 		if (!stats.isEmpty()) {
 			out.println("\nSummary:");
 			for (Map.Entry<String, Integer> entry : stats.entrySet()) {
@@ -872,46 +2034,150 @@ public class XmlValidate implements ErrorStatus {
 		}
 	}
 
-    private static void usage() {
-        System.err.println("Usage: XmlValidate [options] [-map=file] | [-schema=file (-ns=uri)] <xml-document file, directory, or URL...>\n");
-        System.err.println("Options:");
-        System.err.println("\t[-map=<schema property file>    - schema map properties: namespace to file/URI mappings");
-        System.err.println("\t[-schema=<path-to-xml-schema>   - set target schema");
-		System.err.println("\t[-schemaLocation=ns=location    - add/override namespace to schema location mapping.");
-		System.err.println("\t                                  Location can be a URL or file path to the schema file.");
-		System.err.println("\t                                  Multiple -schemaLocation arguments may be provided");
-        System.err.println("\t[-ns=schemaLocation namespace]  - set schemaLocation namespace (e.g. http://earth.google.com/kml/2.1)");
-        System.err.println("\t[-dump[=n]]                     - print reformatted XML documents: dump=0 -> no output [default],");
-        System.err.println("\t                                  1 -> print KML on errors only, 2 -> print all inputs");
-        System.err.println("\t                                  if number not specified then 1 is assumed otherwise 0");
-        System.err.println("\t-maxDump=n                      - set max length (in bytes) of XML output used for each document in dump");
-		System.err.println("\t[-K]                            - KML mode for special KML validation");
-		System.err.println("\t[-Z]                            - KMZ mode checks all kml files inside KMZ files");
-        System.err.println("\t[-kml]                          - validate .kml files only");
-        System.err.println("\t[-kmz]                          - validate .kml or .kmz files only");
-        System.err.println("\t[-x=ExtensionList]              - add additional file extensions to list (default=xml)");
-        System.err.println("\t                                  extensions separated by ':' (e.g. -x=gpx:x3d:svg)");
-        System.err.println("\t[-S]                            - enable summary mode to only show the final total counts");
-        System.err.println("\t[-v[=true]]                     - enable verbose mode");
-        System.err.println("\t[-debug]                        - enable debug mode to print exception stack trace");
-        System.err.println("\nExamples:");
-        System.err.println("\t1) To check all .kml files against target KML 2.2 schema regardless of default schema used:");
-        System.err.println("\t    XmlValidate -kml -schema=C:/pathToXsd/kml22.xsd -ns=http://www.opengis.net/kml/2.2 C:/pathToMyKmlFiles\n");
-        System.err.println("\t2) To check all CoT .xml files against CoT Schema:");
-        System.err.println("\t    XmlValidate -schema=C:/pathToXsd/event.xsd C:/pathToData/cot.xml\n");
-        System.err.println("\t3) Validate kml and kmz files against local schemas as defined in KML files:");
-        System.err.println("\t    XmlValidate -kmz -map=ns.map C:/pathToMyKmlFiles\n");
-        System.err.println("\t4) Validate by URL for KML and target schema and print KML content");
-        System.err.println("\t   if any errors are found but limit size of each file printed to first 4K:");
-        System.err.println("\t    XmlValidate -dump -maxDump=4096 -ns=http://earth.google.com/kml/2.1\n" +
+    /**
+     * Validate messages of stream against the schema or the schemas of the map
+     * until end of stream
+     * @param source stdin, tcp:[host:]port or udp:[host:]port
+     * @return exit status
+     */
+    private static int validateStream(XmlValidate validator, String source, StreamValidator.Framing framing,
+                                      PrintStream out, PrintStream err) {
+        StreamValidator streamValidator;
+        try {
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            Schema schema;
+            if (validator.schemaUri != null) {
+                schema = factory.newSchema(new StreamSource(validator.schemaUri));
+            } else {
+                List<Source> sources = new ArrayList<>();
+                for (String location : new TreeSet<>(validator.schemaMap.values())) {
+                    sources.add(new StreamSource(location));
+                }
+                schema = factory.newSchema(sources.toArray(new Source[0]));
+            }
+            streamValidator = new StreamValidator(schema, framing);
+            streamValidator.setLatencyHistogram(validator.latency);
+        } catch (SAXException e) {
+            err.println("Invalid schema: " + e.getMessage());
+            return 1;
+        }
+        // System.out flushes on every line so buffer the result of each message
+        PrintStream results = out == System.out
+                ? new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 65536), false)
+                : out;
+        streamValidator.setOutputStream(results);
+        String sourceLwr = source.toLowerCase(Locale.ROOT);
+        int status = 0;
+        try {
+            if (sourceLwr.equals("stdin")) {
+                streamValidator.validate(System.in);
+            } else if (sourceLwr.startsWith("tcp:") || sourceLwr.startsWith("udp:")) {
+                // [host:]port with loopback address if host is omitted
+                String address = source.substring(4);
+                int ind = address.lastIndexOf(':');
+                String host = ind == -1 ? null : address.substring(0, ind);
+                int port = Integer.parseInt(address.substring(ind + 1));
+                if (sourceLwr.startsWith("tcp:")) streamValidator.listenTcp(host, port);
+                else streamValidator.listenUdp(host, port);
+            } else {
+                err.println("Invalid argument value: -stream=" + source);
+                return usage(err);
+            }
+        } catch (IOException e) {
+            err.println("ERROR: stream failed: " + e.getMessage());
+            status = 1;
+        }
+        results.println(streamValidator.getSummary());
+        results.flush();
+        return status;
+    }
+
+    private static int usage(PrintStream err) {
+        err.println("Usage: XmlValidate [options] [-map=file] | [-schema=file (-ns=uri)] <xml-document file, directory, or URL...>\n");
+        err.println("Options:");
+        err.println("\t[-map=<schema property file>    - schema map properties: namespace to file/URI mappings");
+        err.println("\t[-schema=<path-to-xml-schema>   - set target schema");
+		err.println("\t[-schemaLocation=ns=location    - add/override namespace to schema location mapping.");
+		err.println("\t                                  Location can be a URL or file path to the schema file.");
+		err.println("\t                                  Multiple -schemaLocation arguments may be provided");
+        err.println("\t[-ns=schemaLocation namespace]  - set schemaLocation namespace (e.g. http://earth.google.com/kml/2.1)");
+        err.println("\t[-target=[ns=]location]         - add target schema and namespace. Documents are parsed once and");
+        err.println("\t                                  validated against all targets. Multiple -target arguments may be provided");
+        err.println("\t[-dump[=n]]                     - print reformatted XML documents: dump=0 -> no output [default],");
+        err.println("\t                                  1 -> print KML on errors only, 2 -> print all inputs");
+        err.println("\t                                  if number not specified then 1 is assumed otherwise 0");
+        err.println("\t-maxDump=n                      - set max length (in bytes) of XML output used for each document in dump");
+        err.println("\t[-dumpDir=dir]                  - write dump of each document to a file in given directory");
+		err.println("\t[-K]                            - KML mode for special KML validation");
+		err.println("\t[-Z]                            - KMZ mode checks all kml files inside KMZ files");
+		err.println("\t[-semantic]                     - check KML coordinates, gx:coord and gx:angles values");
+        err.println("\t[-kml]                          - validate .kml files only");
+        err.println("\t[-kmz]                          - validate .kml or .kmz files only");
+        err.println("\t[-x=ExtensionList]              - add additional file extensions to list (default=xml)");
+        err.println("\t                                  extensions separated by ':' (e.g. -x=gpx:x3d:svg)");
+        err.println("\t[-S]                            - enable summary mode to only show the final total counts");
+        err.println("\t[-census]                       - summary of root elements and namespaces reading only the");
+        err.println("\t                                  start of each document without validating it");
+        err.println("\t[-archive]                      - validate target files inside gz, tar, tar.gz and zip files");
+        err.println("\t[-cache=dir]                    - cache URL content and results in directory and revalidate");
+        err.println("\t                                  with conditional requests");
+        err.println("\t[-cacheSize=n]                  - max size of HTTP cache in MB (default=256)");
+        err.println("\t[-maxEntrySize=n]               - max uncompressed size in MB of an archive entry (default=256)");
+        err.println("\t[-maxRatio=n]                   - max compression ratio of an archive entry (default=200)");
+        err.println("\t[-maxEntries=n]                 - max number of entries in an archive (default=10000)");
+        err.println("\t[-maxArchiveSize=n]             - max total uncompressed size in MB of an archive (default=1024)");
+        err.println("\t                                  a limit of 0 disables the check");
+        err.println("\t[-dedup]                        - validate byte-identical documents once and reuse the result");
+        err.println("\t                                  (without -S copies with errors are validated again)");
+        err.println("\t[-v[=true]]                     - enable verbose mode");
+        err.println("\t[-threads=n]                    - number of threads used to validate files in directories");
+        err.println("\t[-readAhead=n]                  - read next n files in directories while current file is validated");
+        err.println("\t[-readAheadSize=n]              - max size in MB of content read ahead (default=64)");
+        err.println("\t[-memoryBudget=n]               - max estimated heap in MB of documents validated at the same time");
+        err.println("\t[-latency[=n]]                  - print p50, p99 and p99.9 time to validate each document");
+        err.println("\t                                  not counting the first n documents as warm-up (default=0)");
+        err.println("\t[-ordered]                      - write output of parallel run in same order as sequential run");
+        err.println("\t                                  (always the case with -S)");
+        err.println("\t[-history=file]                 - file to save/load elapsed time of files to schedule parallel runs");
+        err.println("\t[-timeout=n]                    - abort any document taking longer than n seconds to validate");
+        err.println("\t[-progress[=n]]                 - print progress with throughput and ETA every n seconds (default=10)");
+        err.println("\t[-progressFile=file]            - write latest progress snapshot to properties file");
+        err.println("\t[-debug]                        - enable debug mode to print exception stack trace");
+        err.println("\t[-stream=source]                - validate messages read from stdin, tcp:[host:]port or udp:[host:]port");
+        err.println("\t                                  (loopback if host omitted). With -map messages are validated");
+        err.println("\t                                  against one schema built from all locations of the map");
+        err.println("\t[-framing=type]                 - split stream into messages by line, length (4-byte prefix)");
+        err.println("\t                                  or document (default)");
+        err.println("\t[-daemon[=port]]                - as first argument run daemon on loopback port (default=8765)");
+        err.println("\t                                  that keeps schemas loaded and reloads them when changed");
+        err.println("\t[-client[=port]]                - as first argument validate using daemon with the other arguments");
+        err.println("\t                                  or validate locally if no daemon is running or an option");
+        err.println("\t                                  writes files, reads streams or starts threads");
+        err.println("\t[-stdin=name]                   - with -client validate document read from standard input");
+        err.println("\nExamples:");
+        err.println("\t1) To check all .kml files against target KML 2.2 schema regardless of default schema used:");
+        err.println("\t    XmlValidate -kml -schema=C:/pathToXsd/kml22.xsd -ns=http://www.opengis.net/kml/2.2 C:/pathToMyKmlFiles\n");
+        err.println("\t2) To check all CoT .xml files against CoT Schema:");
+        err.println("\t    XmlValidate -schema=C:/pathToXsd/event.xsd C:/pathToData/cot.xml\n");
+        err.println("\t3) Validate kml and kmz files against local schemas as defined in KML files:");
+        err.println("\t    XmlValidate -kmz -map=ns.map C:/pathToMyKmlFiles\n");
+        err.println("\t4) Validate by URL for KML and target schema and print KML content");
+        err.println("\t   if any errors are found but limit size of each file printed to first 4K:");
+        err.println("\t    XmlValidate -dump -maxDump=4096 -ns=http://earth.google.com/kml/2.1\n" +
                 "\t\t-schema=http://code.google.com/apis/kml/schema/kml21.xsd\n" +
                 "\t\thttp://kml-samples.googlecode.com/svn/trunk/kml/kmz/simple/big.kmz\n");
-		System.err.println("\t5) Validate by XML document with explicit schema location");
-		System.err.println("\t    XmlValidate -schemaLocation=http://myExtension=ext.xsd example.xml");
-        System.err.println("\nNote: XmlValidate command in examples above is a short-cut to the executable\n" +
+		err.println("\t5) Validate by XML document with explicit schema location");
+		err.println("\t    XmlValidate -schemaLocation=http://myExtension=ext.xsd example.xml");
+		err.println("\t6) Compare KML files against both KML 2.1 and KML 2.2 schemas in one pass:");
+		err.println("\t    XmlValidate -kml -S -target=http://earth.google.com/kml/2.1=schemas/kml21.xsd\n" +
+				"\t\t-target=http://www.opengis.net/kml/2.2=schemas/kml22.xsd C:/pathToMyKmlFiles\n");
+		err.println("\t7) Keep schemas loaded in a daemon then validate each uploaded file through it:");
+		err.println("\t    XmlValidate -daemon");
+		err.println("\t    XmlValidate -client -map=ns.map upload.kml\n");
+        err.println("\nNote: XmlValidate command in examples above is a short-cut to the executable\n" +
                 "such as: java -jar xmlValidate.jar or in equivalent batch file/shell script.");
 
-        System.exit(1);
+        return 1;
     }
 
     //
@@ -922,20 +2188,58 @@ public class XmlValidate implements ErrorStatus {
      * Main program entry point.
      */
     public static void main (String[] args) {
+        if (args.length != 0 && args[0].toLowerCase(Locale.ROOT).startsWith("-daemon")) {
+            ValidationDaemon.main(args);
+            return;
+        }
+        if (args.length != 0 && args[0].toLowerCase(Locale.ROOT).startsWith("-client")) {
+            System.exit(ValidationDaemon.client(args));
+        }
+        int status = run(args, System.out, System.err, null, null);
+        if (status != 0) System.exit(status);
+    }
+
+    /**
+     * Run validation with command-line arguments. Used by main and by the
+     * validation daemon so a run never exits the JVM.
+     * @param args command-line arguments
+     * @param out stream for validation output
+     * @param err stream for usage and argument errors
+     * @param parserPool pool of parsers with loaded schemas, null to create one
+     * @param inline content of targets given inline rather than as file or URL, null if none
+     * @return exit status: 0 if arguments are valid otherwise 1
+     */
+    static int run(String[] args, PrintStream out, PrintStream err, ParserPool parserPool,
+                   Map<String, byte[]> inline) {
 
         if (args.length < 2) {
-            usage();
+            return usage(err);
         }
 
-        XmlValidate validator = new XmlValidate();
+        XmlValidate validator = parserPool == null ? new XmlValidate() : new XmlValidate(parserPool);
+        validator.setOutputStream(out);
+        validator.setErrorStream(err);
         List<String> list = new ArrayList<>();
+        File cacheDir = null;
+        long cacheSize = HttpCache.DEFAULT_MAX_BYTES;
+        int readAhead = 0;
+        long readAheadSize = Prefetcher.DEFAULT_BUDGET;
+        long progressInterval = 0;
+        File progressFile = null;
+        String stream = null;
+        StreamValidator.Framing framing = StreamValidator.Framing.DOCUMENT;
 
 		// -home argument must be called before -map is processed
 		for (String arg : args) {
 			if (arg.equals("-debug")) {
 				validator.setDebug(true);
 			} else if (arg.startsWith("-home=")) {
-				validator.setHomeDir(arg.substring(6));
+				try {
+					validator.setHomeDir(arg.substring(6));
+				} catch (IllegalArgumentException e) {
+					err.println(e.getMessage());
+					return usage(err);
+				}
 			}
 		}
         for (String arg : args) {
@@ -953,7 +2257,7 @@ public class XmlValidate implements ErrorStatus {
                     validator.setSchema(file);
                 else
                     validator.setSchema(arg); // treat as URL
-                /// System.err.println("schema=" + validator.schemaUri);
+                /// err.println("schema=" + validator.schemaUri);
 			} else if (argLwr.startsWith("-schemalocation=")) {
 				String val = arg.substring(arg.indexOf('=') + 1);
 				int ind = val.indexOf('=');
@@ -963,14 +2267,42 @@ public class XmlValidate implements ErrorStatus {
 					validator.addSchemaLocation(ns, schemaLocation);
 					if (validator.debug) validator.out.printf("Set %s -> %s%n", ns, schemaLocation);
 				} else {
-					System.err.println("Invalid argument value: " + arg);
-					usage();
+					err.println("Invalid argument value: " + arg);
+					return usage(err);
 				}
+            } else if (argLwr.startsWith("-target=")) {
+                // if specify targets then drop any map selection
+                validator.schemaMap = null;
+                String val = arg.substring(8);
+                int ind = val.indexOf('=');
+                try {
+                    if (ind > 0)
+                        validator.addTarget(val.substring(0, ind), val.substring(ind + 1));
+                    else
+                        validator.addTarget(null, val); // no namespace schema
+                } catch (SAXException e) {
+                    err.println("Invalid target schema: " + val + ": " + e.getMessage());
+                    return usage(err);
+                }
             } else if (argLwr.startsWith("-v")) {
                 if (arg.length() == 2 || arg.endsWith("=true"))
                     validator.setVerbose(true);
             } else if (arg.equals("-S")) {
 				validator.summary = true;
+			} else if (argLwr.equals("-census")) {
+				validator.setCensus(true);
+			} else if (argLwr.equals("-archive")) {
+				validator.setArchiveMode(true);
+			} else if (argLwr.equals("-ordered")) {
+				validator.setOrdered(true);
+			} else if (argLwr.equals("-dedup")) {
+				validator.setDedup(true);
+			} else if (argLwr.equals("-semantic")) {
+				validator.setSemanticChecks(true);
+			} else if (argLwr.equals("-latency")) {
+				validator.setLatency(true);
+			} else if (argLwr.startsWith("-latency=")) {
+				validator.setLatency(true, Integer.parseInt(arg.substring(9)));
 			} else if (arg.equals("-K")) {
 				validator.kmlMode = true;
             } else if (argLwr.equals("-kml")) {
@@ -986,7 +2318,7 @@ public class XmlValidate implements ErrorStatus {
             } else if (arg.startsWith("-x=")) {
                 if (arg.length() > 3) {
                     validator.extensionSet.addAll(Arrays.asList(arg.substring(3).split(":")));
-                    System.err.println("Extensions=" + validator.extensionSet);
+                    err.println("Extensions=" + validator.extensionSet);
                 }
             } else if (argLwr.equals("-debug")) {
                 validator.setDebug(true);
@@ -996,59 +2328,117 @@ public class XmlValidate implements ErrorStatus {
                 validator.dumpLevel = Integer.parseInt(arg.substring(6));
             } else if (argLwr.startsWith("-maxdump=")) {
                 validator.dumpLimit = Integer.parseInt(arg.substring(9));
+            } else if (argLwr.startsWith("-cache=")) {
+                cacheDir = new File(arg.substring(7));
+            } else if (argLwr.startsWith("-cachesize=")) {
+                cacheSize = Long.parseLong(arg.substring(11)) * 1024 * 1024;
+            } else if (argLwr.startsWith("-maxentrysize=")) {
+                validator.archiveLimits.setMaxEntrySize(Long.parseLong(arg.substring(14)) * 1024 * 1024);
+            } else if (argLwr.startsWith("-maxratio=")) {
+                validator.archiveLimits.setMaxRatio(Integer.parseInt(arg.substring(10)));
+            } else if (argLwr.startsWith("-maxentries=")) {
+                validator.archiveLimits.setMaxEntries(Integer.parseInt(arg.substring(12)));
+            } else if (argLwr.startsWith("-maxarchivesize=")) {
+                validator.archiveLimits.setMaxTotalSize(Long.parseLong(arg.substring(16)) * 1024 * 1024);
+            } else if (argLwr.startsWith("-dumpdir=")) {
+                validator.setDumpDir(new File(arg.substring(9)));
+            } else if (argLwr.startsWith("-threads=")) {
+                validator.setThreads(Integer.parseInt(arg.substring(9)));
+            } else if (argLwr.startsWith("-readahead=")) {
+                readAhead = Integer.parseInt(arg.substring(11));
+            } else if (argLwr.startsWith("-readaheadsize=")) {
+                readAheadSize = Long.parseLong(arg.substring(15)) * 1024 * 1024;
+            } else if (argLwr.startsWith("-memorybudget=")) {
+                validator.setMemoryBudget(Long.parseLong(arg.substring(14)) * 1024 * 1024);
+            } else if (argLwr.startsWith("-history=")) {
+                validator.setHistory(new File(arg.substring(9)));
+            } else if (argLwr.equals("-progress")) {
+                progressInterval = ProgressReporter.DEFAULT_INTERVAL;
+            } else if (argLwr.startsWith("-progress=")) {
+                progressInterval = Math.round(Double.parseDouble(arg.substring(10)) * 1000);
+            } else if (argLwr.startsWith("-progressfile=")) {
+                progressFile = new File(arg.substring(14));
+            } else if (argLwr.startsWith("-timeout=")) {
+                validator.setTimeout(Math.round(Double.parseDouble(arg.substring(9)) * 1000));
+            } else if (argLwr.startsWith("-stream=")) {
+                stream = arg.substring(8);
+            } else if (argLwr.startsWith("-framing=")) {
+                try {
+                    framing = StreamValidator.parseFraming(arg.substring(9));
+                } catch (IllegalArgumentException e) {
+                    err.println("Invalid argument value: " + arg);
+                    return usage(err);
+                }
             } else if (argLwr.startsWith("-home=")) {
                 // already handled as special case
             } else if (arg.startsWith("-h")) {
-                usage();
+                return usage(err);
             } else if (arg.startsWith("-")) {
-                System.err.println("Invalid argument: " + arg);
-                usage();
+                err.println("Invalid argument: " + arg);
+                return usage(err);
             } else list.add(arg);
         }
 
+        if (stream != null) {
+            if (validator.schemaUri == null && validator.schemaMap == null) {
+                err.println("Must specify -schema or -map with -stream");
+                return usage(err);
+            }
+            return validateStream(validator, stream, framing, out, err);
+        }
+
         // either 1) schema is defined for non-namespace schema validation;
         // or 2) -schema and -ns is defined for schema namespace validation.
-        // or 3) schemaMap is defined.  Cannot run without one of these modes.
+        // or 3) schemaMap is defined.  Cannot run without one of these modes
+        // unless in census mode which does not validate.
         // must have either schemaUri or schemaMap set otherwise not valid options
-        if (validator.schemaUri == null && validator.schemaMap == null) {
-            if (!list.isEmpty()) System.err.println("Must specify -map or -schema");
-            usage();
+        if (validator.schemaUri == null && validator.schemaMap == null && validator.multiSchema == null
+                && !validator.census) {
+            if (!list.isEmpty()) err.println("Must specify -map, -schema or -target");
+            return usage(err);
         }
 
-        for (String arg : list) {
-            if (arg.startsWith("http:"))
-                try {
-                    // validate as URL
-                    validator.validate(new UrlResource(validator.out, new URL(arg), validator.schemaNamespace));
-                } catch (MalformedURLException e) {
-                    System.err.println("WARN: bad URL " + arg + ": " + e.getMessage());
-                }
-            else {
-                // validate target as local file if it exists
-                File file = new File(arg);
-                if (file.exists())
-                    validator.validate(file);
-                else
-                    try {
-                        // otherwise validate target as URL
-                        validator.validate(new UrlResource(validator.out, new URL(arg), validator.schemaNamespace));
-                    } catch (MalformedURLException e) {
-                        System.err.println("WARN: file/URL not found " + arg + ": " + e.getMessage());
-                    }
-                    //System.err.println("WARN: file " + arg + " does not exist");
+        if (readAhead > 0) {
+            validator.setReadAhead(readAhead, readAheadSize);
+        }
+
+        if (cacheDir != null) {
+            try {
+                validator.setHttpCache(new HttpCache(cacheDir, cacheSize));
+            } catch (IOException e) {
+                err.println("WARN: HTTP cache disabled: " + e.getMessage());
             }
         }
 
+        ProgressReporter progress = null;
+        if (progressInterval > 0 || progressFile != null) {
+            // progress goes to stderr so it is not mixed with the validation output
+            progress = new ProgressReporter(progressInterval > 0 ? err : null,
+                    progressInterval > 0 ? progressInterval : ProgressReporter.DEFAULT_INTERVAL);
+            progress.setExportFile(progressFile);
+            validator.setProgressReporter(progress);
+            progress.start();
+        }
+
+        for (String arg : list) {
+            byte[] content = inline == null ? null : inline.get(arg);
+            if (content != null) validator.validate(arg, content);
+            else validator.validate(arg);
+        }
+
+        if (progress != null) progress.stop();
+
         if (validator.startTime != 0) {
 			validator.dumpStatus();
         } else {
             // else fileCount = 0
             if (list.isEmpty())
-                usage();
+                return usage(err);
             else
                 validator.out.format("%nErrors: %d  Warnings: %d  Files: %d%n",
                         validator.errors, validator.warnings, validator.fileCount);
         }
+        return 0;
     }
 
 }
@@ -0,0 +1,338 @@
+/*
+ *  XmlValidator.java
+ *
+ *  (C) Copyright 2009-2026 Jason Mathews
+ *  Licensed under the Apache-2.0 License
+ *
+ */
+package org.mitre.xml.validate;
+
+import org.jdom2.JDOMException;
+import org.jdom2.input.JDOMParseException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Validator for embedding in other applications that validates in-memory documents
+ * and streams and returns the errors as a {@link ValidationResult} rather than
+ * printing them.
+ *
+ * A validator is built once from a {@link ValidationConfig} and is immutable and
+ * thread-safe so one instance can be shared by any number of threads. Each call
+ * validates with its own copy of the configured {@link XmlValidate} and parsers
+ * checked out of the shared {@link ParserPool} so schemas are loaded once, and
+ * nothing is written to standard output.
+ *
+ * Input that starts with a zip header is treated as KMZ and its root KML entry
+ * is validated.
+ *
+ * @author Jason Mathews
+ */
+public final class XmlValidator {
+
+	/** Output of copies is discarded */
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		public void write(int b) {
+			// ignore
+		}
+
+		public void write(byte[] b, int off, int len) {
+			// ignore
+		}
+	};
+
+	private final XmlValidate template;
+	private final String namespace;
+	private final boolean kmzMode;
+	private final long timeout;
+	private final ArchiveLimits archiveLimits;
+
+	/**
+	 * Create validator
+	 * @param config ValidationConfig
+	 * @throws IllegalArgumentException if neither a map nor a schema is configured
+	 * 		or the map file or home directory does not exist
+	 */
+	public XmlValidator(ValidationConfig config) {
+		File mapFile = config.getMapFile();
+		if (mapFile == null && config.getSchemaLocations().isEmpty() && config.getSchema() == null)
+			throw new IllegalArgumentException("map file, schema locations or schema must be set");
+		if (mapFile != null && !mapFile.isFile())
+			throw new IllegalArgumentException("map file not found: " + mapFile);
+		String homeDir = config.getHomeDir();
+		if (homeDir != null && !new File(homeDir).isDirectory())
+			throw new IllegalArgumentException("Invalid home directory: " + homeDir);
+		ParserPool parserPool = config.getParserPool();
+		XmlValidate validator = new XmlValidate(parserPool == null ? new ParserPool() : parserPool);
+		validator.setOutputStream(new PrintStream(NULL_OUTPUT));
+		validator.setErrorStream(new PrintStream(NULL_OUTPUT));
+		if (homeDir != null) validator.setHomeDir(homeDir);
+		if (mapFile != null) validator.setMap(mapFile);
+		for (Map.Entry<String, String> entry : config.getSchemaLocations().entrySet()) {
+			validator.addSchemaLocation(entry.getKey(), entry.getValue());
+		}
+		if (config.getSchema() != null) validator.setSchema(config.getSchema());
+		validator.setNamespace(config.getNamespace());
+		validator.setKmlMode(config.isKmlMode());
+		validator.setSemanticChecks(config.isSemanticChecks());
+		validator.setMemoryBudget(config.getMemoryBudget());
+		template = validator;
+		namespace = config.getNamespace();
+		kmzMode = config.isKmzMode();
+		timeout = config.getTimeout();
+		ArchiveLimits limits = config.getArchiveLimits();
+		if (limits != null) {
+			// copy so later changes to the config do not affect this validator
+			archiveLimits = new ArchiveLimits();
+			archiveLimits.setMaxEntrySize(limits.getMaxEntrySize());
+			archiveLimits.setMaxRatio(limits.getMaxRatio());
+			archiveLimits.setMaxEntries(limits.getMaxEntries());
+			archiveLimits.setMaxTotalSize(limits.getMaxTotalSize());
+		} else archiveLimits = null;
+	}
+
+	/**
+	 * Validate document
+	 * @param data     content of XML document or KMZ file
+	 * @param systemId system id used to resolve relative references, may be null
+	 * @return ValidationResult
+	 * @throws IOException if a schema cannot be read
+	 */
+	public ValidationResult validate(byte[] data, String systemId) throws IOException {
+		return validate(new ByteArrayInputStream(data), systemId);
+	}
+
+	/**
+	 * Validate remaining content of buffer. The position of the buffer is not changed.
+	 * @param buffer   content of XML document or KMZ file
+	 * @param systemId system id used to resolve relative references, may be null
+	 * @return ValidationResult
+	 * @throws IOException if a schema cannot be read
+	 */
+	public ValidationResult validate(ByteBuffer buffer, String systemId) throws IOException {
+		if (buffer.hasArray()) {
+			return validate(new ByteArrayInputStream(buffer.array(),
+					buffer.arrayOffset() + buffer.position(), buffer.remaining()), systemId);
+		}
+		return validate(new ByteBufferInputStream(buffer.duplicate()), systemId);
+	}
+
+	/**
+	 * Validate file
+	 * @param path XML document or KMZ file
+	 * @return ValidationResult
+	 * @throws IOException if file or a schema cannot be read
+	 */
+	public ValidationResult validate(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return validate(in, path.toUri().toString());
+		}
+	}
+
+	/**
+	 * Validate document read from stream. The stream is read to the end of the
+	 * document but not closed.
+	 * @param in       content of XML document or KMZ file
+	 * @param systemId system id used to resolve relative references, may be null
+	 * @return ValidationResult
+	 * @throws IOException if stream or a schema cannot be read
+	 */
+	public ValidationResult validate(InputStream in, String systemId) throws IOException {
+		CancellationToken token = timeout > 0 ? new CancellationToken(null, timeout) : null;
+		try {
+			InputStream content = in.markSupported() ? in : new BufferedInputStream(in);
+			content.mark(4);
+			byte[] header = new byte[4];
+			int n = 0, count;
+			while (n < header.length && (count = content.read(header, n, header.length - n)) != -1) {
+				n += count;
+			}
+			content.reset();
+			// local file header signature PK\003\004
+			if (n == 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4)
+				return validateKmz(content, systemId, token);
+			int available = content.available();
+			return validate(new StreamResource(systemId, content, available > 0 ? available : -1), token);
+		} finally {
+			if (token != null) token.release();
+		}
+	}
+
+	private ValidationResult validateKmz(InputStream in, String systemId, CancellationToken token) throws IOException {
+		ArchiveLimits.Tracker tracker = archiveLimits == null ? null
+				: archiveLimits.newTracker(systemId == null ? "kmz" : systemId);
+		ArchiveLimits.CountingInputStream raw = new ArchiveLimits.CountingInputStream(
+				new ArchiveExplorer.NonClosingInputStream(in));
+		ZipInputStream zis = tracker == null ? new ZipInputStream(raw) : tracker.newZipInputStream(raw, "");
+		ValidationResult root = null;
+		String rootName = null;
+		List<ValidationResult> entries = new ArrayList<>();
+		try {
+			ZipEntry entry;
+			while ((entry = zis.getNextEntry()) != null) {
+				if (tracker != null) tracker.addEntry();
+				if (entry.isDirectory() || !entry.getName().toLowerCase(Locale.ROOT).endsWith(".kml")) continue;
+				String name = systemId == null ? entry.getName() : systemId + "!/" + entry.getName();
+				ValidationResult result = validate(new StreamResource(name, zis, entry.getSize()), token);
+				if (root == null) {
+					// first KML entry is the root KML of the KMZ file
+					root = result;
+					rootName = name;
+					if (!kmzMode) break;
+				} else entries.add(result);
+			}
+		} catch (ArchiveLimitException e) {
+			List<ValidationResult.Issue> issues = new ArrayList<>();
+			if (root != null) issues.addAll(root.getIssues());
+			issues.add(new ValidationResult.Issue(ValidationResult.Severity.FATAL, "archive limit: " + e.getCategory(),
+					e.getMessage(), -1, -1, null));
+			return root == null
+					? new ValidationResult(systemId, null, null, null, false, issues, entries)
+					: new ValidationResult(rootName, root.getRootName(), root.getNamespace(),
+							root.getSchemaNamespace(), root.isValidated(), issues, entries);
+		} finally {
+			zis.close();
+		}
+		if (root == null) {
+			return new ValidationResult(systemId, null, null, null, false,
+					Collections.singletonList(new ValidationResult.Issue(ValidationResult.Severity.FATAL,
+							null, "no KML entry in KMZ file", -1, -1, null)),
+					entries);
+		}
+		if (entries.isEmpty()) return root;
+		return new ValidationResult(rootName, root.getRootName(), root.getNamespace(),
+				root.getSchemaNamespace(), root.isValidated(), new ArrayList<>(root.getIssues()), entries);
+	}
+
+	private ValidationResult validate(StreamResource res, CancellationToken token) throws IOException {
+		XmlValidate validator = template.copy(new CancellationToken());
+		validator.setOutputStream(new PrintStream(NULL_OUTPUT));
+		validator.setErrorStream(new PrintStream(NULL_OUTPUT));
+		res.setCancellationToken(token);
+		res.setArchiveLimits(archiveLimits);
+		boolean validated = false;
+		final MemoryAdmission admission = validator.getMemoryAdmission();
+		MemoryAdmission.Ticket ticket = null;
+		if (admission != null) {
+			try {
+				ticket = admission.admit(admission.estimateCost(MemoryAdmission.estimateLength(res)));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted waiting for memory budget");
+			}
+		}
+		ParserPool.Parsers parsers = validator.getParserPool().checkout();
+		try {
+			if (validator.getDocument(res, parsers.getBuilder()) == null) {
+				String uri = res.getRootNamespace();
+				res.addIssue(ValidationResult.Severity.WARNING, null,
+						"no schema for namespace: " + (uri.isEmpty() ? "(none)" : uri), -1, -1);
+			} else {
+				validator.schemaValidation(res, parsers, ticket);
+				validated = true;
+			}
+		} catch (JDOMParseException e) {
+			res.addIssue(ValidationResult.Severity.FATAL, null, e.getMessage(), e.getLineNumber(), e.getColumnNumber());
+		} catch (ArchiveLimitException e) {
+			res.addIssue(ValidationResult.Severity.FATAL, "archive limit: " + e.getCategory(), e.getMessage(), -1, -1);
+		} catch (ResourceTimeoutException e) {
+			res.addIssue(ValidationResult.Severity.FATAL, "timeout", e.getMessage(), -1, -1);
+		} catch (JDOMException e) {
+			res.addIssue(ValidationResult.Severity.FATAL, null, e.getMessage(), -1, -1);
+		} finally {
+			validator.getParserPool().release(parsers);
+			if (ticket != null) admission.release(ticket, res.getXmlContentLength());
+		}
+		return new ValidationResult(res.getSource(), res.getRootName(), res.getRootNamespace(),
+				res.getSchemaNamespace(), validated, res.getIssues(), Collections.<ValidationResult>emptyList());
+	}
+
+	/**
+	 * Document read once from a stream whose warnings and errors are recorded as issues
+	 */
+	private final class StreamResource extends Resource {
+
+		private final String systemId;
+		private final long length;
+		private InputStream content;
+
+		StreamResource(String systemId, InputStream content, long length) {
+			super(new PrintStream(NULL_OUTPUT), systemId == null ? "stream" : systemId, namespace);
+			this.systemId = systemId;
+			this.content = content;
+			this.length = length;
+			recordIssues();
+		}
+
+		@Override
+		public String getSource() {
+			return systemId;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
+			if (content == null) throw new IOException("content can only be read once: " + targetFile);
+			try (InputStream is = wrap(new ArchiveExplorer.NonClosingInputStream(content))) {
+				return reader.read(is, systemId);
+			} finally {
+				content = null;
+			}
+		}
+	}
+
+	/**
+	 * Stream over the remaining bytes of a direct or read-only buffer
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
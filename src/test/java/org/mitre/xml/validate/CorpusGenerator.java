@@ -0,0 +1,360 @@
+package org.mitre.xml.validate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a synthetic corpus of KML 2.1/2.2, GPX 1.0/1.1 and CoT event documents
+ * and KMZ packages for scaling tests.
+ *
+ * Documents are written as a stream of records (placemarks, waypoints or CoT detail
+ * elements) until the target size is reached, so documents of any size can be
+ * generated without holding them in memory. KML 2.2 records use the gx, atom and xAL
+ * namespaces. Placemarks are nested in folders to the given depth. With an error
+ * density greater than 0 each record is made invalid with that probability; for
+ * CoT, whose detail is not validated, the density applies to the whole event.
+ *
+ * Run from the build with <code>gradle generateCorpus -Pargs="..."</code> or
+ * directly with the options listed by {@link #main(String[])}.
+ *
+ * @author Jason Mathews
+ */
+public class CorpusGenerator {
+
+	public enum Type {
+		KML22("kml"), KML21("kml"), GPX10("gpx"), GPX11("gpx"), COT("xml"), KMZ("kmz");
+
+		final String extension;
+
+		Type(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	/** Max number of files in one directory of the corpus */
+	static final int FILES_PER_DIR = 1000;
+
+	private Type type = Type.KML22;
+	private int files = 1;
+	private long size = 10 * 1024;
+	private int depth = 1;
+	private double errorDensity;
+	private int entries = 10;
+	private Random random = new Random(1);
+
+	private int invalidFiles;
+	private long injectedErrors;
+	private boolean fileInvalid;
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public void setFiles(int files) {
+		this.files = files;
+	}
+
+	/**
+	 * @param size approximate size of each document in bytes
+	 */
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	/**
+	 * @param depth number of nested KML folders or CoT detail elements
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * @param errorDensity probability that a record is invalid from 0 to 1
+	 */
+	public void setErrorDensity(double errorDensity) {
+		this.errorDensity = errorDensity;
+	}
+
+	/**
+	 * @param entries number of KML entries in each KMZ package
+	 */
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * @return number of generated files with at least one invalid record
+	 */
+	public int getInvalidFiles() {
+		return invalidFiles;
+	}
+
+	/**
+	 * @return number of invalid records generated
+	 */
+	public long getInjectedErrors() {
+		return injectedErrors;
+	}
+
+	/**
+	 * Generate corpus
+	 * @param dir output directory
+	 * @return generated files
+	 * @throws IOException if an I/O error occurs
+	 */
+	public List<File> generate(File dir) throws IOException {
+		List<File> result = new ArrayList<>(files);
+		for (int i = 1; i <= files; i++) {
+			File parent = files > FILES_PER_DIR ? new File(dir, String.format("%04d", (i - 1) / FILES_PER_DIR)) : dir;
+			if (!parent.isDirectory() && !parent.mkdirs()) throw new IOException("cannot create " + parent);
+			File f = new File(parent, String.format("%s-%06d.%s", type.name().toLowerCase(Locale.ROOT), i, type.extension));
+			fileInvalid = false;
+			try (OutputStream os = new FileOutputStream(f)) {
+				if (type == Type.KMZ) writeKmz(os);
+				else write(type, os, size);
+			}
+			if (fileInvalid) invalidFiles++;
+			result.add(f);
+		}
+		return result;
+	}
+
+	private void writeKmz(OutputStream os) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(os);
+		long entrySize = Math.max(1024, size / Math.max(1, entries));
+		for (int i = 0; i < entries; i++) {
+			// first entry is the root KML of the KMZ file
+			zos.putNextEntry(new ZipEntry(i == 0 ? "doc.kml" : String.format("files/entry%d.kml", i)));
+			write(Type.KML22, zos, entrySize);
+			zos.closeEntry();
+		}
+		zos.finish();
+	}
+
+	private void write(Type type, OutputStream os, long size) throws IOException {
+		CountingWriter out = new CountingWriter(new BufferedWriter(
+				new OutputStreamWriter(new NonClosingOutputStream(os), StandardCharsets.UTF_8), 65536));
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		switch (type) {
+			case KML22:
+			case KML21:
+				writeKml(out, type == Type.KML22, size);
+				break;
+			case GPX10:
+			case GPX11:
+				writeGpx(out, type == Type.GPX11, size);
+				break;
+			default:
+				writeCot(out, size);
+		}
+		out.close();
+	}
+
+	private boolean inject() {
+		if (errorDensity <= 0 || random.nextDouble() >= errorDensity) return false;
+		injectedErrors++;
+		fileInvalid = true;
+		return true;
+	}
+
+	private void writeKml(CountingWriter out, boolean kml22, long size) throws IOException {
+		if (kml22) {
+			out.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"\n" +
+					" xmlns:atom=\"http://www.w3.org/2005/Atom\" xmlns:xal=\"urn:oasis:names:tc:ciq:xsdschema:xAL:2.0\">\n");
+			out.write("<Document>\n<name>corpus</name>\n<atom:author><atom:name>CorpusGenerator</atom:name></atom:author>\n");
+		} else {
+			out.write("<kml xmlns=\"http://earth.google.com/kml/2.1\">\n<Document>\n<name>corpus</name>\n");
+		}
+		for (int d = 1; d <= depth; d++) {
+			out.write("<Folder id=\"f" + d + "\">\n<name>Folder " + d + "</name>\n");
+		}
+		int n = 0;
+		do {
+			n++;
+			boolean invalid = inject();
+			int kind = invalid ? random.nextInt(3) : -1;
+			double lat = random.nextDouble() * 180 - 90;
+			double lon = random.nextDouble() * 360 - 180;
+			out.write("<Placemark id=\"p" + n + "\">\n<name>Placemark " + n + "</name>\n");
+			if (kind == 0) out.write("<visibility>maybe</visibility>\n");
+			if (kml22) {
+				out.write("<atom:link href=\"http://example.com/placemark/" + n + "\"/>\n");
+				out.write("<address>" + n + " Main Street</address>\n");
+				out.write("<xal:AddressDetails><xal:Country><xal:CountryNameCode>US</xal:CountryNameCode>" +
+						"</xal:Country></xal:AddressDetails>\n");
+			}
+			out.write("<description>Synthetic placemark " + n + " generated for scaling tests</description>\n");
+			if (kind == 1) out.write("<bogus>unexpected element</bogus>\n");
+			String mode = kind == 2 ? "relative" : kml22 ? "relativeToSeaFloor" : "clampToGround";
+			out.write("<Point>\n" + (kml22 ? "<gx:altitudeMode>" + mode + "</gx:altitudeMode>\n"
+					: "<altitudeMode>" + mode + "</altitudeMode>\n"));
+			out.write(String.format(Locale.ROOT, "<coordinates>%.6f,%.6f,0</coordinates>\n</Point>\n</Placemark>\n", lon, lat));
+		} while (out.count < size);
+		for (int d = 1; d <= depth; d++) {
+			out.write("</Folder>\n");
+		}
+		out.write("</Document>\n</kml>\n");
+	}
+
+	private void writeGpx(CountingWriter out, boolean gpx11, long size) throws IOException {
+		if (gpx11) {
+			out.write("<gpx xmlns=\"http://www.topografix.com/GPX/1/1\" version=\"1.1\" creator=\"CorpusGenerator\">\n");
+			out.write("<metadata><name>corpus</name></metadata>\n");
+		} else {
+			out.write("<gpx xmlns=\"http://www.topografix.com/GPX/1/0\" version=\"1.0\" creator=\"CorpusGenerator\">\n");
+			out.write("<name>corpus</name>\n");
+		}
+		int n = 0;
+		do {
+			n++;
+			boolean invalid = inject();
+			int kind = invalid ? random.nextInt(3) : -1;
+			double lat = kind == 0 ? 123.456 : random.nextDouble() * 180 - 90;
+			double lon = random.nextDouble() * 360 - 180;
+			out.write(String.format(Locale.ROOT, "<wpt lat=\"%.6f\" lon=\"%.6f\">\n", lat, lon));
+			out.write(kind == 1 ? "<ele>high</ele>\n" : String.format(Locale.ROOT, "<ele>%.1f</ele>\n", random.nextDouble() * 1000));
+			out.write("<name>Waypoint " + n + "</name>\n");
+			if (kind == 2) out.write("<bogus>unexpected element</bogus>\n");
+			out.write("</wpt>\n");
+		} while (out.count < size);
+		out.write("</gpx>\n");
+	}
+
+	private void writeCot(CountingWriter out, long size) throws IOException {
+		// detail content is not validated by the schema so errors are in the event itself
+		int kind = inject() ? random.nextInt(3) : -1;
+		String time = kind == 2 ? "yesterday" : "2026-10-18T12:00:00Z";
+		out.write("<event version=\"2.0\" uid=\"corpus-" + random.nextInt(Integer.MAX_VALUE) + "\" type=\"a-f-G-U-C\"" +
+				" time=\"" + time + "\" start=\"2026-10-18T12:00:00Z\" stale=\"2026-10-18T12:05:00Z\"" +
+				" how=\"" + (kind == 1 ? "machine generated" : "m-g") + "\">\n");
+		out.write(String.format(Locale.ROOT, "<point lat=\"%.6f\" lon=\"%.6f\" hae=\"0\" ce=\"10\" le=\"10\"/>\n",
+				kind == 0 ? 95.0 : random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+		out.write("<detail>\n");
+		for (int d = 1; d <= depth; d++) {
+			out.write("<group level=\"" + d + "\">\n");
+		}
+		int n = 0;
+		do {
+			n++;
+			out.write("<contact callsign=\"unit" + n + "\" endpoint=\"10.0.0." + (n % 255) + ":4242:tcp\"/>\n");
+		} while (out.count < size);
+		for (int d = 1; d <= depth; d++) {
+			out.write("</group>\n");
+		}
+		out.write("</detail>\n</event>\n");
+	}
+
+	/**
+	 * Writer that counts characters written. Documents are ASCII so characters are bytes.
+	 */
+	private static final class CountingWriter extends FilterWriter {
+
+		long count;
+
+		CountingWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(String str) throws IOException {
+			out.write(str);
+			count += str.length();
+		}
+	}
+
+	/**
+	 * Stream that leaves KMZ stream open when an entry is written
+	 */
+	private static final class NonClosingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		NonClosingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		public void close() throws IOException {
+			out.flush();
+		}
+	}
+
+	// parse size with optional K, M or G suffix
+	static long parseSize(String s) {
+		s = s.trim().toUpperCase(Locale.ROOT);
+		long unit = 1;
+		if (s.endsWith("K")) unit = 1024;
+		else if (s.endsWith("M")) unit = 1024 * 1024;
+		else if (s.endsWith("G")) unit = 1024 * 1024 * 1024;
+		if (unit != 1) s = s.substring(0, s.length() - 1);
+		return Long.parseLong(s) * unit;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: CorpusGenerator [options] <output directory>\n");
+		System.err.println("Options:");
+		System.err.println("\t[-type=type]                    - kml22, kml21, gpx10, gpx11, cot or kmz (default=kml22)");
+		System.err.println("\t[-files=n]                      - number of files (default=1)");
+		System.err.println("\t[-size=n[K|M|G]]                - approximate size of each document (default=10K)");
+		System.err.println("\t[-depth=n]                      - nesting depth of KML folders or CoT detail (default=1)");
+		System.err.println("\t[-errors=p]                     - probability that a record is invalid (default=0)");
+		System.err.println("\t[-entries=n]                    - number of KML entries in each KMZ file (default=10)");
+		System.err.println("\t[-seed=n]                       - random seed (default=1)");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		CorpusGenerator generator = new CorpusGenerator();
+		File dir = null;
+		for (String arg : args) {
+			String argLwr = arg.toLowerCase(Locale.ROOT);
+			if (argLwr.startsWith("-type=")) {
+				generator.setType(Type.valueOf(arg.substring(6).toUpperCase(Locale.ROOT)));
+			} else if (argLwr.startsWith("-files=")) {
+				generator.setFiles(Integer.parseInt(arg.substring(7)));
+			} else if (argLwr.startsWith("-size=")) {
+				generator.setSize(parseSize(arg.substring(6)));
+			} else if (argLwr.startsWith("-depth=")) {
+				generator.setDepth(Integer.parseInt(arg.substring(7)));
+			} else if (argLwr.startsWith("-errors=")) {
+				generator.setErrorDensity(Double.parseDouble(arg.substring(8)));
+			} else if (argLwr.startsWith("-entries=")) {
+				generator.setEntries(Integer.parseInt(arg.substring(9)));
+			} else if (argLwr.startsWith("-seed=")) {
+				generator.setSeed(Long.parseLong(arg.substring(6)));
+			} else if (arg.startsWith("-")) {
+				System.err.println("Invalid argument: " + arg);
+				usage();
+			} else dir = new File(arg);
+		}
+		if (dir == null) usage();
+		long start = System.currentTimeMillis();
+		List<File> files = generator.generate(dir);
+		System.out.format("Generated %d files (%d invalid, %d invalid records) in %s in %d ms%n", files.size(),
+				generator.getInvalidFiles(), generator.getInjectedErrors(), dir, System.currentTimeMillis() - start);
+	}
+}
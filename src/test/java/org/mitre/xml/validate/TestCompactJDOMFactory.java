@@ -0,0 +1,88 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestCompactJDOMFactory extends TestCase {
+
+	private static final XMLOutputter OUTPUTTER = new XMLOutputter(Format.getPrettyFormat());
+
+	private static SAXBuilder newBuilder(boolean compact) {
+		SAXBuilder builder = new SAXBuilder();
+		if (compact) builder.setJDOMFactory(new CompactJDOMFactory());
+		return builder;
+	}
+
+	public void testSameContent() throws JDOMException, IOException {
+		File[] files = new File("data/kml").listFiles();
+		assertNotNull(files);
+		for (File file : files) {
+			if (!file.getName().endsWith(".kml")) continue;
+			// content serialized for schema validation is the same
+			assertEquals(file.toString(), OUTPUTTER.outputString(newBuilder(false).build(file)),
+					OUTPUTTER.outputString(newBuilder(true).build(file)));
+		}
+	}
+
+	public void testWhitespace() throws JDOMException, IOException {
+		Document doc = newBuilder(true).build(new StringReader("<a>\n <b> </b>\n <c xml:space=\"preserve\">\n <d/>\n </c>\n</a>"));
+		Element root = doc.getRootElement();
+		assertEquals(2, root.getContentSize()); // indentation dropped
+		assertEquals(" ", root.getChild("b").getText()); // only content kept
+		assertEquals(3, root.getChild("c").getContentSize()); // preserved
+	}
+
+	public void testSharedValues() throws JDOMException, IOException {
+		Document doc = newBuilder(true).build(new StringReader(
+				"<a><b x=\"clampToGround\">1</b><b x=\"clampToGround\">1</b></a>"));
+		List<Element> children = doc.getRootElement().getChildren();
+		assertSame(children.get(0).getAttributeValue("x"), children.get(1).getAttributeValue("x"));
+		assertSame(children.get(0).getText(), children.get(1).getText());
+	}
+
+	/**
+	 * Heap retained by tree of a large generated KML document per MB of input
+	 */
+	public void testTreeHeap() throws JDOMException, IOException {
+		File dir = Files.createTempDirectory("corpus").toFile();
+		try {
+			CorpusGenerator generator = new CorpusGenerator();
+			generator.setSize(4 * 1024 * 1024);
+			File file = generator.generate(dir).get(0);
+			double mb = file.length() / (1024.0 * 1024);
+			long plain = retained(newBuilder(false), file);
+			long compact = retained(newBuilder(true), file);
+			System.out.format("Tree heap per MB of input: default %.1f MB  compact %.1f MB%n",
+					plain / mb / (1024 * 1024), compact / mb / (1024 * 1024));
+			assertTrue(compact + " < " + plain, compact < plain);
+		} finally {
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	private static long retained(SAXBuilder builder, File file) throws JDOMException, IOException {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		Document doc = builder.build(file);
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		assertNotNull(doc.getRootElement()); // keep tree reachable until measured
+		return after - before;
+	}
+}
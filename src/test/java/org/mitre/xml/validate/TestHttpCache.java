@@ -0,0 +1,110 @@
+package org.mitre.xml.validate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests HTTP cache against a local server that serves files from data/
+ * with ETag headers.
+ *
+ * @author Jason Mathews
+ */
+public class TestHttpCache extends TestCase {
+
+	private HttpServer server;
+	private File cacheDir;
+	private final AtomicInteger downloads = new AtomicInteger();
+
+	@Override
+	protected void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				File file = new File("data", exchange.getRequestURI().getPath());
+				if (!file.isFile()) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				String etag = "\"" + file.length() + "-" + file.lastModified() + "\"";
+				exchange.getResponseHeaders().set("ETag", etag);
+				if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				downloads.incrementAndGet();
+				byte[] body = Files.readAllBytes(file.toPath());
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+		cacheDir = File.createTempFile("cache", "");
+		assertTrue(cacheDir.delete());
+	}
+
+	@Override
+	protected void tearDown() {
+		server.stop(0);
+		File[] files = cacheDir.listFiles();
+		if (files != null) for (File f : files) f.delete();
+		cacheDir.delete();
+	}
+
+	private XmlValidate validate(String path) throws IOException {
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(new ByteArrayOutputStream(), true));
+		validator.setSummary(true);
+		validator.setMap(new File("ns.map"));
+		validator.setHttpCache(new HttpCache(cacheDir));
+		URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+		validator.validate(new UrlResource(System.out, url, null));
+		return validator;
+	}
+
+	public void testConditionalRequest() throws IOException {
+		XmlValidate first = validate("/bad/badColor.kml");
+		assertEquals(1, downloads.get());
+		assertTrue(first.getErrors() != 0);
+
+		// second run with new cache instance loaded from disk
+		XmlValidate second = validate("/bad/badColor.kml");
+		assertEquals(1, downloads.get());
+		assertEquals(first.getErrors(), second.getErrors());
+		assertEquals(first.getWarnings(), second.getWarnings());
+		assertEquals(1, second.getFileCount());
+	}
+
+	public void testKmz() throws IOException {
+		XmlValidate first = validate("/kmz/big.kmz");
+		XmlValidate second = validate("/kmz/big.kmz");
+		assertEquals(1, downloads.get());
+		assertEquals(first.getErrors(), second.getErrors());
+	}
+
+	public void testEviction() throws IOException {
+		HttpCache cache = new HttpCache(cacheDir, 600);
+		int port = server.getAddress().getPort();
+		cache.fetch(new URL("http", "127.0.0.1", port, "/bad/badColor.kml"), null);
+		cache.fetch(new URL("http", "127.0.0.1", port, "/kml/placemark.kml"), null);
+		// least recently used entry is evicted
+		assertEquals(new File("data/kml/placemark.kml").length(), cache.getSize());
+		cache.fetch(new URL("http", "127.0.0.1", port, "/kml/placemark.kml"), null);
+		assertEquals(1, cache.getNotModified());
+	}
+}
@@ -37,6 +37,20 @@ public class TestKmzFile extends TestCase {
         assertEquals(0, validator.getWarnings());
 	}
 
+	public void testKmzTotalSize() {
+		XmlValidate validator = new XmlValidate();
+		validator.setKmzMode(true);
+		validator.setSummary(true);
+		validator.setDedup(true);
+		validator.setMap(new File("ns.map"));
+		// other entries total 917 bytes, entries read again to scan their root
+		// element and hash them are not counted twice
+		validator.getArchiveLimits().setMaxTotalSize(1000);
+		validator.validate(new File("data/kmz/nested.kmz"));
+		assertEquals(3, validator.getFileCount());
+		assertEquals(0, validator.getErrors());
+	}
+
 	public void testBadKmzFiles() throws JDOMException, IOException {
 		// test bad KMZ files: bad-too-large.kmz, nokml.kmz, notKmz.kmz, reallyHtml.kmz
 		for(File f : new File("data/bad").listFiles()) {
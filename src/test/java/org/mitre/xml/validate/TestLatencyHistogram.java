@@ -0,0 +1,57 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestLatencyHistogram extends TestCase {
+
+	public void testBuckets() {
+		int last = -1;
+		for (long value : new long[] { 0, 1, 63, 64, 66, 127, 128, 1000, 999999, 1L << 40, Long.MAX_VALUE }) {
+			int index = LatencyHistogram.getIndex(value);
+			assertTrue(index > last);
+			last = index;
+			long upper = LatencyHistogram.getUpperBound(index);
+			assertTrue(value + " <= " + upper, value <= upper);
+			// within one bucket of 1/32 of the power of two
+			assertTrue(value + " ~ " + upper, upper - value <= value / LatencyHistogram.SUB_BUCKETS);
+			if (index > 0) assertTrue(LatencyHistogram.getUpperBound(index - 1) < value);
+		}
+	}
+
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L); // 1 to 1000 microseconds
+		}
+		histogram.record(50000000L); // one 50 ms outlier
+		assertEquals(1001, histogram.getCount());
+		assertNear(500000, histogram.getPercentile(50));
+		assertNear(990000, histogram.getPercentile(99));
+		assertEquals(50000000L, histogram.getPercentile(100));
+		assertEquals(50000000L, histogram.getMax());
+		assertTrue(histogram.getSummary(), histogram.getSummary().startsWith("Latency: 1001 docs"));
+	}
+
+	public void testWarmup() {
+		LatencyHistogram histogram = new LatencyHistogram(10);
+		for (int i = 0; i < 10; i++) {
+			histogram.record(50000000L); // slow documents before JIT compilation
+		}
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(10, histogram.getSkipped());
+		assertEquals(100000L, histogram.getMax());
+		assertNear(99000, histogram.getPercentile(99));
+		assertTrue(histogram.getSummary(), histogram.getSummary().startsWith("Latency: 100 docs (10 warm-up skipped)"));
+	}
+
+	private static void assertNear(long expected, long actual) {
+		assertTrue(expected + " ~ " + actual, Math.abs(expected - actual) <= expected / LatencyHistogram.SUB_BUCKETS);
+	}
+}
@@ -0,0 +1,38 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestLineIndex extends TestCase {
+
+	public void testLineTerminators() {
+		LineIndex index = new LineIndex("<a>\r\n  <b/>\n\r<c/>\r\n");
+		assertEquals(4, index.getLineCount());
+		assertEquals("<b/>", index.getContext(2, 0));
+		assertNull(index.getContext(3, 0)); // empty line
+		assertEquals("<c/>", index.getContext(4, 0));
+		assertNull(index.getContext(5, 0));
+	}
+
+	public void testContextInAnyOrder() {
+		LineIndex index = new LineIndex("<kml>\n  <name>x</name>\n</kml>");
+		assertEquals("<name>x***</name>", index.getContext(2, 10));
+		assertEquals("<kml***>", index.getContext(1, 5));
+		// same line twice
+		assertEquals("<name>x***</name>", index.getContext(2, 10));
+		assertEquals("<na***me>x</name>", index.getContext(2, 6));
+	}
+
+	public void testLongLine() {
+		StringBuilder sb = new StringBuilder("<kml>");
+		for (int i = 0; i < 100000; i++) sb.append("<a/>");
+		sb.append("</kml>");
+		LineIndex index = new LineIndex(sb);
+		String context = index.getContext(1, 200001);
+		assertTrue(context.startsWith("..."));
+		assertTrue(context.contains("***"));
+		assertEquals(81, context.length());
+	}
+}
@@ -0,0 +1,98 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestMemoryAdmission extends TestCase {
+
+	private static final long MB = 1024 * 1024;
+
+	public void testWaitForBudget() throws InterruptedException {
+		final MemoryAdmission admission = new MemoryAdmission(10 * MB);
+		MemoryAdmission.Ticket first = admission.admit(6 * MB);
+		assertFalse(first.exclusive);
+		final MemoryAdmission.Ticket[] second = new MemoryAdmission.Ticket[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					second[0] = admission.admit(6 * MB);
+				} catch (InterruptedException e) {
+					// fails below
+				}
+			}
+		};
+		thread.start();
+		thread.join(200);
+		// second document does not fit until first is released
+		assertTrue(thread.isAlive());
+		assertNull(second[0]);
+		admission.release(first, -1);
+		thread.join(5000);
+		assertNotNull(second[0]);
+		admission.release(second[0], -1);
+		assertEquals(1, admission.getWaits());
+		assertEquals(6 * MB, admission.getPeak());
+	}
+
+	public void testOversizedRunsAlone() throws InterruptedException {
+		final MemoryAdmission admission = new MemoryAdmission(10 * MB);
+		MemoryAdmission.Ticket small = admission.admit(MB);
+		final MemoryAdmission.Ticket[] large = new MemoryAdmission.Ticket[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					large[0] = admission.admit(20 * MB);
+				} catch (InterruptedException e) {
+					// fails below
+				}
+			}
+		};
+		thread.start();
+		thread.join(200);
+		assertNull(large[0]);
+		admission.release(small, -1);
+		thread.join(5000);
+		assertNotNull(large[0]);
+		assertTrue(large[0].exclusive);
+		assertEquals(1, admission.getOversized());
+		admission.release(large[0], -1);
+		assertEquals(20 * MB, admission.getPeak()); // small and large never in flight together
+		assertTrue(admission.getSummary().startsWith("Memory budget: 10 MB"));
+	}
+
+	public void testEstimate() {
+		MemoryAdmission admission = new MemoryAdmission(10 * MB);
+		assertEquals(MemoryAdmission.MIN_COST, admission.estimateCost(10));
+		assertEquals((long) (MB * MemoryAdmission.DEFAULT_EXPANSION), admission.estimateCost(MB));
+	}
+
+	public void testValidateWithBudget() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(bos));
+		validator.setMap(new File("ns.map"));
+		validator.getExtensionSet().add("kml");
+		validator.validate(new File("data/kml"));
+
+		ByteArrayOutputStream budgetOut = new ByteArrayOutputStream();
+		XmlValidate budgeted = new XmlValidate();
+		budgeted.setOutputStream(new PrintStream(budgetOut));
+		budgeted.setMap(new File("ns.map"));
+		budgeted.getExtensionSet().add("kml");
+		// minimum budget admits one document at a time and larger documents
+		// run alone with their tree released
+		budgeted.setMemoryBudget(1);
+		budgeted.validate(new File("data/kml"));
+
+		assertTrue(budgeted.getFileCount() > 1);
+		assertEquals(validator.getFileCount(), budgeted.getFileCount());
+		assertEquals(validator.getErrors(), budgeted.getErrors());
+		assertEquals(validator.getWarnings(), budgeted.getWarnings());
+	}
+}
@@ -0,0 +1,91 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestPrefetcher extends TestCase {
+
+	public void testReadAhead() throws IOException {
+		List<File> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < 6; i++) {
+				File f = File.createTempFile("prefetch", ".xml");
+				byte[] data = new byte[1000 * (i + 1)];
+				Arrays.fill(data, (byte) ('a' + i));
+				try (FileOutputStream out = new FileOutputStream(f)) {
+					out.write(data);
+				}
+				files.add(f);
+			}
+			// budget holds only a few buffers at a time
+			Prefetcher prefetcher = new Prefetcher(2, 3 * Prefetcher.MIN_BUFFER);
+			prefetcher.start(files);
+			for (int i = 0; i < files.size(); i++) {
+				Prefetcher.Buffer buffer = prefetcher.take(files.get(i));
+				assertNotNull(buffer);
+				assertEquals(1000 * (i + 1), buffer.length);
+				assertEquals('a' + i, buffer.data[buffer.length - 1]);
+				prefetcher.release(buffer);
+			}
+			prefetcher.stop();
+			assertEquals(files.size(), prefetcher.getHits());
+			assertNull(prefetcher.take(files.get(0)));
+		} finally {
+			for (File f : files) f.delete();
+		}
+	}
+
+	public void testTooLarge() throws IOException {
+		File f = File.createTempFile("prefetch", ".xml");
+		try {
+			try (FileOutputStream out = new FileOutputStream(f)) {
+				out.write(new byte[Prefetcher.MIN_BUFFER + 1]);
+			}
+			Prefetcher prefetcher = new Prefetcher(4, Prefetcher.MIN_BUFFER);
+			prefetcher.start(Arrays.asList(f));
+			// not prefetched so validator reads the file itself
+			assertNull(prefetcher.take(f));
+			prefetcher.stop();
+			assertEquals(0, prefetcher.getHits());
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testValidateDirectory() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XmlValidate validator = createValidator(bos);
+		validator.validate(new File("data/kml"));
+
+		ByteArrayOutputStream readAheadOut = new ByteArrayOutputStream();
+		XmlValidate readAhead = createValidator(readAheadOut);
+		readAhead.setReadAhead(4, Prefetcher.DEFAULT_BUDGET);
+		readAhead.validate(new File("data/kml"));
+
+		assertTrue(readAhead.getFileCount() > 1);
+		assertEquals(validator.getFileCount(), readAhead.getFileCount());
+		assertEquals(validator.getErrors(), readAhead.getErrors());
+		assertEquals(validator.getWarnings(), readAhead.getWarnings());
+		assertEquals(bos.toString(), readAheadOut.toString());
+	}
+
+	private static XmlValidate createValidator(ByteArrayOutputStream bos) {
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(bos, true));
+		validator.setKmlMode(true);
+		validator.setMap(new File("ns.map"));
+		validator.getExtensionSet().add("kml");
+		return validator;
+	}
+}
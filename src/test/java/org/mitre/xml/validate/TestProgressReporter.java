@@ -0,0 +1,56 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestProgressReporter extends TestCase {
+
+	public void testProgress() throws IOException, InterruptedException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ProgressReporter progress = new ProgressReporter(new PrintStream(bos, true), ProgressReporter.DEFAULT_INTERVAL);
+		File export = File.createTempFile("progress", ".properties");
+		try {
+			progress.setExportFile(export);
+			XmlValidate validator = new XmlValidate();
+			validator.setOutputStream(new PrintStream(new ByteArrayOutputStream(), true));
+			validator.setKmlMode(true);
+			validator.setMap(new File("ns.map"));
+			validator.getExtensionSet().add("kml");
+			validator.setProgressReporter(progress);
+			progress.start();
+			validator.validate("data/kml");
+			for (int i = 0; i < 100 && progress.isCounting(); i++) {
+				Thread.sleep(50);
+			}
+			progress.stop();
+
+			ProgressReporter.Snapshot snapshot = progress.snapshot();
+			assertTrue(snapshot.isCounted());
+			assertEquals(validator.getFileCount(), snapshot.getDone());
+			assertEquals(snapshot.getDiscovered(), snapshot.getDone());
+			assertEquals(0, snapshot.getEtaSeconds());
+			assertNull(snapshot.getSlowest());
+			assertEquals(validator.getErrors() > 0, snapshot.getFailed() > 0);
+			assertTrue(bos.toString().startsWith("Progress: " + snapshot.getDone() + "/"));
+
+			Properties props = new Properties();
+			try (InputStream in = new FileInputStream(export)) {
+				props.load(in);
+			}
+			assertEquals(Long.toString(snapshot.getDone()), props.getProperty("files.done"));
+			assertEquals("0", props.getProperty("eta.seconds"));
+		} finally {
+			export.delete();
+		}
+	}
+}
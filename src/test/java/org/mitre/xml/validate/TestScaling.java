@@ -0,0 +1,163 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Validates synthetic corpora from {@link CorpusGenerator} at increasing document
+ * sizes and reports throughput and peak heap against size.
+ *
+ * By default a quick run over small documents checks that valid corpora validate
+ * with no errors and invalid corpora report errors. The <code>scalingTest</code>
+ * task sets <code>scaling.sizes</code> (e.g. 64K,1M,16M) to run larger documents,
+ * in which case throughput of the largest documents must be within a factor
+ * (<code>scaling.factor</code>, default 4) of the smallest so that work that grows
+ * faster than the document shows up as a failure.
+ *
+ * @author Jason Mathews
+ */
+public class TestScaling extends TestCase {
+
+	private static final PrintStream NULL_OUTPUT = new PrintStream(new OutputStream() {
+		public void write(int b) {
+			// discard
+		}
+		public void write(byte[] b, int off, int len) {
+			// discard
+		}
+	});
+
+	// KML entries in each KMZ file, each counted as a file in KMZ mode
+	private static final int ENTRIES = 5;
+
+	private final boolean scaling = System.getProperty("scaling.sizes") != null;
+	private final String[] sizes = System.getProperty("scaling.sizes", "16K,64K").split(",");
+	private final int depth = Integer.getInteger("scaling.depth", 3);
+	private final int files = Integer.getInteger("scaling.files", 2);
+	private final double factor = Double.parseDouble(System.getProperty("scaling.factor", "4"));
+
+	private File dir;
+
+	protected void setUp() throws IOException {
+		dir = Files.createTempDirectory("corpus").toFile();
+	}
+
+	protected void tearDown() {
+		delete(dir);
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null)
+			for (File child : children) delete(child);
+		f.delete();
+	}
+
+	public void testKml22() throws IOException {
+		run(CorpusGenerator.Type.KML22);
+	}
+
+	public void testKml21() throws IOException {
+		run(CorpusGenerator.Type.KML21);
+	}
+
+	public void testGpx10() throws IOException {
+		run(CorpusGenerator.Type.GPX10);
+	}
+
+	public void testGpx11() throws IOException {
+		run(CorpusGenerator.Type.GPX11);
+	}
+
+	public void testCot() throws IOException {
+		run(CorpusGenerator.Type.COT);
+	}
+
+	public void testKmz() throws IOException {
+		run(CorpusGenerator.Type.KMZ);
+	}
+
+	private void run(CorpusGenerator.Type type) throws IOException {
+		double first = 0, last = 0;
+		for (String size : sizes) {
+			long bytes = CorpusGenerator.parseSize(size);
+			File valid = new File(dir, type + "-" + size + "-valid");
+			generate(type, bytes, 0, valid);
+			double throughput = measure(type, valid, size, 0);
+			if (first == 0) first = throughput;
+			last = throughput;
+			delete(valid);
+
+			File invalid = new File(dir, type + "-" + size + "-invalid");
+			CorpusGenerator generator = generate(type, bytes, 0.05, invalid);
+			if (generator.getInvalidFiles() != 0) measure(type, invalid, size, generator.getInvalidFiles());
+			delete(invalid);
+		}
+		if (scaling && sizes.length > 1) {
+			assertTrue(String.format("%s throughput dropped from %.0f to %.0f bytes/s", type, first, last),
+					last * factor >= first);
+		}
+	}
+
+	private CorpusGenerator generate(CorpusGenerator.Type type, long size, double errorDensity, File dir)
+			throws IOException {
+		CorpusGenerator generator = new CorpusGenerator();
+		generator.setType(type);
+		generator.setFiles(files);
+		generator.setSize(size);
+		generator.setDepth(depth);
+		generator.setErrorDensity(errorDensity);
+		generator.setEntries(ENTRIES);
+		List<File> list = generator.generate(dir);
+		assertEquals(files, list.size());
+		return generator;
+	}
+
+	/**
+	 * Validate corpus and report throughput and peak heap
+	 * @param invalidFiles number of files expected to have errors
+	 * @return throughput in bytes per second
+	 */
+	private double measure(CorpusGenerator.Type type, File corpus, String size, int invalidFiles) {
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(NULL_OUTPUT);
+		if (type == CorpusGenerator.Type.COT) {
+			validator.setSchema(new File("schemas/Event.xsd"));
+		} else {
+			validator.setMap(new File("ns.map"));
+			validator.getExtensionSet().add(type.extension);
+			if (type == CorpusGenerator.Type.KMZ) validator.setKmzMode(true);
+		}
+		long bytes = 0;
+		for (File f : corpus.listFiles()) bytes += f.length();
+
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		System.gc();
+		for (MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+		long start = System.nanoTime();
+		validator.validate(corpus.getPath());
+		long elapsed = System.nanoTime() - start;
+		long peak = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+
+		assertEquals(type == CorpusGenerator.Type.KMZ ? files * ENTRIES : files, validator.getFileCount());
+		if (invalidFiles == 0) assertEquals(type + " " + size, 0, validator.getErrors());
+		else assertTrue(type + " " + size, validator.getErrors() >= invalidFiles);
+
+		double throughput = bytes * 1e9 / elapsed;
+		System.out.format("%-6s %6s %-7s %10d bytes %8.2f MB/s  peak heap %6.1f MB%n", type, size,
+				invalidFiles == 0 ? "valid" : "invalid", bytes, throughput / (1024 * 1024), peak / (1024.0 * 1024));
+		return throughput;
+	}
+}
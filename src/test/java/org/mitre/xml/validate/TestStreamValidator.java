@@ -0,0 +1,128 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestStreamValidator extends TestCase {
+
+	private Schema schema;
+	private String cot; // CoT event with XML declaration over several lines
+	private String line; // same event on one line
+	private String invalid;
+
+	protected void setUp() throws IOException, SAXException {
+		schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+				.newSchema(new StreamSource(new File("schemas/Event.xsd")));
+		cot = new String(Files.readAllBytes(new File("data/xml/cot.xml").toPath()), StandardCharsets.UTF_8);
+		line = cot.replaceFirst("<\\?xml[^>]*\\?>", "").replaceAll("\\s*\n\\s*", " ").trim();
+		invalid = line.replace("version=\"2.0\"", "version=\"1.0\"");
+	}
+
+	public void testLines() throws IOException {
+		String input = line + "\n\n" + invalid + "\r\n" + line; // last line has no newline
+		check(StreamValidator.Framing.LINE, input.getBytes(StandardCharsets.UTF_8), 3, 2);
+	}
+
+	public void testLengths() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (String message : new String[] { cot, invalid, line }) {
+			byte[] b = message.getBytes(StandardCharsets.UTF_8);
+			bos.write(b.length >>> 24);
+			bos.write(b.length >>> 16);
+			bos.write(b.length >>> 8);
+			bos.write(b.length);
+			bos.write(b);
+		}
+		check(StreamValidator.Framing.LENGTH, bos.toByteArray(), 3, 2);
+	}
+
+	public void testDocuments() throws IOException {
+		String input = cot + "\n" + invalid + line + "<!-- comment with > in it -->\n"
+				+ "<event version='2.0' detail=\"/>\"/>\n" + cot;
+		check(StreamValidator.Framing.DOCUMENT, input.getBytes(StandardCharsets.UTF_8), 5, 3);
+	}
+
+	public void testOversized() throws IOException {
+		StreamValidator validator = new StreamValidator(schema, StreamValidator.Framing.LINE);
+		validator.setMaxMessage(line.length() - 1);
+		// read in small pieces so message is copied across reads
+		validator.validate(new ChunkedInputStream((line + "\n" + line + "\n").getBytes(StandardCharsets.UTF_8), 7));
+		assertEquals(2, validator.getMessages());
+		assertEquals(0, validator.getValidMessages());
+	}
+
+	public void testListener() {
+		StreamValidator validator = new StreamValidator(schema, StreamValidator.Framing.LINE);
+		final List<ValidationResult> results = new ArrayList<>();
+		validator.setListener(new ValidationListener() {
+			public void validated(ValidationResult result) {
+				results.add(result);
+			}
+		});
+		byte[] b = invalid.getBytes(StandardCharsets.UTF_8);
+		assertFalse(validator.validate(b, 0, b.length));
+		assertEquals(1, results.size());
+		assertFalse(results.get(0).isValid());
+		assertEquals("cvc-minInclusive-valid", results.get(0).getIssues().get(0).getCode());
+	}
+
+	/**
+	 * Validate input at once and one byte at a time and check counts are the same
+	 */
+	private void check(StreamValidator.Framing framing, byte[] input, int messages, int valid) throws IOException {
+		for (int chunk : new int[] { input.length, 1 }) {
+			StreamValidator validator = new StreamValidator(schema, framing);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			validator.setOutputStream(new PrintStream(bos, true, "UTF-8"));
+			validator.validate(new ChunkedInputStream(input, chunk));
+			String output = bos.toString("UTF-8");
+			assertEquals(output, messages, validator.getMessages());
+			assertEquals(output, valid, validator.getValidMessages());
+			assertTrue(output, output.startsWith("1: valid"));
+		}
+	}
+
+	/**
+	 * Returns at most the given number of bytes from each read
+	 */
+	private static final class ChunkedInputStream extends InputStream {
+		private final byte[] data;
+		private final int chunk;
+		private int pos;
+
+		ChunkedInputStream(byte[] data, int chunk) {
+			this.data = data;
+			this.chunk = chunk;
+		}
+
+		public int read() {
+			return pos < data.length ? data[pos++] & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (pos >= data.length) return -1;
+			int n = Math.min(Math.min(len, chunk), data.length - pos);
+			System.arraycopy(data, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+	}
+}
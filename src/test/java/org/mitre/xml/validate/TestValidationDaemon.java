@@ -0,0 +1,134 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestValidationDaemon extends TestCase {
+
+	private static final String KML = "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Placemark><name>test</name>"
+			+ "<bogus/></Placemark></kml>";
+
+	private ValidationDaemon daemon;
+	private File tokenDir;
+
+	protected void setUp() throws IOException {
+		tokenDir = Files.createTempDirectory("daemon").toFile();
+		daemon = new ValidationDaemon(0, 2, tokenDir);
+		daemon.start();
+	}
+
+	protected void tearDown() {
+		daemon.stop();
+		tokenDir.delete();
+	}
+
+	public void testSameOutputAsLocal() throws IOException {
+		List<String> args = Arrays.asList("-map=ns.map", "-kml", "data/kml/placemark.kml");
+		ByteArrayOutputStream local = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(local, true, "UTF-8");
+		int status = XmlValidate.run(args.toArray(new String[0]), out, out, null, null);
+
+		ByteArrayOutputStream remote = new ByteArrayOutputStream();
+		assertEquals(status, ValidationDaemon.send(daemon.getPort(), daemon.getToken(), args, null, null, remote));
+		assertEquals(stripTime(local.toString("UTF-8")), stripTime(remote.toString("UTF-8")));
+		assertEquals(1, daemon.getRequests());
+	}
+
+	public void testInline() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		int status = ValidationDaemon.send(daemon.getPort(), daemon.getToken(), Collections.singletonList("-map=ns.map"),
+				"upload.kml", KML.getBytes(StandardCharsets.UTF_8), bos);
+		assertEquals(0, status);
+		String output = bos.toString("UTF-8");
+		assertTrue(output, output.contains("upload.kml"));
+		assertFalse(output, output.contains("Errors: 0"));
+	}
+
+	public void testUsage() throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		int status = ValidationDaemon.send(daemon.getPort(), daemon.getToken(), Collections.singletonList("-h"),
+				null, null, bos);
+		assertEquals(1, status);
+		assertTrue(bos.toString("UTF-8").startsWith("Usage:"));
+	}
+
+	public void testRejected() throws IOException {
+		File tokenFile = ValidationDaemon.getTokenFile(tokenDir, daemon.getPort());
+		assertEquals(daemon.getToken(), new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.US_ASCII));
+		try {
+			ValidationDaemon.send(daemon.getPort(), "bogus", Collections.singletonList("-h"), null, null,
+					new ByteArrayOutputStream());
+			fail("expected HTTP 403");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 403"));
+		}
+
+		// browser request (Origin is a restricted header of HttpURLConnection)
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+			OutputStream os = socket.getOutputStream();
+			os.write(("POST " + ValidationDaemon.PATH + "?arg=-h HTTP/1.1\r\nHost: localhost\r\n"
+					+ ValidationDaemon.TOKEN_HEADER + ": " + daemon.getToken() + "\r\n"
+					+ "Origin: http://example.com\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+			os.flush();
+			InputStream is = socket.getInputStream();
+			String response = new String(is.readAllBytes(), StandardCharsets.US_ASCII);
+			assertTrue(response, response.startsWith("HTTP/1.1 403"));
+		}
+
+		for (String option : new String[] { "-dumpDir=/tmp", "-stream=stdin", "-threads=4", "-progressFile=p" }) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			int status = ValidationDaemon.send(daemon.getPort(), daemon.getToken(),
+					Arrays.asList(option, "data/kml/placemark.kml"), null, null, bos);
+			assertEquals(1, status);
+			assertTrue(bos.toString("UTF-8").startsWith("ERROR: option not allowed"));
+		}
+		assertEquals(0, daemon.getRequests());
+	}
+
+	public void testReload() throws IOException, InterruptedException {
+		File map = File.createTempFile("nsmap", ".map");
+		try {
+			Files.copy(new File("ns.map").toPath(), map.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			List<String> args = Arrays.asList("-home=.", "-map=" + map, "data/kml");
+			Set<File> files = ValidationDaemon.getSchemaFiles(args);
+			assertTrue(files.contains(map.getAbsoluteFile()));
+			assertTrue(files.contains(new File("schemas/kml22.xsd").getAbsoluteFile()));
+
+			ParserPool pool = daemon.getParserPool(args);
+			assertSame(pool, daemon.getParserPool(args));
+			try (FileOutputStream out = new FileOutputStream(map, true)) {
+				out.write("\n# changed\n".getBytes(StandardCharsets.UTF_8));
+			}
+			Thread.sleep(ValidationDaemon.CHECK_INTERVAL + 100);
+			assertNotSame(pool, daemon.getParserPool(args));
+			assertEquals(1, daemon.getReloads());
+		} finally {
+			map.delete();
+		}
+	}
+
+	// elapsed time differs between runs
+	private static String stripTime(String s) {
+		return s.replaceAll("Time: \\d+ ms", "");
+	}
+}
@@ -0,0 +1,63 @@
+package org.mitre.xml.validate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestValidationEvents extends TestCase {
+
+	public void testEvents() throws IOException {
+		Path dump = Files.createTempFile("validate", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(ValidationEvents.Parse.class);
+			recording.enable(ValidationEvents.Rewrite.class);
+			recording.enable(ValidationEvents.Serialize.class);
+			recording.enable(ValidationEvents.SchemaValidation.class);
+			recording.enable(ValidationEvents.ArchiveEntryRead.class);
+			recording.start();
+
+			XmlValidate validator = new XmlValidate();
+			validator.setOutputStream(new PrintStream(new ByteArrayOutputStream(), true));
+			validator.setKmlMode(true);
+			validator.setKmzMode(true);
+			validator.setMap(new File("ns.map"));
+			validator.validate(new File("data/bad/badColor.kml"));
+			validator.validate(new File("data/kmz/nested.kmz"));
+
+			recording.stop();
+			recording.dump(dump);
+
+			Map<String, Integer> counts = new HashMap<>();
+			int errors = 0;
+			for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+				String name = event.getEventType().getName();
+				Integer count = counts.get(name);
+				counts.put(name, count == null ? 1 : count + 1);
+				assertNotNull(event.getString("source"));
+				if (name.endsWith(".SchemaValidation")) errors += event.getInt("errors");
+			}
+			assertEquals(validator.getErrors(), errors);
+			assertEquals(validator.getFileCount(), counts.get("org.mitre.xml.validate.Parse").intValue());
+			assertEquals(validator.getFileCount(), counts.get("org.mitre.xml.validate.Rewrite").intValue());
+			assertNotNull(counts.get("org.mitre.xml.validate.Serialize"));
+			assertNotNull(counts.get("org.mitre.xml.validate.SchemaValidation"));
+			// other KML entries of the KMZ file
+			assertEquals(2, counts.get("org.mitre.xml.validate.ArchiveEntryRead").intValue());
+		} finally {
+			Files.delete(dump);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestValidationPublisher extends TestCase {
+
+	private static XmlValidate createValidator() {
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(new OutputStream() {
+			public void write(int b) {
+				// ignore
+			}
+		}));
+		validator.setKmlMode(true);
+		validator.setMap(new File("ns.map"));
+		validator.getExtensionSet().add("kml");
+		return validator;
+	}
+
+	public void testComplete() throws InterruptedException {
+		final XmlValidate validator = createValidator();
+		final List<ValidationResult> results = Collections.synchronizedList(new ArrayList<ValidationResult>());
+		final CountDownLatch done = new CountDownLatch(1);
+		new ValidationPublisher(validator, Collections.singletonList("data/kml")).subscribe(
+				new Flow.Subscriber<ValidationResult>() {
+					public void onSubscribe(Flow.Subscription subscription) {
+						subscription.request(Long.MAX_VALUE);
+					}
+
+					public void onNext(ValidationResult item) {
+						results.add(item);
+					}
+
+					public void onError(Throwable throwable) {
+						fail(throwable.toString());
+					}
+
+					public void onComplete() {
+						done.countDown();
+					}
+				});
+		assertTrue(done.await(60, TimeUnit.SECONDS));
+		assertEquals(validator.getFileCount(), results.size());
+		int errors = 0;
+		for (ValidationResult result : results) {
+			assertNotNull(result.getSystemId());
+			errors += result.getErrors();
+		}
+		assertEquals(validator.getErrors(), errors);
+	}
+
+	public void testBackpressure() throws InterruptedException, IOException {
+		final File dir = Files.createTempDirectory("publisher").toFile();
+		try {
+			for (int i = 0; i < 5; i++) {
+				Files.write(new File(dir, "doc" + i + ".kml").toPath(),
+						"<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Placemark/></kml>".getBytes(StandardCharsets.UTF_8));
+			}
+			final XmlValidate validator = createValidator();
+			final List<ValidationResult> results = Collections.synchronizedList(new ArrayList<ValidationResult>());
+			final List<String> signals = Collections.synchronizedList(new ArrayList<String>());
+			final Flow.Subscription[] holder = new Flow.Subscription[1];
+			final Thread[] publisherThread = new Thread[1];
+			final CountDownLatch[] received = { new CountDownLatch(2) };
+			new ValidationPublisher(validator, Collections.singletonList(dir.toString())).subscribe(
+					new Flow.Subscriber<ValidationResult>() {
+						public void onSubscribe(Flow.Subscription subscription) {
+							holder[0] = subscription;
+							subscription.request(2);
+						}
+
+						public void onNext(ValidationResult item) {
+							publisherThread[0] = Thread.currentThread();
+							results.add(item);
+							received[0].countDown();
+						}
+
+						public void onError(Throwable throwable) {
+							signals.add("onError " + throwable);
+						}
+
+						public void onComplete() {
+							signals.add("onComplete");
+						}
+					});
+			assertTrue(received[0].await(60, TimeUnit.SECONDS));
+			// run is held up at the third file until more results are requested
+			awaitWaiting(publisherThread[0]);
+			assertEquals(2, results.size());
+
+			received[0] = new CountDownLatch(1);
+			holder[0].request(1);
+			assertTrue(received[0].await(60, TimeUnit.SECONDS));
+			awaitWaiting(publisherThread[0]);
+			assertEquals(3, results.size());
+
+			// cancel ends the run without more results or signals
+			holder[0].cancel();
+			publisherThread[0].join(60000);
+			assertFalse(publisherThread[0].isAlive());
+			assertEquals(3, results.size());
+			assertEquals(Collections.emptyList(), signals);
+			for (ValidationResult result : results) {
+				assertEquals(dir, new File(result.getSystemId()).getParentFile());
+				assertEquals(0, result.getErrors());
+			}
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) for (File f : files) f.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Wait until thread is blocked waiting for demand
+	 */
+	private static void awaitWaiting(Thread thread) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 60000;
+		while (thread.getState() != Thread.State.WAITING) {
+			assertTrue("thread not waiting: " + thread.getState(), System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -1,11 +1,30 @@
 package org.mitre.xml.validate;
 
 import junit.framework.TestCase;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author Jason Mathews
@@ -114,4 +133,615 @@ public class TestXmlValidate extends TestCase {
 		assertTrue(validator.getErrors() != 0);
         assertEquals(1, validator.getWarnings());
     }
+
+	public void testParallel() {
+		for (int dumpLevel = 0; dumpLevel <= 1; dumpLevel++)
+		for (boolean summary : new boolean[] { false, true }) {
+			ByteArrayOutputStream seqOut = new ByteArrayOutputStream();
+			XmlValidate seq = createGpxValidator(seqOut, summary);
+			seq.setDumpLevel(dumpLevel);
+			seq.validate(new File("data"));
+
+			ByteArrayOutputStream parOut = new ByteArrayOutputStream();
+			XmlValidate par = createGpxValidator(parOut, summary);
+			par.setDumpLevel(dumpLevel);
+			par.setThreads(4);
+			par.setOrdered(true);
+			par.validate(new File("data"));
+
+			// output and counts must be the same regardless of scheduling
+			assertEquals(seqOut.toString(), parOut.toString());
+			assertEquals(seq.getFileCount(), par.getFileCount());
+			assertEquals(seq.getErrors(), par.getErrors());
+			assertEquals(seq.getWarnings(), par.getWarnings());
+		}
+	}
+
+	public void testOrderedOutput() {
+		// all files in data with default extensions, including bad documents
+		String[] seqArgs = { "-map=ns.map", "-dump=1", "-kml", "data" };
+		String[] parArgs = { "-map=ns.map", "-dump=1", "-kml", "-ordered", "-threads=4", "data" };
+		ByteArrayOutputStream seqOut = new ByteArrayOutputStream();
+		assertEquals(0, XmlValidate.run(seqArgs, new PrintStream(seqOut, true), System.err, null, null));
+		ByteArrayOutputStream parOut = new ByteArrayOutputStream();
+		assertEquals(0, XmlValidate.run(parArgs, new PrintStream(parOut, true), System.err, null, null));
+		String seqOutput = seqOut.toString().replaceAll("Time: \\d+ ms", "");
+		assertTrue(seqOutput, seqOutput.contains("ERROR:"));
+		// byte-for-byte the same except elapsed time
+		assertEquals(seqOutput, parOut.toString().replaceAll("Time: \\d+ ms", ""));
+	}
+
+	public void testParallelFailure() {
+		for (boolean summary : new boolean[] { false, true }) {
+			XmlValidate expected = createGpxValidator(new ByteArrayOutputStream(), summary);
+			expected.validate(new File("data/kml"));
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			XmlValidate validator = createGpxValidator(bos, summary);
+			validator.setThreads(2);
+			validator.setValidationListener(new ValidationListener() {
+				public void validated(ValidationResult result) {
+					if (result.getSystemId().endsWith("placemark.kml"))
+						throw new IllegalStateException("listener failed");
+				}
+			});
+			validator.validate(new File("data/kml"));
+			validator.dumpStatus();
+			// failure escaping a worker is counted as an error of its file
+			assertEquals(expected.getErrors() + 1, validator.getErrors());
+			String output = bos.toString();
+			assertTrue(output, output.contains("parse failed: java.lang.IllegalStateException: listener failed"));
+			if (summary) assertTrue(output, output.contains("ERROR: java.lang.IllegalStateException: listener failed"));
+		}
+	}
+
+	public void testParallelUnordered() {
+		ByteArrayOutputStream seqOut = new ByteArrayOutputStream();
+		XmlValidate seq = createGpxValidator(seqOut, false);
+		seq.validate(new File("data"));
+
+		ByteArrayOutputStream parOut = new ByteArrayOutputStream();
+		XmlValidate par = createGpxValidator(parOut, false);
+		par.setThreads(4);
+		par.validate(new File("data"));
+
+		// output of each file is written in one piece in any order
+		String parOutput = parOut.toString();
+		for (String block : seqOut.toString().split("\n(?=\nCheck: )")) {
+			assertTrue(block, parOutput.contains(block.trim()));
+		}
+		assertEquals(seq.getFileCount(), par.getFileCount());
+		assertEquals(seq.getErrors(), par.getErrors());
+		assertEquals(seq.getWarnings(), par.getWarnings());
+	}
+
+	public void testParallelSummaryUnordered() throws IOException {
+		// files with errors of the same kinds so the first file with each error depends on the order
+		File dir = Files.createTempDirectory("corpus").toFile();
+		try {
+			CorpusGenerator generator = new CorpusGenerator();
+			generator.setFiles(40);
+			generator.setSize(100 * 1024);
+			generator.setErrorDensity(0.002);
+			generator.generate(dir);
+			String[] seqArgs = { "-map=ns.map", "-S", "-kml", dir.getPath() };
+			String[] parArgs = { "-map=ns.map", "-S", "-kml", "-threads=4", dir.getPath() };
+			ByteArrayOutputStream seqOut = new ByteArrayOutputStream();
+			assertEquals(0, XmlValidate.run(seqArgs, new PrintStream(seqOut, true), System.err, null, null));
+			String seqOutput = seqOut.toString().replaceAll("Time: \\d+ ms", "");
+			assertTrue(seqOutput, seqOutput.contains("ERROR:"));
+			for (int i = 0; i < 3; i++) {
+				ByteArrayOutputStream parOut = new ByteArrayOutputStream();
+				assertEquals(0, XmlValidate.run(parArgs, new PrintStream(parOut, true), System.err, null, null));
+				// summary and error map are the same as a sequential run without -ordered
+				assertEquals(seqOutput, parOut.toString().replaceAll("Time: \\d+ ms", ""));
+			}
+		} finally {
+			deleteTree(dir);
+		}
+	}
+
+	private static void deleteTree(File file) {
+		File[] files = file.listFiles();
+		if (files != null) for (File f : files) deleteTree(f);
+		file.delete();
+	}
+
+	public void testParserPool() {
+		ParserPool pool = new ParserPool(2);
+		XmlValidate validator = new XmlValidate(pool);
+		validator.setSummary(true);
+		validator.setMap(new File("ns.map"));
+		validator.validate(new File("data/kml/placemark.kml"));
+		validator.validate(new File("data/kml/tessellate22.kml"));
+		XmlValidate other = new XmlValidate(pool);
+		other.setSummary(true);
+		other.setMap(new File("ns.map"));
+		other.validate(new File("data/kml/placemark.kml"));
+		assertEquals(3, pool.getCheckouts());
+		assertEquals(0, pool.getActive());
+		// parsers are reused when validating one document at a time
+		assertEquals(1, pool.getSize());
+		assertEquals(0, validator.getErrors() + other.getErrors());
+	}
+
+	public void testHintedGrammarNotShared() throws IOException {
+		File dir = Files.createTempDirectory("hint").toFile();
+		try {
+			// same namespace with a different schema for each document
+			String[] types = { "int", "string" };
+			File[] docs = new File[types.length];
+			for (int i = 0; i < types.length; i++) {
+				File xsd = new File(dir, "test" + i + ".xsd");
+				write(xsd, "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:test\">"
+						+ "<xs:element name=\"v\" type=\"xs:" + types[i] + "\"/></xs:schema>");
+				docs[i] = new File(dir, "doc" + i + ".kml");
+				write(docs[i], "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Placemark><ExtendedData>"
+						+ "<t:v xmlns:t=\"urn:test\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+						+ " xsi:schemaLocation=\"urn:test " + xsd.toURI() + "\">x" + i + "</t:v>"
+						+ "</ExtendedData></Placemark></kml>");
+			}
+			XmlValidate validator = new XmlValidate(new ParserPool(1));
+			validator.setSummary(true);
+			validator.setMap(new File("ns.map"));
+			validator.validate(docs[0]);
+			final int errors = validator.getErrors();
+			assertTrue(errors != 0); // x0 is not an int
+			// grammar loaded from hint of first document is not used for second
+			validator.validate(docs[1]);
+			assertEquals(errors, validator.getErrors());
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) for (File f : files) f.delete();
+			dir.delete();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+	}
+
+	public void testSchedule() {
+		List<ValidationScheduler.Item> items = new ArrayList<>();
+		for (File f : new File("data/kml").listFiles()) {
+			items.add(new ValidationScheduler.Item(items.size(), f));
+		}
+		items.add(new ValidationScheduler.Item(items.size(), new File("data/kmz/big.kmz")));
+		List<ValidationScheduler.Batch> batches = ValidationScheduler.schedule(items,
+				Collections.<String, long[]>emptyMap());
+		int count = 0;
+		long lastCost = Long.MAX_VALUE;
+		for (ValidationScheduler.Batch batch : batches) {
+			assertTrue(batch.items.size() <= ValidationScheduler.MAX_BATCH_FILES);
+			assertTrue(batch.cost <= lastCost); // longest first
+			lastCost = batch.cost;
+			count += batch.items.size();
+		}
+		assertEquals(items.size(), count);
+	}
+
+	private static XmlValidate createGpxValidator(ByteArrayOutputStream bos, boolean summary) {
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(bos, true));
+		validator.setSummary(summary);
+		validator.setKmlMode(true);
+		validator.setMap(new File("ns.map"));
+		Set<String> extensionSet = validator.getExtensionSet();
+		extensionSet.clear();
+		extensionSet.add("kml");
+		extensionSet.add("kmz");
+		extensionSet.add("gpx");
+		return validator;
+	}
+
+	public void testCensus() {
+		ByteArrayOutputStream censusOut = new ByteArrayOutputStream();
+		XmlValidate census = createGpxValidator(censusOut, true);
+		census.setCensus(true);
+		census.validate(new File("data/kml"));
+		census.validate(new File("data/kmz"));
+		census.dumpStatus();
+
+		ByteArrayOutputStream fullOut = new ByteArrayOutputStream();
+		XmlValidate full = createGpxValidator(fullOut, true);
+		full.validate(new File("data/kml"));
+		full.validate(new File("data/kmz"));
+		full.dumpStatus();
+
+		assertEquals(full.getFileCount(), census.getFileCount());
+		assertEquals(0, census.getErrors());
+		// root element statistics must match those of a full parse
+		assertEquals(getLines(fullOut, "root element="), getLines(censusOut, "root element="));
+	}
+
+	private static List<String> getLines(ByteArrayOutputStream bos, String key) {
+		List<String> lines = new ArrayList<>();
+		for (String line : bos.toString().split("\\r?\\n")) {
+			if (line.contains(key)) lines.add(line);
+		}
+		return lines;
+	}
+
+	public void testUnregisteredNamespace() throws IOException {
+		// well-formed document is rejected from its root namespace without building a tree
+		File file = File.createTempFile("svg", ".xml");
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\"><g></g></svg>");
+			writer.close();
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			XmlValidate validator = new XmlValidate();
+			validator.setOutputStream(new PrintStream(bos, true));
+			validator.setMap(new File("ns.map"));
+			validator.validate(file);
+			assertEquals(1, validator.getFileCount());
+			assertEquals(0, validator.getErrors());
+			assertTrue(bos.toString().contains("INFO: namespace not registered: http://www.w3.org/2000/svg"));
+
+			// content after root start tag is not well-formed so error is still reported
+			writer = new FileWriter(file);
+			writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\"><g></svg>");
+			writer.close();
+			validator.validate(file);
+			assertEquals(2, validator.getFileCount());
+			assertEquals(1, validator.getErrors());
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testDedup() throws IOException {
+		File dir = File.createTempFile("dedup", "");
+		assertTrue(dir.delete() && dir.mkdir());
+		try {
+			byte[] kml = Files.readAllBytes(new File("data/kml/placemark.kml").toPath());
+			byte[] bad = "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Placemark></kml>".getBytes("UTF-8");
+			for (int i = 1; i <= 2; i++) {
+				Files.write(new File(dir, "copy" + i + ".kml").toPath(), kml);
+				Files.write(new File(dir, "bad" + i + ".kml").toPath(), bad);
+			}
+			ByteArrayOutputStream fullOut = new ByteArrayOutputStream();
+			XmlValidate full = createGpxValidator(fullOut, true);
+			full.validate(dir);
+			full.dumpStatus();
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			XmlValidate validator = createGpxValidator(bos, true);
+			validator.setDedup(true);
+			validator.validate(dir);
+			validator.dumpStatus();
+
+			assertEquals(4, validator.getFileCount());
+			assertEquals(2, validator.getDuplicateIndex().getDuplicates());
+			assertEquals(kml.length + bad.length, validator.getDuplicateIndex().getBytesSkipped());
+			assertEquals(full.getErrors(), validator.getErrors());
+			assertEquals(full.getWarnings(), validator.getWarnings());
+			// errors are attributed to every copy
+			String output = bos.toString();
+			assertTrue(output.contains(new File(dir, "bad1.kml").toString()));
+			assertTrue(output.contains(new File(dir, "bad2.kml").toString()));
+			assertEquals(getLines(fullOut, "Valid files"), getLines(bos, "Valid files"));
+			assertEquals(getLines(fullOut, "xmlns="), getLines(bos, "xmlns="));
+
+			// without summary the messages of each copy with errors are printed
+			fullOut.reset();
+			full = createGpxValidator(fullOut, false);
+			full.validate(dir);
+			bos.reset();
+			validator = createGpxValidator(bos, false);
+			validator.setDedup(true);
+			validator.validate(dir);
+			assertEquals(1, validator.getDuplicateIndex().getDuplicates());
+			assertEquals(full.getErrors(), validator.getErrors());
+			assertEquals(fullOut.toString(), bos.toString());
+		} finally {
+			for (File f : dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testArchive() {
+		// data/archive/kml.tar.gz has kml/placemark.kml, kml/sub/badColor.kml and kml/sub/nested.kmz
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XmlValidate validator = createGpxValidator(bos, false);
+		validator.setKmzMode(true);
+		validator.setArchiveMode(true);
+		validator.validate(new File("data/archive"));
+
+		ByteArrayOutputStream fullOut = new ByteArrayOutputStream();
+		XmlValidate full = createGpxValidator(fullOut, false);
+		full.setKmzMode(true);
+		full.validate(new File("data/kml/placemark.kml"));
+		full.validate(new File("data/bad/badColor.kml"));
+		full.validate(new File("data/kmz/nested.kmz"));
+
+		assertEquals(5, validator.getFileCount());
+		assertEquals(full.getErrors(), validator.getErrors());
+		assertEquals(full.getWarnings(), validator.getWarnings());
+		String output = bos.toString();
+		assertTrue(output.contains("kml.tar.gz!/kml/sub/badColor.kml"));
+	}
+
+	public void testArchiveLimits() throws IOException {
+		// KMZ file with a 4MB run of whitespace that compresses over 1000:1
+		File file = File.createTempFile("bomb", ".kmz");
+		try {
+			try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+				zos.putNextEntry(new ZipEntry("doc.kml"));
+				zos.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>".getBytes("UTF-8"));
+				byte[] spaces = new byte[8192];
+				java.util.Arrays.fill(spaces, (byte) ' ');
+				for (int i = 0; i < 512; i++) zos.write(spaces);
+				zos.write("</Document></kml>".getBytes("UTF-8"));
+				zos.closeEntry();
+			}
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			XmlValidate validator = createGpxValidator(bos, true);
+			validator.validate(file);
+			assertEquals(1, validator.getErrors());
+			validator.dumpStatus();
+			assertTrue(bos.toString().contains("ERROR: archive limit: " + ArchiveLimitException.RATIO));
+
+			// same file within limits
+			bos.reset();
+			validator = createGpxValidator(bos, true);
+			validator.getArchiveLimits().setMaxRatio(0);
+			validator.validate(file);
+			assertEquals(0, validator.getErrors());
+
+			bos.reset();
+			validator = createGpxValidator(bos, false);
+			validator.getArchiveLimits().setMaxRatio(0);
+			validator.getArchiveLimits().setMaxEntrySize(1024 * 1024);
+			validator.validate(file);
+			assertEquals(1, validator.getErrors());
+			assertTrue(bos.toString().contains("archive limit exceeded: entry doc.kml"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testSkippedEntryLimits() throws IOException {
+		// 4MB entry that is not validated precedes the KML entry so it is only skipped
+		File dir = Files.createTempDirectory("skip").toFile();
+		File zip = new File(dir, "skip.zip");
+		File kmz = new File(dir, "skip.kmz");
+		try {
+			for (File file : new File[] { zip, kmz }) {
+				try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+					zos.putNextEntry(new ZipEntry("x.bin"));
+					byte[] zeros = new byte[8192];
+					for (int i = 0; i < 512; i++) zos.write(zeros);
+					zos.closeEntry();
+					zos.putNextEntry(new ZipEntry("doc.kml"));
+					zos.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\"/>".getBytes("UTF-8"));
+					zos.closeEntry();
+				}
+			}
+			for (boolean ratio : new boolean[] { true, false }) {
+				String expected = "archive limit: " + (ratio ? ArchiveLimitException.RATIO : ArchiveLimitException.TOTAL_SIZE);
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				XmlValidate validator = createGpxValidator(bos, true);
+				validator.setArchiveMode(true);
+				if (!ratio) {
+					validator.getArchiveLimits().setMaxRatio(0);
+					validator.getArchiveLimits().setMaxTotalSize(1024 * 1024);
+				}
+				// zip archive explored as a stream
+				validator.validate(zip);
+				// KMZ read from URL
+				validator.validate(new UrlResource(new PrintStream(bos, true), kmz.toURI().toURL(), null));
+				validator.dumpStatus();
+				assertEquals(2, validator.getErrors());
+				String output = bos.toString();
+				assertTrue(output, output.contains("ERROR: " + expected));
+				assertTrue(output, output.contains("x.bin"));
+			}
+		} finally {
+			zip.delete();
+			kmz.delete();
+			dir.delete();
+		}
+	}
+
+	public void testMultiSchema() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(bos, true));
+		validator.setSummary(true);
+		validator.addTarget("http://earth.google.com/kml/2.1", "schemas/kml21.xsd");
+		validator.addTarget("http://www.opengis.net/kml/2.2", "schemas/kml22.xsd");
+		Set<String> extensionSet = validator.getExtensionSet();
+		extensionSet.clear();
+		extensionSet.add("kml");
+		validator.validate(new File("data/kml"));
+		validator.dumpStatus();
+
+		List<MultiSchemaValidator.Target> targets = validator.getMultiSchemaValidator().getTargets();
+		assertEquals(2, targets.size());
+		long errors = 0;
+		for (MultiSchemaValidator.Target t : targets) {
+			assertEquals(validator.getFileCount(), t.getFiles());
+			errors += t.getErrors();
+		}
+		assertEquals(validator.getErrors(), errors);
+		// same document is not valid against both KML 2.1 and 2.2 schemas
+		assertTrue(targets.get(0).getValid() < validator.getFileCount()
+				|| targets.get(1).getValid() < validator.getFileCount());
+		assertTrue(bos.toString().contains("Targets:"));
+	}
+
+	public void testTargetPosition() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		XmlValidate validator = new XmlValidate();
+		validator.setOutputStream(new PrintStream(bos, true));
+		validator.addTarget("http://earth.google.com/kml/2.1", "schemas/kml21.xsd");
+		validator.addTarget("http://www.opengis.net/kml/2.2", "schemas/kml22.xsd");
+		validator.validate(new File("data/bad/badColor.kml"));
+		String output = bos.toString();
+		// color without alpha value on line 8 of badColor.kml
+		assertTrue(output, output.contains("Line: 8, column: 16, element: /kml/Placemark/Style/IconStyle/color"));
+	}
+
+	public void testDumpFileName() {
+		String name = DumpWriter.getFileName("/data/a/b.kml");
+		assertTrue(name, name.startsWith("data_a_b.kml-") && name.endsWith(".dump"));
+		assertEquals(name, DumpWriter.getFileName("/data/a/b.kml"));
+		// names that flatten to the same name are kept apart
+		assertFalse(name.equals(DumpWriter.getFileName("/data/a_b.kml")));
+		assertFalse(name.equals(DumpWriter.getFileName("data/a/b.kml")));
+	}
+
+	public void testDumpDir() throws IOException {
+		File dir = File.createTempFile("dump", "");
+		assertTrue(dir.delete());
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			XmlValidate validator = createGpxValidator(bos, false);
+			validator.setDumpLevel(2);
+			validator.setDumpLimit(20);
+			validator.setDumpDir(dir);
+			File file = new File("data/kml/placemark.kml");
+			validator.validate(file);
+			validator.dumpStatus();
+			File dump = new File(dir, DumpWriter.getFileName(file.toString()));
+			assertTrue(bos.toString().contains("dump: " + dump));
+			String content = new String(Files.readAllBytes(dump.toPath()), "UTF-8");
+			assertEquals(23, content.length());
+			assertTrue(content.startsWith("<?xml"));
+			assertTrue(content.endsWith("..."));
+			validator.setDumpDir(null); // stops writer thread
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) for (File f : files) f.delete();
+			dir.delete();
+		}
+	}
+
+	public void testTimeout() {
+		XmlValidate validator = new XmlValidate();
+		validator.setSummary(true);
+		validator.setMap(new File("ns.map"));
+		// long enough to load the schema of the next resource when run cold
+		validator.setTimeout(2000);
+		long start = System.currentTimeMillis();
+		validator.validate(new SlowResource());
+		// next resource must still be validated after the timeout
+		validator.validate(new File("data/kml/placemark.kml"));
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		validator.dumpStatus();
+		assertEquals(2, validator.getFileCount());
+		assertEquals(1, validator.getErrors());
+	}
+
+	public void testHeaderTimeout() throws IOException {
+		// server sends response headers one byte at a time, more often than the read timeout
+		final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						Thread writer = new Thread(new Runnable() {
+							public void run() {
+								try (Socket s = socket) {
+									OutputStream out = s.getOutputStream();
+									out.write("HTTP/1.0 200 OK\r\nX-Slow: ".getBytes("US-ASCII"));
+									while (true) {
+										out.write('x');
+										out.flush();
+										Thread.sleep(100);
+									}
+								} catch (IOException | InterruptedException e) {
+									// client disconnected
+								}
+							}
+						});
+						writer.setDaemon(true);
+						writer.start();
+					} catch (IOException e) {
+						// server closed
+					}
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		File cacheDir = Files.createTempDirectory("cache").toFile();
+		try {
+			URL url = new URL("http://127.0.0.1:" + server.getLocalPort() + "/slow.kml");
+			for (boolean cached : new boolean[] { false, true }) {
+				XmlValidate validator = new XmlValidate();
+				validator.setSummary(true);
+				validator.setMap(new File("ns.map"));
+				if (cached) validator.setHttpCache(new HttpCache(cacheDir));
+				validator.setTimeout(1000);
+				long start = System.currentTimeMillis();
+				validator.validate(new UrlResource(System.out, url, null));
+				assertTrue(System.currentTimeMillis() - start < 5000);
+				assertEquals(1, validator.getErrors());
+			}
+		} finally {
+			server.close();
+			File[] files = cacheDir.listFiles();
+			if (files != null) for (File f : files) f.delete();
+			cacheDir.delete();
+		}
+	}
+
+	public void testSerializeCancelled() throws IOException, JDOMException {
+		FileResource res = new FileResource(System.out, new File("data/kml/placemark.kml"), null);
+		res.getDocument(new SAXBuilder());
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		res.setCancellationToken(token);
+		try {
+			res.serialize();
+			fail("serialize must check token");
+		} catch (InterruptedIOException e) {
+			// expected
+		}
+		assertEquals(-1, res.getXmlContentLength());
+	}
+
+	/**
+	 * Resource whose content trickles in one byte at a time and never ends.
+	 */
+	private static class SlowResource extends Resource {
+
+		SlowResource() {
+			super(System.out, "slow.kml", null);
+		}
+
+		@Override
+		public String getSource() {
+			return targetFile;
+		}
+
+		@Override
+		public <T> T read(InputReader<T> reader) throws JDOMException, IOException {
+			return reader.read(wrap(new InputStream() {
+				private final byte[] header = "<kml xmlns=\"http://www.opengis.net/kml/2.2\">".getBytes("UTF-8");
+				private int pos;
+
+				@Override
+				public int read() throws IOException {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					return pos < header.length ? header[pos++] : ' ';
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0) return 0;
+					int c = read();
+					b[off] = (byte) c;
+					return 1;
+				}
+			}), targetFile);
+		}
+	}
 }
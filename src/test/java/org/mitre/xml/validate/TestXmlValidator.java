@@ -0,0 +1,159 @@
+package org.mitre.xml.validate;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jason Mathews
+ */
+public class TestXmlValidator extends TestCase {
+
+	private static XmlValidator createValidator(boolean kmzMode) {
+		return createValidator(kmzMode, false);
+	}
+
+	private static XmlValidator createValidator(boolean kmzMode, boolean semanticChecks) {
+		ValidationConfig config = new ValidationConfig();
+		config.setMapFile(new File("ns.map"));
+		config.setKmlMode(true);
+		config.setKmzMode(kmzMode);
+		config.setSemanticChecks(semanticChecks);
+		return new XmlValidator(config);
+	}
+
+	public void testValidate() throws IOException {
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bos, true));
+		try {
+			XmlValidator validator = createValidator(false);
+			byte[] data = Files.readAllBytes(new File("data/kml/placemark.kml").toPath());
+			ValidationResult result = validator.validate(data, null);
+			assertTrue(result.isValidated());
+			assertTrue(result.isValid());
+			assertEquals("kml", result.getRootName());
+			assertEquals(0, result.getIssues().size());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+			direct.put(data).flip();
+			result = validator.validate(direct, "placemark.kml");
+			assertTrue(result.isValid());
+			assertEquals(0, direct.position());
+
+			result = validator.validate(new File("data/bad/badColor.kml").toPath());
+			assertTrue(result.isValidated());
+			assertFalse(result.isValid());
+			assertTrue(result.getErrors() > 0);
+			ValidationResult.Issue issue = result.getIssues().get(0);
+			assertEquals(ValidationResult.Severity.ERROR, issue.getSeverity());
+			assertNotNull(issue.getCode());
+			assertTrue(issue.getLine() > 0);
+			assertNotNull(issue.getContext());
+
+			result = validator.validate("<kml><Placemark></kml>".getBytes("UTF-8"), null);
+			assertFalse(result.isValidated());
+			assertEquals(ValidationResult.Severity.FATAL, result.getIssues().get(0).getSeverity());
+			assertEquals(1, result.getIssues().get(0).getLine());
+		} finally {
+			System.setOut(stdout);
+		}
+		assertEquals(0, bos.size());
+	}
+
+	public void testNoConsoleOutput() throws IOException {
+		String cot = new String(Files.readAllBytes(new File("data/xml/cot.xml").toPath()), "UTF-8");
+		// schemaLocation of no-namespace document is removed with a notice
+		byte[] data = cot.replace("<event ", "<event xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+				+ " xsi:schemaLocation=\"urn:x x.xsd\" ").getBytes("UTF-8");
+		PrintStream stderr = System.err;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(bos, true));
+		try {
+			ValidationConfig config = new ValidationConfig();
+			config.setSchema(new File("schemas/Event.xsd"));
+			XmlValidator validator = new XmlValidator(config);
+			for (int i = 0; i < 3; i++) {
+				assertTrue(validator.validate(data, null).isValid());
+			}
+		} finally {
+			System.setErr(stderr);
+		}
+		assertEquals("", bos.toString());
+	}
+
+	public void testSemanticChecks() throws IOException {
+		String kml = "<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n" +
+				"<Document><Placemark><LineString><coordinates>\n" +
+				"-122.08,37.42,0 1.5e1,-90 180.000000,90.0,12\n" +
+				"</coordinates></LineString></Placemark>\n" +
+				"<Placemark><gx:Track><when>2026-10-18T12:00:00Z</when>" +
+				"<gx:coord>-122.08 37.42 0</gx:coord><gx:angles>45 90 -10</gx:angles></gx:Track></Placemark>\n" +
+				"</Document></kml>";
+		XmlValidator validator = createValidator(false, true);
+		ValidationResult result = validator.validate(kml.getBytes("UTF-8"), null);
+		assertTrue(result.toString(), result.isValid());
+
+		byte[] bad = kml.replace("1.5e1,-90", "1.5e1,-90.5 3,,4 5").replace("45 90", "45 190").getBytes("UTF-8");
+		result = validator.validate(bad, null);
+		assertTrue(result.isValidated());
+		// first bad tuple, count of other bad tuples and gx:angles
+		assertEquals(3, result.getErrors());
+		ValidationResult.Issue issue = result.getIssues().get(0);
+		assertEquals("semantic-range", issue.getCode());
+		assertTrue(issue.getLine() > 0);
+		assertTrue(issue.getContext().contains("-90.5"));
+		assertEquals("semantic-tuple", result.getIssues().get(1).getCode());
+		assertEquals("semantic-range", result.getIssues().get(2).getCode());
+
+		// values are not checked unless enabled
+		assertTrue(createValidator(false).validate(bad, null).isValid());
+	}
+
+	public void testKmz() throws IOException {
+		ValidationResult result = createValidator(true).validate(new File("data/kmz/nested.kmz").toPath());
+		assertTrue(result.isValidated());
+		assertTrue(result.getSystemId().endsWith("!/doc.kml"));
+		assertEquals(2, result.getEntries().size());
+
+		result = createValidator(false).validate(new File("data/kmz/nested.kmz").toPath());
+		assertTrue(result.isValidated());
+		assertEquals(0, result.getEntries().size());
+	}
+
+	public void testThreads() throws Exception {
+		final XmlValidator validator = createValidator(false);
+		final byte[] good = Files.readAllBytes(new File("data/kml/placemark.kml").toPath());
+		final byte[] bad = Files.readAllBytes(new File("data/bad/badColor.kml").toPath());
+		final int expected = validator.validate(bad, null).getErrors();
+		final List<Throwable> failures = new ArrayList<>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 10; j++) {
+							if (!validator.validate(good, null).isValid()
+									|| validator.validate(bad, null).getErrors() != expected)
+								throw new AssertionError("unexpected result");
+						}
+					} catch (Throwable t) {
+						synchronized (failures) {
+							failures.add(t);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) t.join();
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+}